@@ -0,0 +1,167 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jena.cassandra.graph;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.jena.sparql.core.Quad;
+import org.apache.thrift.TException;
+
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Statement;
+
+/**
+ * A table that is maintained alongside the quad tables, for example a table
+ * of statistics or a lookup index.
+ *
+ * Auxiliary tables are registered with the CassandraConnection. They are
+ * created, truncated and deleted with the quad tables, and the statements
+ * they return for each inserted or deleted quad are executed with the
+ * statements that write the quad tables. The prerequisite statements of an
+ * inserted quad are executed before them.
+ *
+ */
+public interface AuxiliaryTable {
+
+	/**
+	 * Get the name of the table.
+	 *
+	 * @return the table name.
+	 */
+	String getName();
+
+	/**
+	 * Get the create table statements. The first statement must complete
+	 * before the remaining statements are executed.
+	 *
+	 * @return the table (and index) creation statements.
+	 */
+	String[] getCreateTableStatements();
+
+	/**
+	 * Get the delete table statements.
+	 *
+	 * @return an iterator on the table (and index) delete statements.
+	 */
+	Iterator<String> getDeleteTableStatements();
+
+	/**
+	 * Get the statements to execute when a quad is inserted.
+	 *
+	 * @param keyspace
+	 *            The keyspace the quad is inserted in.
+	 * @param quad
+	 *            The quad. All the nodes are concrete.
+	 * @return the statements, may be empty.
+	 * @throws TException
+	 *             on encoding error.
+	 */
+	List<Statement> getInsertStatements(String keyspace, Quad quad) throws TException;
+
+	/**
+	 * Get the statements that must complete before the statements that write
+	 * an inserted quad are executed, for example to store a value that the
+	 * quad tables refer to. If any of them fails the quad is not written.
+	 *
+	 * @param keyspace
+	 *            The keyspace the quad is inserted in.
+	 * @param quad
+	 *            The quad. All the nodes are concrete.
+	 * @return the statements, may be empty.
+	 * @throws TException
+	 *             on encoding error.
+	 */
+	default List<Statement> getPrerequisiteStatements(String keyspace, Quad quad) throws TException {
+		return Collections.emptyList();
+	}
+
+	/**
+	 * Called with the result of each prerequisite statement of an inserted
+	 * quad that succeeded. The statements returned must also complete before
+	 * the quad is written, for example to try again with other values when a
+	 * conditional statement did not apply.
+	 *
+	 * @param keyspace
+	 *            The keyspace the quad is inserted in.
+	 * @param quad
+	 *            The quad.
+	 * @param statement
+	 *            The prerequisite statement returned by this table.
+	 * @param result
+	 *            The result of the statement.
+	 * @return the further prerequisite statements, may be empty.
+	 * @throws TException
+	 *             if the quad can not be written.
+	 */
+	default List<Statement> prerequisiteExecuted(String keyspace, Quad quad, Statement statement,
+			ResultSet result) throws TException {
+		return Collections.emptyList();
+	}
+
+	/**
+	 * Called once the prerequisite statements of an inserted quad have all
+	 * completed.
+	 *
+	 * @param keyspace
+	 *            The keyspace the quad is inserted in.
+	 * @param quad
+	 *            The quad.
+	 */
+	default void prerequisitesWritten(String keyspace, Quad quad) {
+	}
+
+	/**
+	 * Get the statements to execute when a quad that exists is deleted.
+	 *
+	 * @param keyspace
+	 *            The keyspace the quad is deleted from.
+	 * @param quad
+	 *            The quad. All the nodes are concrete.
+	 * @return the statements, may be empty.
+	 * @throws TException
+	 *             on encoding error.
+	 */
+	List<Statement> getDeleteStatements(String keyspace, Quad quad) throws TException;
+
+	/**
+	 * Check if the statements of the table count the quads, so they must be
+	 * executed once for each quad that is added to or removed from the
+	 * keyspace. The SPOG row of an inserted quad is then written with IF NOT
+	 * EXISTS and the insert statements of the table are only executed if it
+	 * applied, that is if the quad is new. Likewise the SPOG row of a deleted
+	 * quad is deleted with IF EXISTS and the delete statements are only
+	 * executed if it applied.
+	 *
+	 * @return true if the table counts the quads.
+	 */
+	default boolean isCounting() {
+		return false;
+	}
+
+	/**
+	 * Forget what is cached about the rows of the table in the keyspace.
+	 * Called after the tables of the keyspace are truncated or deleted.
+	 *
+	 * @param keyspace
+	 *            The keyspace whose tables were emptied.
+	 */
+	default void clearCache(String keyspace) {
+	}
+}
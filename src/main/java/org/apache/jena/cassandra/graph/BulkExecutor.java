@@ -17,21 +17,66 @@
  */
 package org.apache.jena.cassandra.graph;
 
+import java.nio.ByteBuffer;
 import java.util.Iterator;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import com.datastax.driver.core.ResultSetFuture;
+import org.apache.jena.sparql.core.Quad;
+import org.apache.jena.util.iterator.WrappedIterator;
+
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.ColumnDefinitions;
+import com.datastax.driver.core.ResultSet;
 import com.datastax.driver.core.Session;
+import com.datastax.driver.core.SimpleStatement;
+import com.datastax.driver.core.Statement;
+import com.datastax.driver.core.utils.Bytes;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.MoreExecutors;
 
 /**
  * Class to perform bulk operations on the Cassandra database.
+ * 
+ * The number of statements in flight is bounded by a ConcurrencyLimiter.
+ * Once the limit is reached execute() blocks until earlier statements
+ * complete so that a large load runs at the rate the cluster can sustain.
+ * 
+ * Completion is event driven: each future decrements the pending count when
+ * it completes and the last one to complete wakes any thread waiting in
+ * awaitFinish(). The outcome of every statement is recorded in an
+ * ExecutionReport.
+ * 
+ * Failed statements are retried according to the WriteRetryPolicy. A statement
+ * keeps its permit while it waits to be retried so a struggling cluster slows
+ * the load down rather than building up a backlog of retries. Statements
+ * executed on behalf of a quad that still fail after their retries are sent to
+ * the DeadLetterSink if there is one.
+ * 
+ * A statement may be executed with a function of its result that is run once
+ * it succeeds, for example to execute the statements that must only be
+ * written after it or only if a conditional statement applied. The functions
+ * run on a thread of the executor as the driver threads that complete the
+ * futures must not block waiting for a permit.
  *
  */
 public class BulkExecutor {
 
+	/*
+	 * The number of seconds the thread that runs the functions of the results
+	 * is kept while it is idle.
+	 */
+	private static final long DEPENDENTS_KEEP_ALIVE = 10;
+
+	private static final AtomicInteger EXECUTOR_COUNT = new AtomicInteger();
+
 	private Log log;
 
 	/*
@@ -40,16 +85,36 @@ public class BulkExecutor {
 	private Session session;
 
 	/*
-	 * this is a map of all ResultSetFutures and the Runnables that are
-	 * registered as their listener. when the future completes the runnable
-	 * removes the future from the map.
+	 * Limits the number of statements in flight.
+	 */
+	private final ConcurrencyLimiter limiter;
+
+	/*
+	 * Determines which failed statements are retried.
+	 */
+	private final WriteRetryPolicy retryPolicy;
+
+	/*
+	 * Receives the quads that could not be written. May be null.
+	 */
+	private final DeadLetterSink deadLetterSink;
+
+	/*
+	 * The number of statements that have been submitted but not completed.
+	 */
+	private final AtomicLong pending = new AtomicLong();
+
+	/*
+	 * The outcome of the statements.
 	 */
-	private ConcurrentHashMap<Runnable, ResultSetFuture> map = new ConcurrentHashMap<>();
+	private final ExecutionReport report = new ExecutionReport();
 
 	/*
-	 * The service that executest the runnables.
+	 * Runs the functions of the results. Each executor has its own thread as
+	 * the functions block while this executor's limiter is at its limit. The
+	 * thread stops when it is idle.
 	 */
-	private ExecutorService executor = Executors.newSingleThreadExecutor();
+	private final ThreadPoolExecutor dependents;
 
 	/**
 	 * Constructor.
@@ -58,8 +123,66 @@ public class BulkExecutor {
 	 *            The Cassandra session to use.
 	 */
 	public BulkExecutor(Session session) {
+		this(session, new ConcurrencyLimiter(ConcurrencyLimiter.DEFAULT_MAX_IN_FLIGHT));
+	}
+
+	/**
+	 * Constructor. Failed statements are not retried.
+	 * 
+	 * @param session
+	 *            The Cassandra session to use.
+	 * @param limiter
+	 *            The limiter for the number of statements in flight.
+	 */
+	public BulkExecutor(Session session, ConcurrencyLimiter limiter) {
+		this(session, limiter, WriteRetryPolicy.NONE, null);
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param session
+	 *            The Cassandra session to use.
+	 * @param limiter
+	 *            The limiter for the number of statements in flight.
+	 * @param retryPolicy
+	 *            The policy for retrying failed statements.
+	 * @param deadLetterSink
+	 *            The sink for quads that could not be written. May be null.
+	 */
+	public BulkExecutor(Session session, ConcurrencyLimiter limiter, WriteRetryPolicy retryPolicy,
+			DeadLetterSink deadLetterSink) {
 		this.session = session;
+		this.limiter = limiter;
+		this.retryPolicy = retryPolicy;
+		this.deadLetterSink = deadLetterSink;
 		this.log = LogFactory.getLog(BulkExecutor.class.getName() + "." + hashCode());
+		String name = "cassandra-write-dependents-" + EXECUTOR_COUNT.incrementAndGet();
+		this.dependents = new ThreadPoolExecutor(1, 1, DEPENDENTS_KEEP_ALIVE, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), r -> {
+					Thread t = new Thread(r, name);
+					t.setDaemon(true);
+					return t;
+				});
+		this.dependents.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Get the concurrency limiter for this executor.
+	 * 
+	 * @return the concurrency limiter.
+	 */
+	public ConcurrencyLimiter getLimiter() {
+		return limiter;
+	}
+
+	/**
+	 * Get the report of the statements executed so far.
+	 * 
+	 * @return the execution report.
+	 */
+	public ExecutionReport getReport() {
+		return report;
 	}
 
 	/**
@@ -88,77 +211,262 @@ public class BulkExecutor {
 	 *            An iterator of statements to execute.
 	 */
 	public void execute(Iterator<String> statements) {
+		executeStatements(WrappedIterator.create(statements).mapWith(SimpleStatement::new));
+	}
+
+	/**
+	 * Execute a number of statements. Generally these are bound prepared
+	 * statements.
+	 * 
+	 * All output from the statements are discarded.
+	 * 
+	 * Statement order is not guaranteed.
+	 * 
+	 * Blocks while the number of statements in flight is at the limit.
+	 * 
+	 * May be called multiple times. May not be called after awaitFinish().
+	 * 
+	 * @see awaitFinish
+	 * 
+	 * @param statements
+	 *            An iterator of statements to execute.
+	 */
+	public void executeStatements(Iterator<? extends Statement> statements) {
+		executeStatements(null, statements);
+	}
+
+	/**
+	 * Execute the statements that write a quad. Generally these are the bound
+	 * prepared inserts for each table.
+	 * 
+	 * Statements that fail after their retries are sent to the dead letter sink
+	 * with the quad.
+	 * 
+	 * @see #executeStatements(Iterator)
+	 * 
+	 * @param quad
+	 *            The quad the statements write. May be null.
+	 * @param statements
+	 *            An iterator of statements to execute.
+	 */
+	public void executeStatements(Quad quad, Iterator<? extends Statement> statements) {
 		while (statements.hasNext()) {
-			String statement = statements.next();
-
-			/*
-			 * runner runs when future is complete. It simply removes the future
-			 * from the map to show that it is complete.
-			 */
-			Runnable runner = new Runnable() {
-				@Override
-				public void run() {
-					if (log.isDebugEnabled()) {
-						log.debug("finished executing statement: " + statement);
-					}
-					map.remove(this);
-				}
-			};
+			if (!submit(quad, statements.next(), null)) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Execute a statement and, once it succeeds, a function of its result.
+	 * 
+	 * The function runs on a separate thread and may execute further
+	 * statements with this executor, for example the statements that must
+	 * only be written after the statement, or only if a conditional statement
+	 * applied. awaitFinish() waits for the function and for the statements
+	 * it executes.
+	 * 
+	 * If the statement fails after its retries the function is not run and
+	 * the quad is sent to the dead letter sink. If the function throws a
+	 * RuntimeException it is reported as a failure of the quad.
+	 * 
+	 * @param quad
+	 *            The quad the statement writes. May be null.
+	 * @param statement
+	 *            The statement to execute.
+	 * @param then
+	 *            The function of the result of the statement.
+	 */
+	public void executeStatement(Quad quad, Statement statement, Consumer<ResultSet> then) {
+		submit(quad, statement, then);
+	}
+
+	/*
+	 * Submit a statement once a permit is available. Returns false if the
+	 * thread was interrupted waiting for the permit.
+	 */
+	private boolean submit(Quad quad, Statement statement, Consumer<ResultSet> then) {
+		try {
+			limiter.acquire();
+		} catch (InterruptedException e) {
+			log.error("Interrupted waiting to execute statement: " + describe(statement), e);
+			Thread.currentThread().interrupt();
+			return false;
+		}
+
+		pending.incrementAndGet();
+		report.submitted();
+		if (log.isDebugEnabled()) {
+			log.debug("executing statement: " + describe(statement));
+		}
+		/*
+		 * the completion runs on the driver thread that completes the future.
+		 * It only updates counters so it does not need an executor of its own.
+		 */
+		RetryingWrite write = RetryingWrite.execute(session, statement, retryPolicy, (error, latency) -> {
+			limiter.record(latency, error);
+			report.retried();
 			if (log.isDebugEnabled()) {
-				log.debug("executing statement: " + statement);
+				log.debug(String.format("retrying statement after %s: %s", error, describe(statement)));
+			}
+		});
+		Futures.addCallback(write, new Completion(quad, statement, write, then), MoreExecutors.directExecutor());
+		return true;
+	}
+
+	/**
+	 * Record a quad that could not be written before any of its statements
+	 * were executed, for example because it could not be encoded. It is
+	 * counted as a submitted statement that failed and is sent to the dead
+	 * letter sink.
+	 * 
+	 * @param quad
+	 *            The quad.
+	 * @param description
+	 *            A description of the write that failed.
+	 * @param error
+	 *            The error.
+	 */
+	public void fail(Quad quad, String description, Throwable error) {
+		report.submitted();
+		report.failed(description, error);
+		log.error(String.format("Unable to write %s: %s", quad, description), error);
+		deadLetter(quad, description, error);
+	}
+
+	/*
+	 * Send a quad to the dead letter sink if there is one.
+	 */
+	private void deadLetter(Quad quad, String text, Throwable error) {
+		if (quad != null && deadLetterSink != null) {
+			try {
+				deadLetterSink.deadLetter(quad, text, error);
+				report.deadLettered();
+			} catch (RuntimeException e) {
+				log.error("Unable to dead letter " + quad, e);
 			}
-			ResultSetFuture rsf = session.executeAsync(statement);
-			/*
-			 * the map keeps a reference to the ResultSetFuture so we can track
-			 * when all futures have executed
-			 */
-			map.put(runner, rsf);
-			// the ResultSetFuture will execute the runner on the executor.
-			rsf.addListener(runner, executor);
 		}
 	}
 
 	/**
-	 * Wait for the executor to complete all executions.
-	 */
-	public void awaitFinish() {
-		/* if the map is not empty we need to wait until it is */
-		if (!map.isEmpty()) {
-			/*
-			 * this runnable will check the map and if it is empty notify this
-			 * (calling) thread so it can continue. Otherwise it places itself
-			 * back on the executor queue again.
-			 */
-			Runnable r = new Runnable() {
-				@Override
-				public void run() {
-					synchronized (this) {
-						if (map.isEmpty()) {
-							notify();
-						} else {
-							if (log.isDebugEnabled()) {
-								log.debug("Requeueing for finish");
-							}
-							executor.execute(this);
-						}
+	 * Get the text of a statement for logging. For bound statements the values
+	 * that are set are listed after the query text.
+	 * 
+	 * @param statement
+	 *            the statement.
+	 * @return The CQL text of the statement.
+	 */
+	/* package private */ static String describe(Statement statement) {
+		if (statement instanceof BoundStatement) {
+			BoundStatement bound = (BoundStatement) statement;
+			StringBuilder sb = new StringBuilder(bound.preparedStatement().getQueryString());
+			ColumnDefinitions variables = bound.preparedStatement().getVariables();
+			if (variables != null) {
+				String sep = " [";
+				for (int i = 0; i < variables.size(); i++) {
+					if (bound.isSet(i)) {
+						Object value = bound.getObject(i);
+						sb.append(sep).append(variables.getName(i)).append("=")
+								.append(value instanceof ByteBuffer ? Bytes.toHexString((ByteBuffer) value) : value);
+						sep = ", ";
 					}
 				}
-			};
-			synchronized (r) {
-				try {
-					/*
-					 * place the runnable on the executor thread and then wait
-					 * to be notified. We will be notified when all the
-					 * statements have been executed
-					 */
-					executor.execute(r);
-					r.wait();
-				} catch (InterruptedException e) {
-					log.error("Interrupted waiting for map to clear", e);
+				if (!" [".equals(sep)) {
+					sb.append("]");
+				}
+			}
+			return sb.toString();
+		}
+		return statement.toString();
+	}
+
+	/**
+	 * Wait for all the statements to complete.
+	 * 
+	 * @return The report of the statements executed.
+	 */
+	public ExecutionReport awaitFinish() {
+		synchronized (pending) {
+			try {
+				while (pending.get() > 0) {
+					pending.wait();
 				}
+			} catch (InterruptedException e) {
+				log.error("Interrupted waiting for statements to complete", e);
+				Thread.currentThread().interrupt();
+			}
+		}
+		if (report.hasFailures()) {
+			log.error("Bulk execution had failures: " + report);
+		} else if (log.isDebugEnabled()) {
+			log.debug("Bulk execution complete: " + report);
+		}
+		return report;
+	}
+
+	/*
+	 * Mark a statement complete and wake any waiting threads if it was the last
+	 * one.
+	 */
+	private void complete() {
+		if (pending.decrementAndGet() == 0) {
+			synchronized (pending) {
+				pending.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Callback executed when a statement completes.
+	 */
+	private class Completion implements FutureCallback<ResultSet> {
+		private final Quad quad;
+		private final Statement statement;
+		private final RetryingWrite write;
+		private final Consumer<ResultSet> then;
+
+		Completion(Quad quad, Statement statement, RetryingWrite write, Consumer<ResultSet> then) {
+			this.quad = quad;
+			this.statement = statement;
+			this.write = write;
+			this.then = then;
+		}
+
+		@Override
+		public void onSuccess(ResultSet result) {
+			limiter.release(System.nanoTime() - write.getAttemptStart(), null);
+			report.succeeded();
+			if (write.getRetries() > 0) {
+				report.recovered();
+			}
+			if (log.isDebugEnabled()) {
+				log.debug("finished executing statement: " + describe(statement));
 			}
+			if (then != null) {
+				/* the function is pending until it returns */
+				pending.incrementAndGet();
+				dependents.execute(() -> {
+					try {
+						then.accept(result);
+					} catch (RuntimeException e) {
+						fail(quad, "after " + describe(statement), e);
+					} finally {
+						complete();
+					}
+				});
+			}
+			complete();
+		}
+
+		@Override
+		public void onFailure(Throwable t) {
+			limiter.release(System.nanoTime() - write.getAttemptStart(), t);
+			String text = describe(statement);
+			report.failed(text, t);
+			log.error(String.format("failed executing statement after %s retries: %s", write.getRetries(), text), t);
+			deadLetter(quad, text, t);
+			complete();
 		}
-		executor.shutdown();
 	}
 
 }
@@ -17,12 +17,16 @@
  */
 package org.apache.jena.cassandra.graph;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.apache.jena.assembler.Assembler;
 import org.apache.jena.cassandra.assembler.VocabCassandra;
 import org.apache.jena.rdf.model.ModelFactory;
@@ -58,6 +62,64 @@ import com.datastax.driver.core.Cluster;
  * false.</dd>
  * <dt>keyspace</dt>
  * <dd>The keyspace within th Cassandra server to store tables in.</dd>
+ * <dt>maxinflight</dt>
+ * <dd>The maximum number of asynchronous inserts in flight for each URL being
+ * loaded. Optional, default is 512.</dd>
+ * <dt>adaptive</dt>
+ * <dd>Adapt the number of inserts in flight to the latency and errors reported
+ * by the cluster. Optional. Values must be "true" or "false". Default is
+ * false.</dd>
+ * <dt>retries</dt>
+ * <dd>The number of times a failed insert is retried. Optional, default is
+ * 5.</dd>
+ * <dt>deadletter</dt>
+ * <dd>A file to append the quads that could not be written to as N-Quads. The
+ * file can be loaded again once the cluster has recovered. Optional.</dd>
+ * <dt>counts</dt>
+ * <dd>Maintain the quad counts in the QUAD_COUNT table and the class instance
+ * counts in the CLASS_COUNT table. Must be used for every load into the
+ * keyspace for the counts to be complete. Optional. Values must be "true" or
+ * "false". Default is false.</dd>
+ * <dt>languages</dt>
+ * <dd>Maintain the LANGUAGE lookup table of literals by predicate and
+ * language. Must be used for every load into the keyspace for the table to
+ * be complete; data loaded without it must be added with
+ * PredicateIndexTable.rebuild(). Optional. Values must be "true" or "false".
+ * Default is false.</dd>
+ * <dt>numbers</dt>
+ * <dd>Maintain the NUMERIC lookup table of numeric literals by predicate and
+ * value. Must be used for every load into the keyspace for the table to be
+ * complete; data loaded without it must be added with
+ * PredicateIndexTable.rebuild(). Optional. Values must be "true" or "false".
+ * Default is false.</dd>
+ * <dt>times</dt>
+ * <dd>Maintain the TEMPORAL lookup table of date and date time literals by
+ * predicate and time. Must be used for every load into the keyspace for the
+ * table to be complete; data loaded without it must be added with
+ * PredicateIndexTable.rebuild(). Optional. Values must be "true" or "false".
+ * Default is false.</dd>
+ * <dt>literals</dt>
+ * <dd>Maintain the LITERAL lookup table of quads by literal object, which is
+ * then used to find literals instead of the secondary indexes. Must be used
+ * for every load into the keyspace for the table to be complete; data loaded
+ * without it must be added with LiteralTable.rebuild(). Optional. Values must
+ * be "true" or "false". Default is false.</dd>
+ * <dt>literalstore</dt>
+ * <dd>Store literals with lexical forms longer than this many characters once
+ * in the LITERAL_STORE table and only their digest in the quad tables. Must
+ * be used with the same value for every load into the keyspace and whenever
+ * it is read. Optional, default is to store every literal in the quad
+ * tables.</dd>
+ * <dt>dictionary</dt>
+ * <dd>Write the 8 byte ids of the nodes to the quad tables and the nodes once
+ * to the NODE_DICTIONARY table. Must be used for every load into the
+ * keyspace and whenever it is read. Optional. Values must be "true" or
+ * "false". Default is false.</dd>
+ * <dt>indexes</dt>
+ * <dd>Whether the quad tables of the keyspace have secondary indexes. If
+ * false the LITERAL lookup table is maintained to find literals instead.
+ * Must match the schema of the keyspace. Optional. Values must be "true" or
+ * "false". Default is true.</dd>
  * </dl>
  * 
  * All other command line options are considered to be URLs to load data from.
@@ -66,6 +128,8 @@ import com.datastax.driver.core.Cluster;
  */
 public class BulkLoader {
 
+	private static final Log LOG = LogFactory.getLog(BulkLoader.class);
+
 	//
 	// Make a cluster
 	// [] rdf:type joc:Cluster ;
@@ -85,6 +149,18 @@ public class BulkLoader {
 	private static String METRICS = "metrics";
 	private static String SSL = "ssl";
 	private static String KEYSPACE = "keyspace";
+	private static String MAX_IN_FLIGHT = "maxinflight";
+	private static String ADAPTIVE = "adaptive";
+	private static String RETRIES = "retries";
+	private static String DEAD_LETTER = "deadletter";
+	private static String COUNTS = "counts";
+	private static String LANGUAGES = "languages";
+	private static String NUMBERS = "numbers";
+	private static String TIMES = "times";
+	private static String LITERALS = "literals";
+	private static String INDEXES = "indexes";
+	private static String LITERAL_STORE = "literalstore";
+	private static String DICTIONARY = "dictionary";
 
 	/**
 	 * Main executable.
@@ -112,6 +188,66 @@ public class BulkLoader {
 	 * is false.</dd>
 	 * <dt>keyspace</dt>
 	 * <dd>The keyspace within th Cassandra server to store tables in.</dd>
+	 * <dt>maxinflight</dt>
+	 * <dd>The maximum number of asynchronous inserts in flight for each URL
+	 * being loaded. Optional, default is 512.</dd>
+	 * <dt>adaptive</dt>
+	 * <dd>Adapt the number of inserts in flight to the latency and errors
+	 * reported by the cluster. Optional. Values must be "true" or "false".
+	 * Default is false.</dd>
+	 * <dt>retries</dt>
+	 * <dd>The number of times a failed insert is retried. Optional, default is
+	 * 5.</dd>
+	 * <dt>deadletter</dt>
+	 * <dd>A file to append the quads that could not be written to as N-Quads.
+	 * The file can be loaded again once the cluster has recovered.
+	 * Optional.</dd>
+	 * <dt>counts</dt>
+	 * <dd>Maintain the quad counts in the QUAD_COUNT table and the class
+	 * instance counts in the CLASS_COUNT table. Must be used for every load
+	 * into the keyspace for the counts to be complete. Optional. Values must
+	 * be "true" or "false". Default is false.</dd>
+	 * <dt>languages</dt>
+	 * <dd>Maintain the LANGUAGE lookup table of literals by predicate and
+	 * language. Must be used for every load into the keyspace for the table
+	 * to be complete; data loaded without it must be added with
+	 * PredicateIndexTable.rebuild(). Optional. Values must be "true" or
+	 * "false". Default is false.</dd>
+	 * <dt>numbers</dt>
+	 * <dd>Maintain the NUMERIC lookup table of numeric literals by predicate
+	 * and value. Must be used for every load into the keyspace for the table
+	 * to be complete; data loaded without it must be added with
+	 * PredicateIndexTable.rebuild(). Optional. Values must be "true" or
+	 * "false". Default is false.</dd>
+	 * <dt>times</dt>
+	 * <dd>Maintain the TEMPORAL lookup table of date and date time literals
+	 * by predicate and time. Must be used for every load into the keyspace
+	 * for the table to be complete; data loaded without it must be added with
+	 * PredicateIndexTable.rebuild(). Optional. Values must be "true" or
+	 * "false". Default is false.</dd>
+	 * <dt>literals</dt>
+	 * <dd>Maintain the LITERAL lookup table of quads by literal object,
+	 * which is then used to find literals instead of the secondary indexes.
+	 * Must be used for every load into the keyspace for the table to be
+	 * complete; data loaded without it must be added with
+	 * LiteralTable.rebuild(). Optional. Values must be "true" or "false".
+	 * Default is false.</dd>
+	 * <dt>literalstore</dt>
+	 * <dd>Store literals with lexical forms longer than this many characters
+	 * once in the LITERAL_STORE table and only their digest in the quad
+	 * tables. Must be used with the same value for every load into the
+	 * keyspace and whenever it is read. Optional, default is to store every
+	 * literal in the quad tables.</dd>
+	 * <dt>dictionary</dt>
+	 * <dd>Write the 8 byte ids of the nodes to the quad tables and the nodes
+	 * once to the NODE_DICTIONARY table. Must be used for every load into the
+	 * keyspace and whenever it is read. Optional. Values must be "true" or
+	 * "false". Default is false.</dd>
+	 * <dt>indexes</dt>
+	 * <dd>Whether the quad tables of the keyspace have secondary indexes. If
+	 * false the LITERAL lookup table is maintained to find literals instead.
+	 * Must match the schema of the keyspace. Optional. Values must be "true"
+	 * or "false". Default is true.</dd>
 	 * </dl>
 	 * 
 	 * All other command line options are considered to be URLs to load data
@@ -122,14 +258,28 @@ public class BulkLoader {
 	 *            The arguments.
 	 * @throws IllegalArgumentException
 	 *             if an argument is not understood.
+	 * @throws IOException
+	 *             if the dead letter file can not be opened.
 	 */
-	public static void main(String[] args) {
+	public static void main(String[] args) throws IOException {
 		Resource cfg = ModelFactory.createMemModelMaker().createDefaultModel().createResource();
 		cfg.addProperty(RDF.type, VocabCassandra.Cluster);
 		cfg.addProperty(VocabCassandra.name, "BulkLoader");
 		Resource cred = null;
 		List<String> urls = new ArrayList<String>();
 		String keyspace = null;
+		Integer maxInFlight = null;
+		boolean adaptive = false;
+		Integer retries = null;
+		String deadLetter = null;
+		boolean counts = false;
+		boolean languages = false;
+		boolean numbers = false;
+		boolean times = false;
+		boolean literals = false;
+		boolean indexes = true;
+		Integer literalStore = null;
+		boolean dictionary = false;
 
 		int i = 0;
 
@@ -164,6 +314,30 @@ public class BulkLoader {
 
 				} else if (KEYSPACE.equals(name)) {
 					keyspace = args[i];
+				} else if (MAX_IN_FLIGHT.equals(name)) {
+					maxInFlight = Integer.valueOf(args[i]);
+				} else if (ADAPTIVE.equals(name)) {
+					adaptive = Boolean.valueOf(args[i]);
+				} else if (RETRIES.equals(name)) {
+					retries = Integer.valueOf(args[i]);
+				} else if (DEAD_LETTER.equals(name)) {
+					deadLetter = args[i];
+				} else if (COUNTS.equals(name)) {
+					counts = Boolean.valueOf(args[i]);
+				} else if (LANGUAGES.equals(name)) {
+					languages = Boolean.valueOf(args[i]);
+				} else if (NUMBERS.equals(name)) {
+					numbers = Boolean.valueOf(args[i]);
+				} else if (TIMES.equals(name)) {
+					times = Boolean.valueOf(args[i]);
+				} else if (LITERALS.equals(name)) {
+					literals = Boolean.valueOf(args[i]);
+				} else if (INDEXES.equals(name)) {
+					indexes = Boolean.valueOf(args[i]);
+				} else if (LITERAL_STORE.equals(name)) {
+					literalStore = Integer.valueOf(args[i]);
+				} else if (DICTIONARY.equals(name)) {
+					dictionary = Boolean.valueOf(args[i]);
 				} else {
 					throw new IllegalArgumentException(String.format("unknown options -%s", name));
 				}
@@ -178,7 +352,59 @@ public class BulkLoader {
 		}
 		Cluster cluster = (Cluster) Assembler.general.open(cfg);
 		CassandraConnection connection = new CassandraConnection(cluster);
-		execute(connection, keyspace, urls);
+		if (maxInFlight != null) {
+			connection.setMaxInFlight(maxInFlight);
+		}
+		connection.setAdaptiveConcurrency(adaptive);
+		if (retries != null) {
+			connection.setRetryPolicy(new WriteRetryPolicy(retries, WriteRetryPolicy.DEFAULT_BASE_DELAY_MILLIS,
+					WriteRetryPolicy.DEFAULT_MAX_DELAY_MILLIS));
+		}
+		List<AuxiliaryTable> tables = new ArrayList<AuxiliaryTable>();
+		if (counts) {
+			tables.add(new QuadCountTable(connection));
+			tables.add(new ClassCountTable(connection));
+		}
+		if (languages) {
+			tables.add(new LanguageTable(connection));
+		}
+		if (numbers) {
+			tables.add(new NumericTable(connection));
+		}
+		if (times) {
+			tables.add(new TemporalTable(connection));
+		}
+		if (literals || !indexes) {
+			tables.add(new LiteralTable(connection));
+		}
+		if (literalStore != null) {
+			tables.add(new LiteralStore(connection, literalStore, LiteralStore.DEFAULT_CACHE_SIZE));
+		}
+		if (dictionary) {
+			tables.add(new NodeDictionary(connection));
+		}
+		for (AuxiliaryTable table : tables) {
+			connection.addAuxiliaryTable(table);
+			for (String stmt : table.getCreateTableStatements()) {
+				connection.getSession(keyspace).execute(stmt);
+			}
+		}
+		connection.setSecondaryIndexes(indexes);
+		NQuadsDeadLetterSink deadLetterSink = null;
+		if (deadLetter != null) {
+			deadLetterSink = new NQuadsDeadLetterSink(new File(deadLetter));
+			connection.setDeadLetterSink(deadLetterSink);
+		}
+		try {
+			execute(connection, keyspace, urls);
+		} finally {
+			if (deadLetterSink != null) {
+				deadLetterSink.close();
+				if (deadLetterSink.getCount() > 0) {
+					LOG.error(String.format("%s quads written to %s", deadLetterSink.getCount(), deadLetter));
+				}
+			}
+		}
 	}
 
 	private static Resource createCred(Resource cfg) {
@@ -207,6 +433,12 @@ public class BulkLoader {
 				public void run() {
 					StreamRDFCassandra sink = new StreamRDFCassandra(connection, keyspace);
 					RDFDataMgr.parse(sink, uri);
+					ExecutionReport report = sink.getReport();
+					if (report.hasFailures()) {
+						LOG.error(String.format("Loading %s: %s", uri, report));
+					} else {
+						LOG.info(String.format("Loading %s: %s", uri, report));
+					}
 				}
 			});
 		}
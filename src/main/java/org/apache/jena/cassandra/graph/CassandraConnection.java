@@ -19,13 +19,20 @@
 package org.apache.jena.cassandra.graph;
 
 import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.function.Function;
+import java.util.function.ToLongFunction;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -35,15 +42,26 @@ import org.apache.jena.riot.thrift.wire.RDF_Term;
 import org.apache.jena.sparql.core.Quad;
 import org.apache.jena.util.iterator.ExtendedIterator;
 import org.apache.jena.util.iterator.WrappedIterator;
+import org.apache.thrift.TDeserializer;
 import org.apache.thrift.TException;
 import org.apache.thrift.TSerializer;
 
+import com.datastax.driver.core.BoundStatement;
 import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.QueryOptions;
 import com.datastax.driver.core.ResultSet;
-import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Row;
 import com.datastax.driver.core.Session;
+import com.datastax.driver.core.SimpleStatement;
+import com.datastax.driver.core.Statement;
 import com.datastax.driver.core.exceptions.QueryValidationException;
 import com.datastax.driver.core.utils.Bytes;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 
 /**
  * 
@@ -73,6 +91,19 @@ public class CassandraConnection implements Closeable {
 	public static final TableName GSPO = new TableName("GSPO");
 	public static final TableName[] TABLES = { SPOG, PGOS, OSGP, GSPO };
 
+	/**
+	 * The maximum number of prepared statements cached per keyspace. The
+	 * least recently used statements are prepared again when needed.
+	 */
+	public static final int MAX_PREPARED_STATEMENTS = 1000;
+
+	/**
+	 * The maximum number of reads of many keys, such as the nodes or literals
+	 * of a page, that are in flight at once. Well below the 256 requests the
+	 * driver queues per host.
+	 */
+	public static final int MAX_READS_IN_FLIGHT = 128;
+
 	/*
 	 * The mapping of table ID to name.
 	 */
@@ -126,9 +157,10 @@ public class CassandraConnection implements Closeable {
 	// "_po_","__og", "__o_");
 
 	/*
-	 * A thrift serializer
+	 * A thrift serializer per thread as the serializer is not thread safe and
+	 * the bulk loader encodes from several threads.
 	 */
-	private final TSerializer ser = new TSerializer();
+	private final ThreadLocal<TSerializer> ser = ThreadLocal.withInitial(TSerializer::new);
 
 	/* Cassandra Cluster. */
 	private final Cluster cluster;
@@ -136,6 +168,56 @@ public class CassandraConnection implements Closeable {
 	/* Cassandra Session. */
 	private final Map<String,Session>  sessions;
 
+	/*
+	 * Prepared statements by keyspace and then by CQL text. The CQL text of a
+	 * prepared query is determined by the table and the set of bound columns
+	 * so there is one entry for each query shape, up to
+	 * MAX_PREPARED_STATEMENTS.
+	 */
+	private final Map<String, Cache<String, PreparedStatement>> preparedStatements;
+
+	/* The maximum number of asynchronous statements in flight per bulk executor. */
+	private int maxInFlight = ConcurrencyLimiter.DEFAULT_MAX_IN_FLIGHT;
+
+	/* If true bulk executors adapt their concurrency to the cluster. */
+	private boolean adaptiveConcurrency = false;
+
+	/* The policy for retrying failed writes. */
+	private WriteRetryPolicy retryPolicy = new WriteRetryPolicy();
+
+	/* Receives quads whose writes failed after all retries. May be null. */
+	private DeadLetterSink deadLetterSink;
+
+	/* The fetch (page) size for find queries by pattern id. */
+	private final Map<String, Integer> fetchSizes = new ConcurrentHashMap<String, Integer>();
+
+	/* The fetch size for patterns without one, 0 = the cluster default. */
+	private int defaultFetchSize = 0;
+
+	/* The number of token ranges to scan at once, 1 = sequential scans. */
+	private int scanParallelism = 1;
+
+	/* If true parallel scans return rows in token order. */
+	private boolean orderedScans = false;
+
+	/* The number of token ranges a count reads at once. */
+	private int countParallelism = TokenRangeScanner.DEFAULT_PARALLELISM;
+
+	/* The number of bindings a SPARQL join looks up at once, 1 = one find per binding. */
+	private int joinBatchSize = QueryIterBatchJoin.DEFAULT_BATCH_SIZE;
+
+	/* If false the quad tables have no secondary indexes and literals are found in the LiteralTable. */
+	private boolean secondaryIndexes = true;
+
+	/* Tables maintained alongside the quad tables. */
+	private final List<AuxiliaryTable> auxiliaryTables = new CopyOnWriteArrayList<AuxiliaryTable>();
+
+	/*
+	 * Graph statistics by keyspace and then by graph name so that the graphs
+	 * of a keyspace share their cached counts.
+	 */
+	private final Map<String, Map<Node, GraphStatisticsCassandra>> statistics = new ConcurrentHashMap<String, Map<Node, GraphStatisticsCassandra>>();
+
 	/**
 	 * Build the table ID from the graph name and the triple pattern.
 	 * 
@@ -160,6 +242,7 @@ public class CassandraConnection implements Closeable {
 	public CassandraConnection(Cluster cluster) {
 		this.cluster = cluster;		
 		this.sessions = Collections.synchronizedMap(new HashMap<String,Session>());
+		this.preparedStatements = new ConcurrentHashMap<String, Cache<String, PreparedStatement>>();
 	}
 
 	@Override
@@ -172,8 +255,407 @@ public class CassandraConnection implements Closeable {
 			}
 			sessions.clear();
 		}
+		preparedStatements.clear();
 	}
 	
+	/**
+	 * Get the maximum number of asynchronous statements each bulk executor may
+	 * have in flight.
+	 * 
+	 * @return the maximum number of statements in flight.
+	 */
+	public int getMaxInFlight() {
+		return maxInFlight;
+	}
+
+	/**
+	 * Set the maximum number of asynchronous statements each bulk executor may
+	 * have in flight.
+	 * 
+	 * @param maxInFlight
+	 *            the maximum number of statements in flight.
+	 */
+	public void setMaxInFlight(int maxInFlight) {
+		if (maxInFlight < 1) {
+			throw new IllegalArgumentException("maxInFlight must be at least 1");
+		}
+		this.maxInFlight = maxInFlight;
+	}
+
+	/**
+	 * Returns true if bulk executors adapt their concurrency to the observed
+	 * latency and errors.
+	 * 
+	 * @return true if concurrency is adaptive.
+	 */
+	public boolean isAdaptiveConcurrency() {
+		return adaptiveConcurrency;
+	}
+
+	/**
+	 * Set whether bulk executors adapt their concurrency to the observed
+	 * latency and errors. When adaptive the maximum in flight is the upper
+	 * bound.
+	 * 
+	 * @param adaptiveConcurrency
+	 *            true if the concurrency should be adaptive.
+	 */
+	public void setAdaptiveConcurrency(boolean adaptiveConcurrency) {
+		this.adaptiveConcurrency = adaptiveConcurrency;
+	}
+
+	/**
+	 * Get the policy for retrying failed writes.
+	 * 
+	 * @return the write retry policy.
+	 */
+	public WriteRetryPolicy getRetryPolicy() {
+		return retryPolicy;
+	}
+
+	/**
+	 * Set the policy for retrying failed writes. Use WriteRetryPolicy.NONE to
+	 * disable retries.
+	 * 
+	 * @param retryPolicy
+	 *            the write retry policy.
+	 */
+	public void setRetryPolicy(WriteRetryPolicy retryPolicy) {
+		if (retryPolicy == null) {
+			throw new IllegalArgumentException("retryPolicy may not be null");
+		}
+		this.retryPolicy = retryPolicy;
+	}
+
+	/**
+	 * Get the sink for quads whose writes failed after all retries.
+	 * 
+	 * @return the dead letter sink, may be null.
+	 */
+	public DeadLetterSink getDeadLetterSink() {
+		return deadLetterSink;
+	}
+
+	/**
+	 * Set the sink for quads whose writes failed after all retries. If null
+	 * the failures are only logged and reported.
+	 * 
+	 * @param deadLetterSink
+	 *            the dead letter sink, may be null.
+	 */
+	public void setDeadLetterSink(DeadLetterSink deadLetterSink) {
+		this.deadLetterSink = deadLetterSink;
+	}
+
+	/**
+	 * Get the fetch (page) size for find queries on a pattern. This is the
+	 * size set for the pattern, or the default fetch size, or the fetch size
+	 * of the cluster query options.
+	 * 
+	 * @param patternId
+	 *            The pattern id (e.g. "s_o_") as returned by getId().
+	 * @return the number of rows per page.
+	 */
+	public int getFetchSize(String patternId) {
+		Integer fetchSize = fetchSizes.get(patternId);
+		if (fetchSize != null) {
+			return fetchSize;
+		}
+		if (defaultFetchSize > 0) {
+			return defaultFetchSize;
+		}
+		if (cluster.getConfiguration() != null && cluster.getConfiguration().getQueryOptions() != null) {
+			return cluster.getConfiguration().getQueryOptions().getFetchSize();
+		}
+		return QueryOptions.DEFAULT_FETCH_SIZE;
+	}
+
+	/**
+	 * Set the fetch (page) size for find queries on a pattern. Large scans
+	 * such as "____" and "_p__" generally benefit from larger pages.
+	 * 
+	 * @param patternId
+	 *            The pattern id (e.g. "s_o_") as returned by getId().
+	 * @param fetchSize
+	 *            The number of rows per page, or 0 to use the default.
+	 */
+	public void setFetchSize(String patternId, int fetchSize) {
+		if (fetchSize < 0) {
+			throw new IllegalArgumentException("fetchSize may not be negative");
+		}
+		if (fetchSize == 0) {
+			fetchSizes.remove(patternId);
+		} else {
+			fetchSizes.put(patternId, fetchSize);
+		}
+	}
+
+	/**
+	 * Set the fetch (page) size for find queries on patterns that do not have
+	 * their own fetch size.
+	 * 
+	 * @param fetchSize
+	 *            The number of rows per page, or 0 to use the fetch size of the
+	 *            cluster query options.
+	 */
+	public void setDefaultFetchSize(int fetchSize) {
+		if (fetchSize < 0) {
+			throw new IllegalArgumentException("fetchSize may not be negative");
+		}
+		this.defaultFetchSize = fetchSize;
+	}
+
+	/**
+	 * Get the number of token ranges a table scan reads at once.
+	 * 
+	 * @return the scan parallelism, 1 if scans are sequential.
+	 */
+	public int getScanParallelism() {
+		return scanParallelism;
+	}
+
+	/**
+	 * Set the number of token ranges a table scan reads at once. Patterns that
+	 * do not bind the partition key of their table scan the whole table. When
+	 * the parallelism is greater than 1 the scan is split into token ranges
+	 * that are read concurrently.
+	 * 
+	 * @param scanParallelism
+	 *            the scan parallelism, 1 for sequential scans.
+	 */
+	public void setScanParallelism(int scanParallelism) {
+		if (scanParallelism < 1) {
+			throw new IllegalArgumentException("scanParallelism must be at least 1");
+		}
+		this.scanParallelism = scanParallelism;
+	}
+
+	/**
+	 * Returns true if parallel scans return rows in token order.
+	 * 
+	 * @return true if parallel scans are ordered.
+	 */
+	public boolean isOrderedScans() {
+		return orderedScans;
+	}
+
+	/**
+	 * Set whether parallel scans return rows in token order (the order of a
+	 * sequential scan) or in the order they arrive.
+	 * 
+	 * @param orderedScans
+	 *            true if parallel scans should be ordered.
+	 */
+	public void setOrderedScans(boolean orderedScans) {
+		this.orderedScans = orderedScans;
+	}
+
+	/**
+	 * Get the number of token ranges a count of a table scan reads at once.
+	 * 
+	 * @return the count parallelism.
+	 */
+	public int getCountParallelism() {
+		return countParallelism;
+	}
+
+	/**
+	 * Set the number of token ranges a count of a table scan reads at once.
+	 * Counts are always split into token ranges, 1 counts the ranges one at a
+	 * time.
+	 * 
+	 * @param countParallelism
+	 *            the count parallelism.
+	 */
+	public void setCountParallelism(int countParallelism) {
+		if (countParallelism < 1) {
+			throw new IllegalArgumentException("countParallelism must be at least 1");
+		}
+		this.countParallelism = countParallelism;
+	}
+
+	/**
+	 * Get the number of bindings a SPARQL basic graph pattern join looks up
+	 * in one set of queries.
+	 * 
+	 * @return the join batch size.
+	 */
+	public int getJoinBatchSize() {
+		return joinBatchSize;
+	}
+
+	/**
+	 * Set the number of bindings a SPARQL basic graph pattern join looks up
+	 * in one set of queries (see QueryIterBatchJoin). Larger batches make
+	 * fewer round trips but longer IN lists. 1 finds each binding
+	 * separately.
+	 * 
+	 * @param joinBatchSize
+	 *            the join batch size.
+	 */
+	public void setJoinBatchSize(int joinBatchSize) {
+		if (joinBatchSize < 1) {
+			throw new IllegalArgumentException("joinBatchSize must be at least 1");
+		}
+		this.joinBatchSize = joinBatchSize;
+	}
+
+	/**
+	 * Check if the quad tables have the obj_int, obj_value and obj_dtype
+	 * secondary indexes.
+	 * 
+	 * @return true if the quad tables have secondary indexes.
+	 */
+	public boolean isSecondaryIndexes() {
+		return secondaryIndexes;
+	}
+
+	/**
+	 * Set the schema mode. By default the quad tables have secondary indexes
+	 * on the obj_int, obj_value and obj_dtype columns which are used to find
+	 * the quads of a literal object. Secondary indexes are read on every node
+	 * of the cluster and every insert updates them in each of the four
+	 * tables.
+	 * 
+	 * If false the tables are created without the indexes and a LiteralTable
+	 * is registered (if one is not already) to find the quads of literal
+	 * objects. The mode must match the schema of the keyspace and be set
+	 * before any data is written.
+	 * 
+	 * @param secondaryIndexes
+	 *            true to use the secondary indexes.
+	 */
+	public void setSecondaryIndexes(boolean secondaryIndexes) {
+		this.secondaryIndexes = secondaryIndexes;
+		if (!secondaryIndexes && getAuxiliaryTable(LiteralTable.class) == null) {
+			addAuxiliaryTable(new LiteralTable(this));
+		}
+	}
+
+	/**
+	 * Register an auxiliary table. The table is created, truncated and
+	 * deleted with the quad tables and is updated when quads are inserted or
+	 * deleted. It must be registered before any data is written for it to be
+	 * complete.
+	 * 
+	 * @param table
+	 *            the auxiliary table.
+	 */
+	public void addAuxiliaryTable(AuxiliaryTable table) {
+		auxiliaryTables.add(table);
+	}
+
+	/**
+	 * Get the registered auxiliary tables.
+	 * 
+	 * @return the auxiliary tables in registration order.
+	 */
+	public List<AuxiliaryTable> getAuxiliaryTables() {
+		return Collections.unmodifiableList(auxiliaryTables);
+	}
+
+	/**
+	 * Get the first registered auxiliary table of a type.
+	 * 
+	 * @param type
+	 *            the class of the table.
+	 * @return the table or null if none is registered.
+	 */
+	public <T extends AuxiliaryTable> T getAuxiliaryTable(Class<T> type) {
+		for (AuxiliaryTable table : auxiliaryTables) {
+			if (type.isInstance(table)) {
+				return type.cast(table);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Get the statistics of a graph in the keyspace. The statistics are
+	 * created when first requested and shared by every GraphCassandra for the
+	 * graph so the cached counts outlive the graph instances.
+	 * 
+	 * @param keyspace
+	 *            The keyspace of the graph.
+	 * @param graph
+	 *            The graph name, Node.ANY for the union graph.
+	 * @return the statistics or null if there is no QuadCountTable.
+	 */
+	public GraphStatisticsCassandra getStatistics(String keyspace, Node graph) {
+		Map<Node, GraphStatisticsCassandra> graphs = statistics.computeIfAbsent(keyspace,
+				k -> new ConcurrentHashMap<Node, GraphStatisticsCassandra>());
+		return graphs.computeIfAbsent(graph, g -> GraphStatisticsCassandra.create(this, keyspace, g));
+	}
+
+	/**
+	 * Write the rows of an auxiliary table for the quads already in the
+	 * keyspace, for example when a lookup table is added to a keyspace that
+	 * has data. The predicates are listed from the partition keys of the PGOS
+	 * table and the quads of each predicate are read from its partitions.
+	 * 
+	 * The rows are inserted without removing the existing ones. The inserts
+	 * of lookup tables are idempotent so the keyspace may be written while
+	 * the table is rebuilt, provided the table is registered first so the
+	 * new quads are added to it.
+	 * 
+	 * @param keyspace
+	 *            The keyspace to read and write.
+	 * @param table
+	 *            The table to rebuild.
+	 * @return the report of the inserts.
+	 * @throws TException
+	 *             on encoding error.
+	 */
+	public ExecutionReport rebuildAuxiliaryTable(String keyspace, AuxiliaryTable table) throws TException {
+		BulkExecutor bulkExecutor = createBulkExecutor(keyspace);
+		QueryPattern.RowToNode rowToNode = new QueryPattern.RowToNode(QueryPattern.getNodeResolver(this, keyspace));
+		for (Row row : executeQuery(keyspace, String.format("SELECT DISTINCT %s FROM %s", ColumnName.P, PGOS))) {
+			Node predicate = rowToNode.apply(row);
+			if (predicate == null) {
+				continue;
+			}
+			ExtendedIterator<Quad> quads = new QueryPattern(this, Quad.create(Node.ANY, Node.ANY, predicate, Node.ANY))
+					.doFind(keyspace);
+			try {
+				while (quads.hasNext()) {
+					Quad quad = quads.next();
+					List<Statement> statements = table.getInsertStatements(keyspace, quad);
+					if (!statements.isEmpty()) {
+						bulkExecutor.executeStatements(quad, statements.iterator());
+					}
+				}
+			} finally {
+				quads.close();
+			}
+		}
+		return bulkExecutor.awaitFinish();
+	}
+
+	/**
+	 * Get the token ranges of the cluster in token order.
+	 * 
+	 * @param minRanges
+	 *            The minimum number of ranges wanted. Ranges are split evenly
+	 *            if there are fewer.
+	 * @return the ranges, empty if the cluster token ranges are not known.
+	 */
+	public List<TokenRangeScanner.Range> getTokenRanges(int minRanges) {
+		return TokenRangeScanner.getRanges(cluster.getMetadata(), minRanges);
+	}
+
+	/**
+	 * Create a bulk executor for the keyspace using the concurrency, retry and
+	 * dead letter settings of this connection.
+	 * 
+	 * @param keyspace
+	 *            The keyspace to execute the statements in.
+	 * @return A new BulkExecutor.
+	 */
+	public BulkExecutor createBulkExecutor(String keyspace) {
+		return new BulkExecutor(getSession(keyspace), new ConcurrencyLimiter(maxInFlight, adaptiveConcurrency),
+				retryPolicy, deadLetterSink);
+	}
+
 	/**
 	 * Create the keyspace in the cluster.
 	 * @param createStmt the statement to execute.
@@ -225,7 +707,12 @@ public class CassandraConnection implements Closeable {
 				iter = iter.andThen( tbl.getDeleteTableStatements() );
 			}
 		}
+		for (AuxiliaryTable tbl : auxiliaryTables) {
+			iter = iter.andThen(tbl.getDeleteTableStatements());
+		}
 		executeUpdateSet( keyspace, iter );
+		preparedStatements.remove(keyspace);
+		clearCaches(keyspace);
 	}
 
 	/**
@@ -238,6 +725,12 @@ public class CassandraConnection implements Closeable {
 		
 		Session session = getSession(keyspace);
 		for (TableName tbl : getTableList()) {
+			for (String stmt : tbl.getCreateTableStatements(secondaryIndexes)) {
+				LOG.debug(stmt);
+				session.execute(stmt);
+			}
+		}
+		for (AuxiliaryTable tbl : auxiliaryTables) {
 			for (String stmt : tbl.getCreateTableStatements()) {
 				LOG.debug(stmt);
 				session.execute(stmt);
@@ -253,12 +746,30 @@ public class CassandraConnection implements Closeable {
 	 */
 	public void truncateTables(String keyspace) {
 				
-		Iterator<String> statements = CassandraConnection.getTableList().stream().map( new Function<TableName,String>(){
+		List<String> names = new ArrayList<String>();
+		for (TableName t : getTableList()) {
+			names.add(t.getName());
+		}
+		for (AuxiliaryTable t : auxiliaryTables) {
+			names.add(t.getName());
+		}
+		Iterator<String> statements = names.stream().map( new Function<String,String>(){
 			@Override
-			public String apply(TableName t) {
-				return String.format("TRUNCATE %s ;", t.getName());
+			public String apply(String name) {
+				return String.format("TRUNCATE %s ;", name);
 			}}).iterator();
 		executeUpdateSet( keyspace, statements );
+		clearCaches(keyspace);
+	}
+
+	/*
+	 * Forget what the auxiliary tables cached about the emptied tables of the
+	 * keyspace.
+	 */
+	private void clearCaches(String keyspace) {
+		for (AuxiliaryTable t : auxiliaryTables) {
+			t.clearCache(keyspace);
+		}
 	}
 	
 	/**
@@ -270,14 +781,56 @@ public class CassandraConnection implements Closeable {
 	 *  
 	 * @param keyspace The keyspace to execute the commands in.
 	 * @param statements An iterator of queries to execute.
+	 * @return the report of the executed statements.
 	 */
-	public void executeUpdateSet( String keyspace, Iterator<String> statements )
+	public ExecutionReport executeUpdateSet( String keyspace, Iterator<String> statements )
 	{
-		BulkExecutor bulkExecutor = new BulkExecutor( getSession(keyspace) );
+		BulkExecutor bulkExecutor = createBulkExecutor( keyspace );
 		bulkExecutor.execute(statements);
-		bulkExecutor.awaitFinish();
+		return bulkExecutor.awaitFinish();
 	}	
 
+	/**
+	 * Perform update statements (no data retrieval) using async calls.
+	 * 
+	 * Method returns when all the async statements have been executed. There
+	 * is no guarantee that the statements will be executed in any particular
+	 * order.
+	 * 
+	 * @param keyspace
+	 *            The keyspace to execute the commands in.
+	 * @param statements
+	 *            An iterator of statements (generally bound prepared
+	 *            statements) to execute.
+	 * @return the report of the executed statements.
+	 */
+	public ExecutionReport executeUpdateStatements(String keyspace, Iterator<? extends Statement> statements) {
+		return executeUpdateStatements(keyspace, null, statements);
+	}
+
+	/**
+	 * Perform the update statements that write a quad using async calls.
+	 * Statements that fail after their retries are sent to the dead letter
+	 * sink with the quad.
+	 * 
+	 * Method returns when all the async statements have been executed.
+	 * 
+	 * @param keyspace
+	 *            The keyspace to execute the commands in.
+	 * @param quad
+	 *            The quad the statements write. May be null.
+	 * @param statements
+	 *            An iterator of statements (generally bound prepared
+	 *            statements) to execute.
+	 * @return the report of the executed statements.
+	 */
+	public ExecutionReport executeUpdateStatements(String keyspace, Quad quad,
+			Iterator<? extends Statement> statements) {
+		BulkExecutor bulkExecutor = createBulkExecutor(keyspace);
+		bulkExecutor.executeStatements(quad, statements);
+		return bulkExecutor.awaitFinish();
+	}
+
 	/**
 	 * Get the table name for the ID.
 	 * 
@@ -311,24 +864,241 @@ public class CassandraConnection implements Closeable {
 		}
 	}
 
+	/**
+	 * Get the prepared statement for the CQL text in the keyspace. Statements
+	 * are prepared once per keyspace and the most recently used
+	 * MAX_PREPARED_STATEMENTS are cached.
+	 * 
+	 * @param keyspace
+	 *            The keyspace to prepare the statement in.
+	 * @param cql
+	 *            The CQL text with bind markers (?) for the values.
+	 * @return The prepared statement.
+	 */
+	public PreparedStatement prepare(String keyspace, String cql) {
+		Cache<String, PreparedStatement> statements = preparedStatements.computeIfAbsent(keyspace,
+				k -> CacheBuilder.newBuilder().maximumSize(MAX_PREPARED_STATEMENTS).build());
+		try {
+			return statements.get(cql, () -> {
+				if (LOG.isDebugEnabled()) {
+					LOG.debug("preparing statement: " + cql);
+				}
+				return getSession(keyspace).prepare(cql);
+			});
+		} catch (ExecutionException | UncheckedExecutionException e) {
+			throw Throwables.propagate(e.getCause());
+		}
+	}
+
+	/**
+	 * Bind the values to the prepared form of the CQL text.
+	 * 
+	 * @param keyspace
+	 *            The keyspace to prepare the statement in.
+	 * @param cql
+	 *            The CQL text with bind markers (?) for the values.
+	 * @param values
+	 *            The values to bind in bind marker order.
+	 * @return The bound statement.
+	 */
+	public BoundStatement bind(String keyspace, String cql, List<Object> values) {
+		return prepare(keyspace, cql).bind(values.toArray());
+	}
+
+	/**
+	 * Execute the prepared query and return the result set. Log any errors.
+	 * 
+	 * @param keyspace
+	 *            The keyspace to execute the query in.
+	 * @param query
+	 *            The query to execute with bind markers (?) for the values.
+	 * @param values
+	 *            The values to bind in bind marker order.
+	 * @return The Cassandra ResultSet from the query.
+	 */
+	public ResultSet executeQuery(String keyspace, String query, List<Object> values) {
+		return executeQuery(keyspace, query, values, 0);
+	}
+
+	/**
+	 * Execute the prepared query and return the result set. Log any errors.
+	 * 
+	 * @param keyspace
+	 *            The keyspace to execute the query in.
+	 * @param query
+	 *            The query to execute with bind markers (?) for the values.
+	 * @param values
+	 *            The values to bind in bind marker order.
+	 * @param fetchSize
+	 *            The number of rows per page, or 0 to use the default.
+	 * @return The Cassandra ResultSet from the query.
+	 */
+	public ResultSet executeQuery(String keyspace, String query, List<Object> values, int fetchSize) {
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("executing query: " + query);
+		}
+		try {
+			BoundStatement statement = bind(keyspace, query, values);
+			if (fetchSize > 0) {
+				statement.setFetchSize(fetchSize);
+			}
+			return getSession(keyspace).execute(statement);
+		} catch (QueryValidationException e) {
+			LOG.error(String.format("Query Execution issue (%s) while executing: (%s)", e.getMessage(), query), e);
+			throw e;
+		}
+	}
+
+	/**
+	 * Execute the prepared query asynchronously. Log any errors.
+	 * 
+	 * @param keyspace
+	 *            The keyspace to execute the query in.
+	 * @param query
+	 *            The query to execute with bind markers (?) for the values.
+	 * @param values
+	 *            The values to bind in bind marker order.
+	 * @param fetchSize
+	 *            The number of rows per page, or 0 to use the default.
+	 * @return A future for the Cassandra ResultSet from the query.
+	 */
+	public ListenableFuture<ResultSet> executeQueryAsync(String keyspace, String query, List<Object> values,
+			int fetchSize) {
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("executing query: " + query);
+		}
+		try {
+			BoundStatement statement = bind(keyspace, query, values);
+			if (fetchSize > 0) {
+				statement.setFetchSize(fetchSize);
+			}
+			return getSession(keyspace).executeAsync(statement);
+		} catch (QueryValidationException e) {
+			LOG.error(String.format("Query Execution issue (%s) while executing: (%s)", e.getMessage(), query), e);
+			throw e;
+		}
+	}
+
+	/**
+	 * Scan the token ranges of the cluster in parallel using the scan settings
+	 * of this connection.
+	 * 
+	 * @param keyspace
+	 *            The keyspace to execute the query in.
+	 * @param query
+	 *            The query to execute. The first two bind markers are the
+	 *            start (exclusive) and end (inclusive) of the token range.
+	 * @param values
+	 *            The values for the remaining bind markers.
+	 * @param fetchSize
+	 *            The number of rows per page.
+	 * @return An iterator over the rows, or null if the cluster token ranges
+	 *         are not known.
+	 */
+	public TokenRangeScanner scanTokenRanges(String keyspace, String query, List<Object> values, int fetchSize) {
+		List<TokenRangeScanner.Range> ranges = getTokenRanges(scanParallelism * 4);
+		if (ranges.isEmpty()) {
+			return null;
+		}
+		if (LOG.isDebugEnabled()) {
+			LOG.debug(String.format("scanning %s token ranges: %s", ranges.size(), query));
+		}
+		PreparedStatement prepared = prepare(keyspace, query);
+		return new TokenRangeScanner(getSession(keyspace), ranges, range -> {
+			List<Object> rangeValues = new ArrayList<Object>(values.size() + 2);
+			rangeValues.add(range.getStart());
+			rangeValues.add(range.getEnd());
+			rangeValues.addAll(values);
+			BoundStatement statement = prepared.bind(rangeValues.toArray());
+			if (fetchSize > 0) {
+				statement.setFetchSize(fetchSize);
+			}
+			return statement;
+		}, scanParallelism, orderedScans, fetchSize);
+	}
+
+	/**
+	 * Create a counter for a query using the count settings of this
+	 * connection.
+	 * 
+	 * @param keyspace
+	 *            The keyspace to execute the query in.
+	 * @param query
+	 *            The query to execute if it is not split.
+	 * @param rangeQuery
+	 *            The query to execute for each token range. The first two bind
+	 *            markers are the start (exclusive) and end (inclusive) of the
+	 *            token range. If null, or if the cluster token ranges are not
+	 *            known, the query is not split.
+	 * @param values
+	 *            The values for the remaining bind markers.
+	 * @param fetchSize
+	 *            The number of rows per page.
+	 * @param counter
+	 *            The function that returns the count from the result set.
+	 * @return The counter.
+	 */
+	public TokenRangeCounter countTokenRanges(String keyspace, String query, String rangeQuery,
+			List<Object> values, int fetchSize, ToLongFunction<ResultSet> counter) {
+		List<TokenRangeScanner.Range> ranges = rangeQuery == null ? Collections.<TokenRangeScanner.Range>emptyList()
+				: getTokenRanges(countParallelism * 4);
+		if (ranges.isEmpty()) {
+			ranges = Collections.singletonList(null);
+		}
+		PreparedStatement prepared = prepare(keyspace, ranges.get(0) == null ? query : rangeQuery);
+		return new TokenRangeCounter(getSession(keyspace), ranges, range -> {
+			List<Object> rangeValues = new ArrayList<Object>(values.size() + 2);
+			if (range != null) {
+				rangeValues.add(range.getStart());
+				rangeValues.add(range.getEnd());
+			}
+			rangeValues.addAll(values);
+			BoundStatement statement = prepared.bind(rangeValues.toArray());
+			if (fetchSize > 0) {
+				statement.setFetchSize(fetchSize);
+			}
+			return statement;
+		}, counter, countParallelism);
+	}
+
 	/**
 	 * Execute a single update statement (no data returned).  Logging is performed as appropriate.
+	 * Failures are retried according to the retry policy.
 	 * @param keyspace The keyspace to execute in.
 	 * @param statement the statement to execute.
-	 * @return ResultSetFuture
+	 * @return the future for the result.
 	 */
-	public ResultSetFuture executeUpdate(String keyspace, String statement) {
+	public ListenableFuture<ResultSet> executeUpdate(String keyspace, String statement) {
 		if (LOG.isDebugEnabled()) {
 			LOG.debug("executing query: " + statement);
 		}
 		try {
-			return getSession(keyspace).executeAsync(statement);
+			return RetryingWrite.execute(getSession(keyspace), new SimpleStatement(statement), retryPolicy,
+					(error, latency) -> LOG.warn(String.format("retrying (%s): %s", error, statement)));
 		} catch (QueryValidationException e) {
 			LOG.error(String.format("Query Execution issue (%s) while executing: (%s)", e.getMessage(), statement), e);
 			throw e;
 		}
 	}
 	
+	/**
+	 * Execute an update statement asynchronously. Failures are retried
+	 * according to the retry policy.
+	 * 
+	 * @param keyspace
+	 *            The keyspace to execute in.
+	 * @param statement
+	 *            the statement to execute.
+	 * @return the future for the result.
+	 */
+	public ListenableFuture<ResultSet> executeUpdate(String keyspace, Statement statement) {
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("executing statement: " + BulkExecutor.describe(statement));
+		}
+		return RetryingWrite.execute(getSession(keyspace), statement, retryPolicy, (error, latency) -> LOG
+				.warn(String.format("retrying (%s): %s", error, BulkExecutor.describe(statement))));
+	}
+
 	/**
 	 * Return the serialized value of the node.
 	 * 
@@ -340,10 +1110,122 @@ public class CassandraConnection implements Closeable {
 	 *             on serialization error.
 	 */
 	public String valueOf(Node node) throws TException {
+		return Bytes.toHexString(bytesOf(node));
+	}
+
+	/**
+	 * Return the serialized value of the node as a ByteBuffer suitable for
+	 * binding to a blob column.
+	 * 
+	 * @param node
+	 *            the node to serialize.
+	 * @return The serialized node.
+	 * @throws TException
+	 *             on serialization error.
+	 */
+	public ByteBuffer bytesOf(Node node) throws TException {
 		RDF_Term term = new RDF_Term();
 		ThriftConvert.toThrift(node, null, term, false);
-		byte[] bary = ser.serialize(term);
-		return Bytes.toHexString(bary);
+		return ByteBuffer.wrap(ser.get().serialize(term));
+	}
+
+	/**
+	 * Return the value of the object column of the quad tables for a node.
+	 * This is the serialized node, or the digest of the node if it is a
+	 * literal kept in the LiteralStore of the connection.
+	 * 
+	 * @param node
+	 *            the object node.
+	 * @return The value of the object column.
+	 * @throws TException
+	 *             on serialization error.
+	 */
+	public ByteBuffer objectBytesOf(Node node) throws TException {
+		LiteralStore store = getAuxiliaryTable(LiteralStore.class);
+		return store != null && store.isStored(node) ? store.getDigest(node) : bytesOf(node);
+	}
+
+	/**
+	 * Return the node of a value written by objectBytesOf(). A digest is
+	 * resolved with the LiteralStore of the connection, any other value is
+	 * deserialized.
+	 * 
+	 * @param keyspace
+	 *            the keyspace the value was read from.
+	 * @param value
+	 *            the value of the column.
+	 * @return The node.
+	 * @throws TException
+	 *             on deserialization error or if the digest is not known.
+	 */
+	public Node objectOf(String keyspace, ByteBuffer value) throws TException {
+		LiteralStore store = getAuxiliaryTable(LiteralStore.class);
+		if (store != null && LiteralStore.isDigest(value)) {
+			Node node = store.resolve(keyspace, value);
+			if (node == null) {
+				throw new TException(String.format("Unknown literal digest %s", Bytes.toHexString(value)));
+			}
+			return node;
+		}
+		byte[] serialized = new byte[value.remaining()];
+		value.duplicate().get(serialized);
+		RDF_Term term = new RDF_Term();
+		new TDeserializer().deserialize(term, serialized);
+		return ThriftConvert.convert(term);
+	}
+
+	/**
+	 * Return the value of a key column of the quad tables for a node. This is
+	 * the id of the node in the keyspace if the connection has a
+	 * NodeDictionary (which holds the value from objectBytesOf() for the id),
+	 * otherwise the serialized node or, for the object column, the value from
+	 * objectBytesOf().
+	 * 
+	 * @param keyspace
+	 *            the keyspace of the quad tables. Only needed if the
+	 *            connection has a NodeDictionary.
+	 * @param column
+	 *            the column, one of S, P, O or G.
+	 * @param node
+	 *            the node.
+	 * @return The value of the column.
+	 * @throws TException
+	 *             on serialization error or if the id can not be read.
+	 */
+	public ByteBuffer keyBytesOf(String keyspace, ColumnName column, Node node) throws TException {
+		NodeDictionary dictionary = getAuxiliaryTable(NodeDictionary.class);
+		if (dictionary != null) {
+			if (keyspace == null) {
+				throw new IllegalArgumentException("The keyspace is needed to read the id of " + node);
+			}
+			return dictionary.getId(keyspace, node);
+		}
+		return column == ColumnName.O ? objectBytesOf(node) : bytesOf(node);
+	}
+
+	/**
+	 * Return the serialized node of a value read from a key column of the
+	 * quad tables. This is the value itself unless the connection has a
+	 * NodeDictionary, in which case it is the serialized node of the id.
+	 * 
+	 * @param keyspace
+	 *            the keyspace the value was read from.
+	 * @param value
+	 *            the value of the column.
+	 * @return The serialized node.
+	 * @throws TException
+	 *             if the id is not known.
+	 */
+	public ByteBuffer serializedOf(String keyspace, ByteBuffer value) throws TException {
+		NodeDictionary dictionary = getAuxiliaryTable(NodeDictionary.class);
+		if (dictionary == null) {
+			return value;
+		}
+		Node node = dictionary.getNode(keyspace, value);
+		if (node == null) {
+			throw new TException(String.format("Unknown node id %s", Bytes.toHexString(value)));
+		}
+		return bytesOf(node);
 	}
 	
 }
@@ -0,0 +1,191 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jena.cassandra.graph;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.jena.graph.Node;
+import org.apache.jena.sparql.core.Quad;
+import org.apache.jena.vocabulary.RDF;
+import org.apache.thrift.TException;
+
+import com.datastax.driver.core.BatchStatement;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Statement;
+
+/**
+ * Maintains the number of instances of each class in a Cassandra counter
+ * table.
+ *
+ * Only rdf:type quads are counted. The table is partitioned by graph and
+ * clustered by class. Each rdf:type quad updates the (graph, class) and (ALL,
+ * class) rows where ALL is QuadCountTable.ALL.
+ *
+ * As with the QuadCountTable the counts are only updated when the SPOG row
+ * of the quad is inserted or deleted; recount() rebuilds them from the PGOS
+ * table.
+ *
+ */
+public class ClassCountTable implements AuxiliaryTable {
+
+	private static final Log LOG = LogFactory.getLog(ClassCountTable.class);
+
+	/**
+	 * The name of the table.
+	 */
+	public static final String NAME = "CLASS_COUNT";
+
+	private static final String CLASS = "class";
+
+	private static final String COUNT = "instances";
+
+	private static final String UPDATE = String.format(
+			"UPDATE %1$s SET %3$s = %3$s + ? WHERE %2$s = ? AND %4$s = ?", NAME, ColumnName.G, COUNT, CLASS);
+
+	private static final String SELECT = String.format("SELECT %s FROM %s WHERE %s = ? AND %s = ?", COUNT, NAME,
+			ColumnName.G, CLASS);
+
+	private final CassandraConnection connection;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param connection
+	 *            The connection to use.
+	 */
+	public ClassCountTable(CassandraConnection connection) {
+		this.connection = connection;
+	}
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	@Override
+	public String[] getCreateTableStatements() {
+		return new String[] { String.format(
+				"CREATE TABLE IF NOT EXISTS %s (%s blob, %s blob, %s counter, PRIMARY KEY ((%2$s), %3$s))", NAME,
+				ColumnName.G, CLASS, COUNT) };
+	}
+
+	@Override
+	public Iterator<String> getDeleteTableStatements() {
+		return Arrays.asList(String.format("DROP TABLE IF EXISTS %s", NAME)).iterator();
+	}
+
+	@Override
+	public boolean isCounting() {
+		return true;
+	}
+
+	@Override
+	public List<Statement> getInsertStatements(String keyspace, Quad quad) throws TException {
+		return getUpdateStatements(keyspace, quad, 1);
+	}
+
+	@Override
+	public List<Statement> getDeleteStatements(String keyspace, Quad quad) throws TException {
+		return getUpdateStatements(keyspace, quad, -1);
+	}
+
+	/*
+	 * One counter batch for rdf:type quads, nothing for other quads.
+	 */
+	private List<Statement> getUpdateStatements(String keyspace, Quad quad, long delta) throws TException {
+		if (!RDF.type.asNode().equals(quad.getPredicate())) {
+			return Collections.emptyList();
+		}
+		return Collections.singletonList(getUpdateStatement(keyspace, connection.bytesOf(quad.getGraph()),
+				connection.bytesOf(quad.getObject()), delta));
+	}
+
+	private Statement getUpdateStatement(String keyspace, ByteBuffer graph, ByteBuffer cls, long delta) {
+		PreparedStatement update = connection.prepare(keyspace, UPDATE);
+		BatchStatement batch = new BatchStatement(BatchStatement.Type.COUNTER);
+		batch.add(update.bind(delta, graph, cls));
+		batch.add(update.bind(delta, QuadCountTable.ALL, cls));
+		return batch;
+	}
+
+	/**
+	 * Get the number of instances of a class.
+	 *
+	 * @param keyspace
+	 *            The keyspace to read.
+	 * @param graph
+	 *            The graph to count, or null, Node.ANY or the union graph for
+	 *            all graphs.
+	 * @param cls
+	 *            The class.
+	 * @return the count.
+	 * @throws TException
+	 *             on encoding error.
+	 */
+	public long getCount(String keyspace, Node graph, Node cls) throws TException {
+		ByteBuffer key = graph == null || Node.ANY.equals(graph) || Quad.isUnionGraph(graph) ? QuadCountTable.ALL
+				: connection.bytesOf(graph);
+		ResultSet rs = connection.executeQuery(keyspace, SELECT, Arrays.asList(key, connection.bytesOf(cls)));
+		Row row = rs.one();
+		return row == null ? 0 : row.getLong(0);
+	}
+
+	/**
+	 * Rebuild the counts from the quad tables. The counts are cleared and the
+	 * graph and object of every rdf:type quad are read as raw bytes from the
+	 * PGOS table (ids are read from the NodeDictionary, through its cache).
+	 *
+	 * Writes made while the recount runs may or may not be counted.
+	 *
+	 * @param keyspace
+	 *            The keyspace to recount.
+	 * @throws TException
+	 *             on encoding error.
+	 */
+	public void recount(String keyspace) throws TException {
+		connection.executeUpdateSet(keyspace, Arrays.asList(String.format("TRUNCATE %s ;", NAME)).iterator());
+		String query = String.format("SELECT %s, %s FROM %s WHERE %s = ?", ColumnName.G, ColumnName.O,
+				CassandraConnection.PGOS, ColumnName.P);
+		Map<ByteBuffer, Map<ByteBuffer, Long>> counts = new HashMap<ByteBuffer, Map<ByteBuffer, Long>>();
+		for (Row row : connection.executeQuery(keyspace, query,
+				Arrays.asList(ColumnName.P.getBindValue(connection, keyspace, RDF.type.asNode())))) {
+			counts.computeIfAbsent(connection.serializedOf(keyspace, row.getBytes(0)),
+					k -> new HashMap<ByteBuffer, Long>())
+					.merge(connection.serializedOf(keyspace, row.getBytes(1)), 1L, Long::sum);
+		}
+		/* one batch per (graph, class) also updates the all graph count */
+		Iterator<Statement> statements = counts.entrySet().stream()
+				.flatMap(g -> g.getValue().entrySet().stream()
+						.map(c -> getUpdateStatement(keyspace, g.getKey(), c.getKey(), c.getValue())))
+				.iterator();
+		ExecutionReport report = connection.executeUpdateStatements(keyspace, statements);
+		if (report.hasFailures()) {
+			LOG.error(String.format("Recount of %s had failures: %s", keyspace, report));
+		}
+	}
+}
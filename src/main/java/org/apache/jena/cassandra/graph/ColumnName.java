@@ -19,6 +19,11 @@
 package org.apache.jena.cassandra.graph;
 
 import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.logging.Log;
@@ -28,6 +33,9 @@ import org.apache.jena.graph.Node;
 import org.apache.jena.sparql.core.Quad;
 import org.apache.thrift.TException;
 
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.utils.Bytes;
+
 /**
  * An enumeration that handles columns in a table.
  *
@@ -159,28 +167,169 @@ public enum ColumnName {
 		}
 	}
 	
+	/**
+	 * Get the token range restriction for a where clause. The start (exclusive)
+	 * and end (inclusive) tokens are bind markers.
+	 * 
+	 * @return The token range string for this column.
+	 */
+	public String getTokenRangeValue() {
+		return String.format("token(%1$s) > ? AND token(%1$s) <= ?", this);
+	}
+
 	/**
 	 * The string to add to a query for an equality check.
 	 * @param connection The connection to use
+	 * @param keyspace The keyspace of the ids of the NodeDictionary, may be null without one.
 	 * @param value the object value.
 	 * @return the string for the query
 	 */
-	public String getEqualityValue( CassandraConnection connection, Object value )
+	public String getEqualityValue( CassandraConnection connection, String keyspace, Object value )
 	{
 		if (value == null)
 		{
 			throw new IllegalArgumentException( "value may not be null");
 		}
-		return String.format( "%s=%s", this, getInsertValue( connection, value ));
+		return String.format( "%s=%s", this, getInsertValue( connection, keyspace, value ));
 	}
 	
+	/**
+	 * The string to add to a prepared query for an equality check. The value
+	 * is supplied as a bind variable.
+	 * 
+	 * @return the string for the query
+	 */
+	public String getBoundEqualityValue() {
+		return String.format("%s=?", this);
+	}
+
+	/**
+	 * Get the IN restriction for a where clause with the values as literals.
+	 * 
+	 * @param connection
+	 *            The connection to use
+	 * @param keyspace
+	 *            The keyspace of the ids of the NodeDictionary, may be null
+	 *            without one.
+	 * @param values
+	 *            The values the column may equal.
+	 * @return the string for the query
+	 */
+	public String getInValue(CassandraConnection connection, String keyspace, Collection<?> values) {
+		StringBuilder sb = new StringBuilder();
+		for (Object value : values) {
+			sb.append(sb.length() == 0 ? "" : ", ").append(getInsertValue(connection, keyspace, value));
+		}
+		return String.format("%s IN (%s)", this, sb);
+	}
+
+	/**
+	 * Get the IN restriction for a where clause with a bind marker (?) for
+	 * the list of values.
+	 * 
+	 * @return the string for the query
+	 */
+	public String getBoundInValue() {
+		return String.format("%s IN ?", this);
+	}
+
+	/**
+	 * The list of values to bind to the IN restriction of a prepared
+	 * statement for this column.
+	 * 
+	 * @param connection
+	 *            The connection to use
+	 * @param keyspace
+	 *            The keyspace of the ids of the NodeDictionary, may be null
+	 *            without one.
+	 * @param values
+	 *            the values.
+	 * @return The values in the form expected by the driver for this column.
+	 */
+	public List<Object> getBindValues(CassandraConnection connection, String keyspace, Collection<?> values) {
+		List<Object> retval = new ArrayList<Object>(values.size());
+		for (Object value : values) {
+			retval.add(getBindValue(connection, keyspace, value));
+		}
+		return retval;
+	}
+
+	/**
+	 * The value to bind to a prepared statement for this column.
+	 * 
+	 * Blob columns are bound as a ByteBuffer of the serialized node (or its
+	 * id in the keyspace, see CassandraConnection.keyBytesOf()), text
+	 * columns as a String and varint columns as a BigInteger.
+	 * 
+	 * @param connection
+	 *            The connection to use
+	 * @param keyspace
+	 *            The keyspace of the ids of the NodeDictionary, may be null
+	 *            without one.
+	 * @param value
+	 *            the value of the object.
+	 * @return The value in the form expected by the driver for this column.
+	 */
+	public Object getBindValue(CassandraConnection connection, String keyspace, Object value) {
+		if (value == null) {
+			throw new IllegalArgumentException("value may not be null");
+		}
+		switch (this.datatype) {
+		case blob:
+		default:
+			try {
+				return (value instanceof Node) ? bytesOf(connection, keyspace, (Node) value) : value;
+			} catch (TException e) {
+				throw new IllegalStateException(String.format("Unable to encode %s", value), e);
+			}
+		case varint:
+			return (value instanceof BigDecimal) ? ((BigDecimal) value).toBigIntegerExact()
+					: new BigInteger(value.toString());
+		case text:
+			return value.toString();
+		}
+	}
+
+	/**
+	 * Set the value for this column in a bound statement. The value must be
+	 * in the form returned by getBindValue().
+	 * 
+	 * @param statement
+	 *            The statement to set the value in.
+	 * @param bindValue
+	 *            the value as returned from getBindValue().
+	 */
+	public void setBoundValue(BoundStatement statement, Object bindValue) {
+		switch (this.datatype) {
+		case blob:
+		default:
+			statement.setBytes(name, (ByteBuffer) bindValue);
+			break;
+		case varint:
+			statement.setVarint(name, (BigInteger) bindValue);
+			break;
+		case text:
+			statement.setString(name, (String) bindValue);
+			break;
+		}
+	}
+
+	/*
+	 * The key columns hold the ids of the NodeDictionary and the object
+	 * column holds the digest of the literals in the LiteralStore.
+	 */
+	private ByteBuffer bytesOf(CassandraConnection connection, String keyspace, Node node) throws TException {
+		return connection.keyBytesOf(keyspace, this, node);
+	}
+
 	/**
 	 * The string to add an insert values statement for this column.
 	 * @param connection The connection to use
+	 * @param keyspace The keyspace of the ids of the NodeDictionary, may be null without one.
 	 * @param value the value of the object.
 	 * @return The value string.
 	 */
-	public String getInsertValue( CassandraConnection connection, Object value )
+	public String getInsertValue( CassandraConnection connection, String keyspace, Object value )
 	{
 		if (value == null)
 		{
@@ -188,15 +337,16 @@ public enum ColumnName {
 		}
 		switch (this.datatype) {
 		case blob:
-		case varint:
 		default:
 			try {
 				return
-				 (value instanceof Node) ? connection.valueOf( (Node)value ) :
+				 (value instanceof Node) ? Bytes.toHexString( bytesOf( connection, keyspace, (Node)value ) ) :
 					 value.toString();
 			} catch (TException e) {
 				throw new IllegalStateException(String.format("Unable to encode %s",value), e );
 			}
+		case varint:
+			return getBindValue( connection, keyspace, value ).toString();
 		case text:
 			return String.format( "'%s'", value.toString().replaceAll("'", "''"));		
 		}
@@ -236,8 +386,20 @@ public enum ColumnName {
 	case I:
 		n = ColumnName.O.getMatch(quad);
 		if (n != null) {
-			if (n.isLiteral() && n.getLiteralDatatype() instanceof XSDBaseNumericType) {							
-				return new BigDecimal(n.getLiteral().getLexicalForm());
+			if (n.isLiteral() && n.getLiteralDatatype() instanceof XSDBaseNumericType) {
+				/*
+				 * obj_int is a varint so only values that are integers can be
+				 * stored. Anything else (e.g. 4.2 or an ill formed literal) is
+				 * left to the obj_value column.
+				 */
+				try {
+					BigDecimal value = new BigDecimal(n.getLiteral().getLexicalForm().trim());
+					if (value.signum() == 0 || value.stripTrailingZeros().scale() <= 0) {
+						return value;
+					}
+				} catch (NumberFormatException e) {
+					LOG.debug("Not a number: " + n);
+				}
 			}
 		}
 		break;
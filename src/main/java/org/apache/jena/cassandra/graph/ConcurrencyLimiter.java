@@ -0,0 +1,319 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jena.cassandra.graph;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.datastax.driver.core.exceptions.BusyPoolException;
+import com.datastax.driver.core.exceptions.NoHostAvailableException;
+import com.datastax.driver.core.exceptions.OperationTimedOutException;
+import com.datastax.driver.core.exceptions.OverloadedException;
+import com.datastax.driver.core.exceptions.ReadTimeoutException;
+import com.datastax.driver.core.exceptions.UnavailableException;
+import com.datastax.driver.core.exceptions.WriteTimeoutException;
+
+/**
+ * Limits the number of asynchronous statements that are in flight at one time.
+ *
+ * A statement must acquire a permit before it is sent and release it when it
+ * completes. If the limit is reached acquire() blocks until a statement
+ * completes.
+ *
+ * In adaptive mode the limit is adjusted using additive increase /
+ * multiplicative decrease (AIMD). The completions are grouped in windows of
+ * limit completions, about one round trip of the statements in flight:
+ * <ul>
+ * <li>Each completion that is not congested raises the limit by 1/limit, so
+ * the limit grows by about one for every window.</li>
+ * <li>A completion that failed with a timeout or overload error halves the
+ * limit.</li>
+ * <li>A window whose mean latency is more than LATENCY_TOLERANCE times the
+ * baseline reduces the limit by 10%. The baseline is the mean latency of the
+ * windows smoothed over many windows, so the ordinary spread of latencies is
+ * not congestion while a steady rise is.</li>
+ * </ul>
+ * The limit is decreased at most once per window so that a single congestion
+ * event seen by many in flight statements is only counted once. The limit
+ * always stays between the minimum and maximum.
+ *
+ */
+public class ConcurrencyLimiter {
+
+	/**
+	 * The default maximum number of statements in flight.
+	 */
+	public static final int DEFAULT_MAX_IN_FLIGHT = 512;
+
+	/**
+	 * The default minimum number of statements in flight for adaptive mode.
+	 */
+	public static final int DEFAULT_MIN_IN_FLIGHT = 8;
+
+	/**
+	 * A latency this many times the baseline is considered congestion.
+	 */
+	public static final double LATENCY_TOLERANCE = 2.0;
+
+	/*
+	 * The factor to apply to the limit on error.
+	 */
+	private static final double ERROR_BACKOFF = 0.5;
+
+	/*
+	 * The factor to apply to the limit on high latency.
+	 */
+	private static final double LATENCY_BACKOFF = 0.9;
+
+	/*
+	 * The baseline latency moves toward a lower mean latency of a window by
+	 * 1/2^BASELINE_FALL of the difference.
+	 */
+	private static final int BASELINE_FALL = 4;
+
+	/*
+	 * The baseline latency moves toward a higher mean latency of a window by
+	 * 1/2^BASELINE_RISE of the difference, so that a permanent rise in the
+	 * cluster is eventually accepted as the new baseline while the rise in
+	 * latency as the limit grows is still seen as congestion.
+	 */
+	private static final int BASELINE_RISE = 10;
+
+	private final int minLimit;
+	private final int maxLimit;
+	private final boolean adaptive;
+
+	/* the current limit */
+	private double limit;
+	/* the number of permits currently held */
+	private int inFlight;
+	/* the baseline latency in nanoseconds, 0 = none observed */
+	private long baseline;
+	/* the number of completions in a window, set at the start of the window */
+	private int windowSize;
+	/* the completions in the current window */
+	private int windowCompletions;
+	/* the completions in the current window that were not congested */
+	private int windowSamples;
+	/* the total latency of the samples of the current window in nanoseconds */
+	private long windowLatency;
+	/* true if the limit was decreased in the current window */
+	private boolean decreased;
+
+	private final Lock lock = new ReentrantLock();
+	private final Condition available = lock.newCondition();
+
+	/**
+	 * Constructor. Creates a fixed limiter.
+	 *
+	 * @param maxInFlight
+	 *            the maximum number of statements in flight.
+	 */
+	public ConcurrencyLimiter(int maxInFlight) {
+		this(maxInFlight, false);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * If adaptive the limit starts at the minimum (or the maximum if it is
+	 * smaller than the default minimum) and grows from there.
+	 *
+	 * @param maxInFlight
+	 *            the maximum number of statements in flight.
+	 * @param adaptive
+	 *            true if the limit should adapt to the observed latencies and
+	 *            errors.
+	 */
+	public ConcurrencyLimiter(int maxInFlight, boolean adaptive) {
+		if (maxInFlight < 1) {
+			throw new IllegalArgumentException("maxInFlight must be at least 1");
+		}
+		this.maxLimit = maxInFlight;
+		this.minLimit = Math.min(DEFAULT_MIN_IN_FLIGHT, maxInFlight);
+		this.adaptive = adaptive;
+		this.limit = adaptive ? minLimit : maxLimit;
+		this.windowSize = (int) limit;
+	}
+
+	/**
+	 * Returns true if the limit adapts to observed latency and errors.
+	 *
+	 * @return true if adaptive.
+	 */
+	public boolean isAdaptive() {
+		return adaptive;
+	}
+
+	/**
+	 * Get the current limit.
+	 *
+	 * @return the current maximum number of statements in flight.
+	 */
+	public int getLimit() {
+		lock.lock();
+		try {
+			return (int) limit;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Get the number of statements in flight.
+	 *
+	 * @return the number of permits currently held.
+	 */
+	public int getInFlight() {
+		lock.lock();
+		try {
+			return inFlight;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Acquire a permit to send a statement. Blocks until the number in flight
+	 * is below the limit.
+	 *
+	 * @throws InterruptedException
+	 *             if interrupted while waiting.
+	 */
+	public void acquire() throws InterruptedException {
+		lock.lock();
+		try {
+			while (inFlight >= (int) limit) {
+				available.await();
+			}
+			inFlight++;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Release a permit.
+	 *
+	 * @param latencyNanos
+	 *            The time the statement took to complete in nanoseconds.
+	 * @param error
+	 *            The error the statement failed with, or null if it succeeded.
+	 */
+	public void release(long latencyNanos, Throwable error) {
+		lock.lock();
+		try {
+			inFlight--;
+			if (adaptive) {
+				adjust(latencyNanos, error != null && isCongestion(error));
+			}
+			available.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Record the outcome of an attempt without releasing the permit. Used when
+	 * a failed statement is retried while it continues to hold its permit so
+	 * that the failure still adjusts the limit.
+	 * 
+	 * @param latencyNanos
+	 *            The time the attempt took to complete in nanoseconds.
+	 * @param error
+	 *            The error the attempt failed with, or null if it succeeded.
+	 */
+	public void record(long latencyNanos, Throwable error) {
+		if (adaptive) {
+			lock.lock();
+			try {
+				adjust(latencyNanos, error != null && isCongestion(error));
+				available.signalAll();
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	/*
+	 * Adjust the limit. Must be called with the lock held.
+	 */
+	private void adjust(long latencyNanos, boolean congested) {
+		if (congested) {
+			decrease(ERROR_BACKOFF);
+		} else {
+			windowLatency += latencyNanos;
+			windowSamples++;
+			limit = Math.min(maxLimit, limit + 1.0 / limit);
+		}
+		if (++windowCompletions >= windowSize) {
+			endWindow();
+		}
+	}
+
+	/*
+	 * Compare the mean latency of the window with the baseline and start the
+	 * next window. Must be called with the lock held.
+	 */
+	private void endWindow() {
+		if (windowSamples > 0) {
+			long mean = windowLatency / windowSamples;
+			if (baseline == 0) {
+				baseline = mean;
+			} else {
+				if (mean > baseline * LATENCY_TOLERANCE) {
+					decrease(LATENCY_BACKOFF);
+				}
+				baseline += (mean - baseline) >> (mean < baseline ? BASELINE_FALL : BASELINE_RISE);
+			}
+		}
+		windowSize = (int) limit;
+		windowCompletions = 0;
+		windowSamples = 0;
+		windowLatency = 0;
+		decreased = false;
+	}
+
+	/*
+	 * Decrease the limit by the factor unless it was decreased in this window.
+	 * Must be called with the lock held.
+	 */
+	private void decrease(double factor) {
+		if (!decreased) {
+			limit = Math.max(minLimit, limit * factor);
+			decreased = true;
+		}
+	}
+
+	/**
+	 * Determine if the error indicates that the cluster is congested. Timeouts,
+	 * overloads and busy or unavailable hosts are congestion. Other errors
+	 * (e.g. invalid queries) are not.
+	 *
+	 * @param error
+	 *            the error to check.
+	 * @return true if the error indicates congestion.
+	 */
+	public static boolean isCongestion(Throwable error) {
+		return error instanceof WriteTimeoutException || error instanceof ReadTimeoutException
+				|| error instanceof OperationTimedOutException || error instanceof OverloadedException
+				|| error instanceof BusyPoolException || error instanceof UnavailableException
+				|| error instanceof NoHostAvailableException;
+	}
+}
@@ -18,6 +18,7 @@
 
 package org.apache.jena.cassandra.graph;
 
+import java.util.Collections;
 import java.util.Iterator;
 
 import org.apache.commons.logging.Log;
@@ -34,6 +35,7 @@ import org.apache.jena.riot.system.PrefixMap;
 import org.apache.jena.sparql.JenaTransactionException;
 import org.apache.jena.sparql.core.DatasetGraphBase;
 import org.apache.jena.sparql.core.Quad;
+import org.apache.jena.util.iterator.ExtendedIterator;
 import org.apache.jena.util.iterator.NiceIterator;
 import org.apache.jena.util.iterator.WrappedIterator;
 import org.apache.thrift.TException;
@@ -76,16 +78,25 @@ public class DatasetGraphCassandra extends DatasetGraphBase {
 		this.connection = connection;
 		this.keyspace = keyspace;
 		defaultGraph = Quad.defaultGraphIRI;
+		StageGeneratorCassandra.register(getContext());
+		OpExecutorCassandra.register(getContext());
 	}
 
+	/**
+	 * List the named graphs. The graph is the partition key of the GSPO table
+	 * so SELECT DISTINCT returns each graph once. The graph names are read a
+	 * page at a time as the iterator is read.
+	 */
 	@Override
 	public Iterator<Node> listGraphNodes() {
-		String query = String.format("SELECT %1$s FROM %s.%s where token(%1$s)>%s", ColumnName.G, keyspace,
-				CassandraConnection.getTable(GRAPH_TABLE), Long.MIN_VALUE);
-		LOG.debug(query);
-		ResultSet rs = connection.getSession(keyspace).execute(query);
-		return WrappedIterator.create(rs.iterator()).mapWith(new RowToNode()).filterDrop(new FindNull<Node>()).toSet()
-				.iterator();
+		String query = String.format("SELECT DISTINCT %s FROM %s", ColumnName.G,
+				CassandraConnection.getTable(GRAPH_TABLE));
+		ResultSet rs = connection.executeQuery(keyspace, query, Collections.emptyList(),
+				connection.getFetchSize(GRAPH_TABLE));
+		return WrappedIterator.create(rs.iterator())
+				.mapWith(new RowToNode(QueryPattern.getNodeResolver(connection, keyspace)))
+				.filterDrop(new FindNull<Node>())
+				.filterDrop(Quad::isDefaultGraph);
 	}
 
 	@Override
@@ -100,15 +111,52 @@ public class DatasetGraphCassandra extends DatasetGraphBase {
 		return pattern.doFind( keyspace);
 	}
 
+	/**
+	 * Find the distinct values of one position of the quads that match a
+	 * pattern, for example the subjects of all the graphs. See
+	 * QueryPattern.findDistinct() for how the values are read.
+	 * 
+	 * @param g
+	 *            The graph.
+	 * @param s
+	 *            The subject.
+	 * @param p
+	 *            The predicate.
+	 * @param o
+	 *            The object.
+	 * @param column
+	 *            The position, one of S, P, O or G.
+	 * @return An iterator over the distinct nodes.
+	 */
+	public ExtendedIterator<Node> findDistinct(Node g, Node s, Node p, Node o, ColumnName column) {
+		QueryPattern pattern = new QueryPattern(connection, g, Triple.createMatch(s, p, o));
+		return pattern.findDistinct(keyspace, column);
+	}
+
+	/**
+	 * Find the quads in the named graphs.
+	 * 
+	 * If the graph is not given and the pattern can be found by a partition
+	 * key (the subject, predicate or object) the quads are found in one query
+	 * and those in the default graph are dropped. Otherwise the pattern is
+	 * found separately in each named graph, so the default graph quads are
+	 * not read.
+	 */
 	@Override
 	public Iterator<Quad> findNG(Node g, Node s, Node p, Node o) {
-		QueryPattern pattern = new QueryPattern(connection, g, Triple.createMatch(s, p, o));
-		try {
-			return pattern.doFind( keyspace, "graph <> " + connection.valueOf(Quad.defaultGraphIRI));
-		} catch (TException e) {
-			LOG.error("Unable to execute findNG", e);
+		if (Quad.isDefaultGraph(g)) {
 			return NiceIterator.emptyIterator();
 		}
+		Triple triple = Triple.createMatch(s, p, o);
+		if (g != null && g.isConcrete() && !Quad.isUnionGraph(g)) {
+			return find(g, s, p, o);
+		}
+		QueryPattern pattern = new QueryPattern(connection, Node.ANY, triple);
+		if (!pattern.isScan(keyspace)) {
+			return pattern.doFind(keyspace).filterDrop(q -> Quad.isDefaultGraph(q.getGraph()));
+		}
+		return WrappedIterator.createIteratorIterator(WrappedIterator.create(listGraphNodes())
+				.mapWith(graph -> find(graph, s, p, o)));
 	}
 
 	@Override
@@ -191,10 +239,19 @@ public class DatasetGraphCassandra extends DatasetGraphBase {
 		return getGraph( Quad.unionGraph ).isEmpty();
 	}
 
+	/**
+	 * The number of quads in the dataset. If the connection has a
+	 * QuadCountTable the size is read from it, otherwise the quads are
+	 * counted.
+	 */
 	@Override
 	public long size() {
 		QueryPattern pattern = new QueryPattern(connection, null, Triple.ANY);
 		try {
+			QuadCountTable counts = connection.getAuxiliaryTable(QuadCountTable.class);
+			if (counts != null) {
+				return counts.getCount(keyspace, null, null);
+			}
 			return pattern.getCount(keyspace);
 		} catch (TException e) {
 			LOG.error("Error building where clause", e);
@@ -0,0 +1,47 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jena.cassandra.graph;
+
+import org.apache.jena.sparql.core.Quad;
+
+/**
+ * Receives the quads whose writes still failed after all retries.
+ *
+ * A quad is written as one insert per table so a dead lettered quad may be
+ * present in some tables and not others. Inserts are idempotent so loading
+ * the dead lettered quads again makes all the tables consistent.
+ *
+ * A quad may be reported once for each of its failed statements.
+ * Implementations must be thread safe as they are called from the driver
+ * threads.
+ *
+ */
+public interface DeadLetterSink {
+
+	/**
+	 * Record a quad that could not be written.
+	 *
+	 * @param quad
+	 *            The quad.
+	 * @param statement
+	 *            The text of the statement that failed.
+	 * @param error
+	 *            The error from the last attempt.
+	 */
+	void deadLetter(Quad quad, String statement, Throwable error);
+}
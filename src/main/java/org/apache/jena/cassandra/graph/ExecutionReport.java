@@ -0,0 +1,269 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jena.cassandra.graph;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The outcome of the statements executed by a BulkExecutor.
+ *
+ * Counts the statements submitted, succeeded and failed, counts failures by
+ * error type and keeps a sample of the failed statements. Retries are counted
+ * separately: a statement that succeeds after a retry counts as succeeded and
+ * recovered, a statement that fails after its retries counts as failed. The sample is a
+ * reservoir sample so that failures from late in a long load are as likely to
+ * be kept as failures from the start.
+ *
+ * This class is thread safe.
+ *
+ */
+public class ExecutionReport {
+
+	/**
+	 * The maximum number of failed statements to keep.
+	 */
+	public static final int MAX_SAMPLES = 100;
+
+	private final AtomicLong submitted = new AtomicLong();
+	private final AtomicLong succeeded = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private final AtomicLong retried = new AtomicLong();
+	private final AtomicLong recovered = new AtomicLong();
+	private final AtomicLong deadLettered = new AtomicLong();
+	private final Map<String, AtomicLong> errors = new ConcurrentHashMap<String, AtomicLong>();
+	private final List<Failure> samples = new ArrayList<Failure>();
+	private final Random random = new Random();
+
+	/**
+	 * Record that a statement was submitted.
+	 */
+	/* package private */ void submitted() {
+		submitted.incrementAndGet();
+	}
+
+	/**
+	 * Record that a statement succeeded.
+	 */
+	/* package private */ void succeeded() {
+		succeeded.incrementAndGet();
+	}
+
+	/**
+	 * Record that a statement is being retried.
+	 */
+	/* package private */ void retried() {
+		retried.incrementAndGet();
+	}
+
+	/**
+	 * Record that a statement succeeded after being retried.
+	 */
+	/* package private */ void recovered() {
+		recovered.incrementAndGet();
+	}
+
+	/**
+	 * Record that a failed statement was sent to the dead letter sink.
+	 */
+	/* package private */ void deadLettered() {
+		deadLettered.incrementAndGet();
+	}
+
+	/**
+	 * Record that a statement failed.
+	 *
+	 * @param statement
+	 *            the text of the statement.
+	 * @param error
+	 *            the error.
+	 */
+	/* package private */ void failed(String statement, Throwable error) {
+		long count = failed.incrementAndGet();
+		errors.computeIfAbsent(error.getClass().getSimpleName(), k -> new AtomicLong()).incrementAndGet();
+		synchronized (samples) {
+			Failure failure = new Failure(statement, error);
+			if (samples.size() < MAX_SAMPLES) {
+				samples.add(failure);
+			} else {
+				long idx = (long) (random.nextDouble() * count);
+				if (idx < MAX_SAMPLES) {
+					samples.set((int) idx, failure);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Get the number of statements submitted.
+	 *
+	 * @return the number of statements submitted.
+	 */
+	public long getSubmitted() {
+		return submitted.get();
+	}
+
+	/**
+	 * Get the number of statements that succeeded.
+	 *
+	 * @return the number of statements that succeeded.
+	 */
+	public long getSucceeded() {
+		return succeeded.get();
+	}
+
+	/**
+	 * Get the number of statements that failed.
+	 *
+	 * @return the number of statements that failed.
+	 */
+	public long getFailed() {
+		return failed.get();
+	}
+
+	/**
+	 * Get the number of retries. A statement retried more than once is
+	 * counted for each retry.
+	 *
+	 * @return the number of retries.
+	 */
+	public long getRetried() {
+		return retried.get();
+	}
+
+	/**
+	 * Get the number of statements that succeeded after at least one retry.
+	 *
+	 * @return the number of recovered statements.
+	 */
+	public long getRecovered() {
+		return recovered.get();
+	}
+
+	/**
+	 * Get the number of failed statements that were sent to the dead letter
+	 * sink.
+	 *
+	 * @return the number of dead lettered statements.
+	 */
+	public long getDeadLettered() {
+		return deadLettered.get();
+	}
+
+	/**
+	 * Get the number of statements that have not yet completed.
+	 *
+	 * @return the number of statements pending.
+	 */
+	public long getPending() {
+		return submitted.get() - succeeded.get() - failed.get();
+	}
+
+	/**
+	 * Returns true if any statement failed.
+	 *
+	 * @return true if there were failures.
+	 */
+	public boolean hasFailures() {
+		return failed.get() > 0;
+	}
+
+	/**
+	 * Get the failure counts by error type (the simple class name of the
+	 * error).
+	 *
+	 * @return a sorted map of error type to count.
+	 */
+	public Map<String, Long> getErrorCounts() {
+		Map<String, Long> retval = new TreeMap<String, Long>();
+		for (Map.Entry<String, AtomicLong> entry : errors.entrySet()) {
+			retval.put(entry.getKey(), entry.getValue().get());
+		}
+		return retval;
+	}
+
+	/**
+	 * Get the sample of failed statements.
+	 *
+	 * @return the sampled failures.
+	 */
+	public List<Failure> getSampledFailures() {
+		synchronized (samples) {
+			return Collections.unmodifiableList(new ArrayList<Failure>(samples));
+		}
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+				"submitted: %s succeeded: %s failed: %s pending: %s retried: %s recovered: %s dead lettered: %s errors: %s",
+				getSubmitted(), getSucceeded(), getFailed(), getPending(), getRetried(), getRecovered(),
+				getDeadLettered(), getErrorCounts());
+	}
+
+	/**
+	 * A failed statement and the error it failed with.
+	 *
+	 */
+	public static class Failure {
+		private final String statement;
+		private final Throwable error;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param statement
+		 *            The text of the statement.
+		 * @param error
+		 *            the error.
+		 */
+		public Failure(String statement, Throwable error) {
+			this.statement = statement;
+			this.error = error;
+		}
+
+		/**
+		 * Get the text of the failed statement.
+		 *
+		 * @return the statement text.
+		 */
+		public String getStatement() {
+			return statement;
+		}
+
+		/**
+		 * Get the error the statement failed with.
+		 *
+		 * @return the error.
+		 */
+		public Throwable getError() {
+			return error;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s: %s", error, statement);
+		}
+	}
+}
@@ -18,12 +18,15 @@
 
 package org.apache.jena.cassandra.graph;
 
+import java.util.Collections;
 import java.util.concurrent.ExecutionException;
 import java.util.function.Function;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.jena.cassandra.graph.QueryPattern.FindNull;
+import org.apache.jena.cassandra.graph.QueryPattern.RowToNode;
 import org.apache.jena.graph.Capabilities;
 import org.apache.jena.graph.GraphEvents;
 import org.apache.jena.graph.Node;
@@ -31,10 +34,13 @@ import org.apache.jena.graph.Triple;
 import org.apache.jena.graph.impl.AllCapabilities;
 import org.apache.jena.graph.impl.GraphBase;
 import org.apache.jena.util.iterator.ExtendedIterator;
+import org.apache.jena.util.iterator.WrappedIterator;
 import org.apache.jena.shared.AddDeniedException;
 import org.apache.jena.sparql.core.Quad;
 import org.apache.thrift.TException;
 
+import com.datastax.driver.core.ResultSet;
+
 /**
  * The Cassandra graph implementation.
  *
@@ -58,6 +64,11 @@ public class GraphCassandra extends GraphBase {
 	 */
 	private final String keyspace;
 
+	/*
+	 * The predicate table ID. This is used for finding the predicates.
+	 */
+	private static final String PREDICATE_TABLE = "_p__";
+
 	private static final Log LOG = LogFactory.getLog(GraphCassandra.class);
 
 	/**
@@ -108,6 +119,63 @@ public class GraphCassandra extends GraphBase {
 		return graph;
 	}
 
+	/* package private */ CassandraConnection getConnection() {
+		return connection;
+	}
+
+	/* package private */ String getKeyspace() {
+		return keyspace;
+	}
+
+	/**
+	 * Find the distinct values of one position of the triples that match a
+	 * pattern, for example the subjects of the graph. See
+	 * QueryPattern.findDistinct() for how the values are read.
+	 * 
+	 * @param pattern
+	 *            The triple pattern.
+	 * @param column
+	 *            The position, one of S, P or O.
+	 * @return An iterator over the distinct nodes.
+	 */
+	public ExtendedIterator<Node> findDistinct(Triple pattern, ColumnName column) {
+		if (column == ColumnName.G) {
+			throw new IllegalArgumentException("Column must be S, P or O");
+		}
+		QueryPattern queryPattern = new QueryPattern(connection, graph, pattern);
+		return queryPattern.findDistinct(keyspace, column);
+	}
+
+	/**
+	 * List the predicates used in any graph of the keyspace. The predicates
+	 * are the partition keys of the PGOS table so they are read without
+	 * reading the quads.
+	 * 
+	 * @return An iterator over the predicates.
+	 */
+	public ExtendedIterator<Node> listPredicates() {
+		String query = String.format("SELECT DISTINCT %s FROM %s", ColumnName.P,
+				CassandraConnection.getTable(PREDICATE_TABLE));
+		ResultSet rs = connection.executeQuery(keyspace, query, Collections.emptyList(),
+				connection.getFetchSize(PREDICATE_TABLE));
+		return WrappedIterator.create(rs.iterator())
+				.mapWith(new RowToNode(QueryPattern.getNodeResolver(connection, keyspace)))
+				.filterDrop(new FindNull<Node>());
+	}
+
+	/**
+	 * Get the statistics used to order the triples of basic graph patterns
+	 * executed against this graph. Statistics are only available when a
+	 * QuadCountTable is registered with the connection. The statistics are
+	 * held by the connection and shared with the other instances for the
+	 * graph.
+	 * 
+	 * @return The graph statistics or null if there are none.
+	 */
+	public GraphStatisticsCassandra getStatistics() {
+		return connection.getStatistics(keyspace, graph);
+	}
+
 	@Override
 	public void performAdd(Triple t) {
 
@@ -168,17 +236,26 @@ public class GraphCassandra extends GraphBase {
 		return capabilities;
 	}
 
+	/**
+	 * Check if the graph is empty by reading at most one quad. The counts of
+	 * a QuadCountTable are not used as they may drift from the quads.
+	 */
 	@Override
 	public boolean isEmpty() {
 		QueryPattern pattern = new QueryPattern(connection, graph, Triple.ANY);
 		return !pattern.doContains(keyspace);
 	}
 
+	/**
+	 * The size of the graph. If the connection has a QuadCountTable the size
+	 * is read from it, otherwise the quads are counted.
+	 */
 	@Override
 	protected int graphBaseSize() {
 		QueryPattern pattern = new QueryPattern(connection, graph, Triple.ANY);
 		try {
-			long retval = pattern.getCount(keyspace);
+			QuadCountTable counts = connection.getAuxiliaryTable(QuadCountTable.class);
+			long retval = counts == null ? pattern.getCount(keyspace) : counts.getCount(keyspace, graph, null);
 			return retval > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) retval;
 		} catch (TException e) {
 			LOG.error("Error building where clause", e);
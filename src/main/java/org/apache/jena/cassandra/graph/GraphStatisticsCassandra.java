@@ -0,0 +1,229 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jena.cassandra.graph;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.jena.graph.Node;
+import org.apache.jena.vocabulary.RDF;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Cardinality estimates for the triple patterns of a graph, read from the
+ * QuadCountTable and the ClassCountTable.
+ *
+ * getStatistic() follows the contract of the Jena 3 GraphStatisticsHandler:
+ * Node.ANY (or null or a variable) matches anything and -1 means the count is
+ * not known. The counts only cover the predicate and the class of rdf:type
+ * patterns, so a concrete subject or object reduces the estimate by a fixed
+ * fan out.
+ *
+ * Counts are cached for a short time as the same patterns are estimated each
+ * time a basic graph pattern is planned.
+ *
+ */
+public class GraphStatisticsCassandra {
+
+	private static final Log LOG = LogFactory.getLog(GraphStatisticsCassandra.class);
+
+	/**
+	 * The estimated number of triples for a subject and predicate.
+	 */
+	public static final long SUBJECT_FAN_OUT = 10;
+
+	/**
+	 * The estimated number of triples for a predicate and object.
+	 */
+	public static final long OBJECT_FAN_OUT = 100;
+
+	/**
+	 * The default number of milliseconds to cache a count.
+	 */
+	public static final long DEFAULT_CACHE_MILLIS = 60000;
+
+	private static final Node TYPE = RDF.type.asNode();
+
+	private final QuadCountTable quadCounts;
+	private final ClassCountTable classCounts;
+	private final String keyspace;
+	private final Node graph;
+	private final Cache<List<Node>, Long> cache;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param quadCounts
+	 *            The quad count table.
+	 * @param classCounts
+	 *            The class count table, may be null.
+	 * @param keyspace
+	 *            The keyspace to read.
+	 * @param graph
+	 *            The graph name, Node.ANY for the union graph.
+	 * @param cacheMillis
+	 *            The number of milliseconds to cache a count.
+	 */
+	public GraphStatisticsCassandra(QuadCountTable quadCounts, ClassCountTable classCounts, String keyspace,
+			Node graph, long cacheMillis) {
+		this.quadCounts = quadCounts;
+		this.classCounts = classCounts;
+		this.keyspace = keyspace;
+		this.graph = graph;
+		this.cache = CacheBuilder.newBuilder().expireAfterWrite(cacheMillis, TimeUnit.MILLISECONDS)
+				.maximumSize(10000).build();
+	}
+
+	/**
+	 * Create the statistics for a graph from the auxiliary tables registered
+	 * with the connection.
+	 *
+	 * @param connection
+	 *            The connection.
+	 * @param keyspace
+	 *            The keyspace to read.
+	 * @param graph
+	 *            The graph name, Node.ANY for the union graph.
+	 * @return the statistics or null if the connection has no QuadCountTable.
+	 */
+	public static GraphStatisticsCassandra create(CassandraConnection connection, String keyspace, Node graph) {
+		QuadCountTable quadCounts = connection.getAuxiliaryTable(QuadCountTable.class);
+		if (quadCounts == null) {
+			return null;
+		}
+		return new GraphStatisticsCassandra(quadCounts, connection.getAuxiliaryTable(ClassCountTable.class),
+				keyspace, graph, DEFAULT_CACHE_MILLIS);
+	}
+
+	private static boolean isConcrete(Node node) {
+		return node != null && node.isConcrete();
+	}
+
+	/**
+	 * Estimate the number of triples that match a pattern.
+	 *
+	 * @param s
+	 *            The subject.
+	 * @param p
+	 *            The predicate.
+	 * @param o
+	 *            The object.
+	 * @return the estimate or -1 if it is not known.
+	 */
+	public long getStatistic(Node s, Node p, Node o) {
+		long count;
+		boolean objectBound = isConcrete(o);
+		if (!isConcrete(p)) {
+			count = getCount();
+		} else if (TYPE.equals(p) && objectBound) {
+			count = getClassCount(o);
+			if (count >= 0) {
+				return isConcrete(s) ? Math.min(count, 1) : count;
+			}
+			count = getPredicateCount(p);
+		} else {
+			count = getPredicateCount(p);
+		}
+		return estimate(count, isConcrete(s), objectBound);
+	}
+
+	/**
+	 * Reduce a count for the bound subject and object of a pattern.
+	 *
+	 * @param count
+	 *            The count of triples with the predicate, or -1 if not known.
+	 * @param subjectBound
+	 *            True if the subject is bound.
+	 * @param objectBound
+	 *            True if the object is bound.
+	 * @return the estimate or -1 if the count is not known.
+	 */
+	public static long estimate(long count, boolean subjectBound, boolean objectBound) {
+		if (count < 0) {
+			return count;
+		}
+		if (subjectBound && objectBound) {
+			return Math.min(count, 1);
+		}
+		if (subjectBound) {
+			return Math.min(count, SUBJECT_FAN_OUT);
+		}
+		if (objectBound) {
+			return Math.min(count, OBJECT_FAN_OUT);
+		}
+		return count;
+	}
+
+	/**
+	 * Get the number of triples in the graph.
+	 *
+	 * @return the count or -1 if it can not be read.
+	 */
+	public long getCount() {
+		return read(Arrays.asList(Node.ANY, Node.ANY), () -> quadCounts.getCount(keyspace, graph, null));
+	}
+
+	/**
+	 * Get the number of triples with a predicate.
+	 *
+	 * @param predicate
+	 *            The predicate.
+	 * @return the count or -1 if it can not be read.
+	 */
+	public long getPredicateCount(Node predicate) {
+		return read(Arrays.asList(predicate, Node.ANY), () -> quadCounts.getCount(keyspace, graph, predicate));
+	}
+
+	/**
+	 * Get the number of instances of a class.
+	 *
+	 * @param cls
+	 *            The class.
+	 * @return the count or -1 if there is no ClassCountTable or it can not be
+	 *         read.
+	 */
+	public long getClassCount(Node cls) {
+		if (classCounts == null) {
+			return -1;
+		}
+		return read(Arrays.asList(TYPE, cls), () -> classCounts.getCount(keyspace, graph, cls));
+	}
+
+	/*
+	 * A count read from a table.
+	 */
+	@FunctionalInterface
+	private interface CountReader {
+		long read() throws Exception;
+	}
+
+	private long read(List<Node> key, CountReader reader) {
+		try {
+			return cache.get(key, () -> reader.read());
+		} catch (ExecutionException | RuntimeException e) {
+			LOG.warn(String.format("Unable to read statistic %s for %s", key, graph), e);
+			return -1;
+		}
+	}
+}
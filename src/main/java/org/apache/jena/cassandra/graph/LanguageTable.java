@@ -0,0 +1,132 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jena.cassandra.graph;
+
+import java.util.Locale;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.util.iterator.ExtendedIterator;
+import org.apache.thrift.TException;
+
+/**
+ * A lookup table of the literals with a language tag by graph, predicate and
+ * language.
+ *
+ * The table is partitioned by graph and predicate and clustered by the lower
+ * case language tag, so the literals of a predicate in one language (and its
+ * sub-tags) are a single range of one partition. The quad tables can only
+ * find them by reading every literal of the predicate and filtering the
+ * languages on the client.
+ *
+ * Language tags only contain letters, digits and "-" so the tags that a
+ * SPARQL langMatches() range matches are the range itself and the tags that
+ * start with the range followed by "-". Those are the tags from the range up
+ * to (but excluding) the range followed by ".", the character after "-".
+ *
+ */
+public class LanguageTable extends PredicateIndexTable {
+
+	/**
+	 * The name of the table.
+	 */
+	public static final String NAME = "LANGUAGE";
+
+	/**
+	 * The SPARQL language range that matches any language.
+	 */
+	public static final String WILDCARD = "*";
+
+	/**
+	 * Constructor.
+	 *
+	 * @param connection
+	 *            The connection to use.
+	 */
+	public LanguageTable(CassandraConnection connection) {
+		super(connection, NAME, ColumnName.L.toString(), "text");
+	}
+
+	/*
+	 * The lower case language of literals with a language.
+	 */
+	@Override
+	protected Object getValue(Node object) {
+		if (!object.isLiteral() || object.getLiteralLanguage().isEmpty()) {
+			return null;
+		}
+		return object.getLiteralLanguage().toLowerCase(Locale.ROOT);
+	}
+
+	/**
+	 * Find the literals of a predicate in a graph whose language tag matches a
+	 * SPARQL language range. The match is case insensitive.
+	 *
+	 * @param keyspace
+	 *            The keyspace to read.
+	 * @param graph
+	 *            The graph, must be concrete.
+	 * @param predicate
+	 *            The predicate, must be concrete.
+	 * @param range
+	 *            The language range, for example "en", "en-GB" or "*".
+	 * @return the triples of the literals, or null if the range is empty as
+	 *         the literals without a language are not in the table.
+	 * @throws TException
+	 *             on encoding error.
+	 */
+	public ExtendedIterator<Triple> findMatches(String keyspace, Node graph, Node predicate, String range)
+			throws TException {
+		if (range.isEmpty()) {
+			return null;
+		}
+		String lower = range.toLowerCase(Locale.ROOT);
+		if (WILDCARD.equals(lower)) {
+			return find(keyspace, graph, predicate, String.format(" AND %s > ?", getColumn()), "");
+		}
+		return find(keyspace, graph, predicate, String.format(" AND %1$s >= ? AND %1$s < ?", getColumn()), lower,
+				lower + ".");
+	}
+
+	/**
+	 * Find the literals of a predicate in a graph with a language tag. The
+	 * match is case insensitive so the tag of each literal should be checked
+	 * if the case matters.
+	 *
+	 * @param keyspace
+	 *            The keyspace to read.
+	 * @param graph
+	 *            The graph, must be concrete.
+	 * @param predicate
+	 *            The predicate, must be concrete.
+	 * @param lang
+	 *            The language tag.
+	 * @return the triples of the literals, or null if the tag is empty as the
+	 *         literals without a language are not in the table.
+	 * @throws TException
+	 *             on encoding error.
+	 */
+	public ExtendedIterator<Triple> findLanguage(String keyspace, Node graph, Node predicate, String lang)
+			throws TException {
+		if (lang.isEmpty()) {
+			return null;
+		}
+		return find(keyspace, graph, predicate, String.format(" AND %s = ?", getColumn()),
+				lang.toLowerCase(Locale.ROOT));
+	}
+}
@@ -0,0 +1,383 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jena.cassandra.graph;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.jena.graph.Node;
+import org.apache.jena.riot.thrift.ThriftConvert;
+import org.apache.jena.riot.thrift.wire.RDF_Term;
+import org.apache.jena.sparql.core.Quad;
+import org.apache.thrift.TDeserializer;
+import org.apache.thrift.TException;
+
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Statement;
+import com.datastax.driver.core.exceptions.DriverException;
+import com.datastax.driver.core.utils.Bytes;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Lists;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
+
+/**
+ * A content addressed store of large literals.
+ *
+ * Each quad is written to the four quad tables, so a literal object is stored
+ * four times (as the serialized object and in the obj_value column) on each
+ * replica. When a LiteralStore is registered with the connection the
+ * literals whose lexical form is longer than the threshold are written once
+ * to the LITERAL_STORE table, LZ4 compressed, keyed by a digest of the
+ * serialized literal. The object column of the quad tables holds the digest
+ * instead of the literal and the obj_value and obj_int columns are not
+ * written. The data type and language are still written so the rows are
+ * known to be literals.
+ *
+ * The digest is a zero byte followed by the SHA-256 hash of the serialized
+ * literal. A serialized node never starts with a zero byte so the digest can
+ * not be mistaken for a node. As the digest is the object key a pattern with
+ * a large literal object is still found with the primary key.
+ *
+ * The body is written before the quad, as a prerequisite statement of the
+ * insert, once per keyspace: the digests whose inserts have succeeded in a
+ * keyspace are kept in a cache of WRITTEN_CACHE_SIZE digests, which is cleared
+ * when the tables of the keyspace are truncated or deleted. A quad whose body
+ * can not be written is not written.
+ *
+ * The bodies are read when a row with a digest is converted to a quad, or
+ * together for a page of rows before it is converted, and are kept in a cache
+ * limited by the total length of the lexical forms. The body is shared by
+ * every quad with the literal so it is not removed when a quad is deleted.
+ * The store must be registered for every load into the keyspace and
+ * whenever the keyspace is read.
+ *
+ */
+public class LiteralStore implements AuxiliaryTable {
+
+	private static final Log LOG = LogFactory.getLog(LiteralStore.class);
+
+	/**
+	 * The name of the table.
+	 */
+	public static final String NAME = "LITERAL_STORE";
+
+	/**
+	 * The default length of the lexical form above which literals are stored.
+	 */
+	public static final int DEFAULT_THRESHOLD = 1024;
+
+	/**
+	 * The default total length of the lexical forms in the cache.
+	 */
+	public static final long DEFAULT_CACHE_SIZE = 16 * 1024 * 1024;
+
+	/**
+	 * The length of a digest in bytes.
+	 */
+	public static final int DIGEST_LENGTH = 33;
+
+	/**
+	 * The number of digests known to be stored that are cached per keyspace.
+	 */
+	public static final long WRITTEN_CACHE_SIZE = 100000;
+
+	private static final String INSERT = String.format("INSERT INTO %s (digest, length, body) VALUES (?, ?, ?)",
+			NAME);
+
+	private static final String SELECT = String.format("SELECT length, body FROM %s WHERE digest = ?", NAME);
+
+	private static final LZ4Compressor COMPRESSOR = LZ4Factory.fastestInstance().fastCompressor();
+	private static final LZ4FastDecompressor DECOMPRESSOR = LZ4Factory.fastestInstance().fastDecompressor();
+
+	private final CassandraConnection connection;
+	private final int threshold;
+	/* the literals by digest, to resolve the digests read from any keyspace */
+	private final Cache<ByteBuffer, Node> cache;
+	/* the digests whose bodies are known to be stored, by keyspace */
+	private final Map<String, Cache<ByteBuffer, Boolean>> written;
+
+	/**
+	 * Constructor with the default threshold and cache size.
+	 *
+	 * @param connection
+	 *            The connection to use.
+	 */
+	public LiteralStore(CassandraConnection connection) {
+		this(connection, DEFAULT_THRESHOLD, DEFAULT_CACHE_SIZE);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param connection
+	 *            The connection to use.
+	 * @param threshold
+	 *            Literals with lexical forms longer than this are stored. Must
+	 *            be the same for every load into the keyspace.
+	 * @param cacheSize
+	 *            The total length of the lexical forms to cache.
+	 */
+	public LiteralStore(CassandraConnection connection, int threshold, long cacheSize) {
+		this.connection = connection;
+		this.threshold = threshold;
+		this.cache = CacheBuilder.newBuilder().maximumWeight(cacheSize)
+				.weigher((ByteBuffer k, Node v) -> v.getLiteralLexicalForm().length()).build();
+		this.written = new ConcurrentHashMap<String, Cache<ByteBuffer, Boolean>>();
+	}
+
+	/*
+	 * Get the cache of the digests known to be stored in the keyspace.
+	 */
+	private Cache<ByteBuffer, Boolean> getWritten(String keyspace) {
+		return written.computeIfAbsent(keyspace,
+				k -> CacheBuilder.newBuilder().maximumSize(WRITTEN_CACHE_SIZE).build());
+	}
+
+	/**
+	 * Get the length of the lexical form above which literals are stored.
+	 *
+	 * @return the threshold.
+	 */
+	public int getThreshold() {
+		return threshold;
+	}
+
+	/**
+	 * Check if a node is stored in this table.
+	 *
+	 * @param node
+	 *            The node.
+	 * @return true if the node is a literal longer than the threshold.
+	 */
+	public boolean isStored(Node node) {
+		return node.isLiteral() && node.getLiteralLexicalForm().length() > threshold;
+	}
+
+	/**
+	 * Check if the value of an object column is a digest.
+	 *
+	 * @param bytes
+	 *            The value of the column.
+	 * @return true if the value is a digest.
+	 */
+	public static boolean isDigest(ByteBuffer bytes) {
+		return bytes != null && bytes.remaining() == DIGEST_LENGTH && bytes.get(bytes.position()) == 0;
+	}
+
+	/**
+	 * Get the digest of a literal.
+	 *
+	 * @param node
+	 *            The literal.
+	 * @return the digest.
+	 * @throws TException
+	 *             on encoding error.
+	 */
+	public ByteBuffer getDigest(Node node) throws TException {
+		return digestOf(connection.bytesOf(node));
+	}
+
+	private static ByteBuffer digestOf(ByteBuffer serialized) {
+		ByteBuffer digest = ByteBuffer.allocate(DIGEST_LENGTH);
+		digest.put((byte) 0).put(Hashing.sha256().hashBytes(serialized.array()).asBytes());
+		digest.flip();
+		return digest;
+	}
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	@Override
+	public String[] getCreateTableStatements() {
+		return new String[] { String
+				.format("CREATE TABLE IF NOT EXISTS %s (digest blob PRIMARY KEY, length int, body blob)", NAME) };
+	}
+
+	@Override
+	public Iterator<String> getDeleteTableStatements() {
+		return Arrays.asList(String.format("DROP TABLE IF EXISTS %s", NAME)).iterator();
+	}
+
+	/*
+	 * The body is a prerequisite of the quad, there are no statements to add
+	 * to the insert.
+	 */
+	@Override
+	public List<Statement> getInsertStatements(String keyspace, Quad quad) {
+		return Collections.emptyList();
+	}
+
+	/*
+	 * The body is written before the quad unless it is known to be stored.
+	 * Writing it again is harmless so it may be retried.
+	 */
+	@Override
+	public List<Statement> getPrerequisiteStatements(String keyspace, Quad quad) throws TException {
+		if (!isStored(quad.getObject())) {
+			return Collections.emptyList();
+		}
+		ByteBuffer serialized = connection.bytesOf(quad.getObject());
+		ByteBuffer digest = digestOf(serialized);
+		if (getWritten(keyspace).getIfPresent(digest) != null) {
+			return Collections.emptyList();
+		}
+		byte[] body = COMPRESSOR.compress(serialized.array());
+		Statement statement = connection.prepare(keyspace, INSERT).bind(digest, serialized.array().length,
+				ByteBuffer.wrap(body));
+		statement.setIdempotent(true);
+		return Collections.singletonList(statement);
+	}
+
+	/*
+	 * The body is only known to be stored once its insert has succeeded.
+	 */
+	@Override
+	public void prerequisitesWritten(String keyspace, Quad quad) {
+		if (isStored(quad.getObject())) {
+			try {
+				getWritten(keyspace).put(getDigest(quad.getObject()), Boolean.TRUE);
+			} catch (TException e) {
+				LOG.error(String.format("Unable to encode %s", quad.getObject()), e);
+			}
+		}
+	}
+
+	/*
+	 * Other quads may have the literal so the body is kept.
+	 */
+	@Override
+	public List<Statement> getDeleteStatements(String keyspace, Quad quad) {
+		return Collections.emptyList();
+	}
+
+	/*
+	 * The bodies must be written again after the store is truncated.
+	 */
+	@Override
+	public void clearCache(String keyspace) {
+		written.remove(keyspace);
+	}
+
+	/**
+	 * Read the literals of the digests that are not in the cache so that
+	 * resolve() finds them there, for example the digests of a page of quads
+	 * before it is decoded. At most MAX_READS_IN_FLIGHT digests are read in
+	 * parallel. Digests that can not be read are left for resolve() to read
+	 * and report.
+	 *
+	 * @param keyspace
+	 *            The keyspace to read.
+	 * @param digests
+	 *            The digests.
+	 */
+	public void readLiterals(String keyspace, Collection<ByteBuffer> digests) {
+		List<ByteBuffer> missing = new ArrayList<ByteBuffer>();
+		for (ByteBuffer digest : new LinkedHashSet<ByteBuffer>(digests)) {
+			if (cache.getIfPresent(digest) == null) {
+				missing.add(digest);
+			}
+		}
+		for (List<ByteBuffer> part : Lists.partition(missing, CassandraConnection.MAX_READS_IN_FLIGHT)) {
+			Map<ByteBuffer, ListenableFuture<ResultSet>> reads = new LinkedHashMap<ByteBuffer, ListenableFuture<ResultSet>>();
+			try {
+				for (ByteBuffer digest : part) {
+					reads.put(digest,
+							connection.executeQueryAsync(keyspace, SELECT, Collections.singletonList(digest), 1));
+				}
+			} catch (DriverException e) {
+				LOG.debug("Unable to read the literals of a page", e);
+			}
+			for (Map.Entry<ByteBuffer, ListenableFuture<ResultSet>> read : reads.entrySet()) {
+				try {
+					Row row = read.getValue().get().one();
+					if (row != null) {
+						cache.put(read.getKey(), toLiteral(row));
+					}
+				} catch (ExecutionException | DriverException | TException e) {
+					LOG.debug(String.format("Unable to read literal %s", Bytes.toHexString(read.getKey())), e);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Get the literal for a digest, from the cache if it has been read before.
+	 *
+	 * @param keyspace
+	 *            The keyspace to read.
+	 * @param digest
+	 *            The digest.
+	 * @return the literal or null if it is not in the table.
+	 */
+	public Node resolve(String keyspace, ByteBuffer digest) {
+		Node node = cache.getIfPresent(digest);
+		if (node != null) {
+			return node;
+		}
+		try {
+			ResultSet rs = connection.executeQuery(keyspace, SELECT, Collections.singletonList(digest), 1);
+			Row row = rs.one();
+			if (row == null) {
+				LOG.error(String.format("No literal for digest %s", Bytes.toHexString(digest)));
+				return null;
+			}
+			node = toLiteral(row);
+			cache.put(digest, node);
+			return node;
+		} catch (TException | DriverException e) {
+			LOG.error(String.format("Unable to read literal %s", Bytes.toHexString(digest)), e);
+			return null;
+		}
+	}
+
+	/*
+	 * Decompress and decode the literal of a row of the table.
+	 */
+	private static Node toLiteral(Row row) throws TException {
+		ByteBuffer body = row.getBytes(1);
+		byte[] compressed = new byte[body.remaining()];
+		body.duplicate().get(compressed);
+		RDF_Term term = new RDF_Term();
+		new TDeserializer().deserialize(term, DECOMPRESSOR.decompress(compressed, row.getInt(0)));
+		return ThriftConvert.convert(term);
+	}
+}
@@ -0,0 +1,285 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jena.cassandra.graph;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import org.apache.jena.datatypes.xsd.XSDDatatype;
+import org.apache.jena.graph.Node;
+import org.apache.jena.riot.thrift.ThriftConvert;
+import org.apache.jena.riot.thrift.wire.RDF_Term;
+import org.apache.jena.sparql.core.Quad;
+import org.apache.thrift.TDeserializer;
+import org.apache.thrift.TException;
+
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Statement;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+/**
+ * A lookup table of the quads with literal objects by literal.
+ *
+ * The quad tables find the quads of a literal through the secondary indexes
+ * on the obj_int, obj_value and obj_dtype columns, which are read on every
+ * node of the cluster. When this table is registered with the connection the
+ * quads of a literal are read from one partition of it instead. When the
+ * connection does not create the indexes (see
+ * CassandraConnection.setSecondaryIndexes()) this table is always used.
+ *
+ * The table is partitioned by a 64 bit hash of the literal key: the value,
+ * data type and lower case language of the literal. Literals with an obj_int
+ * value are keyed by the integer value and xsd:integer (so "1"^^xsd:int and
+ * "01"^^xsd:long are the same key) and other literals by their lexical form
+ * and data type. It is clustered by graph, predicate, subject and object so
+ * the quads of a literal in a graph, or with a predicate in a graph, are one
+ * range of the partition. Different keys may have the same hash so the key
+ * of each object read is checked on the client. The object column holds the
+ * digest of the literals kept in the LiteralStore, as the quad tables do.
+ *
+ * Once the table is registered every literal object is found in it, so it
+ * must be complete: either registered before any data is written to the
+ * keyspace or filled from the quad tables with rebuild().
+ *
+ */
+public class LiteralTable implements AuxiliaryTable {
+
+	/**
+	 * The name of the table.
+	 */
+	public static final String NAME = "LITERAL";
+
+	/* the clustering columns in order */
+	private static final List<ColumnName> CLUSTERING = Arrays.asList(ColumnName.G, ColumnName.P, ColumnName.S,
+			ColumnName.O);
+
+	/**
+	 * The name of the hash column.
+	 */
+	public static final String HASH = "obj_hash";
+
+	private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+	private static final String INSERT = String.format("INSERT INTO %s (%s, %s, %s, %s, %s) VALUES (?, ?, ?, ?, ?)",
+			NAME, HASH, ColumnName.G, ColumnName.P, ColumnName.S, ColumnName.O);
+
+	private static final String DELETE = String.format(
+			"DELETE FROM %s WHERE %s = ? AND %s = ? AND %s = ? AND %s = ? AND %s = ?", NAME, HASH, ColumnName.G,
+			ColumnName.P, ColumnName.S, ColumnName.O);
+
+	private final CassandraConnection connection;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param connection
+	 *            The connection to use.
+	 */
+	public LiteralTable(CassandraConnection connection) {
+		this.connection = connection;
+	}
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	@Override
+	public String[] getCreateTableStatements() {
+		return new String[] { String.format(
+				"CREATE TABLE IF NOT EXISTS %s (%s bigint, %s blob, %s blob, %s blob, %s blob, "
+						+ "PRIMARY KEY (%2$s, %3$s, %4$s, %5$s, %6$s))",
+				NAME, HASH, ColumnName.G, ColumnName.P, ColumnName.S, ColumnName.O) };
+	}
+
+	@Override
+	public Iterator<String> getDeleteTableStatements() {
+		return Arrays.asList(String.format("DROP TABLE IF EXISTS %s", NAME)).iterator();
+	}
+
+	@Override
+	public List<Statement> getInsertStatements(String keyspace, Quad quad) throws TException {
+		return getStatements(keyspace, quad, INSERT);
+	}
+
+	@Override
+	public List<Statement> getDeleteStatements(String keyspace, Quad quad) throws TException {
+		return getStatements(keyspace, quad, DELETE);
+	}
+
+	/*
+	 * One statement for literal objects, nothing for other quads.
+	 */
+	private List<Statement> getStatements(String keyspace, Quad quad, String cql) throws TException {
+		Long hash = getHash(quad.getObject());
+		if (hash == null) {
+			return Collections.emptyList();
+		}
+		return Collections.singletonList(connection.prepare(keyspace, cql).bind(hash,
+				connection.bytesOf(quad.getGraph()), connection.bytesOf(quad.getPredicate()),
+				connection.bytesOf(quad.getSubject()), connection.objectBytesOf(quad.getObject())));
+	}
+
+	/**
+	 * Add the quads already in the keyspace to the table. See
+	 * CassandraConnection.rebuildAuxiliaryTable().
+	 *
+	 * @param keyspace
+	 *            The keyspace to rebuild.
+	 * @return the report of the inserts.
+	 * @throws TException
+	 *             on encoding error.
+	 */
+	public ExecutionReport rebuild(String keyspace) throws TException {
+		return connection.rebuildAuxiliaryTable(keyspace, this);
+	}
+
+	/**
+	 * Get the key of a literal: the value, data type and lower case language.
+	 *
+	 * @param object
+	 *            The object node.
+	 * @return the value, data type and language, or null if the object is not
+	 *         a literal.
+	 */
+	public static List<String> getKey(Node object) {
+		if (!object.isLiteral()) {
+			return null;
+		}
+		Object value = ColumnName.I.getValue(new Quad(Quad.defaultGraphIRI, Node.ANY, Node.ANY, object));
+		if (value != null) {
+			return Arrays.asList(((BigDecimal) value).toBigInteger().toString(), XSDDatatype.XSDinteger.getURI(), "");
+		}
+		return Arrays.asList(object.getLiteralLexicalForm(), object.getLiteralDatatypeURI(),
+				object.getLiteralLanguage().toLowerCase(Locale.ROOT));
+	}
+
+	/**
+	 * Get the hash of the key of a literal, the partition key of the table.
+	 *
+	 * @param object
+	 *            The object node.
+	 * @return the hash, or null if the object is not a literal.
+	 */
+	public static Long getHash(Node object) {
+		List<String> key = getKey(object);
+		if (key == null) {
+			return null;
+		}
+		Hasher hasher = HASH_FUNCTION.newHasher();
+		for (String part : key) {
+			/* the length keeps the parts apart */
+			hasher.putInt(part.length()).putString(part, StandardCharsets.UTF_8);
+		}
+		return hasher.hash().asLong();
+	}
+
+	/**
+	 * Check if a quad read from the table has the key of the pattern object.
+	 *
+	 * @param pattern
+	 *            The pattern, the object must be a literal.
+	 * @return the filter.
+	 */
+	public static Predicate<Quad> getKeyFilter(Quad pattern) {
+		List<String> key = getKey(pattern.getObject());
+		return quad -> key.equals(getKey(quad.getObject()));
+	}
+
+	/**
+	 * Get the query for the quads of a literal. The hash of its key is
+	 * followed by the clustering columns that have a value in the pattern up to the
+	 * first one that does not.
+	 *
+	 * @param pattern
+	 *            The pattern, the object must be a literal. A null or
+	 *            Node.ANY graph is any graph.
+	 * @param select
+	 *            The columns to select.
+	 * @param values
+	 *            The list to add the values to bind to.
+	 * @return the query.
+	 * @throws TException
+	 *             on encoding error.
+	 */
+	public String getQuery(Quad pattern, String select, List<Object> values) throws TException {
+		StringBuilder query = new StringBuilder(
+				String.format("SELECT %s FROM %s WHERE %s = ?", select, NAME, HASH));
+		values.add(getHash(pattern.getObject()));
+		for (ColumnName column : CLUSTERING.subList(0, CLUSTERING.size() - 1)) {
+			Node node = column.getMatch(pattern);
+			if (node == null) {
+				break;
+			}
+			query.append(String.format(" AND %s = ?", column));
+			values.add(connection.bytesOf(node));
+		}
+		return query.toString();
+	}
+
+	/**
+	 * Get the columns to select to read quads with getQuadReader().
+	 *
+	 * @return the select list.
+	 */
+	public static String getQuadColumns() {
+		return String.format("%s, %s, %s, %s", ColumnName.G, ColumnName.S, ColumnName.P, ColumnName.O);
+	}
+
+	/**
+	 * Get a function that converts the rows of a query that selects
+	 * getQuadColumns() to quads. The function returns null for rows that can
+	 * not be decoded. Objects stored in the LiteralStore are read from it.
+	 *
+	 * @param keyspace
+	 *            The keyspace the rows are read from.
+	 * @return the row to quad function.
+	 */
+	public Function<Row, Quad> getQuadReader(String keyspace) {
+		TDeserializer dser = new TDeserializer();
+		return row -> {
+			try {
+				List<Node> nodes = new ArrayList<Node>(4);
+				for (int i = 0; i < 3; i++) {
+					nodes.add(convert(dser, row.getBytes(i)));
+				}
+				nodes.add(connection.objectOf(keyspace, row.getBytes(3)));
+				return new Quad(nodes.get(0), nodes.get(1), nodes.get(2), nodes.get(3));
+			} catch (TException e) {
+				return null;
+			}
+		};
+	}
+
+	private static Node convert(TDeserializer dser, ByteBuffer bytes) throws TException {
+		RDF_Term term = new RDF_Term();
+		dser.deserialize(term, bytes.array());
+		return ThriftConvert.convert(term);
+	}
+}
@@ -0,0 +1,110 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jena.cassandra.graph;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.sparql.core.Quad;
+
+/**
+ * A DeadLetterSink that writes the quads as N-Quads so that the output can be
+ * loaded again with the BulkLoader once the cluster has recovered.
+ *
+ * Each quad is written once no matter how many of its statements failed. The
+ * sink remembers the last RECENT_QUADS quads written so its memory is bounded;
+ * a quad whose statements fail further apart than that may be written twice,
+ * which is harmless as loading a quad again does not change the data.
+ * Quads in the default graph are written without a graph name.
+ *
+ */
+public class NQuadsDeadLetterSink implements DeadLetterSink, Closeable {
+
+	private static final Log LOG = LogFactory.getLog(NQuadsDeadLetterSink.class);
+
+	/**
+	 * The number of recently written quads that are not written again.
+	 */
+	public static final int RECENT_QUADS = 10000;
+
+	private final OutputStream out;
+	/* the recently written quads, least recently written first */
+	private final Map<Quad, Boolean> written = new LinkedHashMap<Quad, Boolean>() {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Quad, Boolean> eldest) {
+			return size() > RECENT_QUADS;
+		}
+	};
+	private long count;
+
+	/**
+	 * Constructor. Appends to the file.
+	 *
+	 * @param file
+	 *            The file to write the quads to.
+	 * @throws IOException
+	 *             if the file can not be opened.
+	 */
+	public NQuadsDeadLetterSink(File file) throws IOException {
+		this(new FileOutputStream(file, true));
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param out
+	 *            The stream to write the quads to.
+	 */
+	public NQuadsDeadLetterSink(OutputStream out) {
+		this.out = out;
+	}
+
+	@Override
+	public synchronized void deadLetter(Quad quad, String statement, Throwable error) {
+		LOG.error(String.format("Dead letter %s: %s", quad, statement), error);
+		if (written.put(quad, Boolean.TRUE) == null) {
+			RDFDataMgr.writeQuads(out, Collections.singletonList(quad).iterator());
+			count++;
+		}
+	}
+
+	/**
+	 * Get the number of quads written.
+	 *
+	 * @return the number of quads written.
+	 */
+	public synchronized long getCount() {
+		return count;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		out.close();
+	}
+}
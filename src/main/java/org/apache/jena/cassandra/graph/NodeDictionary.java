@@ -0,0 +1,587 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jena.cassandra.graph;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.jena.graph.Node;
+import org.apache.jena.sparql.core.Quad;
+import org.apache.thrift.TException;
+
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Statement;
+import com.datastax.driver.core.exceptions.DriverException;
+import com.datastax.driver.core.utils.Bytes;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Lists;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * A dictionary of the nodes of the quad tables by 64 bit id.
+ *
+ * Without a dictionary every key column of the quad tables holds the
+ * serialized node, so each IRI is written in full in all four tables. When a
+ * NodeDictionary is registered with the connection the graph, subject,
+ * predicate and object columns hold the 8 byte id of the node instead and
+ * the node is written once to the NODE_DICTIONARY table. The value, language
+ * and data type columns of literals are still written, so literal objects
+ * are read without the dictionary.
+ *
+ * The ids of a node are probed: the first is the 64 bit murmur3 hash of the
+ * serialized node and the following ones are the hashes with the number of
+ * the probe as seed. Before a quad is written the ids of its nodes are
+ * assigned by writing the nodes with INSERT IF NOT EXISTS at the first free
+ * id, so of two loaders writing different nodes with the same id one takes
+ * the next id. The inserts are prerequisite statements of the quad and the
+ * quad is encoded once they have completed. Nodes are never
+ * removed from the dictionary, so the id of a node is found by reading its
+ * ids in order until the node or a free id is found; a node with a free id
+ * is in no quad of the keyspace. A node whose MAX_PROBES ids are all taken
+ * can not be assigned an id and its quads are not written.
+ *
+ * As the ids depend on the order the nodes were written they are cached per
+ * keyspace, in both directions, and the caches of a keyspace are cleared
+ * when its tables are truncated or deleted, so the nodes of a quad are only
+ * written if they are not cached. assignIds() assigns the ids of many nodes
+ * at once by reading them first, so bulk loads only write the dictionary
+ * for nodes that are new to the keyspace.
+ *
+ * The node column holds the value of connection.objectBytesOf(), so a
+ * literal kept in the LiteralStore is written there once and the dictionary
+ * holds its digest.
+ *
+ * The dictionary must be registered for every load into the keyspace and
+ * whenever it is read. The nodes are shared between quads so they are not
+ * removed when a quad is deleted.
+ *
+ */
+public class NodeDictionary implements AuxiliaryTable {
+
+	private static final Log LOG = LogFactory.getLog(NodeDictionary.class);
+
+	/**
+	 * The name of the table.
+	 */
+	public static final String NAME = "NODE_DICTIONARY";
+
+	/**
+	 * The default number of nodes in the caches of each keyspace.
+	 */
+	public static final long DEFAULT_CACHE_SIZE = 100000;
+
+	/**
+	 * The length of an id in bytes.
+	 */
+	public static final int ID_LENGTH = 8;
+
+	/**
+	 * The number of ids probed for a node.
+	 */
+	public static final int MAX_PROBES = 16;
+
+	private static final String INSERT = String.format("INSERT INTO %s (id, node) VALUES (?, ?) IF NOT EXISTS",
+			NAME);
+
+	private static final String SELECT = String.format("SELECT node FROM %s WHERE id = ?", NAME);
+
+	private final CassandraConnection connection;
+	private final long cacheSize;
+	/* the nodes by id known to be in the dictionary, by keyspace */
+	private final Map<String, Cache<ByteBuffer, Node>> nodes;
+	/* the ids by node known to be in the dictionary, by keyspace */
+	private final Map<String, Cache<Node, ByteBuffer>> ids;
+	/* the probes written by the prerequisite statements, weak keys compare by identity */
+	private final Cache<Statement, Probe> writing;
+
+	/**
+	 * Constructor with the default cache size.
+	 *
+	 * @param connection
+	 *            The connection to use.
+	 */
+	public NodeDictionary(CassandraConnection connection) {
+		this(connection, DEFAULT_CACHE_SIZE);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param connection
+	 *            The connection to use.
+	 * @param cacheSize
+	 *            The number of nodes to cache for each keyspace.
+	 */
+	public NodeDictionary(CassandraConnection connection, long cacheSize) {
+		this.connection = connection;
+		this.cacheSize = cacheSize;
+		this.nodes = new ConcurrentHashMap<String, Cache<ByteBuffer, Node>>();
+		this.ids = new ConcurrentHashMap<String, Cache<Node, ByteBuffer>>();
+		this.writing = CacheBuilder.newBuilder().weakKeys().build();
+	}
+
+	/*
+	 * Get the cache of the nodes by id of the keyspace.
+	 */
+	private Cache<ByteBuffer, Node> getNodes(String keyspace) {
+		return nodes.computeIfAbsent(keyspace, k -> CacheBuilder.newBuilder().maximumSize(cacheSize).build());
+	}
+
+	/*
+	 * Get the cache of the ids by node of the keyspace.
+	 */
+	private Cache<Node, ByteBuffer> getIds(String keyspace) {
+		return ids.computeIfAbsent(keyspace, k -> CacheBuilder.newBuilder().maximumSize(cacheSize).build());
+	}
+
+	/*
+	 * Cache a node known to be in the dictionary of the keyspace.
+	 */
+	private void known(String keyspace, ByteBuffer id, Node node) {
+		getNodes(keyspace).put(id, node);
+		getIds(keyspace).put(node, id);
+	}
+
+	/**
+	 * Get one of the ids probed for a node.
+	 *
+	 * @param node
+	 *            The node.
+	 * @param probe
+	 *            The number of the probe, from 0.
+	 * @return the 8 byte id.
+	 * @throws TException
+	 *             on encoding error.
+	 */
+	public ByteBuffer getId(Node node, int probe) throws TException {
+		byte[] hash = Hashing.murmur3_128(probe).hashBytes(connection.bytesOf(node).array()).asBytes();
+		return ByteBuffer.wrap(Arrays.copyOf(hash, ID_LENGTH));
+	}
+
+	/**
+	 * Get the first id probed for a node, which is its id unless another node
+	 * had the id first.
+	 *
+	 * @param node
+	 *            The node.
+	 * @return the 8 byte id.
+	 * @throws TException
+	 *             on encoding error.
+	 */
+	public ByteBuffer getId(Node node) throws TException {
+		return getId(node, 0);
+	}
+
+	/**
+	 * Get the value of a key column for a node that is not in the
+	 * dictionary. It is not an id so it matches no quad.
+	 *
+	 * @return the value.
+	 */
+	public static ByteBuffer getUnknownId() {
+		return ByteBuffer.wrap(new byte[1]);
+	}
+
+	/**
+	 * Get the id of a node in the dictionary of a keyspace, from the cache if
+	 * it has been read or assigned before. The first id is read on its own,
+	 * as it is the id of almost every node, and the other ids are read in
+	 * parallel if it belongs to another node.
+	 *
+	 * @param keyspace
+	 *            The keyspace.
+	 * @param node
+	 *            The node.
+	 * @return the 8 byte id, or the value of getUnknownId() if the node is
+	 *         not in the dictionary.
+	 * @throws TException
+	 *             on encoding error or if the dictionary can not be read.
+	 */
+	public ByteBuffer getId(String keyspace, Node node) throws TException {
+		ByteBuffer id = getIds(keyspace).getIfPresent(node);
+		if (id != null) {
+			return id.duplicate();
+		}
+		ByteBuffer value = connection.objectBytesOf(node);
+		try {
+			id = getId(node);
+			Row row = connection.executeQuery(keyspace, SELECT, Collections.singletonList(id), 1).one();
+			if (row == null) {
+				return getUnknownId();
+			}
+			if (value.equals(row.getBytes(0))) {
+				known(keyspace, id, node);
+				return id;
+			}
+			List<ListenableFuture<ResultSet>> reads = new ArrayList<ListenableFuture<ResultSet>>();
+			for (int probe = 1; probe < MAX_PROBES; probe++) {
+				reads.add(connection.executeQueryAsync(keyspace, SELECT,
+						Collections.singletonList(getId(node, probe)), 1));
+			}
+			/* the node is at the first id that is free or holds it */
+			for (int probe = 1; probe < MAX_PROBES; probe++) {
+				row = reads.get(probe - 1).get().one();
+				if (row == null) {
+					break;
+				}
+				if (value.equals(row.getBytes(0))) {
+					id = getId(node, probe);
+					known(keyspace, id, node);
+					return id;
+				}
+			}
+			return getUnknownId();
+		} catch (ExecutionException | DriverException e) {
+			throw new TException(String.format("Unable to read the id of %s", node), e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new TException(String.format("Interrupted reading the id of %s", node), e);
+		}
+	}
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	@Override
+	public String[] getCreateTableStatements() {
+		return new String[] {
+				String.format("CREATE TABLE IF NOT EXISTS %s (id blob PRIMARY KEY, node blob)", NAME) };
+	}
+
+	@Override
+	public Iterator<String> getDeleteTableStatements() {
+		return Arrays.asList(String.format("DROP TABLE IF EXISTS %s", NAME)).iterator();
+	}
+
+	/*
+	 * The nodes are written to the dictionary before the quad, so there are no
+	 * statements to add to the insert. The ids of the nodes are assigned by
+	 * the prerequisite statements of the quad, or by assignIds(), before the
+	 * quad is encoded, so they are only read here if they are no longer
+	 * cached.
+	 */
+	@Override
+	public List<Statement> getInsertStatements(String keyspace, Quad quad) throws TException {
+		for (Node node : getNodes(quad)) {
+			if (getId(keyspace, node).remaining() != ID_LENGTH) {
+				throw new TException(String.format("No id is assigned to %s", node));
+			}
+		}
+		return Collections.emptyList();
+	}
+
+	/*
+	 * The nodes that are not known to be in the dictionary are written at
+	 * their first id with INSERT IF NOT EXISTS, which returns the node that is
+	 * already there if it did not apply. A retry finds its own write, which
+	 * is the same node.
+	 */
+	@Override
+	public List<Statement> getPrerequisiteStatements(String keyspace, Quad quad) throws TException {
+		Cache<Node, ByteBuffer> known = getIds(keyspace);
+		List<Statement> statements = new ArrayList<Statement>();
+		for (Node node : getNodes(quad)) {
+			if (known.getIfPresent(node) == null) {
+				statements.add(getWrite(keyspace, node, 0));
+			}
+		}
+		return statements;
+	}
+
+	/*
+	 * A node whose id belongs to another node is written at its next id.
+	 */
+	@Override
+	public List<Statement> prerequisiteExecuted(String keyspace, Quad quad, Statement statement, ResultSet result)
+			throws TException {
+		Probe probe = writing.getIfPresent(statement);
+		if (probe == null) {
+			return Collections.emptyList();
+		}
+		writing.invalidate(statement);
+		if (isWritten(keyspace, probe.node, probe.probe, result)) {
+			return Collections.emptyList();
+		}
+		if (probe.probe + 1 == MAX_PROBES) {
+			throw new TException(String.format("The %s ids of %s belong to other nodes", MAX_PROBES, probe.node));
+		}
+		return Collections.singletonList(getWrite(keyspace, probe.node, probe.probe + 1));
+	}
+
+	/*
+	 * Get the distinct nodes of a quad.
+	 */
+	private static Set<Node> getNodes(Quad quad) {
+		return new LinkedHashSet<Node>(
+				Arrays.asList(quad.getGraph(), quad.getSubject(), quad.getPredicate(), quad.getObject()));
+	}
+
+	/*
+	 * Get the statement that writes a node at one of its ids.
+	 */
+	private Statement getWrite(String keyspace, Node node, int probe) throws TException {
+		Statement statement = connection.prepare(keyspace, INSERT).bind(getId(node, probe),
+				connection.objectBytesOf(node));
+		/* a retry finds its own write, which is the same node */
+		statement.setIdempotent(true);
+		writing.put(statement, new Probe(node, probe));
+		return statement;
+	}
+
+	/*
+	 * Check the result of writing a node at one of its ids and cache the id
+	 * if the node is there. If another node was written first its value is
+	 * returned.
+	 */
+	private boolean isWritten(String keyspace, Node node, int probe, ResultSet rs) throws TException {
+		ByteBuffer id = getId(node, probe);
+		if (rs.wasApplied() || connection.objectBytesOf(node).equals(rs.one().getBytes("node"))) {
+			known(keyspace, id, node);
+			return true;
+		}
+		LOG.debug(String.format("%s has the same id %s as another node", node, Bytes.toHexString(id)));
+		return false;
+	}
+
+	/*
+	 * Other quads may have the nodes so they are kept.
+	 */
+	@Override
+	public List<Statement> getDeleteStatements(String keyspace, Quad quad) {
+		return Collections.emptyList();
+	}
+
+	/*
+	 * The nodes must be written again after the dictionary is truncated.
+	 */
+	@Override
+	public void clearCache(String keyspace) {
+		nodes.remove(keyspace);
+		ids.remove(keyspace);
+	}
+
+	/**
+	 * Make sure the nodes are in the dictionary. The nodes that are not known
+	 * to be in the dictionary of the keyspace are probed together: their ids
+	 * are read in parallel, the missing nodes are written in parallel and
+	 * the nodes whose id belongs to another node are probed again with their
+	 * next id. At most MAX_READS_IN_FLIGHT nodes are read or written at once
+	 * and the writes are retried according to the retry policy of the
+	 * connection.
+	 *
+	 * @param keyspace
+	 *            The keyspace to write.
+	 * @param nodes
+	 *            The nodes.
+	 * @return the nodes that could not be assigned an id, read or written.
+	 *         Quads with these nodes must not be written.
+	 * @throws TException
+	 *             on encoding error.
+	 */
+	public Set<Node> assignIds(String keyspace, Collection<Node> nodes) throws TException {
+		Cache<Node, ByteBuffer> known = getIds(keyspace);
+		Set<Node> failed = new HashSet<Node>();
+		Set<Node> pending = new LinkedHashSet<Node>();
+		for (Node node : nodes) {
+			if (known.getIfPresent(node) == null) {
+				pending.add(node);
+			}
+		}
+		for (int probe = 0; !pending.isEmpty(); probe++) {
+			if (probe == MAX_PROBES) {
+				LOG.error(String.format("The %s ids of %s belong to other nodes", MAX_PROBES, pending));
+				failed.addAll(pending);
+				break;
+			}
+			pending = probe(keyspace, pending, probe, failed);
+		}
+		return failed;
+	}
+
+	/*
+	 * Read and write one id of each of the nodes, at most MAX_READS_IN_FLIGHT
+	 * nodes at a time. Returns the nodes whose id belongs to another node.
+	 */
+	private Set<Node> probe(String keyspace, Set<Node> pending, int probe, Set<Node> failed) throws TException {
+		Set<Node> collided = new LinkedHashSet<Node>();
+		for (List<Node> part : Lists.partition(new ArrayList<Node>(pending),
+				CassandraConnection.MAX_READS_IN_FLIGHT)) {
+			probe(keyspace, part, probe, failed, collided);
+		}
+		return collided;
+	}
+
+	/*
+	 * Read and write one id of each of the nodes. The writes are retried
+	 * according to the retry policy of the connection.
+	 */
+	private void probe(String keyspace, List<Node> nodes, int probe, Set<Node> failed, Set<Node> collided)
+			throws TException {
+		Map<Node, ListenableFuture<ResultSet>> reads = new LinkedHashMap<Node, ListenableFuture<ResultSet>>();
+		for (Node node : nodes) {
+			reads.put(node, connection.executeQueryAsync(keyspace, SELECT,
+					Collections.singletonList(getId(node, probe)), 1));
+		}
+		Map<Node, ListenableFuture<ResultSet>> writes = new LinkedHashMap<Node, ListenableFuture<ResultSet>>();
+		for (Map.Entry<Node, ListenableFuture<ResultSet>> read : reads.entrySet()) {
+			Node node = read.getKey();
+			try {
+				Row row = read.getValue().get().one();
+				ByteBuffer id = getId(node, probe);
+				ByteBuffer value = connection.objectBytesOf(node);
+				if (row == null) {
+					Statement statement = connection.prepare(keyspace, INSERT).bind(id, value);
+					/* a retry finds its own write, which is the same node */
+					statement.setIdempotent(true);
+					writes.put(node, connection.executeUpdate(keyspace, statement));
+				} else if (value.equals(row.getBytes(0))) {
+					known(keyspace, id, node);
+				} else {
+					collided.add(node);
+				}
+			} catch (ExecutionException | DriverException e) {
+				LOG.error(String.format("Unable to read the id of %s", node), e);
+				failed.add(node);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				failed.add(node);
+			}
+		}
+		for (Map.Entry<Node, ListenableFuture<ResultSet>> write : writes.entrySet()) {
+			Node node = write.getKey();
+			try {
+				if (!isWritten(keyspace, node, probe, write.getValue().get())) {
+					collided.add(node);
+				}
+			} catch (ExecutionException | DriverException e) {
+				LOG.error(String.format("Unable to write %s", node), e);
+				failed.add(node);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				failed.add(node);
+			}
+		}
+	}
+
+	/**
+	 * Read the nodes of the ids that are not in the cache of the keyspace so
+	 * that getNode() finds them there, for example the ids of a page of
+	 * quads before it is decoded. At most MAX_READS_IN_FLIGHT ids are read in
+	 * parallel. Ids that can not be read are left for getNode() to read and
+	 * report.
+	 *
+	 * @param keyspace
+	 *            The keyspace to read.
+	 * @param ids
+	 *            The ids.
+	 */
+	public void readNodes(String keyspace, Collection<ByteBuffer> ids) {
+		Cache<ByteBuffer, Node> known = getNodes(keyspace);
+		List<ByteBuffer> missing = new ArrayList<ByteBuffer>();
+		for (ByteBuffer id : new LinkedHashSet<ByteBuffer>(ids)) {
+			if (known.getIfPresent(id) == null) {
+				missing.add(id);
+			}
+		}
+		for (List<ByteBuffer> part : Lists.partition(missing, CassandraConnection.MAX_READS_IN_FLIGHT)) {
+			Map<ByteBuffer, ListenableFuture<ResultSet>> reads = new LinkedHashMap<ByteBuffer, ListenableFuture<ResultSet>>();
+			try {
+				for (ByteBuffer id : part) {
+					reads.put(id, connection.executeQueryAsync(keyspace, SELECT, Collections.singletonList(id), 1));
+				}
+			} catch (DriverException e) {
+				LOG.debug("Unable to read the nodes of a page", e);
+			}
+			for (Map.Entry<ByteBuffer, ListenableFuture<ResultSet>> read : reads.entrySet()) {
+				try {
+					Row row = read.getValue().get().one();
+					if (row != null) {
+						known(keyspace, read.getKey(), connection.objectOf(keyspace, row.getBytes(0)));
+					}
+				} catch (ExecutionException | DriverException | TException e) {
+					LOG.debug(String.format("Unable to read node %s", Bytes.toHexString(read.getKey())), e);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Get the node of an id, from the cache of the keyspace if it has been
+	 * read before.
+	 *
+	 * @param keyspace
+	 *            The keyspace to read.
+	 * @param id
+	 *            The id.
+	 * @return the node or null if it is not in the dictionary.
+	 */
+	public Node getNode(String keyspace, ByteBuffer id) {
+		Node node = getNodes(keyspace).getIfPresent(id);
+		if (node != null) {
+			return node;
+		}
+		try {
+			Row row = connection.executeQuery(keyspace, SELECT, Collections.singletonList(id), 1).one();
+			if (row == null) {
+				LOG.error(String.format("No node for id %s", Bytes.toHexString(id)));
+				return null;
+			}
+			node = connection.objectOf(keyspace, row.getBytes(0));
+			known(keyspace, id, node);
+			return node;
+		} catch (TException | DriverException e) {
+			LOG.error(String.format("Unable to read node %s", Bytes.toHexString(id)), e);
+			return null;
+		}
+	}
+
+	/*
+	 * A node written at one of its ids.
+	 */
+	private static class Probe {
+		final Node node;
+		final int probe;
+
+		Probe(Node node, int probe) {
+			this.node = node;
+			this.probe = probe;
+		}
+	}
+}
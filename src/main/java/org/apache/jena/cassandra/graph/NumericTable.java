@@ -0,0 +1,116 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jena.cassandra.graph;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.sparql.expr.NodeValue;
+import org.apache.jena.util.iterator.ExtendedIterator;
+import org.apache.thrift.TException;
+
+/**
+ * A lookup table of the numeric literals by graph, predicate and value.
+ *
+ * The table is partitioned by graph and predicate and clustered by the value
+ * of the literal as a CQL double, which Cassandra orders numerically, so the
+ * literals of a predicate in a numeric range are a single range of one
+ * partition. Integers, decimals, floats and doubles (and the types derived
+ * from them) are in the table; their values are rounded to the nearest
+ * double.
+ *
+ * As the values are rounded the range is widened by one unit in the last
+ * place at each end and includes its bounds. The results may contain values
+ * just outside the requested range, so the SPARQL comparison must still be
+ * applied to them.
+ *
+ */
+public class NumericTable extends PredicateIndexTable {
+
+	/**
+	 * The name of the table.
+	 */
+	public static final String NAME = "NUMERIC";
+
+	/**
+	 * The name of the value column.
+	 */
+	public static final String VALUE = "obj_number";
+
+	/**
+	 * Constructor.
+	 *
+	 * @param connection
+	 *            The connection to use.
+	 */
+	public NumericTable(CassandraConnection connection) {
+		super(connection, NAME, VALUE, "double");
+	}
+
+	/*
+	 * The double value of numeric literals. -0.0 is stored as 0.0 as the two
+	 * are equal in SPARQL but not in Cassandra.
+	 */
+	@Override
+	protected Object getValue(Node object) {
+		if (!object.isLiteral()) {
+			return null;
+		}
+		NodeValue value = NodeValue.makeNode(object);
+		if (!value.isNumber()) {
+			return null;
+		}
+		double d = value.getDouble();
+		return d == 0.0 ? 0.0 : d;
+	}
+
+	/**
+	 * Find the numeric literals of a predicate in a graph with values in a
+	 * range. The range is approximate, see the class description.
+	 *
+	 * @param keyspace
+	 *            The keyspace to read.
+	 * @param graph
+	 *            The graph, must be concrete.
+	 * @param predicate
+	 *            The predicate, must be concrete.
+	 * @param low
+	 *            The lowest value or null for no lower bound.
+	 * @param high
+	 *            The highest value or null for no upper bound.
+	 * @return the triples of the literals.
+	 * @throws TException
+	 *             on encoding error.
+	 */
+	public ExtendedIterator<Triple> findRange(String keyspace, Node graph, Node predicate, Double low, Double high)
+			throws TException {
+		StringBuilder restrictions = new StringBuilder();
+		List<Object> values = new ArrayList<Object>();
+		if (low != null) {
+			restrictions.append(String.format(" AND %s >= ?", VALUE));
+			values.add(Math.nextDown(low == 0.0 ? 0.0 : low));
+		}
+		if (high != null) {
+			restrictions.append(String.format(" AND %s <= ?", VALUE));
+			values.add(Math.nextUp(high == 0.0 ? 0.0 : high));
+		}
+		return find(keyspace, graph, predicate, restrictions.toString(), values.toArray());
+	}
+}
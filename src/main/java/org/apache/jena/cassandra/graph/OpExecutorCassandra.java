@@ -0,0 +1,645 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jena.cassandra.graph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.query.ARQ;
+import org.apache.jena.query.Query;
+import org.apache.jena.sparql.ARQConstants;
+import org.apache.jena.sparql.algebra.Op;
+import org.apache.jena.sparql.algebra.op.OpBGP;
+import org.apache.jena.sparql.algebra.op.OpDistinct;
+import org.apache.jena.sparql.algebra.op.OpFilter;
+import org.apache.jena.sparql.algebra.op.OpGraph;
+import org.apache.jena.sparql.algebra.op.OpGroup;
+import org.apache.jena.sparql.algebra.op.OpProject;
+import org.apache.jena.sparql.algebra.op.OpSlice;
+import org.apache.jena.sparql.core.Var;
+import org.apache.jena.sparql.engine.ExecutionContext;
+import org.apache.jena.sparql.engine.QueryIterator;
+import org.apache.jena.sparql.engine.binding.Binding;
+import org.apache.jena.sparql.engine.binding.BindingBuilder;
+import org.apache.jena.sparql.engine.binding.BindingFactory;
+import org.apache.jena.sparql.engine.iterator.QueryIterFilterExpr;
+import org.apache.jena.sparql.engine.iterator.QueryIterPlainWrapper;
+import org.apache.jena.sparql.engine.main.OpExecutor;
+import org.apache.jena.sparql.engine.main.OpExecutorFactory;
+import org.apache.jena.sparql.engine.main.QC;
+import org.apache.jena.sparql.expr.E_Equals;
+import org.apache.jena.sparql.expr.E_Lang;
+import org.apache.jena.sparql.expr.E_GreaterThan;
+import org.apache.jena.sparql.expr.E_GreaterThanOrEqual;
+import org.apache.jena.sparql.expr.E_LangMatches;
+import org.apache.jena.sparql.expr.E_LessThan;
+import org.apache.jena.sparql.expr.E_LessThanOrEqual;
+import org.apache.jena.sparql.expr.E_LogicalAnd;
+import org.apache.jena.sparql.expr.Expr;
+import org.apache.jena.sparql.expr.ExprFunction2;
+import org.apache.jena.sparql.expr.ExprList;
+import org.apache.jena.sparql.expr.ExprAggregator;
+import org.apache.jena.sparql.expr.NodeValue;
+import org.apache.jena.sparql.expr.aggregate.AggCount;
+import org.apache.jena.sparql.expr.aggregate.AggCountDistinct;
+import org.apache.jena.sparql.expr.aggregate.AggCountVar;
+import org.apache.jena.sparql.expr.aggregate.AggCountVarDistinct;
+import org.apache.jena.sparql.expr.aggregate.Aggregator;
+import org.apache.jena.sparql.util.Context;
+import org.apache.jena.util.iterator.ExtendedIterator;
+import org.apache.thrift.TException;
+
+/**
+ * An ARQ OpExecutor that pushes result limits, projections, counts and
+ * language, numeric and temporal filters down into the Cassandra queries.
+ *
+ * A SPARQL LIMIT (with or without an OFFSET) over a single triple pattern on a
+ * GraphCassandra is executed as a find with a CQL LIMIT of offset + limit
+ * rows. Cassandra has no OFFSET so the offset rows are read and skipped by
+ * the slice as before. The triple pattern of an ASK query is found with
+ * LIMIT 1. A pattern with a variable in two positions (for example ?s :p ?s)
+ * is not limited as the quads with different values are dropped after the
+ * query.
+ *
+ * A basic graph pattern of a single triple pattern that is not joined with
+ * earlier results only reads the columns of the variables that are used: the
+ * projected variables if it is directly under a projection, otherwise all of
+ * them (see QueryPattern.findNodes()).
+ *
+ * SELECT DISTINCT ?x over a single triple pattern reads the distinct values
+ * with GraphCassandra.findDistinct().
+ *
+ * COUNT aggregates over a single triple pattern, optionally grouped by the
+ * graph of a GRAPH ?g pattern or by the predicate of the pattern, are
+ * executed as Cassandra counts (see QueryPattern.getCount()) so the quads are
+ * not decoded. The graph names and predicates are listed and the pattern is
+ * counted for each. COUNT(DISTINCT ?x) is supported when ?x is the graph or
+ * predicate variable or the only variable of the pattern.
+ *
+ * A FILTER with langMatches(lang(?o), "range") or lang(?o) = "tag" over a
+ * single triple pattern with a constant predicate and a literal object
+ * variable ?o reads the literals in that language from the LanguageTable, if
+ * one is registered with the connection, rather than every literal of the
+ * predicate. Likewise a FILTER that compares ?o with numeric constants (for
+ * example ?o &gt; 10 &amp;&amp; ?o &lt; 100) reads the literals in that range
+ * from the NumericTable, and a FILTER that compares ?o with xsd:dateTime or
+ * xsd:date constants reads the literals in that time window from the
+ * TemporalTable. ARQ's filter placement puts such filters directly
+ * over the triple pattern that binds ?o. The filter is still applied to the
+ * results.
+ *
+ * All other operations are executed by the standard OpExecutor.
+ *
+ */
+public class OpExecutorCassandra extends OpExecutor {
+
+	/**
+	 * The factory for the Cassandra OpExecutor.
+	 */
+	public static final OpExecutorFactory FACTORY = new OpExecutorFactory() {
+		@Override
+		public OpExecutor create(ExecutionContext execCxt) {
+			return new OpExecutorCassandra(execCxt);
+		}
+	};
+
+	private static final Log LOG = LogFactory.getLog(OpExecutorCassandra.class);
+
+	/* the limit for the next basic graph pattern or -1 for none */
+	private long limit = -1;
+	/* the projected variables of the next basic graph pattern or null for all */
+	private List<Var> projection;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param execCxt
+	 *            The execution context.
+	 */
+	protected OpExecutorCassandra(ExecutionContext execCxt) {
+		super(execCxt);
+	}
+
+	/**
+	 * Use the Cassandra OpExecutor for queries executed in a context. Does
+	 * nothing if the context already uses it.
+	 *
+	 * @param context
+	 *            The context, for example a dataset context or
+	 *            ARQ.getContext().
+	 */
+	public static void register(Context context) {
+		if (QC.getFactory(context) != FACTORY) {
+			QC.setFactory(context, FACTORY);
+		}
+	}
+
+	/**
+	 * Use the Cassandra OpExecutor for all queries.
+	 */
+	public static void register() {
+		register(ARQ.getContext());
+	}
+
+	@Override
+	protected QueryIterator execute(OpSlice opSlice, QueryIterator input) {
+		Op sub = opSlice.getSubOp();
+		if (sub instanceof OpProject) {
+			sub = ((OpProject) sub).getSubOp();
+		}
+		if (opSlice.getLength() != Query.NOLIMIT && sub instanceof OpBGP) {
+			long offset = opSlice.getStart() == Query.NOLIMIT ? 0 : opSlice.getStart();
+			limit = offset + opSlice.getLength();
+		}
+		try {
+			return super.execute(opSlice, input);
+		} finally {
+			limit = -1;
+		}
+	}
+
+	@Override
+	protected QueryIterator execute(OpProject opProject, QueryIterator input) {
+		if (opProject.getSubOp() instanceof OpBGP) {
+			projection = opProject.getVars();
+		}
+		try {
+			return super.execute(opProject, input);
+		} finally {
+			projection = null;
+		}
+	}
+
+	@Override
+	protected QueryIterator execute(OpBGP opBGP, QueryIterator input) {
+		long bgpLimit = limit;
+		List<Var> bgpVars = projection;
+		limit = -1;
+		projection = null;
+		if (bgpLimit == -1 && level == TOP_LEVEL && isAsk()) {
+			bgpLimit = 1;
+			bgpVars = Collections.emptyList();
+		}
+		Graph graph = execCxt.getActiveGraph();
+		if (opBGP.getPattern().size() != 1 || !input.isJoinIdentity() || !(graph instanceof GraphCassandra)) {
+			return super.execute(opBGP, input);
+		}
+		input.close();
+		GraphCassandra graphCassandra = (GraphCassandra) graph;
+		Triple pattern = opBGP.getPattern().get(0);
+		if (hasRepeatedVariable(pattern)) {
+			/* the bindings with different values are dropped after the query so it can not be limited */
+			bgpLimit = -1;
+		}
+
+		/* only read the columns of the variables that are used */
+		List<ColumnName> columns = new ArrayList<ColumnName>();
+		Node[] nodes = { pattern.getSubject(), pattern.getPredicate(), pattern.getObject() };
+		ColumnName[] names = { ColumnName.S, ColumnName.P, ColumnName.O };
+		for (int i = 0; i < nodes.length; i++) {
+			if (nodes[i].isVariable()) {
+				if (bgpVars == null || bgpVars.contains(Var.alloc(nodes[i]))
+						|| Collections.frequency(Arrays.asList(nodes), nodes[i]) > 1) {
+					columns.add(names[i]);
+				} else {
+					nodes[i] = Node.ANY;
+				}
+			}
+		}
+		Triple bindPattern = Triple.create(nodes[0], nodes[1], nodes[2]);
+		QueryPattern queryPattern = new QueryPattern(graphCassandra.getConnection(), graphCassandra.getGraphName(),
+				QueryIterBatchJoin.findTriple(pattern));
+		Binding parent = BindingFactory.root();
+		ExtendedIterator<Binding> iter = queryPattern.findNodes(graphCassandra.getKeyspace(), columns, bgpLimit)
+				.mapWith(quad -> QueryIterBatchJoin.bind(parent, bindPattern, quad.asTriple()))
+				.filterDrop(Objects::isNull);
+		return QueryIterPlainWrapper.create(iter, execCxt);
+	}
+
+	/*
+	 * Check if a variable is in more than one position of a triple pattern.
+	 */
+	private static boolean hasRepeatedVariable(Triple pattern) {
+		Set<Node> vars = new HashSet<Node>();
+		int varCount = 0;
+		for (Node node : Arrays.asList(pattern.getSubject(), pattern.getPredicate(), pattern.getObject())) {
+			if (node.isVariable()) {
+				vars.add(node);
+				varCount++;
+			}
+		}
+		return vars.size() != varCount;
+	}
+
+	@Override
+	protected QueryIterator execute(OpDistinct opDistinct, QueryIterator input) {
+		Graph graph = execCxt.getActiveGraph();
+		if (!(opDistinct.getSubOp() instanceof OpProject) || !input.isJoinIdentity()
+				|| !(graph instanceof GraphCassandra)) {
+			return super.execute(opDistinct, input);
+		}
+		OpProject opProject = (OpProject) opDistinct.getSubOp();
+		if (opProject.getVars().size() != 1 || !(opProject.getSubOp() instanceof OpBGP)
+				|| ((OpBGP) opProject.getSubOp()).getPattern().size() != 1) {
+			return super.execute(opDistinct, input);
+		}
+		Var var = opProject.getVars().get(0);
+		Triple pattern = ((OpBGP) opProject.getSubOp()).getPattern().get(0);
+		List<Node> nodes = Arrays.asList(pattern.getSubject(), pattern.getPredicate(), pattern.getObject());
+		/* the distinct values of a position can not check that two positions are equal */
+		if (Collections.frequency(nodes, var) != 1 || hasRepeatedVariable(pattern)) {
+			return super.execute(opDistinct, input);
+		}
+		input.close();
+		ColumnName column = Arrays.asList(ColumnName.S, ColumnName.P, ColumnName.O).get(nodes.indexOf(var));
+		Binding parent = BindingFactory.root();
+		ExtendedIterator<Binding> iter = ((GraphCassandra) graph)
+				.findDistinct(QueryIterBatchJoin.findTriple(pattern), column)
+				.mapWith(node -> BindingFactory.binding(parent, var, node));
+		return QueryIterPlainWrapper.create(iter, execCxt);
+	}
+
+	@Override
+	protected QueryIterator execute(OpFilter opFilter, QueryIterator input) {
+		QueryIterator retval = input.isJoinIdentity() ? executeIndexed(opFilter) : null;
+		if (retval == null) {
+			return super.execute(opFilter, input);
+		}
+		input.close();
+		for (Expr expr : opFilter.getExprs()) {
+			retval = new QueryIterFilterExpr(retval, expr, execCxt);
+		}
+		return retval;
+	}
+
+	/*
+	 * Find the triple pattern of a filter on the language, numeric value or
+	 * time of its object in the language, numeric or temporal table. Returns
+	 * null if the filter is not of that form or there is no table.
+	 */
+	private QueryIterator executeIndexed(OpFilter opFilter) {
+		Graph graph = execCxt.getActiveGraph();
+		if (!(graph instanceof GraphCassandra) || !(opFilter.getSubOp() instanceof OpBGP)
+				|| ((OpBGP) opFilter.getSubOp()).getPattern().size() != 1) {
+			return null;
+		}
+		GraphCassandra graphCassandra = (GraphCassandra) graph;
+		Triple pattern = ((OpBGP) opFilter.getSubOp()).getPattern().get(0);
+		if (!graphCassandra.getGraphName().isConcrete() || !pattern.getSubject().isVariable()
+				|| !pattern.getPredicate().isURI() || !pattern.getObject().isVariable()
+				|| pattern.getSubject().equals(pattern.getObject())) {
+			return null;
+		}
+		Var var = Var.alloc(pattern.getObject());
+		ExtendedIterator<Triple> iter;
+		try {
+			iter = findLanguage(graphCassandra, pattern, opFilter.getExprs(), var);
+			if (iter == null) {
+				iter = findNumericRange(graphCassandra, pattern, opFilter.getExprs(), var);
+			}
+			if (iter == null) {
+				iter = findTemporalRange(graphCassandra, pattern, opFilter.getExprs(), var);
+			}
+		} catch (TException e) {
+			LOG.error("Unable to find " + pattern + " in an index table", e);
+			return null;
+		}
+		if (iter == null) {
+			return null;
+		}
+		Binding parent = BindingFactory.root();
+		return QueryIterPlainWrapper.create(
+				iter.mapWith(triple -> QueryIterBatchJoin.bind(parent, pattern, triple)).filterDrop(Objects::isNull),
+				execCxt);
+	}
+
+	/*
+	 * Find the pattern in the language table if a filter expression is
+	 * langMatches(lang(var), "range") or lang(var) = "tag". The literals
+	 * without a language are not in the table so an empty range or tag is
+	 * found in the quad tables.
+	 */
+	private ExtendedIterator<Triple> findLanguage(GraphCassandra graph, Triple pattern, ExprList exprs, Var var)
+			throws TException {
+		LanguageTable table = graph.getConnection().getAuxiliaryTable(LanguageTable.class);
+		if (table == null) {
+			return null;
+		}
+		for (Expr expr : exprs) {
+			if (expr instanceof E_LangMatches) {
+				String range = getLanguage(((E_LangMatches) expr).getArg1(), ((E_LangMatches) expr).getArg2(), var);
+				if (range != null) {
+					return table.findMatches(graph.getKeyspace(), graph.getGraphName(), pattern.getPredicate(),
+							range);
+				}
+			} else if (expr instanceof E_Equals) {
+				E_Equals equals = (E_Equals) expr;
+				String lang = getLanguage(equals.getArg1(), equals.getArg2(), var);
+				if (lang == null) {
+					lang = getLanguage(equals.getArg2(), equals.getArg1(), var);
+				}
+				if (lang != null) {
+					return table.findLanguage(graph.getKeyspace(), graph.getGraphName(), pattern.getPredicate(),
+							lang);
+				}
+			}
+		}
+		return null;
+	}
+
+	/*
+	 * Find the pattern in the numeric table if the filter expressions compare
+	 * var with numeric constants. The comparisons of all the expressions (and
+	 * of && expressions) are combined into one range.
+	 */
+	private ExtendedIterator<Triple> findNumericRange(GraphCassandra graph, Triple pattern, ExprList exprs,
+			Var var) throws TException {
+		NumericTable table = graph.getConnection().getAuxiliaryTable(NumericTable.class);
+		List<Double> range = table == null ? null
+				: getRange(exprs, var, value -> value.isNumber() && !Double.isNaN(value.getDouble())
+						? value.getDouble() : null);
+		return range == null ? null
+				: table.findRange(graph.getKeyspace(), graph.getGraphName(), pattern.getPredicate(), range.get(0),
+						range.get(1));
+	}
+
+	/*
+	 * Find the pattern in the temporal table if the filter expressions compare
+	 * var with date or date time constants.
+	 */
+	private ExtendedIterator<Triple> findTemporalRange(GraphCassandra graph, Triple pattern, ExprList exprs,
+			Var var) throws TException {
+		TemporalTable table = graph.getConnection().getAuxiliaryTable(TemporalTable.class);
+		List<Long> range = table == null ? null : getRange(exprs, var, TemporalTable::toMillis);
+		return range == null ? null
+				: table.findRange(graph.getKeyspace(), graph.getGraphName(), pattern.getPredicate(), range.get(0),
+						range.get(1));
+	}
+
+	/*
+	 * The low and high values of the comparisons of var with constants in the
+	 * expressions, either may be null. Returns null if there are no such
+	 * comparisons. valueOf converts a constant to a value or returns null if
+	 * the constant is of the wrong type.
+	 */
+	private static <T extends Comparable<T>> List<T> getRange(ExprList exprs, Var var,
+			Function<NodeValue, T> valueOf) {
+		List<T> range = Arrays.asList(null, null);
+		for (Expr expr : exprs) {
+			addRange(expr, var, valueOf, range);
+		}
+		return range.get(0) == null && range.get(1) == null ? null : range;
+	}
+
+	/*
+	 * Narrow the low and high values of the range by a comparison of var with
+	 * a constant.
+	 */
+	private static <T extends Comparable<T>> void addRange(Expr expr, Var var, Function<NodeValue, T> valueOf,
+			List<T> range) {
+		if (expr instanceof E_LogicalAnd) {
+			addRange(((E_LogicalAnd) expr).getArg1(), var, valueOf, range);
+			addRange(((E_LogicalAnd) expr).getArg2(), var, valueOf, range);
+			return;
+		}
+		if (!(expr instanceof E_Equals || expr instanceof E_LessThan || expr instanceof E_LessThanOrEqual
+				|| expr instanceof E_GreaterThan || expr instanceof E_GreaterThanOrEqual)) {
+			return;
+		}
+		ExprFunction2 comparison = (ExprFunction2) expr;
+		Expr left = comparison.getArg1();
+		Expr right = comparison.getArg2();
+		boolean low = expr instanceof E_GreaterThan || expr instanceof E_GreaterThanOrEqual;
+		boolean high = expr instanceof E_LessThan || expr instanceof E_LessThanOrEqual;
+		if (right.isVariable() && var.equals(right.asVar())) {
+			/* 10 < ?o is ?o > 10 */
+			Expr swap = left;
+			left = right;
+			right = swap;
+			boolean swapLow = low;
+			low = high;
+			high = swapLow;
+		}
+		if (!left.isVariable() || !var.equals(left.asVar()) || !right.isConstant()) {
+			return;
+		}
+		T value = valueOf.apply(right.getConstant());
+		if (value == null) {
+			return;
+		}
+		if (!high && (range.get(0) == null || value.compareTo(range.get(0)) > 0)) {
+			range.set(0, value);
+		}
+		if (!low && (range.get(1) == null || value.compareTo(range.get(1)) < 0)) {
+			range.set(1, value);
+		}
+	}
+
+	/*
+	 * The string constant compared with lang(var), or null if the arguments
+	 * are not lang(var) and a string constant.
+	 */
+	private static String getLanguage(Expr lang, Expr value, Var var) {
+		if (lang instanceof E_Lang && ((E_Lang) lang).getArg().isVariable()
+				&& var.equals(((E_Lang) lang).getArg().asVar()) && value.isConstant()
+				&& value.getConstant().isString() && !value.getConstant().getString().isEmpty()) {
+			return value.getConstant().getString();
+		}
+		return null;
+	}
+
+	@Override
+	protected QueryIterator execute(OpGroup opGroup, QueryIterator input) {
+		QueryIterator retval = input.isJoinIdentity() ? executeCount(opGroup) : null;
+		if (retval == null) {
+			return super.execute(opGroup, input);
+		}
+		input.close();
+		return retval;
+	}
+
+	/*
+	 * Execute a group of counts over a single triple pattern with Cassandra
+	 * counts. The groups may be by the graph of a GRAPH ?g pattern or by the
+	 * predicate of the pattern: the graph names and predicates are listed
+	 * and the pattern is counted for each of them. Returns null if the group
+	 * is not of that form.
+	 */
+	private QueryIterator executeCount(OpGroup opGroup) {
+		Op sub = opGroup.getSubOp();
+		Var graphVar = null;
+		GraphCassandra graph = null;
+		List<Node> graphNames;
+		if (sub instanceof OpGraph && execCxt.getDataset() instanceof DatasetGraphCassandra) {
+			Node graphNode = ((OpGraph) sub).getNode();
+			sub = ((OpGraph) sub).getSubOp();
+			DatasetGraphCassandra dsg = (DatasetGraphCassandra) execCxt.getDataset();
+			if (graphNode.isVariable()) {
+				graphVar = Var.alloc(graphNode);
+				graphNames = new ArrayList<Node>();
+				dsg.listGraphNodes().forEachRemaining(graphNames::add);
+				graph = (GraphCassandra) dsg.getDefaultGraph();
+			} else {
+				graphNames = Collections.singletonList(graphNode);
+				graph = (GraphCassandra) dsg.getGraph(graphNode);
+			}
+		} else if (execCxt.getActiveGraph() instanceof GraphCassandra) {
+			graph = (GraphCassandra) execCxt.getActiveGraph();
+			graphNames = Collections.singletonList(graph.getGraphName());
+		} else {
+			return null;
+		}
+		if (!(sub instanceof OpBGP) || ((OpBGP) sub).getPattern().size() != 1) {
+			return null;
+		}
+		Triple pattern = ((OpBGP) sub).getPattern().get(0);
+		Set<Var> patternVars = new HashSet<Var>();
+		int varCount = 0;
+		for (Node node : Arrays.asList(pattern.getSubject(), pattern.getPredicate(), pattern.getObject())) {
+			if (node.isVariable()) {
+				patternVars.add(Var.alloc(node));
+				varCount++;
+			}
+		}
+		if (patternVars.size() != varCount || patternVars.contains(graphVar)) {
+			return null;
+		}
+		if (graphVar != null) {
+			patternVars.add(graphVar);
+		}
+
+		/* the variables whose values are listed to count the pattern for each */
+		Var predicateVar = pattern.getPredicate().isVariable() ? Var.alloc(pattern.getPredicate()) : null;
+		Set<Var> listed = new HashSet<Var>();
+		for (Var var : opGroup.getGroupVars().getVars()) {
+			if (opGroup.getGroupVars().getExpr(var) != null || !(var.equals(graphVar) || var.equals(predicateVar))) {
+				return null;
+			}
+			listed.add(var);
+		}
+		for (ExprAggregator agg : opGroup.getAggregators()) {
+			Aggregator aggregator = agg.getAggregator();
+			if (aggregator instanceof AggCount || aggregator instanceof AggCountDistinct) {
+				continue;
+			}
+			Expr expr = aggregator.getExprList() == null ? null : aggregator.getExprList().get(0);
+			if (expr == null || !expr.isVariable() || !patternVars.contains(expr.asVar())) {
+				return null;
+			}
+			if (aggregator instanceof AggCountVarDistinct) {
+				Var var = expr.asVar();
+				if (var.equals(graphVar) || var.equals(predicateVar)) {
+					listed.add(var);
+				} else if (patternVars.size() != 1) {
+					/* distinct values of the only variable are distinct quads */
+					return null;
+				}
+			} else if (!(aggregator instanceof AggCountVar)) {
+				return null;
+			}
+		}
+
+		/* count the pattern for each graph and listed predicate */
+		List<Node> predicates = predicateVar != null && listed.contains(predicateVar)
+				? graph.listPredicates().toList()
+				: Collections.singletonList(pattern.getPredicate());
+		Map<Binding, Long> counts = new LinkedHashMap<Binding, Long>();
+		try {
+			for (Node graphName : graphNames) {
+				for (Node predicate : predicates) {
+					Triple triple = QueryIterBatchJoin.findTriple(
+							Triple.create(pattern.getSubject(), predicate, pattern.getObject()));
+					long count = new QueryPattern(graph.getConnection(), graphName, triple)
+							.getCount(graph.getKeyspace());
+					if (count > 0) {
+						BindingBuilder builder = Binding.builder();
+						if (listed.contains(graphVar)) {
+							builder.add(graphVar, graphName);
+						}
+						if (listed.contains(predicateVar)) {
+							builder.add(predicateVar, predicate);
+						}
+						counts.merge(builder.build(), count, Long::sum);
+					}
+				}
+			}
+		} catch (TException e) {
+			LOG.error("Unable to count " + pattern, e);
+			return null;
+		}
+
+		/* aggregate the counts into the groups */
+		Map<Binding, List<Binding>> groups = new LinkedHashMap<Binding, List<Binding>>();
+		if (opGroup.getGroupVars().isEmpty()) {
+			groups.put(BindingFactory.empty(), new ArrayList<Binding>(counts.keySet()));
+		} else {
+			for (Binding key : counts.keySet()) {
+				BindingBuilder builder = Binding.builder();
+				for (Var var : opGroup.getGroupVars().getVars()) {
+					builder.add(var, key.get(var));
+				}
+				groups.computeIfAbsent(builder.build(), k -> new ArrayList<Binding>()).add(key);
+			}
+		}
+		List<Binding> retval = new ArrayList<Binding>();
+		for (Map.Entry<Binding, List<Binding>> group : groups.entrySet()) {
+			long total = 0;
+			for (Binding key : group.getValue()) {
+				total += counts.get(key);
+			}
+			BindingBuilder builder = Binding.builder(group.getKey());
+			for (ExprAggregator agg : opGroup.getAggregators()) {
+				long value = total;
+				if (agg.getAggregator() instanceof AggCountVarDistinct) {
+					Var var = agg.getAggregator().getExprList().get(0).asVar();
+					if (listed.contains(var)) {
+						Set<Node> distinct = new HashSet<Node>();
+						for (Binding key : group.getValue()) {
+							distinct.add(key.get(var));
+						}
+						value = distinct.size();
+					}
+				}
+				builder.add(agg.getVar(), NodeValue.makeInteger(value).asNode());
+			}
+			retval.add(builder.build());
+		}
+		return QueryIterPlainWrapper.create(retval.iterator(), execCxt);
+	}
+
+	/*
+	 * True if the query being executed is an ASK query.
+	 */
+	private boolean isAsk() {
+		Object query = execCxt.getContext().get(ARQConstants.sysCurrentQuery);
+		return query instanceof Query && ((Query) query).isAskType();
+	}
+}
@@ -0,0 +1,155 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jena.cassandra.graph;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.NoSuchElementException;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import org.apache.jena.sparql.core.Quad;
+import org.apache.jena.util.iterator.NiceIterator;
+
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * An iterator over the quads in a paged result set.
+ *
+ * When no more than half of the current page remains unread the next page is
+ * requested asynchronously so that the round trip to the cluster overlaps with
+ * the decoding and evaluation of the rows that remain. The consuming thread
+ * only blocks if it reaches the end of the page before the next page arrives.
+ *
+ * The rows of a page are taken from the result set together and may be
+ * given to a page reader before they are decoded, so that the nodes of their
+ * ids are read in parallel rather than one row at a time.
+ *
+ * Rows that can not be decoded are skipped.
+ *
+ * Closing the iterator stops any further pages being fetched.
+ *
+ */
+public class PagedQuadIterator extends NiceIterator<Quad> {
+
+	private final ResultSet rs;
+	private final Function<Row, Quad> decoder;
+	private final Consumer<Collection<Row>> pageReader;
+	/* the rows taken from the result set that have not been decoded */
+	private final Deque<Row> page = new ArrayDeque<Row>();
+	/* prefetch when this many rows or fewer remain in the page */
+	private final int prefetchThreshold;
+	private ListenableFuture<ResultSet> prefetch;
+	private Quad next;
+	private boolean closed;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param rs
+	 *            The result set to iterate over.
+	 * @param fetchSize
+	 *            The number of rows in a page.
+	 * @param decoder
+	 *            The function to convert rows to quads. Returns null if the
+	 *            row can not be converted.
+	 */
+	public PagedQuadIterator(ResultSet rs, int fetchSize, Function<Row, Quad> decoder) {
+		this(rs, fetchSize, decoder, null);
+	}
+
+	/**
+	 * Constructor with a page reader.
+	 * 
+	 * @param rs
+	 *            The result set to iterate over.
+	 * @param fetchSize
+	 *            The number of rows in a page.
+	 * @param decoder
+	 *            The function to convert rows to quads. Returns null if the
+	 *            row can not be converted.
+	 * @param pageReader
+	 *            The function given the rows of each page before they are
+	 *            decoded. May be null.
+	 */
+	public PagedQuadIterator(ResultSet rs, int fetchSize, Function<Row, Quad> decoder,
+			Consumer<Collection<Row>> pageReader) {
+		this.rs = rs;
+		this.decoder = decoder;
+		this.pageReader = pageReader;
+		this.prefetchThreshold = Math.max(1, fetchSize / 2);
+	}
+
+	/**
+	 * Request the next page if the current page is running low and no request
+	 * is outstanding.
+	 */
+	private void prefetch() {
+		if (page.size() + rs.getAvailableWithoutFetching() <= prefetchThreshold && !rs.isFullyFetched()
+				&& (prefetch == null || prefetch.isDone())) {
+			prefetch = rs.fetchMoreResults();
+		}
+	}
+
+	@Override
+	public boolean hasNext() {
+		while (next == null) {
+			if (closed) {
+				return false;
+			}
+			prefetch();
+			if (page.isEmpty()) {
+				/* blocks only if the page is empty and the next has not arrived */
+				if (rs.isExhausted()) {
+					return false;
+				}
+				do {
+					page.add(rs.one());
+				} while (rs.getAvailableWithoutFetching() > 0);
+				if (pageReader != null) {
+					pageReader.accept(page);
+				}
+			}
+			next = decoder.apply(page.poll());
+		}
+		return true;
+	}
+
+	@Override
+	public Quad next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		Quad retval = next;
+		next = null;
+		return retval;
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+		next = null;
+		page.clear();
+		if (prefetch != null && !prefetch.isDone()) {
+			prefetch.cancel(true);
+		}
+	}
+}
@@ -0,0 +1,212 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jena.cassandra.graph;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.riot.thrift.ThriftConvert;
+import org.apache.jena.riot.thrift.wire.RDF_Term;
+import org.apache.jena.sparql.core.Quad;
+import org.apache.jena.util.iterator.ExtendedIterator;
+import org.apache.jena.util.iterator.WrappedIterator;
+import org.apache.thrift.TDeserializer;
+import org.apache.thrift.TException;
+
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Statement;
+
+/**
+ * A lookup table of the objects of each predicate ordered by a value derived
+ * from the object, for example its language or numeric value.
+ *
+ * The table is partitioned by graph and predicate and clustered by the value,
+ * subject and object, so the objects of a predicate with one value or a range
+ * of values are read from one range of one partition. The object column
+ * holds the digest of the literals kept in the LiteralStore, as the quad
+ * tables do.
+ *
+ * A filter that is read from the table is only answered by the table, so it
+ * must be complete: either registered before any data is written to the
+ * keyspace or filled from the quad tables with rebuild().
+ *
+ */
+public abstract class PredicateIndexTable implements AuxiliaryTable {
+
+	/**
+	 * The connection to use.
+	 */
+	protected final CassandraConnection connection;
+
+	private final String name;
+	private final String column;
+	private final String insert;
+	private final String delete;
+	private final String select;
+	private final String create;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param connection
+	 *            The connection to use.
+	 * @param name
+	 *            The table name.
+	 * @param column
+	 *            The name of the value column.
+	 * @param type
+	 *            The CQL type of the value column.
+	 */
+	protected PredicateIndexTable(CassandraConnection connection, String name, String column, String type) {
+		this.connection = connection;
+		this.name = name;
+		this.column = column;
+		this.insert = String.format("INSERT INTO %s (%s, %s, %s, %s, %s) VALUES (?, ?, ?, ?, ?)", name, ColumnName.G,
+				ColumnName.P, column, ColumnName.S, ColumnName.O);
+		this.delete = String.format("DELETE FROM %s WHERE %s = ? AND %s = ? AND %s = ? AND %s = ? AND %s = ?", name,
+				ColumnName.G, ColumnName.P, column, ColumnName.S, ColumnName.O);
+		this.select = String.format("SELECT %s, %s FROM %s WHERE %s = ? AND %s = ?", ColumnName.S, ColumnName.O,
+				name, ColumnName.G, ColumnName.P);
+		this.create = String.format(
+				"CREATE TABLE IF NOT EXISTS %s (%s blob, %s blob, %s %s, %s blob, %s blob, "
+						+ "PRIMARY KEY ((%2$s, %3$s), %4$s, %6$s, %7$s))",
+				name, ColumnName.G, ColumnName.P, column, type, ColumnName.S, ColumnName.O);
+	}
+
+	/**
+	 * Get the value of the value column for an object.
+	 *
+	 * @param object
+	 *            The object of a quad.
+	 * @return the value or null if the object is not in the table.
+	 */
+	protected abstract Object getValue(Node object);
+
+	/**
+	 * Get the name of the value column.
+	 *
+	 * @return the column name.
+	 */
+	public String getColumn() {
+		return column;
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public String[] getCreateTableStatements() {
+		return new String[] { create };
+	}
+
+	@Override
+	public Iterator<String> getDeleteTableStatements() {
+		return Arrays.asList(String.format("DROP TABLE IF EXISTS %s", name)).iterator();
+	}
+
+	@Override
+	public List<Statement> getInsertStatements(String keyspace, Quad quad) throws TException {
+		return getStatements(keyspace, quad, insert);
+	}
+
+	@Override
+	public List<Statement> getDeleteStatements(String keyspace, Quad quad) throws TException {
+		return getStatements(keyspace, quad, delete);
+	}
+
+	/*
+	 * One statement for objects with a value, nothing for other quads.
+	 */
+	private List<Statement> getStatements(String keyspace, Quad quad, String cql) throws TException {
+		Object value = getValue(quad.getObject());
+		if (value == null) {
+			return Collections.emptyList();
+		}
+		return Collections.singletonList(connection.prepare(keyspace, cql).bind(connection.bytesOf(quad.getGraph()),
+				connection.bytesOf(quad.getPredicate()), value, connection.bytesOf(quad.getSubject()),
+				connection.objectBytesOf(quad.getObject())));
+	}
+
+	/**
+	 * Add the quads already in the keyspace to the table. The quads of each
+	 * predicate are read from its PGOS partitions, see
+	 * CassandraConnection.rebuildAuxiliaryTable().
+	 *
+	 * @param keyspace
+	 *            The keyspace to rebuild.
+	 * @return the report of the inserts.
+	 * @throws TException
+	 *             on encoding error.
+	 */
+	public ExecutionReport rebuild(String keyspace) throws TException {
+		return connection.rebuildAuxiliaryTable(keyspace, this);
+	}
+
+	/**
+	 * Find the triples of a predicate in a graph whose values match the
+	 * restrictions.
+	 *
+	 * @param keyspace
+	 *            The keyspace to read.
+	 * @param graph
+	 *            The graph, must be concrete.
+	 * @param predicate
+	 *            The predicate, must be concrete.
+	 * @param restrictions
+	 *            The CQL restrictions on the value column, each starting with
+	 *            " AND ", or an empty string for all the values.
+	 * @param values
+	 *            The values to bind to the restrictions.
+	 * @return the triples.
+	 * @throws TException
+	 *             on encoding error.
+	 */
+	protected ExtendedIterator<Triple> find(String keyspace, Node graph, Node predicate, String restrictions,
+			Object... values) throws TException {
+		List<Object> bound = new ArrayList<Object>();
+		bound.add(connection.bytesOf(graph));
+		bound.add(connection.bytesOf(predicate));
+		bound.addAll(Arrays.asList(values));
+		int fetchSize = connection
+				.getFetchSize(CassandraConnection.getId(new Quad(graph, Node.ANY, predicate, Node.ANY)));
+		ResultSet rs = connection.executeQuery(keyspace, select + restrictions, bound, fetchSize);
+		TDeserializer dser = new TDeserializer();
+		return WrappedIterator.create(new PagedQuadIterator(rs, fetchSize, row -> {
+			try {
+				return new Quad(graph, convert(dser, row.getBytes(0)), predicate,
+						connection.objectOf(keyspace, row.getBytes(1)));
+			} catch (TException e) {
+				return null;
+			}
+		})).mapWith(Quad::asTriple);
+	}
+
+	private static Node convert(TDeserializer dser, ByteBuffer bytes) throws TException {
+		RDF_Term term = new RDF_Term();
+		dser.deserialize(term, bytes.array());
+		return ThriftConvert.convert(term);
+	}
+}
@@ -0,0 +1,218 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jena.cassandra.graph;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.jena.graph.Node;
+import org.apache.jena.sparql.core.Quad;
+import org.apache.thrift.TException;
+
+import com.datastax.driver.core.BatchStatement;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Statement;
+
+/**
+ * Maintains quad counts in a Cassandra counter table so that dataset, graph
+ * and predicate sizes can be read without scanning the quad tables.
+ *
+ * The table is partitioned by graph and clustered by predicate. Each quad
+ * updates four rows: (graph, predicate), (graph, ALL), (ALL, predicate) and
+ * (ALL, ALL) where ALL is a single 0x00 byte, which is never the encoding of
+ * a node. So the count for a graph is the (graph, ALL) row and the size of the
+ * dataset is the (ALL, ALL) row.
+ *
+ * Cassandra inserts are upserts, so the table counts the quads (see
+ * AuxiliaryTable.isCounting()): the SPOG row of an inserted quad is written
+ * with IF NOT EXISTS and the counts are only incremented if it applied, and
+ * the SPOG row of a deleted quad is deleted with IF EXISTS and the counts are
+ * only decremented if it applied. A quad inserted twice and deleted once is
+ * therefore not counted. The conditional writes are lightweight transactions,
+ * which take more round trips than plain writes.
+ *
+ * Counter updates are not idempotent so they are not retried after a
+ * timeout, and a conditional write that is retried after its first attempt
+ * applied does not apply again so its quad is not counted. The counts may
+ * drift after such failures; recount() rebuilds them from the quad tables.
+ *
+ * The counts are only maintained when the table is registered with the
+ * connection before the data is written.
+ *
+ */
+public class QuadCountTable implements AuxiliaryTable {
+
+	private static final Log LOG = LogFactory.getLog(QuadCountTable.class);
+
+	/**
+	 * The name of the table.
+	 */
+	public static final String NAME = "QUAD_COUNT";
+
+	/**
+	 * The key value that counts all graphs or all predicates.
+	 */
+	public static final ByteBuffer ALL = ByteBuffer.wrap(new byte[] { 0 }).asReadOnlyBuffer();
+
+	private static final String COUNT = "quads";
+
+	private static final String UPDATE = String.format("UPDATE %1$s SET %3$s = %3$s + ? WHERE %2$s = ? AND %4$s = ?",
+			NAME, ColumnName.G, COUNT, ColumnName.P);
+
+	private static final String SELECT = String.format("SELECT %s FROM %s WHERE %s = ? AND %s = ?", COUNT, NAME,
+			ColumnName.G, ColumnName.P);
+
+	private final CassandraConnection connection;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param connection
+	 *            The connection to use.
+	 */
+	public QuadCountTable(CassandraConnection connection) {
+		this.connection = connection;
+	}
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	@Override
+	public String[] getCreateTableStatements() {
+		return new String[] { String.format(
+				"CREATE TABLE IF NOT EXISTS %s (%s blob, %s blob, %s counter, PRIMARY KEY ((%2$s), %3$s))", NAME,
+				ColumnName.G, ColumnName.P, COUNT) };
+	}
+
+	@Override
+	public Iterator<String> getDeleteTableStatements() {
+		return Arrays.asList(String.format("DROP TABLE IF EXISTS %s", NAME)).iterator();
+	}
+
+	@Override
+	public boolean isCounting() {
+		return true;
+	}
+
+	@Override
+	public List<Statement> getInsertStatements(String keyspace, Quad quad) throws TException {
+		return getUpdateStatements(keyspace, quad, 1);
+	}
+
+	@Override
+	public List<Statement> getDeleteStatements(String keyspace, Quad quad) throws TException {
+		return getUpdateStatements(keyspace, quad, -1);
+	}
+
+	/*
+	 * One counter batch that updates the four counts for the quad.
+	 */
+	private List<Statement> getUpdateStatements(String keyspace, Quad quad, long delta) throws TException {
+		return Collections.singletonList(getUpdateStatement(keyspace, connection.bytesOf(quad.getGraph()),
+				connection.bytesOf(quad.getPredicate()), delta));
+	}
+
+	private Statement getUpdateStatement(String keyspace, ByteBuffer graph, ByteBuffer predicate, long delta) {
+		PreparedStatement update = connection.prepare(keyspace, UPDATE);
+		BatchStatement batch = new BatchStatement(BatchStatement.Type.COUNTER);
+		batch.add(update.bind(delta, graph, predicate));
+		batch.add(update.bind(delta, graph, ALL));
+		batch.add(update.bind(delta, ALL, predicate));
+		batch.add(update.bind(delta, ALL, ALL));
+		return batch;
+	}
+
+	/**
+	 * Get the key value for a node. Null, Node.ANY and the union graph are
+	 * ALL.
+	 */
+	private ByteBuffer keyOf(Node node) throws TException {
+		if (node == null || Node.ANY.equals(node) || Quad.isUnionGraph(node)) {
+			return ALL;
+		}
+		return connection.bytesOf(node);
+	}
+
+	/**
+	 * Get the number of quads.
+	 *
+	 * @param keyspace
+	 *            The keyspace to read.
+	 * @param graph
+	 *            The graph to count, or null, Node.ANY or the union graph for
+	 *            all graphs.
+	 * @param predicate
+	 *            The predicate to count, or null or Node.ANY for all
+	 *            predicates.
+	 * @return the count.
+	 * @throws TException
+	 *             on encoding error.
+	 */
+	public long getCount(String keyspace, Node graph, Node predicate) throws TException {
+		ResultSet rs = connection.executeQuery(keyspace, SELECT, Arrays.asList(keyOf(graph), keyOf(predicate)));
+		Row row = rs.one();
+		return row == null ? 0 : row.getLong(0);
+	}
+
+	/**
+	 * Rebuild the counts from the quad tables. The counts are cleared and the
+	 * graph and predicate of every quad are read as raw bytes from the GSPO
+	 * table (ids are read from the NodeDictionary, through its cache).
+	 *
+	 * Writes made while the recount runs may or may not be counted.
+	 *
+	 * @param keyspace
+	 *            The keyspace to recount.
+	 */
+	public void recount(String keyspace) {
+		connection.executeUpdateSet(keyspace, Arrays.asList(String.format("TRUNCATE %s ;", NAME)).iterator());
+		TableName table = CassandraConnection.GSPO;
+		String query = String.format("SELECT %s, %s FROM %s", ColumnName.G, ColumnName.P, table);
+		Map<ByteBuffer, Map<ByteBuffer, Long>> counts = new HashMap<ByteBuffer, Map<ByteBuffer, Long>>();
+		for (Row row : connection.executeQuery(keyspace, query, Collections.emptyList(),
+				connection.getFetchSize(CassandraConnection.getId(new Quad(Node.ANY, Node.ANY, Node.ANY, Node.ANY))))) {
+			try {
+				counts.computeIfAbsent(connection.serializedOf(keyspace, row.getBytes(0)),
+						k -> new HashMap<ByteBuffer, Long>())
+						.merge(connection.serializedOf(keyspace, row.getBytes(1)), 1L, Long::sum);
+			} catch (TException e) {
+				LOG.error(String.format("Recount of %s skipped a quad", keyspace), e);
+			}
+		}
+		/* one batch per (graph, predicate) also updates the totals */
+		Iterator<Statement> statements = counts.entrySet().stream()
+				.flatMap(g -> g.getValue().entrySet().stream()
+						.map(p -> getUpdateStatement(keyspace, g.getKey(), p.getKey(), p.getValue())))
+				.iterator();
+		ExecutionReport report = connection.executeUpdateStatements(keyspace, statements);
+		if (report.hasFailures()) {
+			LOG.error(String.format("Recount of %s had failures: %s", keyspace, report));
+		}
+	}
+}
@@ -0,0 +1,319 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jena.cassandra.graph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+
+import org.apache.jena.atlas.io.IndentedWriter;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.query.QueryCancelledException;
+import org.apache.jena.query.QueryExecException;
+import org.apache.jena.sparql.core.Quad;
+import org.apache.jena.sparql.core.Substitute;
+import org.apache.jena.sparql.core.Var;
+import org.apache.jena.sparql.engine.ExecutionContext;
+import org.apache.jena.sparql.engine.QueryIterator;
+import org.apache.jena.sparql.engine.binding.Binding;
+import org.apache.jena.sparql.engine.binding.BindingBuilder;
+import org.apache.jena.sparql.engine.iterator.QueryIter1;
+import org.apache.jena.sparql.serializer.SerializationContext;
+import org.apache.jena.sparql.util.FmtUtils;
+import org.apache.jena.util.iterator.ExtendedIterator;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * Joins the bindings of its input with a triple pattern on a GraphCassandra,
+ * looking up a batch of bindings at a time.
+ *
+ * The standard ARQ join finds the pattern separately for every input binding.
+ * This iterator reads up to the batch size of bindings, substitutes each into
+ * the pattern and groups the substituted patterns that only differ in the
+ * subject (or, failing that, the object). Each group is found with one query
+ * that restricts that column with IN, patterns that can not be grouped are
+ * found once per distinct pattern. The queries of a batch are executed
+ * concurrently and the results are joined with the bindings in memory.
+ *
+ * The results of the queries of a batch are held in memory until the batch is
+ * joined.
+ *
+ */
+public class QueryIterBatchJoin extends QueryIter1 {
+
+	/**
+	 * The default number of bindings in a batch.
+	 */
+	public static final int DEFAULT_BATCH_SIZE = 100;
+
+	private final GraphCassandra graph;
+	private final Triple pattern;
+	private final int batchSize;
+	/* canFindIn by table id, literal object and column: the pattern shape */
+	private final Map<List<Object>, Boolean> canFindIn = new HashMap<List<Object>, Boolean>();
+
+	private Iterator<Binding> current = Collections.emptyIterator();
+	private List<Lookup> pending = Collections.emptyList();
+
+	/**
+	 * Constructor.
+	 *
+	 * @param input
+	 *            The bindings to join.
+	 * @param pattern
+	 *            The triple pattern to join them with.
+	 * @param graph
+	 *            The graph to find the pattern in.
+	 * @param batchSize
+	 *            The number of bindings to look up at once.
+	 * @param execCxt
+	 *            The execution context.
+	 */
+	public QueryIterBatchJoin(QueryIterator input, Triple pattern, GraphCassandra graph, int batchSize,
+			ExecutionContext execCxt) {
+		super(input, execCxt);
+		this.graph = graph;
+		this.pattern = pattern;
+		this.batchSize = batchSize;
+	}
+
+	@Override
+	protected boolean hasNextBinding() {
+		while (!current.hasNext()) {
+			if (!getInput().hasNext()) {
+				return false;
+			}
+			current = joinBatch().iterator();
+		}
+		return true;
+	}
+
+	@Override
+	protected Binding moveToNextBinding() {
+		return current.next();
+	}
+
+	/*
+	 * Read a batch of bindings and join them with the pattern.
+	 */
+	private List<Binding> joinBatch() {
+		List<Binding> batch = new ArrayList<Binding>(batchSize);
+		while (batch.size() < batchSize && getInput().hasNext()) {
+			batch.add(getInput().nextBinding());
+		}
+
+		/* group the substituted patterns */
+		Map<List<Object>, Lookup> lookups = new LinkedHashMap<List<Object>, Lookup>();
+		List<Triple> substituted = new ArrayList<Triple>(batch.size());
+		List<Lookup> bindingLookups = new ArrayList<Lookup>(batch.size());
+		for (Binding binding : batch) {
+			Triple triple = Substitute.substitute(pattern, binding);
+			ColumnName column = getBatchColumn(binding, triple);
+			Triple template = column == null ? triple : replace(triple, column, Node.ANY);
+			Lookup lookup = lookups.computeIfAbsent(Arrays.asList(column, template),
+					k -> new Lookup(column, template));
+			lookup.keys.add(column == null ? Node.ANY : valueOf(triple, column));
+			substituted.add(triple);
+			bindingLookups.add(lookup);
+		}
+
+		/* start all the queries before reading any of them */
+		pending = new ArrayList<Lookup>(lookups.values());
+		for (Lookup lookup : pending) {
+			lookup.start();
+		}
+		try {
+			for (Lookup lookup : pending) {
+				lookup.read();
+			}
+		} finally {
+			pending = Collections.emptyList();
+		}
+
+		List<Binding> retval = new ArrayList<Binding>();
+		for (int i = 0; i < batch.size(); i++) {
+			Lookup lookup = bindingLookups.get(i);
+			Triple triple = substituted.get(i);
+			Node key = lookup.column == null ? Node.ANY : valueOf(triple, lookup.column);
+			for (Triple found : lookup.results.getOrDefault(key, Collections.<Triple>emptyList())) {
+				Binding binding = bind(batch.get(i), triple, found);
+				if (binding != null) {
+					retval.add(binding);
+				}
+			}
+		}
+		return retval;
+	}
+
+	/*
+	 * The column to batch on: the subject or object if the binding supplied
+	 * its value and the pattern can be found with IN on it.
+	 */
+	private ColumnName getBatchColumn(Binding binding, Triple triple) {
+		if (pattern.getSubject().isVariable() && binding.contains(Var.alloc(pattern.getSubject()))
+				&& canFindIn(triple, ColumnName.S)) {
+			return ColumnName.S;
+		}
+		if (pattern.getObject().isVariable() && binding.contains(Var.alloc(pattern.getObject()))
+				&& !triple.getObject().isLiteral() && canFindIn(triple, ColumnName.O)) {
+			return ColumnName.O;
+		}
+		return null;
+	}
+
+	private boolean canFindIn(Triple triple, ColumnName column) {
+		Quad quad = new Quad(graph.getGraphName(), findTriple(triple));
+		return canFindIn.computeIfAbsent(
+				Arrays.asList(CassandraConnection.getId(quad), triple.getObject().isLiteral(), column), k -> {
+					QueryPattern queryPattern = new QueryPattern(graph.getConnection(), quad);
+					return queryPattern.canFindIn(Collections.singleton(column));
+				});
+	}
+
+	private static Node valueOf(Triple triple, ColumnName column) {
+		return column == ColumnName.S ? triple.getSubject() : triple.getObject();
+	}
+
+	private static Triple replace(Triple triple, ColumnName column, Node node) {
+		return column == ColumnName.S ? Triple.create(node, triple.getPredicate(), triple.getObject())
+				: Triple.create(triple.getSubject(), triple.getPredicate(), node);
+	}
+
+	/*
+	 * The triple to find: variables match anything.
+	 */
+	/* package private */ static Triple findTriple(Triple triple) {
+		return Triple.createMatch(anyOf(triple.getSubject()), anyOf(triple.getPredicate()),
+				anyOf(triple.getObject()));
+	}
+
+	private static Node anyOf(Node node) {
+		return node.isVariable() ? Node.ANY : node;
+	}
+
+	/*
+	 * Bind the variables of the pattern to the found triple. Returns null if
+	 * a variable that appears twice has two values.
+	 */
+	/* package private */ static Binding bind(Binding parent, Triple triple, Triple found) {
+		BindingBuilder builder = Binding.builder(parent);
+		if (bind(builder, triple.getSubject(), found.getSubject())
+				&& bind(builder, triple.getPredicate(), found.getPredicate())
+				&& bind(builder, triple.getObject(), found.getObject())) {
+			return builder.build();
+		}
+		return null;
+	}
+
+	private static boolean bind(BindingBuilder builder, Node node, Node value) {
+		if (!node.isVariable()) {
+			return true;
+		}
+		Var var = Var.alloc(node);
+		Node current = builder.get(var);
+		if (current == null) {
+			builder.add(var, value);
+			return true;
+		}
+		return current.equals(value);
+	}
+
+	@Override
+	protected void requestSubCancel() {
+		for (Lookup lookup : pending) {
+			lookup.cancel();
+		}
+	}
+
+	@Override
+	protected void closeSubIterator() {
+		requestSubCancel();
+		current = Collections.emptyIterator();
+	}
+
+	@Override
+	protected void details(IndentedWriter out, SerializationContext sCxt) {
+		out.print(String.format("QueryIterBatchJoin %s batch=%s",
+				FmtUtils.stringForTriple(pattern, sCxt.getPrefixMapping()), batchSize));
+	}
+
+	/**
+	 * The query for a group of substituted patterns and its results by key
+	 * value.
+	 */
+	private class Lookup {
+		/* the column restricted with IN, null for a single pattern */
+		final ColumnName column;
+		final Triple template;
+		final Set<Node> keys = new LinkedHashSet<Node>();
+		final Map<Node, List<Triple>> results = new HashMap<Node, List<Triple>>();
+		ListenableFuture<ExtendedIterator<Quad>> future;
+
+		Lookup(ColumnName column, Triple template) {
+			this.column = column;
+			this.template = template;
+		}
+
+		void start() {
+			Triple triple = column == null ? template : replace(template, column, keys.iterator().next());
+			QueryPattern queryPattern = new QueryPattern(graph.getConnection(), graph.getGraphName(),
+					findTriple(triple));
+			Map<ColumnName, Collection<Node>> in = column == null ? Collections.<ColumnName, Collection<Node>>emptyMap()
+					: Collections.<ColumnName, Collection<Node>>singletonMap(column, keys);
+			future = queryPattern.doFindAsync(graph.getKeyspace(), in);
+		}
+
+		void read() {
+			ExtendedIterator<Quad> iter;
+			try {
+				iter = future.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new QueryCancelledException();
+			} catch (ExecutionException e) {
+				throw new QueryExecException(String.format("Unable to find %s", template), e.getCause());
+			}
+			try {
+				while (iter.hasNext()) {
+					Triple found = iter.next().asTriple();
+					Node key = column == null ? Node.ANY : valueOf(found, column);
+					results.computeIfAbsent(key, k -> new ArrayList<Triple>()).add(found);
+				}
+			} finally {
+				iter.close();
+			}
+		}
+
+		void cancel() {
+			if (future != null) {
+				future.cancel(true);
+			}
+		}
+	}
+}
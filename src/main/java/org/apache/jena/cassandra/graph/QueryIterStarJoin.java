@@ -0,0 +1,265 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jena.cassandra.graph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+
+import org.apache.jena.atlas.io.IndentedWriter;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.query.QueryCancelledException;
+import org.apache.jena.query.QueryExecException;
+import org.apache.jena.sparql.core.Quad;
+import org.apache.jena.sparql.core.Substitute;
+import org.apache.jena.sparql.engine.ExecutionContext;
+import org.apache.jena.sparql.engine.QueryIterator;
+import org.apache.jena.sparql.engine.binding.Binding;
+import org.apache.jena.sparql.engine.iterator.QueryIter1;
+import org.apache.jena.sparql.serializer.SerializationContext;
+import org.apache.jena.sparql.util.FmtUtils;
+import org.apache.jena.util.iterator.ExtendedIterator;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * Joins the bindings of its input with a star of triple patterns: patterns
+ * that share a subject and have concrete predicates.
+ *
+ * All the triples of a subject are in one partition of the SPOG table (or one
+ * range of a GSPO partition). Rather than finding each pattern of the star
+ * separately, this iterator reads a batch of bindings, collects their
+ * subjects and reads the triples of those subjects with the predicates of
+ * the star in one query (subject IN ... AND predicate IN ...). The patterns
+ * of the star are then matched against the triples of each subject in
+ * memory.
+ *
+ * The subject must be bound in every input binding: it is either concrete or
+ * a variable bound by an earlier pattern of the basic graph pattern. Use
+ * isStar() to check that a group of patterns can be joined as a star.
+ *
+ */
+public class QueryIterStarJoin extends QueryIter1 {
+
+	/**
+	 * The maximum number of subject and predicate combinations in one query.
+	 * Cassandra limits the product of the IN restrictions of a query.
+	 */
+	public static final int MAX_IN_PRODUCT = 100;
+
+	/* a stand in subject to check the query shape */
+	private static final Node SHAPE_SUBJECT = NodeFactory.createURI("urn:x-jena-cassandra:star");
+
+	private final GraphCassandra graph;
+	private final List<Triple> star;
+	private final Set<Node> predicates = new LinkedHashSet<Node>();
+	private final int batchSize;
+
+	private Iterator<Binding> current = Collections.emptyIterator();
+	private List<ListenableFuture<ExtendedIterator<Quad>>> pending = Collections.emptyList();
+
+	/**
+	 * Constructor.
+	 *
+	 * @param input
+	 *            The bindings to join.
+	 * @param star
+	 *            The patterns of the star.
+	 * @param graph
+	 *            The graph to find the patterns in.
+	 * @param batchSize
+	 *            The number of bindings to look up at once.
+	 * @param execCxt
+	 *            The execution context.
+	 */
+	public QueryIterStarJoin(QueryIterator input, List<Triple> star, GraphCassandra graph, int batchSize,
+			ExecutionContext execCxt) {
+		super(input, execCxt);
+		this.graph = graph;
+		this.star = star;
+		this.batchSize = batchSize;
+		for (Triple triple : star) {
+			predicates.add(triple.getPredicate());
+		}
+	}
+
+	/**
+	 * Check if a group of patterns can be joined as a star on a graph: there
+	 * are at least two patterns, they have the same subject and concrete
+	 * predicates, and the graph tables can read several subjects and
+	 * predicates in one query.
+	 *
+	 * @param graph
+	 *            The graph.
+	 * @param star
+	 *            The patterns.
+	 * @return true if the patterns are a star.
+	 */
+	public static boolean isStar(GraphCassandra graph, List<Triple> star) {
+		if (star.size() < 2) {
+			return false;
+		}
+		Node subject = star.get(0).getSubject();
+		for (Triple triple : star) {
+			if (!subject.equals(triple.getSubject()) || !triple.getPredicate().isConcrete()) {
+				return false;
+			}
+		}
+		QueryPattern queryPattern = new QueryPattern(graph.getConnection(), graph.getGraphName(),
+				Triple.createMatch(SHAPE_SUBJECT, star.get(0).getPredicate(), Node.ANY));
+		return queryPattern.canFindIn(Arrays.asList(ColumnName.S, ColumnName.P));
+	}
+
+	@Override
+	protected boolean hasNextBinding() {
+		while (!current.hasNext()) {
+			if (!getInput().hasNext()) {
+				return false;
+			}
+			current = joinBatch().iterator();
+		}
+		return true;
+	}
+
+	@Override
+	protected Binding moveToNextBinding() {
+		return current.next();
+	}
+
+	/*
+	 * Read a batch of bindings and join them with the star.
+	 */
+	private List<Binding> joinBatch() {
+		List<Binding> batch = new ArrayList<Binding>(batchSize);
+		Set<Node> subjects = new LinkedHashSet<Node>();
+		while (batch.size() < batchSize && getInput().hasNext()) {
+			Binding binding = getInput().nextBinding();
+			Node subject = Substitute.substitute(star.get(0), binding).getSubject();
+			if (!subject.isConcrete()) {
+				throw new QueryExecException(String.format("Star subject %s is not bound", subject));
+			}
+			batch.add(binding);
+			subjects.add(subject);
+		}
+		Map<Node, List<Triple>> triples = readSubjects(subjects);
+
+		List<Binding> retval = new ArrayList<Binding>();
+		for (Binding binding : batch) {
+			List<Binding> bindings = Collections.singletonList(binding);
+			for (Triple pattern : star) {
+				bindings = match(bindings, pattern, triples);
+			}
+			retval.addAll(bindings);
+		}
+		return retval;
+	}
+
+	/*
+	 * Read the triples of the subjects with the star predicates. The queries
+	 * are started before any of them is read.
+	 */
+	private Map<Node, List<Triple>> readSubjects(Set<Node> subjects) {
+		int chunk = Math.max(1, MAX_IN_PRODUCT / predicates.size());
+		pending = new ArrayList<ListenableFuture<ExtendedIterator<Quad>>>();
+		Map<Node, List<Triple>> retval = new HashMap<Node, List<Triple>>();
+		try {
+			for (List<Node> part : Lists.partition(new ArrayList<Node>(subjects), chunk)) {
+				Map<ColumnName, Collection<Node>> in = new EnumMap<ColumnName, Collection<Node>>(ColumnName.class);
+				in.put(ColumnName.S, part);
+				in.put(ColumnName.P, predicates);
+				QueryPattern queryPattern = new QueryPattern(graph.getConnection(), graph.getGraphName(),
+						Triple.createMatch(part.get(0), predicates.iterator().next(), Node.ANY));
+				pending.add(queryPattern.doFindAsync(graph.getKeyspace(), in));
+			}
+			for (ListenableFuture<ExtendedIterator<Quad>> future : pending) {
+				ExtendedIterator<Quad> iter = future.get();
+				try {
+					while (iter.hasNext()) {
+						Triple triple = iter.next().asTriple();
+						retval.computeIfAbsent(triple.getSubject(), k -> new ArrayList<Triple>()).add(triple);
+					}
+				} finally {
+					iter.close();
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new QueryCancelledException();
+		} catch (ExecutionException e) {
+			throw new QueryExecException(String.format("Unable to find star %s", star), e.getCause());
+		} finally {
+			pending = Collections.emptyList();
+		}
+		return retval;
+	}
+
+	/*
+	 * Extend each binding with the triples of its subject that match the
+	 * pattern.
+	 */
+	private static List<Binding> match(List<Binding> bindings, Triple pattern, Map<Node, List<Triple>> triples) {
+		List<Binding> retval = new ArrayList<Binding>();
+		for (Binding binding : bindings) {
+			Triple triple = Substitute.substitute(pattern, binding);
+			for (Triple found : triples.getOrDefault(triple.getSubject(), Collections.<Triple>emptyList())) {
+				if (triple.getPredicate().equals(found.getPredicate())
+						&& (!triple.getObject().isConcrete() || triple.getObject().matches(found.getObject()))) {
+					Binding result = QueryIterBatchJoin.bind(binding, triple, found);
+					if (result != null) {
+						retval.add(result);
+					}
+				}
+			}
+		}
+		return retval;
+	}
+
+	@Override
+	protected void requestSubCancel() {
+		for (ListenableFuture<ExtendedIterator<Quad>> future : pending) {
+			future.cancel(true);
+		}
+	}
+
+	@Override
+	protected void closeSubIterator() {
+		requestSubCancel();
+		current = Collections.emptyIterator();
+	}
+
+	@Override
+	protected void details(IndentedWriter out, SerializationContext sCxt) {
+		StringBuilder sb = new StringBuilder();
+		for (Triple triple : star) {
+			sb.append(sb.length() == 0 ? "" : " . ").append(FmtUtils.stringForTriple(triple, sCxt.getPrefixMapping()));
+		}
+		out.print(String.format("QueryIterStarJoin { %s } batch=%s", sb, batchSize));
+	}
+}
@@ -19,17 +19,32 @@
 
 package org.apache.jena.cassandra.graph;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
+import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.jena.datatypes.RDFDatatype;
@@ -45,9 +60,14 @@ import org.apache.jena.util.iterator.NiceIterator;
 import org.apache.jena.util.iterator.WrappedIterator;
 import org.apache.thrift.TDeserializer;
 import org.apache.thrift.TException;
+import com.datastax.driver.core.BoundStatement;
 import com.datastax.driver.core.ResultSet;
 import com.datastax.driver.core.Row;
+import com.datastax.driver.core.SimpleStatement;
+import com.datastax.driver.core.Statement;
 import com.datastax.driver.core.exceptions.InvalidQueryException;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 
 /**
  * Class that builds a query based on the graph Node and the triple pattern or a
@@ -189,6 +209,7 @@ public class QueryPattern {
 	 * Get a list of query values for all known columns.
 	 * 
 	 * Column values are strings except for numeric column I which is a big int.
+	 * Literals kept in the LiteralStore have no value or integer columns.
 	 * 
 	 * @param quad
 	 *            The quad to extract the data from.
@@ -203,9 +224,85 @@ public class QueryPattern {
 				retval.put(colName, value);
 			}
 		}
+		if (isStored(quad.getObject())) {
+			retval.remove(ColumnName.V);
+			retval.remove(ColumnName.I);
+		}
 		return retval;
 	}
 
+	/*
+	 * Check if the object is a literal kept in the LiteralStore.
+	 */
+	private boolean isStored(Node object) {
+		LiteralStore store = connection.getAuxiliaryTable(LiteralStore.class);
+		return store != null && store.isStored(object);
+	}
+
+	/*
+	 * Get the function that converts the rows read from the keyspace with the
+	 * columns (null for the standard query columns) to quads, reading the
+	 * literals of the LiteralStore and the nodes of the NodeDictionary.
+	 */
+	private RowToQuad getRowToQuad(String keyspace, List<ColumnName> columns) {
+		return getRowToQuad(keyspace, columns, true);
+	}
+
+	/*
+	 * Get the function that converts the rows to quads. The literals of the
+	 * LiteralStore are only read if they are needed: the digest of the
+	 * object of the pattern is the object, and if the object is a variable
+	 * that is not needed the object of a row with a digest is Node.ANY.
+	 */
+	private RowToQuad getRowToQuad(String keyspace, List<ColumnName> columns, boolean object) {
+		LiteralStore store = connection.getAuxiliaryTable(LiteralStore.class);
+		if (store == null) {
+			return new RowToQuad(columns, null, getNodeResolver(connection, keyspace), null,
+					getNodesReader(connection, keyspace));
+		}
+		Node match = ColumnName.O.getMatch(quad);
+		ByteBuffer known = null;
+		if (match != null && store.isStored(match)) {
+			try {
+				known = store.getDigest(match);
+			} catch (TException e) {
+				LOG.error("Unable to encode " + match, e);
+			}
+		}
+		ByteBuffer matchDigest = known;
+		boolean resolve = object || match != null;
+		/* with an object in the pattern every digest is the digest of the object */
+		Consumer<Collection<ByteBuffer>> pageLiterals = object && match == null
+				? digests -> store.readLiterals(keyspace, digests) : null;
+		return new RowToQuad(columns, digest -> digest.equals(matchDigest) ? match
+				: resolve ? store.resolve(keyspace, digest) : Node.ANY, getNodeResolver(connection, keyspace),
+				pageLiterals, getNodesReader(connection, keyspace));
+	}
+
+	/**
+	 * Get the function that reads the node of an id in the key columns.
+	 * 
+	 * @param connection
+	 *            The connection to use.
+	 * @param keyspace
+	 *            The keyspace to read.
+	 * @return the function, or null if the connection has no NodeDictionary.
+	 */
+	public static Function<ByteBuffer, Node> getNodeResolver(CassandraConnection connection, String keyspace) {
+		NodeDictionary dictionary = connection.getAuxiliaryTable(NodeDictionary.class);
+		return dictionary == null ? null : id -> dictionary.getNode(keyspace, id);
+	}
+
+	/*
+	 * Get the function that reads the nodes of the ids of a page together,
+	 * or null if the connection has no NodeDictionary.
+	 */
+	private static Consumer<Collection<ByteBuffer>> getNodesReader(CassandraConnection connection,
+			String keyspace) {
+		NodeDictionary dictionary = connection.getAuxiliaryTable(NodeDictionary.class);
+		return dictionary == null ? null : ids -> dictionary.readNodes(keyspace, ids);
+	}
+
 	/**
 	 * Get the query filter used to filter results if needed.
 	 * 
@@ -260,6 +357,11 @@ public class QueryPattern {
 	/**
 	 * Execute a find on the database.
 	 * 
+	 * The extra clauses and suffix are written for the quad tables. A literal
+	 * object is normally found in the LiteralTable if one is registered, but
+	 * with extra clauses or a suffix it is found in the quad tables, which
+	 * requires their secondary indexes.
+	 * 
 	 * @param keyspace
 	 *            The keyspace to query.
 	 * @param extraWhere
@@ -268,88 +370,542 @@ public class QueryPattern {
 	 *            Any extra suffix to add to the query (e.g. "Limit 1"). May be
 	 *            null.
 	 * @return An ExtendedIterator over the quads.
+	 * @throws IllegalArgumentException
+	 *             if there are extra clauses or a suffix for a literal object
+	 *             and the quad tables have no secondary indexes.
 	 */
 	public ExtendedIterator<Quad> doFind(String keyspace, String extraWhere, String suffix) {
+		LiteralTable literalTable = getLiteralTable();
+		if (literalTable != null) {
+			if (extraWhere == null && suffix == null) {
+				return doFindLiteral(keyspace, literalTable);
+			}
+			if (!connection.isSecondaryIndexes()) {
+				throw new IllegalArgumentException(
+						"Extra clauses and suffixes require secondary indexes to find a literal: " + quad);
+			}
+		}
 		try {
-			QueryInfo queryInfo = new QueryInfo(quad);
-			queryInfo.extraWhere = extraWhere;
-			queryInfo.suffix = suffix;
-			/*
-			 * we always remove the Language from the where clause in a query as
-			 * we handle that below. If the index type is included in the extra
-			 * values then we also remove the data type from the where clause so
-			 * we can match byte, int and long as the same value.
-			 */
-			if (queryInfo.values.containsKey(ColumnName.I)) {
-				queryInfo.extraValueFilter = Arrays.asList(ColumnName.L, ColumnName.D, ColumnName.V);
-			} else {
-				queryInfo.extraValueFilter = Arrays.asList(ColumnName.L);
+			QueryInfo queryInfo = getFindQueryInfo(keyspace, extraWhere, suffix);
+			return doFind(keyspace, queryInfo, getFindQuery(queryInfo), getRowToQuad(keyspace, null));
+		} catch (TException e) {
+			LOG.error("Bad query: " + e.getMessage(), e);
+			return NiceIterator.emptyIterator();
+		}
+	}
+
+	/**
+	 * Execute a find on the database that only reads and decodes the
+	 * columns for some of the quad positions.
+	 * 
+	 * The returned quads have the values of the requested columns. The other
+	 * positions are Node.ANY, unless the results have to be filtered after
+	 * the query (for example to match the language of a literal), in which
+	 * case the whole quads are read.
+	 * 
+	 * @param keyspace
+	 *            The keyspace to query.
+	 * @param columns
+	 *            The columns to read, some of S, P, O and G.
+	 * @param limit
+	 *            The maximum number of quads to read or -1 for all of them.
+	 *            As for doFindFirst() the limit is only added to the query if
+	 *            the results are not filtered. The pattern has no variables,
+	 *            so a caller that drops some of the quads (for example when
+	 *            a variable is in two positions) must pass -1.
+	 * @return An ExtendedIterator over the quads.
+	 */
+	public ExtendedIterator<Quad> findNodes(String keyspace, Collection<ColumnName> columns, long limit) {
+		try {
+			QueryInfo queryInfo = getFindQueryInfo(keyspace, null, null);
+			QueryInfo.WhereClause whereClause = queryInfo.getWhereClause();
+			/* the where clause removes the filtered values so check afterwards */
+			if (queryInfo.values.containsKey(ColumnName.L) || getLiteralTable() != null) {
+				return limit < 0 ? doFind(keyspace) : doFindFirst(keyspace, limit);
+			}
+			if (whereClause.needFilter) {
+				/* the literals are not read if the object is not needed */
+				return doFind(keyspace, queryInfo, getFindQuery(queryInfo, whereClause),
+						getRowToQuad(keyspace, null, columns.contains(ColumnName.O)));
+			}
+			if (limit >= 0 && limit <= Integer.MAX_VALUE) {
+				queryInfo.limit = (int) limit;
+			}
+			List<ColumnName> select = new ArrayList<ColumnName>();
+			for (ColumnName column : Arrays.asList(ColumnName.S, ColumnName.P, ColumnName.O, ColumnName.G)) {
+				if (columns.contains(column)) {
+					select.add(column);
+				}
+			}
+			if (select.contains(ColumnName.O)) {
+				/* literal objects are read from the value columns */
+				select.addAll(Arrays.asList(ColumnName.L, ColumnName.D, ColumnName.V));
+			} else if (select.isEmpty()) {
+				select.add(ColumnName.S);
 			}
+			Query query = getQuery(String.format("SELECT %s FROM %s", StringUtils.join(select, ", "),
+					queryInfo.tableName), queryInfo, whereClause);
+			return doFind(keyspace, queryInfo, query, getRowToQuad(keyspace, select));
+		} catch (TException e) {
+			LOG.error("Bad query: " + e.getMessage(), e);
+			return NiceIterator.emptyIterator();
+		}
+	}
 
-			/**
-			 * If the object is a literal remove the object from query
-			 * consideration leaving just the values extract from it and change
-			 * the tablename so that we query appropriately.
-			 */
-			if (queryInfo.objectIsLiteral()) {
-				queryInfo.tableQuad = new Quad(quad.getGraph(), quad.getSubject(), quad.getPredicate(), Node.ANY);
-				queryInfo.values.remove(ColumnName.O);
-				queryInfo.tableName = CassandraConnection.getTable(CassandraConnection.getId(queryInfo.tableQuad));
+	/**
+	 * Find the distinct values of one position of the pattern.
+	 * 
+	 * If the position is the only one without a value every quad found has a
+	 * different value so only that column is read. If no position has a value
+	 * the table whose partition key is the column is read with PER PARTITION
+	 * LIMIT 1 so Cassandra returns each value once. If only the graph has a
+	 * value the column is read from the graph partition of the GSPO table;
+	 * the subjects are contiguous there so a subject is dropped when it is
+	 * the same as the one before. Otherwise the column is read for all the
+	 * quads found and the values seen are kept in memory to drop the
+	 * duplicates.
+	 * 
+	 * @param keyspace
+	 *            The keyspace to query.
+	 * @param column
+	 *            The position, one of S, P, O or G.
+	 * @return An ExtendedIterator over the distinct nodes.
+	 */
+	public ExtendedIterator<Node> findDistinct(String keyspace, ColumnName column) {
+		Function<Quad, Node> toNode = q -> column == ColumnName.G ? q.getGraph()
+				: column == ColumnName.S ? q.getSubject() : column == ColumnName.P ? q.getPredicate() : q.getObject();
+		if (column.getMatch(quad) != null) {
+			return doContains(keyspace) ? WrappedIterator.create(Collections.singleton(column.getMatch(quad)).iterator())
+					: NiceIterator.emptyIterator();
+		}
+		List<ColumnName> positions = Arrays.asList(ColumnName.S, ColumnName.P, ColumnName.O, ColumnName.G);
+		List<ColumnName> others = new ArrayList<ColumnName>(positions);
+		others.remove(column);
+		boolean onlyVariable = true;
+		for (ColumnName other : others) {
+			onlyVariable &= other.getMatch(quad) != null;
+		}
+		if (onlyVariable) {
+			return findNodes(keyspace, Collections.singleton(column), -1).mapWith(toNode);
+		}
+		Node graph = ColumnName.G.getMatch(quad);
+		if (quad.asTriple().equals(Triple.ANY) && graph == null) {
+			try {
+				/* the table with the column as partition key */
+				char[] id = "____".toCharArray();
+				id[positions.indexOf(column)] = column.getId();
+				TableName tableName = CassandraConnection.getTable(String.valueOf(id));
+				List<ColumnName> select = new ArrayList<ColumnName>(Collections.singletonList(column));
+				if (column == ColumnName.O) {
+					select.addAll(Arrays.asList(ColumnName.L, ColumnName.D, ColumnName.V));
+				}
+				StringBuilder query = new StringBuilder(
+						String.format("SELECT %s FROM %s", StringUtils.join(select, ", "), tableName));
+				query.append(" PER PARTITION LIMIT 1");
+				int fetchSize = connection.getFetchSize(getId());
+				ResultSet rs = connection.executeQuery(keyspace, query.toString(), Collections.emptyList(),
+						fetchSize);
+				RowToQuad rowToQuad = getRowToQuad(keyspace, select);
+				return new PagedQuadIterator(rs, fetchSize, rowToQuad, rowToQuad::readPage)
+						.filterDrop(new FindNull<Quad>())
+						.mapWith(toNode);
+			} catch (InvalidQueryException e) {
+				LOG.error("Bad query: " + e.getMessage(), e);
+				return NiceIterator.emptyIterator();
 			}
-			Query query = getFindQuery(queryInfo);
-			ResultSet rs = connection.executeQuery(keyspace,query.text.toString());
-			ExtendedIterator<Quad> iter = WrappedIterator.create(rs.iterator()).mapWith(new RowToQuad())
-					.filterDrop(new FindNull<Quad>());
+		}
+		if (quad.asTriple().equals(Triple.ANY) && column == ColumnName.S) {
+			/* the GSPO partition of the graph is clustered by subject */
+			Node[] previous = new Node[1];
+			return findNodes(keyspace, Collections.singleton(column), -1).mapWith(toNode).filterKeep(node -> {
+				boolean retval = !node.equals(previous[0]);
+				previous[0] = node;
+				return retval;
+			});
+		}
+		Set<Node> seen = new HashSet<Node>();
+		return findNodes(keyspace, Collections.singleton(column), -1).mapWith(toNode).filterKeep(seen::add);
+	}
+
+	/**
+	 * Execute a find query.
+	 * 
+	 * @param keyspace
+	 *            The keyspace to query.
+	 * @param queryInfo
+	 *            The query info for the find.
+	 * @param query
+	 *            The query.
+	 * @param rowToQuad
+	 *            The function to convert the selected columns to quads.
+	 * @return An ExtendedIterator over the quads.
+	 */
+	private ExtendedIterator<Quad> doFind(String keyspace, QueryInfo queryInfo, Query query, RowToQuad rowToQuad) {
+		try {
+			int fetchSize = connection.getFetchSize(getId());
+			ExtendedIterator<Quad> iter = null;
 			/*
-			 * if the language was included in the original quad.object then we
-			 * need to filter base on the language column. this can not be done
-			 * in cassandra as it does not have a concept of case inspecific.
+			 * a limit would apply to each range so only scans without a
+			 * suffix or limit are split
 			 */
-			if (queryInfo.values.containsKey(ColumnName.L)) {
-				iter = iter.filterKeep(new LanguageFilter(queryInfo.values.get(ColumnName.L)));
+			if (query.scan && queryInfo.suffix == null && queryInfo.limit < 0
+					&& connection.getScanParallelism() > 1) {
+				TokenRangeScanner scanner = connection.scanTokenRanges(keyspace, query.rangeText.toString(),
+						query.bindValues, fetchSize);
+				if (scanner != null) {
+					iter = scanner.mapWith(rowToQuad).filterDrop(new FindNull<Quad>());
+				}
 			}
-			if (query.needsFilter) {
-				iter = iter.filterKeep(getQueryFilter());
+			if (iter == null) {
+				ResultSet rs = connection.executeQuery(keyspace, query.boundText.toString(), query.bindValues,
+						fetchSize);
+				iter = new PagedQuadIterator(rs, fetchSize, rowToQuad, rowToQuad::readPage);
 			}
-			return iter;
-		} catch (TException e) {
+			return applyFilters(queryInfo, query, iter, quad);
+		} catch (InvalidQueryException e) {
 			LOG.error("Bad query: " + e.getMessage(), e);
 			return NiceIterator.emptyIterator();
-		} catch (InvalidQueryException e) {
+		}
+	}
+
+	/**
+	 * Get the LiteralTable to find the pattern in: the object is a literal
+	 * and a LiteralTable is registered. One is always registered when the
+	 * quad tables have no secondary indexes.
+	 * 
+	 * @return the table or null if the pattern is found in the quad tables.
+	 */
+	private LiteralTable getLiteralTable() {
+		if (!quad.getObject().isLiteral()) {
+			return null;
+		}
+		return connection.getAuxiliaryTable(LiteralTable.class);
+	}
+
+	/**
+	 * The filter for the quads read from the LiteralTable: the positions the
+	 * query does not restrict and the key of the literal, as different keys
+	 * may have the same hash.
+	 * 
+	 * @return the filter.
+	 */
+	private Predicate<Quad> getLiteralFilter() {
+		Node graph = quad.getGraph() == null ? Node.ANY : quad.getGraph();
+		Predicate<Quad> retval = q -> q.matches(graph, quad.getSubject(), quad.getPredicate(), Node.ANY);
+		return retval.and(LiteralTable.getKeyFilter(quad));
+	}
+
+	/**
+	 * Find the pattern in the LiteralTable.
+	 * 
+	 * @param keyspace
+	 *            The keyspace to query.
+	 * @param literalTable
+	 *            The literal table.
+	 * @return An ExtendedIterator over the quads.
+	 */
+	private ExtendedIterator<Quad> doFindLiteral(String keyspace, LiteralTable literalTable) {
+		try {
+			List<Object> values = new ArrayList<Object>();
+			String query = literalTable.getQuery(quad, LiteralTable.getQuadColumns(), values);
+			int fetchSize = connection.getFetchSize(getId());
+			ResultSet rs = connection.executeQuery(keyspace, query, values, fetchSize);
+			return new PagedQuadIterator(rs, fetchSize, literalTable.getQuadReader(keyspace)).filterKeep(getLiteralFilter());
+		} catch (TException | InvalidQueryException e) {
+			LOG.error("Bad query: " + e.getMessage(), e);
+			return NiceIterator.emptyIterator();
+		}
+	}
+
+	/**
+	 * Find the pattern in the LiteralTable asynchronously.
+	 * 
+	 * @param keyspace
+	 *            The keyspace to query.
+	 * @param literalTable
+	 *            The literal table.
+	 * @return A future for the iterator over the quads.
+	 */
+	private ListenableFuture<ExtendedIterator<Quad>> doFindLiteralAsync(String keyspace,
+			LiteralTable literalTable) {
+		try {
+			List<Object> values = new ArrayList<Object>();
+			String query = literalTable.getQuery(quad, LiteralTable.getQuadColumns(), values);
+			int fetchSize = connection.getFetchSize(getId());
+			ListenableFuture<ResultSet> future = connection.executeQueryAsync(keyspace, query, values, fetchSize);
+			return Futures.transform(future, new com.google.common.base.Function<ResultSet, ExtendedIterator<Quad>>() {
+				@Override
+				public ExtendedIterator<Quad> apply(ResultSet rs) {
+					return new PagedQuadIterator(rs, fetchSize, literalTable.getQuadReader(keyspace))
+							.filterKeep(getLiteralFilter());
+				}
+			});
+		} catch (TException | IllegalStateException e) {
+			return Futures.immediateFailedFuture(e);
+		}
+	}
+
+	/**
+	 * Execute a find on the database for at most limit quads.
+	 * 
+	 * The limit is added to the query as a CQL LIMIT when every quad the
+	 * query returns is a result. If the results have to be filtered after the
+	 * query (for example to match the language of a literal) the query is not
+	 * limited and the caller must stop reading after limit quads.
+	 * 
+	 * @param keyspace
+	 *            The keyspace to query.
+	 * @param limit
+	 *            The maximum number of quads to read. Every quad read must be
+	 *            a result of the caller, see findNodes().
+	 * @return An ExtendedIterator over the quads.
+	 */
+	public ExtendedIterator<Quad> doFindFirst(String keyspace, long limit) {
+		if (getLiteralTable() != null) {
+			return doFind(keyspace);
+		}
+		try {
+			QueryInfo queryInfo = getFindQueryInfo(keyspace, null, null);
+			QueryInfo.WhereClause whereClause = queryInfo.getWhereClause();
+			if (!whereClause.needFilter && !queryInfo.values.containsKey(ColumnName.L)
+					&& limit <= Integer.MAX_VALUE) {
+				queryInfo.limit = (int) limit;
+			}
+			return doFind(keyspace, queryInfo, getFindQuery(queryInfo, whereClause), getRowToQuad(keyspace, null));
+		} catch (TException e) {
 			LOG.error("Bad query: " + e.getMessage(), e);
 			return NiceIterator.emptyIterator();
 		}
 	}
 
+	/**
+	 * Add the filters a find needs that can not be done by the query.
+	 * 
+	 * @param queryInfo
+	 *            The query info for the find.
+	 * @param query
+	 *            The query.
+	 * @param iter
+	 *            The quads returned by the query.
+	 * @param pattern
+	 *            The pattern the quads must match if the query needs a
+	 *            filter.
+	 * @return the filtered iterator.
+	 */
+	private ExtendedIterator<Quad> applyFilters(QueryInfo queryInfo, Query query, ExtendedIterator<Quad> iter,
+			Quad pattern) {
+		/*
+		 * if the language was included in the original quad.object then we
+		 * need to filter base on the language column. this can not be done
+		 * in cassandra as it does not have a concept of case inspecific.
+		 */
+		if (queryInfo.values.containsKey(ColumnName.L)) {
+			iter = iter.filterKeep(new LanguageFilter(queryInfo.values.get(ColumnName.L)));
+		}
+		if (query.needsFilter) {
+			iter = iter.filterKeep(new ResultFilter(pattern));
+		}
+		return iter;
+	}
+
+	/**
+	 * Check if a find for the pattern reads the whole table (a token range
+	 * scan) rather than the partitions of a partition key value.
+	 * 
+	 * @param keyspace
+	 *            The keyspace to query.
+	 * @return true if the find is a scan.
+	 */
+	public boolean isScan(String keyspace) {
+		if (getLiteralTable() != null) {
+			return false;
+		}
+		try {
+			return getFindQuery(getFindQueryInfo(keyspace, null, null)).scan;
+		} catch (TException e) {
+			LOG.error("Bad query: " + e.getMessage(), e);
+			return true;
+		}
+	}
+
+	/**
+	 * Check if the pattern can be found for several values of some of its
+	 * columns in one query with doFindAsync().
+	 * 
+	 * Each column must have a value in the pattern and be part of the
+	 * contiguous start of the primary key that the find query restricts.
+	 * Queries that use the object value indexes (literal objects) can not
+	 * restrict keys with IN.
+	 * 
+	 * @param columns
+	 *            The columns that would have several values.
+	 * @return true if the columns can be restricted with IN.
+	 */
+	public boolean canFindIn(Collection<ColumnName> columns) {
+		QueryInfo queryInfo = getFindQueryInfo(null, null, null);
+		if (queryInfo.hasNonPrimaryData()) {
+			return false;
+		}
+		List<ColumnName> primaryKey = queryInfo.tableName.getPrimaryKeyColumns();
+		for (ColumnName column : columns) {
+			int idx = primaryKey.indexOf(column);
+			if (idx == -1) {
+				return false;
+			}
+			for (int i = 0; i <= idx; i++) {
+				if (!queryInfo.values.containsKey(primaryKey.get(i))) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Execute a find on the database asynchronously.
+	 * 
+	 * The pattern may be found for several values of some columns at once:
+	 * the value of each of those columns in the pattern is replaced by an IN
+	 * restriction on the values given for it. Use canFindIn() to check that
+	 * the columns can be restricted. The quads for all the values are
+	 * returned in the order Cassandra returns them.
+	 * 
+	 * @param keyspace
+	 *            The keyspace to query.
+	 * @param in
+	 *            The values for the columns restricted with IN. May be empty.
+	 * @return A future for the iterator over the quads. Later pages of the
+	 *         result are fetched as the iterator is read.
+	 */
+	public ListenableFuture<ExtendedIterator<Quad>> doFindAsync(String keyspace,
+			Map<ColumnName, ? extends Collection<Node>> in) {
+		LiteralTable literalTable = getLiteralTable();
+		if (literalTable != null) {
+			/* canFindIn() is false for literal objects so there are no IN values */
+			return doFindLiteralAsync(keyspace, literalTable);
+		}
+		try {
+			QueryInfo queryInfo = getFindQueryInfo(keyspace, null, null);
+			queryInfo.inValues = in;
+			Query query = getFindQuery(queryInfo);
+			int fetchSize = connection.getFetchSize(getId());
+			/* the filter must accept any of the values of the IN columns */
+			Node[] nodes = { quad.getGraph(), quad.getSubject(), quad.getPredicate(), quad.getObject() };
+			for (ColumnName col : in.keySet()) {
+				nodes[Arrays.asList(ColumnName.G, ColumnName.S, ColumnName.P, ColumnName.O).indexOf(col)] = Node.ANY;
+			}
+			Quad pattern = new Quad(nodes[0], nodes[1], nodes[2], nodes[3]);
+			ListenableFuture<ResultSet> future = connection.executeQueryAsync(keyspace, query.boundText.toString(),
+					query.bindValues, fetchSize);
+			return Futures.transform(future, new com.google.common.base.Function<ResultSet, ExtendedIterator<Quad>>() {
+				@Override
+				public ExtendedIterator<Quad> apply(ResultSet rs) {
+					RowToQuad rowToQuad = getRowToQuad(keyspace, null);
+					return applyFilters(queryInfo, query,
+							new PagedQuadIterator(rs, fetchSize, rowToQuad, rowToQuad::readPage), pattern);
+				}
+			});
+		} catch (TException | IllegalStateException e) {
+			return Futures.immediateFailedFuture(e);
+		}
+	}
+
+	/**
+	 * Create the query info for a find.
+	 * 
+	 * @param extraWhere
+	 *            Any extra clauses to add to the query. May be null.
+	 * @param suffix
+	 *            Any extra suffix to add to the query. May be null.
+	 * @return the query info.
+	 */
+	private QueryInfo getFindQueryInfo(String keyspace, String extraWhere, String suffix) {
+		QueryInfo queryInfo = new QueryInfo(quad);
+		queryInfo.keyspace = keyspace;
+		queryInfo.extraWhere = extraWhere;
+		queryInfo.suffix = suffix;
+		/*
+		 * we always remove the Language from the where clause in a query as
+		 * we handle that below. If the index type is included in the extra
+		 * values then we also remove the data type from the where clause so
+		 * we can match byte, int and long as the same value.
+		 */
+		if (queryInfo.values.containsKey(ColumnName.I)) {
+			queryInfo.extraValueFilter = Arrays.asList(ColumnName.L, ColumnName.D, ColumnName.V);
+		} else if (isStored(quad.getObject())) {
+			/* the digest in the object column includes the data type */
+			queryInfo.extraValueFilter = Arrays.asList(ColumnName.L, ColumnName.D);
+		} else {
+			queryInfo.extraValueFilter = Arrays.asList(ColumnName.L);
+		}
+
+		/**
+		 * If the object is a literal remove the object from query
+		 * consideration leaving just the values extract from it and change
+		 * the tablename so that we query appropriately.
+		 */
+		if (queryInfo.objectIsLiteral()) {
+			queryInfo.tableQuad = new Quad(quad.getGraph(), quad.getSubject(), quad.getPredicate(), Node.ANY);
+			queryInfo.values.remove(ColumnName.O);
+			queryInfo.tableName = CassandraConnection.getTable(CassandraConnection.getId(queryInfo.tableQuad));
+		}
+		return queryInfo;
+	}
+
 	/*
 	 * package private for testing
 	 */
 	/* package private */ Query getFindQuery(QueryInfo queryInfo) throws TException {
+		return getFindQuery(queryInfo, queryInfo.getWhereClause());
+	}
+
+	/*
+	 * The find query with a where clause already built from the query info.
+	 */
+	private Query getFindQuery(QueryInfo queryInfo, QueryInfo.WhereClause whereClause) {
+		return getQuery(String.format("SELECT %s FROM %s", SELECT_COLUMNS, queryInfo.tableName), queryInfo,
+				whereClause);
+	}
+
+	/**
+	 * Build a query on the query info table.
+	 * 
+	 * @param start
+	 *            The start of the query (e.g. "SELECT x FROM table").
+	 * @param queryInfo
+	 *            The query info.
+	 * @param whereClause
+	 *            The where clause from the query info.
+	 * @return the query.
+	 */
+	private Query getQuery(String start, QueryInfo queryInfo, QueryInfo.WhereClause whereClause) {
 		/*
 		 * Adjust the table name based on the presence of the index on the
 		 * object field. If the object field is a number then we need to use the
 		 * index to filter it.
 		 */
 
-		Query query = new Query();
-		query.text = new StringBuilder(
-				String.format("SELECT %s FROM %s", SELECT_COLUMNS, queryInfo.tableName));
-
-		QueryInfo.WhereClause whereClause = queryInfo.getWhereClause();
+		Query query = new Query(start);
 
 		query.setWhere(whereClause);
 
 		if (queryInfo.suffix != null) {
-			query.text.append(" ").append(queryInfo.suffix);
+			query.append(" ").append(queryInfo.suffix);
+		}
+
+		if (queryInfo.limit >= 0) {
+			query.setLimit(queryInfo.limit);
 		}
 
 		if (queryInfo.hasNonPrimaryData()) {
 			if (queryInfo.suffix == null || !queryInfo.suffix.toLowerCase().contains("allow filtering")) {
-				query.text.append(" ALLOW FILTERING");
+				query.append(" ALLOW FILTERING");
 			}
 		}
 
-		LOG.debug(query.text);
+		if (LOG.isDebugEnabled()) {
+			LOG.debug(query.text);
+		}
 		return query;
 	}
 
@@ -361,7 +917,7 @@ public class QueryPattern {
 	 * @return True the quad is in the database, false otherwise.
 	 */
 	public boolean doContains(String keyspace) {
-		ExtendedIterator<Quad> iter = doFind(keyspace);
+		ExtendedIterator<Quad> iter = findNodes(keyspace, Collections.<ColumnName>emptyList(), 1);
 		try {
 			return iter.hasNext();
 		} finally {
@@ -403,16 +959,28 @@ public class QueryPattern {
 	}
 
 	/* package private */ String getDeleteStatement(Quad quad) throws TException {
-		if (ColumnName.S.getMatch(quad) == null || ColumnName.P.getMatch(quad) == null
-				|| ColumnName.O.getMatch(quad) == null || ColumnName.G.getMatch(quad) == null) {
-			throw new IllegalArgumentException(
-					"Graph, subject, predicate and object must be specified for a delete: " + quad.toString());
-		}
-		QueryInfo queryInfo = new QueryInfo(quad);
-		queryInfo.extraValueFilter = queryInfo.getNonKeyColumns();
+		return getDeleteStatement(null, quad, CassandraConnection.getTableList());
+	}
 
+	/**
+	 * Get the batch that deletes the quad from some of the quad tables.
+	 * 
+	 * @param keyspace
+	 *            The keyspace of the ids of the NodeDictionary, may be null
+	 *            without one.
+	 * @param quad
+	 *            The concrete quad.
+	 * @param tables
+	 *            The tables to delete from.
+	 * @return the batch statement text.
+	 * @throws TException
+	 *             on encoding error.
+	 */
+	private String getDeleteStatement(String keyspace, Quad quad, Collection<TableName> tables)
+			throws TException {
+		QueryInfo queryInfo = getDeleteQueryInfo(keyspace, quad);
 		StringBuilder sb = new StringBuilder("BEGIN BATCH").append(System.lineSeparator());
-		for (TableName tableName : CassandraConnection.getTableList()) {
+		for (TableName tableName : tables) {
 			queryInfo.tableName = tableName;
 			String whereClause = queryInfo.getWhereClause().text.toString();
 			String cmd = String.format("DELETE FROM %s %s;%n", queryInfo.tableName.getName(), whereClause);
@@ -421,6 +989,22 @@ public class QueryPattern {
 		return sb.append("APPLY BATCH;").toString();
 	}
 
+	/*
+	 * The query info for the delete of a concrete quad: the where clauses
+	 * only have the key columns.
+	 */
+	private QueryInfo getDeleteQueryInfo(String keyspace, Quad quad) throws TException {
+		if (ColumnName.S.getMatch(quad) == null || ColumnName.P.getMatch(quad) == null
+				|| ColumnName.O.getMatch(quad) == null || ColumnName.G.getMatch(quad) == null) {
+			throw new IllegalArgumentException(
+					"Graph, subject, predicate and object must be specified for a delete: " + quad.toString());
+		}
+		QueryInfo queryInfo = new QueryInfo(quad);
+		queryInfo.keyspace = keyspace;
+		queryInfo.extraValueFilter = queryInfo.getNonKeyColumns();
+		return queryInfo;
+	}
+
 	/**
 	 * Delete the row(s) from the database.
 	 * 
@@ -435,23 +1019,67 @@ public class QueryPattern {
 		else 
 		{
 		
-			Iterator<String> statements = doFind(keyspace).mapWith( new Function<Quad,String>(){
-	
-				@Override
-				public String apply(Quad quad) {
+			/* the auxiliary tables are only updated for quads that exist */
+			BulkExecutor bulkExecutor = connection.createBulkExecutor(keyspace);
+			ExtendedIterator<Quad> found = doFind(keyspace);
+			try {
+				while (found.hasNext()) {
+					Quad q = found.next();
 					try {
-						return getDeleteStatement(quad);
-					} catch (TException e) {
-						LOG.error( "Unable to create delete statement for "+quad, e);
-						return null;
+						executeDelete(keyspace, q, bulkExecutor);
+					} catch (TException | IllegalStateException e) {
+						LOG.error( "Unable to create delete statement for "+q, e);
 					}
-				}}).filterDrop( new FindNull<String>());
-			connection.executeUpdateSet(keyspace, statements);
+				}
+			} finally {
+				found.close();
+			}
+			bulkExecutor.awaitFinish();
 		
 		}
 
 	}
 
+	/**
+	 * Execute the delete of a quad that exists with a bulk executor.
+	 * 
+	 * If an auxiliary table counts the quads the SPOG row is deleted with IF
+	 * EXISTS and the statements of the counting tables are only executed if
+	 * it applied, so a quad deleted twice is only counted once.
+	 * 
+	 * @param keyspace
+	 *            The keyspace to delete from.
+	 * @param quad
+	 *            The concrete quad.
+	 * @param bulkExecutor
+	 *            The executor for the statements.
+	 * @throws TException
+	 *             on encoding error.
+	 */
+	private void executeDelete(String keyspace, Quad quad, BulkExecutor bulkExecutor) throws TException {
+		List<Statement> counts = getAuxiliaryStatements(keyspace, quad, false, true);
+		List<Statement> statements = new ArrayList<Statement>();
+		List<TableName> tables = new ArrayList<TableName>(CassandraConnection.getTableList());
+		if (!counts.isEmpty()) {
+			QueryInfo queryInfo = getDeleteQueryInfo(keyspace, quad);
+			queryInfo.tableName = tables.remove(0);
+			QueryInfo.WhereClause whereClause = queryInfo.getWhereClause();
+			Statement delete = connection.bind(keyspace,
+					String.format("DELETE FROM %s%s IF EXISTS", queryInfo.tableName, whereClause.boundText),
+					whereClause.bindValues);
+			/* as for the insert a retry whose first attempt applied is not counted */
+			delete.setIdempotent(true);
+			bulkExecutor.executeStatement(quad, delete, rs -> {
+				if (rs.wasApplied()) {
+					bulkExecutor.executeStatements(quad, counts.iterator());
+				}
+			});
+		}
+		statements.add(new SimpleStatement(getDeleteStatement(keyspace, quad, tables)));
+		statements.addAll(getAuxiliaryStatements(keyspace, quad, false, false));
+		bulkExecutor.executeStatements(quad, statements.iterator());
+	}
+
 	/**
 	 * Get a count of the triples that match the pattern for this table in the
 	 * specified keyspace.
@@ -463,28 +1091,129 @@ public class QueryPattern {
 	 *             On serialization error.
 	 */
 	public long getCount(String keyspace) throws TException {
-		TableName tableName = getTableName();
-		QueryInfo.WhereClause whereClause = getWhereClause(tableName);
-		if (whereClause.needFilter) {
-			ExtendedIterator<Quad> iter = doFind(keyspace);
-			long count = 0;
-			while (iter.hasNext()) {
-				count++;
-				iter.next();
-			}
-			return count;
+		return getCounter(keyspace).count();
+	}
+
+	/**
+	 * Get a counter for the triples that match the pattern in the specified
+	 * keyspace. The count is not started until TokenRangeCounter.count() is
+	 * called, the counter may be used to monitor the progress of the count.
+	 * 
+	 * Patterns that scan the table are counted one token range at a time
+	 * with the ranges counted in parallel. If the pattern needs a filter only
+	 * the key columns are read and they are compared as raw bytes against the
+	 * encoded pattern so the rows are not decoded.
+	 * 
+	 * @param keyspace
+	 *            the keyspace to query.
+	 * @return The counter.
+	 * @throws TException
+	 *             On serialization error.
+	 */
+	public TokenRangeCounter getCounter(String keyspace) throws TException {
+		LiteralTable literalTable = getLiteralTable();
+		if (literalTable != null) {
+			List<Object> values = new ArrayList<Object>();
+			String query = literalTable.getQuery(quad, LiteralTable.getQuadColumns(), values);
+			Function<Row, Quad> reader = literalTable.getQuadReader(keyspace);
+			Predicate<Quad> filter = getLiteralFilter();
+			return connection.countTokenRanges(keyspace, query, null, values, connection.getFetchSize(getId()),
+					rs -> {
+						long count = 0;
+						for (Row row : rs) {
+							Quad found = reader.apply(row);
+							if (found != null && filter.test(found)) {
+								count++;
+							}
+						}
+						return count;
+					});
+		}
+		QueryInfo queryInfo = getFindQueryInfo(keyspace, null, null);
+		TableName tableName = queryInfo.tableName;
+		QueryInfo.WhereClause whereClause = queryInfo.getWhereClause();
+		/* the where clause removes the filtered values so check afterwards */
+		Object lang = queryInfo.values.get(ColumnName.L);
+		boolean filter = whereClause.needFilter || lang != null;
+
+		String select;
+		ToLongFunction<ResultSet> counter;
+		if (filter) {
+			select = String.format("%s, %s, %s, %s, %s, %s", ColumnName.S, ColumnName.P, ColumnName.O, ColumnName.G,
+					ColumnName.L, ColumnName.D);
+			Predicate<Row> rowFilter = getRawFilter(queryInfo, whereClause, lang);
+			counter = rs -> {
+				long count = 0;
+				for (Row row : rs) {
+					if (rowFilter.test(row)) {
+						count++;
+					}
+				}
+				return count;
+			};
 		} else {
-			String query = String.format("SELECT count(%s) FROM %s %s", tableName.getPartitionKey(),
-					tableName, whereClause.text);
-			ResultSet rs = connection.executeQuery(keyspace,query);
-			return rs.one().getLong(0);
+			select = String.format("count(%s)", tableName.getPartitionKey());
+			counter = rs -> rs.one().getLong(0);
 		}
+		Query query = getQuery(String.format("SELECT %s FROM %s", select, tableName), queryInfo, whereClause);
+		return connection.countTokenRanges(keyspace, query.boundText.toString(),
+				query.scan ? query.rangeText.toString() : null, query.bindValues, connection.getFetchSize(getId()),
+				counter);
+	}
+
+	/**
+	 * Create a filter that compares the key columns of a row as raw bytes
+	 * with the encoded values of the pattern. This matches the same rows as
+	 * the query filter and language filter in doFind without decoding them.
+	 * 
+	 * @param queryInfo
+	 *            The query info for the find.
+	 * @param whereClause
+	 *            The where clause for the query info. Columns it checks are
+	 *            not checked again.
+	 * @param lang
+	 *            The language to filter on, may be null.
+	 * @return the row filter.
+	 */
+	private Predicate<Row> getRawFilter(QueryInfo queryInfo, QueryInfo.WhereClause whereClause, Object lang) {
+		Map<ColumnName, Object> expected = new EnumMap<ColumnName, Object>(ColumnName.class);
+		for (ColumnName col : Arrays.asList(ColumnName.S, ColumnName.P, ColumnName.O, ColumnName.G)) {
+			Object value = queryInfo.values.get(col);
+			if (value != null && !whereClause.equalities.contains(col)) {
+				expected.put(col, col.getBindValue(connection, queryInfo.keyspace, value));
+			}
+		}
+		LanguageFilter langFilter = lang == null ? null : new LanguageFilter(lang);
+		return row -> {
+			for (Map.Entry<ColumnName, Object> entry : expected.entrySet()) {
+				if (!entry.getValue().equals(row.getBytes(entry.getKey().toString()))) {
+					return false;
+				}
+			}
+			if (langFilter != null) {
+				/* only literals have a data type */
+				if (row.getString(ColumnName.D.toString()) == null) {
+					return false;
+				}
+				String rowLang = row.getString(ColumnName.L.toString());
+				return langFilter.doFilter(rowLang == null ? "" : rowLang);
+			}
+			return true;
+		};
 	}
 
 	/*
 	 * package private for testing purposes
 	 */
 	/* package private */ Iterator<String> getInsertStatement() throws TException {
+		return getInsertStatement(null);
+	}
+
+	/*
+	 * package private for testing purposes, the keyspace is needed for the
+	 * ids of a NodeDictionary.
+	 */
+	/* package private */ Iterator<String> getInsertStatement(String keyspace) throws TException {
 		if (ColumnName.S.getMatch(quad) == null || ColumnName.P.getMatch(quad) == null
 				|| ColumnName.O.getMatch(quad) == null || ColumnName.G.getMatch(quad) == null) {
 			throw new IllegalArgumentException(
@@ -513,13 +1242,207 @@ public class QueryPattern {
 					if (!first) {
 						sb.append(", ");
 					}
-					sb.append(colName.getInsertValue(connection, queryInfo.values.get(colName)));
+					sb.append(colName.getInsertValue(connection, keyspace, queryInfo.values.get(colName)));
 					first = false;
 				}
 				return sb.append(");").toString();		
 			}}).iterator();
 	}
 
+	/**
+	 * Get the insert statements for the quad. There is one statement for each
+	 * table. Each statement is the prepared insert for the table with the
+	 * column values bound as binary data. Columns without a value are left
+	 * unset. The statements for any auxiliary tables follow, except those of
+	 * the tables that count the quads, see executeInsert().
+	 * 
+	 * @param keyspace
+	 *            The keyspace for the tables.
+	 * @return An iterator of bound insert statements.
+	 */
+	public Iterator<Statement> getInsertStatements(String keyspace) {
+		return getInsertStatements(keyspace, false).iterator();
+	}
+
+	/**
+	 * Execute the insert of the quad with a bulk executor.
+	 * 
+	 * The prerequisite statements of the auxiliary tables are executed first,
+	 * with any further statements the tables return for their results, and
+	 * the quad is only encoded and written once they have all succeeded.
+	 * 
+	 * If an auxiliary table counts the quads the SPOG row is inserted with IF
+	 * NOT EXISTS and the statements of the counting tables are only executed
+	 * if it applied, so a quad inserted twice is only counted once.
+	 * 
+	 * @param keyspace
+	 *            The keyspace for the tables.
+	 * @param bulkExecutor
+	 *            The executor for the statements.
+	 * @throws IllegalStateException
+	 *             on encoding error.
+	 */
+	public void executeInsert(String keyspace, BulkExecutor bulkExecutor) {
+		checkConcrete();
+		List<AuxiliaryTable> tables = new ArrayList<AuxiliaryTable>();
+		Map<Statement, AuxiliaryTable> prerequisites = new LinkedHashMap<Statement, AuxiliaryTable>();
+		for (AuxiliaryTable table : connection.getAuxiliaryTables()) {
+			try {
+				List<Statement> stmts = table.getPrerequisiteStatements(keyspace, quad);
+				if (!stmts.isEmpty()) {
+					tables.add(table);
+					stmts.forEach(stmt -> prerequisites.put(stmt, table));
+				}
+			} catch (TException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+		if (prerequisites.isEmpty()) {
+			writeQuad(keyspace, bulkExecutor);
+			return;
+		}
+		/* the last prerequisite to complete writes the quad */
+		AtomicInteger remaining = new AtomicInteger(prerequisites.size());
+		prerequisites.forEach((stmt, table) -> executePrerequisite(keyspace, bulkExecutor, tables, table, stmt,
+				remaining));
+	}
+
+	/*
+	 * Execute a prerequisite statement of a table and the further statements
+	 * the table returns for its result. The last one to complete writes the
+	 * quad.
+	 */
+	private void executePrerequisite(String keyspace, BulkExecutor bulkExecutor, List<AuxiliaryTable> tables,
+			AuxiliaryTable table, Statement prerequisite, AtomicInteger remaining) {
+		bulkExecutor.executeStatement(quad, prerequisite, rs -> {
+			List<Statement> next;
+			try {
+				next = table.prerequisiteExecuted(keyspace, quad, prerequisite, rs);
+			} catch (TException e) {
+				throw new IllegalStateException(String.format("Unable to write %s", quad), e);
+			}
+			/* the further statements are counted before this one completes */
+			remaining.addAndGet(next.size());
+			next.forEach(stmt -> executePrerequisite(keyspace, bulkExecutor, tables, table, stmt, remaining));
+			if (remaining.decrementAndGet() == 0) {
+				tables.forEach(t -> t.prerequisitesWritten(keyspace, quad));
+				writeQuad(keyspace, bulkExecutor);
+			}
+		});
+	}
+
+	/*
+	 * Encode the quad and execute its insert statements.
+	 */
+	private void writeQuad(String keyspace, BulkExecutor bulkExecutor) {
+		List<Statement> counts = getAuxiliaryStatements(keyspace, quad, true, true);
+		executeInsert(bulkExecutor, getInsertStatements(keyspace, !counts.isEmpty()), counts);
+	}
+
+	/*
+	 * Execute the insert statements of the quad and, if the first one
+	 * applied, the statements of the counting tables.
+	 */
+	private void executeInsert(BulkExecutor bulkExecutor, List<Statement> statements, List<Statement> counts) {
+		if (!counts.isEmpty()) {
+			/* the first statement inserts the SPOG row */
+			bulkExecutor.executeStatement(quad, statements.remove(0), rs -> {
+				if (rs.wasApplied()) {
+					bulkExecutor.executeStatements(quad, counts.iterator());
+				}
+			});
+		}
+		bulkExecutor.executeStatements(quad, statements.iterator());
+	}
+
+	/**
+	 * Get the insert statements for the quad tables and the auxiliary tables
+	 * that do not count the quads.
+	 * 
+	 * @param keyspace
+	 *            The keyspace for the tables.
+	 * @param conditional
+	 *            true if the SPOG row is inserted with IF NOT EXISTS.
+	 * @return the bound insert statements, SPOG first.
+	 */
+	private List<Statement> getInsertStatements(String keyspace, boolean conditional) {
+		checkConcrete();
+
+		/* the NodeDictionary checks the ids of the nodes are assigned before they are encoded */
+		List<Statement> auxiliary = getAuxiliaryStatements(keyspace, quad, true, false);
+
+		/* encode the values once and reuse them for each table */
+		Map<ColumnName, Object> bindValues = new EnumMap<ColumnName, Object>(ColumnName.class);
+		for (Map.Entry<ColumnName, Object> entry : getQueryValues(quad).entrySet()) {
+			bindValues.put(entry.getKey(), entry.getKey().getBindValue(connection, keyspace, entry.getValue()));
+		}
+		return Stream.concat(CassandraConnection.getTableList().stream().map(new Function<TableName, Statement>() {
+
+			@Override
+			public Statement apply(TableName t) {
+				String cql = t.getInsertStatement();
+				if (conditional && t == CassandraConnection.SPOG) {
+					cql += " IF NOT EXISTS";
+				}
+				BoundStatement statement = connection.prepare(keyspace, cql).bind();
+				for (Map.Entry<ColumnName, Object> entry : bindValues.entrySet()) {
+					entry.getKey().setBoundValue(statement, entry.getValue());
+				}
+				/*
+				 * inserting the same values again is harmless so timeouts may
+				 * be retried. A retried conditional insert whose first attempt
+				 * applied does not apply again so the quad is not counted.
+				 */
+				statement.setIdempotent(true);
+				return statement;
+			}
+		}), auxiliary.stream()).collect(Collectors.toList());
+	}
+
+	/*
+	 * Check that every node of the quad is concrete.
+	 */
+	private void checkConcrete() {
+		if (ColumnName.S.getMatch(quad) == null || ColumnName.P.getMatch(quad) == null
+				|| ColumnName.O.getMatch(quad) == null || ColumnName.G.getMatch(quad) == null) {
+			throw new IllegalArgumentException(
+					"Graph, subject, predicate and object must be specified for an insert: " + quad.toString());
+		}
+	}
+
+	/**
+	 * Get the statements for the auxiliary tables of the connection when a
+	 * quad is inserted or deleted.
+	 * 
+	 * @param keyspace
+	 *            The keyspace for the tables.
+	 * @param quad
+	 *            The concrete quad.
+	 * @param insert
+	 *            true for an insert, false for a delete.
+	 * @param counting
+	 *            true for the statements of the tables that count the quads,
+	 *            false for those of the other tables.
+	 * @return the statements.
+	 * @throws IllegalStateException
+	 *             on encoding error.
+	 */
+	private List<Statement> getAuxiliaryStatements(String keyspace, Quad quad, boolean insert, boolean counting) {
+		List<Statement> retval = new ArrayList<Statement>();
+		for (AuxiliaryTable table : connection.getAuxiliaryTables()) {
+			if (table.isCounting() != counting) {
+				continue;
+			}
+			try {
+				retval.addAll(insert ? table.getInsertStatements(keyspace, quad)
+						: table.getDeleteStatements(keyspace, quad));
+			} catch (TException e) {
+				throw new IllegalStateException(String.format("Unable to encode %s", quad), e);
+			}
+		}
+		return retval;
+	}
+
 	/**
 	 * Performs the insert of the data.
 	 * 
@@ -530,8 +1453,17 @@ public class QueryPattern {
 	 * @throws ExecutionException 
 	 * @throws InterruptedException 
 	 */
-	public void doInsert(String keyspace) throws TException, InterruptedException, ExecutionException {				
-		connection.executeUpdateSet(keyspace, getInsertStatement());
+	public void doInsert(String keyspace) throws TException, InterruptedException, ExecutionException {
+		try {
+			BulkExecutor bulkExecutor = connection.createBulkExecutor(keyspace);
+			executeInsert(keyspace, bulkExecutor);
+			bulkExecutor.awaitFinish();
+		} catch (IllegalStateException e) {
+			if (e.getCause() instanceof TException) {
+				throw (TException) e.getCause();
+			}
+			throw e;
+		}
 	}
 
 	/**
@@ -561,31 +1493,186 @@ public class QueryPattern {
 
 		private TDeserializer dser = new TDeserializer();
 
+		/* the position of each column in the row by ordinal, -1 if not selected */
+		private final int[] pos = new int[ColumnName.values().length];
+
+		/* reads the literal of a digest in the object column, may be null */
+		private final Function<ByteBuffer, Node> literals;
+
+		/* reads the node of an id in the key columns, may be null */
+		private final Function<ByteBuffer, Node> nodes;
+
+		/* reads the literals of the digests of a page together, may be null */
+		private final Consumer<Collection<ByteBuffer>> pageLiterals;
+
+		/* reads the nodes of the ids of a page together, may be null */
+		private final Consumer<Collection<ByteBuffer>> pageNodes;
+
+		/**
+		 * Constructor for rows with the standard query columns.
+		 */
+		public RowToQuad() {
+			this(null, null, null);
+		}
+
+		/**
+		 * Constructor for rows with some of the columns. The quad positions
+		 * whose columns are not selected are Node.ANY. The object needs the
+		 * object, language, data type and value columns.
+		 * 
+		 * @param columns
+		 *            The columns of the row in order.
+		 */
+		public RowToQuad(List<ColumnName> columns) {
+			this(columns, null, null);
+		}
+
+		/**
+		 * Constructor for rows whose nodes may be in the LiteralStore or the
+		 * NodeDictionary.
+		 * 
+		 * @param columns
+		 *            The columns of the row in order, or null for the standard
+		 *            query columns.
+		 * @param literals
+		 *            The function to read the literal of a digest, called only
+		 *            for rows with a digest. May be null if there is no
+		 *            LiteralStore.
+		 * @param nodes
+		 *            The function to read the node of an id, returning null if
+		 *            the id is not known. If not null every key column is read
+		 *            with it. May be null if there is no NodeDictionary.
+		 */
+		public RowToQuad(List<ColumnName> columns, Function<ByteBuffer, Node> literals,
+				Function<ByteBuffer, Node> nodes) {
+			this(columns, literals, nodes, null, null);
+		}
+
+		/**
+		 * Constructor for rows whose nodes may be in the LiteralStore or the
+		 * NodeDictionary, where the literals of the digests and the nodes of the
+		 * ids of a page of rows can be read together.
+		 * 
+		 * @param columns
+		 *            The columns of the row in order, or null for the standard
+		 *            query columns.
+		 * @param literals
+		 *            The function to read the literal of a digest. May be null
+		 *            if there is no LiteralStore.
+		 * @param nodes
+		 *            The function to read the node of an id. May be null if
+		 *            there is no NodeDictionary.
+		 * @param pageLiterals
+		 *            The function to read the literals of many digests,
+		 *            called by readPage(). May be null.
+		 * @param pageNodes
+		 *            The function to read the nodes of many ids, called by
+		 *            readPage(). May be null.
+		 */
+		public RowToQuad(List<ColumnName> columns, Function<ByteBuffer, Node> literals,
+				Function<ByteBuffer, Node> nodes, Consumer<Collection<ByteBuffer>> pageLiterals,
+				Consumer<Collection<ByteBuffer>> pageNodes) {
+			for (ColumnName column : ColumnName.values()) {
+				pos[column.ordinal()] = columns == null ? column.getQueryPos() : columns.indexOf(column);
+			}
+			this.literals = literals;
+			this.nodes = nodes;
+			this.pageLiterals = pageLiterals;
+			this.pageNodes = pageNodes;
+		}
+
+		/**
+		 * Read the literals of the digests and the nodes of the ids of a page
+		 * of rows together before the rows are converted, so that apply()
+		 * finds them without reading them one at a time.
+		 * 
+		 * @param rows
+		 *            The rows of the page.
+		 */
+		public void readPage(Collection<Row> rows) {
+			if (literals != null && pageLiterals != null && pos[ColumnName.O.ordinal()] != -1) {
+				Set<ByteBuffer> digests = new LinkedHashSet<ByteBuffer>();
+				for (Row row : rows) {
+					ByteBuffer value = row.getBytes(pos[ColumnName.O.ordinal()]);
+					if (LiteralStore.isDigest(value)) {
+						digests.add(value);
+					}
+				}
+				if (!digests.isEmpty()) {
+					pageLiterals.accept(digests);
+				}
+			}
+			if (nodes == null || pageNodes == null) {
+				return;
+			}
+			Set<ByteBuffer> ids = new LinkedHashSet<ByteBuffer>();
+			for (Row row : rows) {
+				for (ColumnName column : Arrays.asList(ColumnName.G, ColumnName.S, ColumnName.P)) {
+					if (pos[column.ordinal()] != -1) {
+						ids.add(row.getBytes(pos[column.ordinal()]));
+					}
+				}
+				if (isObjectNode(row)) {
+					ids.add(row.getBytes(pos[ColumnName.O.ordinal()]));
+				}
+			}
+			pageNodes.accept(ids);
+		}
+
+		/*
+		 * Check if the object of the row is read from the object column, rather
+		 * than from the LiteralStore or the literal columns.
+		 */
+		private boolean isObjectNode(Row row) {
+			if (pos[ColumnName.O.ordinal()] == -1) {
+				return false;
+			}
+			if (literals != null && LiteralStore.isDigest(row.getBytes(pos[ColumnName.O.ordinal()]))) {
+				return false;
+			}
+			return row.getString(pos[ColumnName.D.ordinal()]) == null
+					|| row.getString(pos[ColumnName.V.ordinal()]) == null;
+		}
+
+		private Node convert(Row row, ColumnName column) throws TException {
+			if (pos[column.ordinal()] == -1) {
+				return Node.ANY;
+			}
+			if (nodes != null) {
+				Node node = nodes.apply(row.getBytes(pos[column.ordinal()]));
+				if (node == null) {
+					throw new TException(String.format("Unknown %s id", column));
+				}
+				return node;
+			}
+			RDF_Term term = new RDF_Term();
+			dser.deserialize(term, row.getBytes(pos[column.ordinal()]).array());
+			return ThriftConvert.convert(term);
+		}
+
 		@Override
 		public Quad apply(Row row) {
 
-			RDF_Term subj = new RDF_Term();
-			RDF_Term pred = new RDF_Term();
-			RDF_Term graph = new RDF_Term();
-			Node obj = null;
 			try {
-				dser.deserialize(subj, row.getBytes(ColumnName.S.getQueryPos()).array());
-				dser.deserialize(pred, row.getBytes(ColumnName.P.getQueryPos()).array());
-				dser.deserialize(graph, row.getBytes(ColumnName.G.getQueryPos()).array());
-
-				if (row.getString(ColumnName.D.getQueryPos()) == null) {
-					// not a literal just read the node
-					RDF_Term objTerm = new RDF_Term();
-					dser.deserialize(objTerm, row.getBytes(ColumnName.O.getQueryPos()).array());
-					obj = ThriftConvert.convert(objTerm);
+				Node obj;
+				if (literals != null && pos[ColumnName.O.ordinal()] != -1
+						&& LiteralStore.isDigest(row.getBytes(pos[ColumnName.O.ordinal()]))) {
+					obj = literals.apply(row.getBytes(pos[ColumnName.O.ordinal()]));
+					if (obj == null) {
+						return null;
+					}
+				} else if (pos[ColumnName.O.ordinal()] == -1 || row.getString(pos[ColumnName.D.ordinal()]) == null
+						|| row.getString(pos[ColumnName.V.ordinal()]) == null) {
+					// not a literal (or a literal without a value) just read the node
+					obj = convert(row, ColumnName.O);
 				} else {
-					String lex = row.getString(ColumnName.V.getQueryPos());
-					String lang = row.getString(ColumnName.L.getQueryPos());
-					String dTypeURL = row.getString(ColumnName.D.getQueryPos());
+					String lex = row.getString(pos[ColumnName.V.ordinal()]);
+					String lang = row.getString(pos[ColumnName.L.ordinal()]);
+					String dTypeURL = row.getString(pos[ColumnName.D.ordinal()]);
 					RDFDatatype dType = TypeMapper.getInstance().getSafeTypeByName(dTypeURL);
 					obj = NodeFactory.createLiteral(lex, lang, dType);
 				}
-				return new Quad(ThriftConvert.convert(graph), ThriftConvert.convert(subj), ThriftConvert.convert(pred),
+				return new Quad(convert(row, ColumnName.G), convert(row, ColumnName.S), convert(row, ColumnName.P),
 						obj);
 			} catch (TException e) {
 				return null;
@@ -603,8 +1690,33 @@ public class QueryPattern {
 
 		private TDeserializer dser = new TDeserializer();
 
+		/* reads the node of an id, may be null */
+		private final Function<ByteBuffer, Node> nodes;
+
+		/**
+		 * Constructor for serialized nodes.
+		 */
+		public RowToNode() {
+			this(null);
+		}
+
+		/**
+		 * Constructor for nodes that may be ids of the NodeDictionary.
+		 * 
+		 * @param nodes
+		 *            The function to read the node of an id, returning null if
+		 *            the id is not known. May be null if there is no
+		 *            NodeDictionary.
+		 */
+		public RowToNode(Function<ByteBuffer, Node> nodes) {
+			this.nodes = nodes;
+		}
+
 		@Override
 		public Node apply(Row t) {
+			if (nodes != null) {
+				return nodes.apply(t.getBytes(0));
+			}
 
 			RDF_Term node = new RDF_Term();
 			try {
@@ -693,14 +1805,52 @@ public class QueryPattern {
 	/**
 	 * This is a query object it contains the where clause and tracks if the
 	 * query needs to be filtered.
+	 * 
+	 * The query is available both as literal text and as text with bind
+	 * markers (?) plus the list of values to bind. The latter is what is
+	 * executed so that Cassandra can reuse the prepared statement.
+	 * 
+	 * If the query scans the whole table the range text is the bound text with
+	 * the scan replaced by a token range whose start and end are bound before
+	 * the bind values.
 	 *
 	 */
 	public class Query {
-		StringBuilder text;
+		LazyText text;
+		StringBuilder boundText;
+		StringBuilder rangeText;
+		List<Object> bindValues = new ArrayList<Object>();
 		boolean needsFilter = false;
+		boolean scan = false;
 		@SuppressWarnings("unused")
 		private QueryInfo.WhereClause whereClause;
 
+		/**
+		 * Constructor.
+		 * 
+		 * @param start
+		 *            The start of the query text.
+		 */
+		public Query(String start) {
+			text = new LazyText().append(start);
+			boundText = new StringBuilder(start);
+			rangeText = new StringBuilder(start);
+		}
+
+		/**
+		 * Append text to both the literal and the bound query text.
+		 * 
+		 * @param str
+		 *            the text to append.
+		 * @return this query for chaining.
+		 */
+		public Query append(String str) {
+			text.append(str);
+			boundText.append(str);
+			rangeText.append(str);
+			return this;
+		}
+
 		/**
 		 * Set the where clause for this query. Adds where text to the query
 		 * text.
@@ -710,8 +1860,69 @@ public class QueryPattern {
 		 */
 		public void setWhere(QueryInfo.WhereClause whereClause) {
 			this.whereClause = whereClause;
-			text.append(whereClause.text);
+			text.append(whereClause.text::toString);
+			boundText.append(whereClause.boundText);
+			rangeText.append(whereClause.rangeText);
+			bindValues.addAll(whereClause.bindValues);
 			needsFilter = whereClause.needFilter;
+			scan = whereClause.scan;
+		}
+
+		/**
+		 * Add a bound LIMIT to this query. The limit is a bind value so the
+		 * prepared statement is the same for every limit.
+		 * 
+		 * @param limit
+		 *            The maximum number of rows.
+		 */
+		public void setLimit(int limit) {
+			text.append(" LIMIT " + limit);
+			boundText.append(" LIMIT ?");
+			rangeText.append(" LIMIT ?");
+			bindValues.add(limit);
+		}
+	}
+
+	/**
+	 * The text of a query with the values as literals. It is only used for
+	 * logging and testing, so the values are only encoded when the text is
+	 * read with toString().
+	 *
+	 */
+	public static class LazyText {
+		private final List<Supplier<String>> parts = new ArrayList<Supplier<String>>();
+
+		/**
+		 * Append text.
+		 * 
+		 * @param str
+		 *            the text to append.
+		 * @return this text for chaining.
+		 */
+		public LazyText append(String str) {
+			parts.add(() -> str);
+			return this;
+		}
+
+		/**
+		 * Append text that is created when this text is read.
+		 * 
+		 * @param str
+		 *            the function that creates the text to append.
+		 * @return this text for chaining.
+		 */
+		public LazyText append(Supplier<String> str) {
+			parts.add(str);
+			return this;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder();
+			for (Supplier<String> part : parts) {
+				sb.append(part.get());
+			}
+			return sb.toString();
 		}
 	}
 
@@ -739,17 +1950,32 @@ public class QueryPattern {
 		 */
 		String extraWhere;
 		/**
-		 * Any suffix to add to the where clause (e.g. limit=5)
+		 * Any suffix to add to the where clause (e.g. ALLOW FILTERING)
 		 */
 		String suffix;
+		/**
+		 * The maximum number of rows to read, bound as LIMIT ?, or -1 for all
+		 * of them.
+		 */
+		int limit = -1;
 		/**
 		 * Columns to remove from the where clause. These are columns that will
 		 * have data in the extraValuesMap but for which we do not want to
 		 * generate x=y statements in the where clause.
 		 */
 		Collection<ColumnName> extraValueFilter;
+		/**
+		 * Key columns that are restricted to a set of values (column IN
+		 * values) rather than to their value in the values map.
+		 */
+		Map<ColumnName, ? extends Collection<Node>> inValues;
 
 		Map<ColumnName, Object> values;
+		/**
+		 * The keyspace of the ids of the NodeDictionary. May be null if the
+		 * connection has no NodeDictionary.
+		 */
+		String keyspace;
 
 		private QueryInfo(Quad quad) {
 			values = getQueryValues(quad);
@@ -826,18 +2052,18 @@ public class QueryPattern {
 				}
 			}
 
-			retval.text = new StringBuilder(" WHERE ");
+			retval.append(" WHERE ");
 			if (lastCol == -1) {
 				// no primary key columns have a value so start with the scan
 				// value
-				retval.text.append(tableName.getPartitionKey().getScanValue(null));
+				retval.appendScan(tableName.getPartitionKey());
 			} else if (lastCol == 0) {
 				ColumnName columnName = primaryKey.get(0);
 				Object value = values.get(columnName);
 				if (value == null) {
-					retval.text.append(columnName.getScanValue(value));
+					retval.append(columnName.getScanValue(value));
 				} else {
-					retval.text.append(columnName.getEqualityValue(connection, value));
+					appendKey(retval, columnName, value);
 				}
 			} else {
 				/*
@@ -850,9 +2076,9 @@ public class QueryPattern {
 						break;
 					}
 					if (i > 0) {
-						retval.text.append(" AND ");
+						retval.append(" AND ");
 					}
-					retval.text.append(columnName.getEqualityValue(connection, value));
+					appendKey(retval, columnName, value);
 
 				}
 			}
@@ -862,18 +2088,32 @@ public class QueryPattern {
 
 				Object value = values.get(colName);
 				if (value != null) {
-					retval.text.append(" AND ").append(colName.getEqualityValue(connection, value));
+					retval.append(" AND ");
+					retval.appendEquality(colName, value);
 				}
 
 			}
 
 			/* if there is any extra key put that value in */
 			if (extraWhere != null) {
-				retval.text.append(" AND ").append(extraWhere);
+				retval.append(" AND ").append(extraWhere);
 			}
 			return retval;
 		}
 
+		/**
+		 * Append the restriction for a key column: an IN restriction if the
+		 * column has IN values, otherwise an equality check.
+		 */
+		private void appendKey(WhereClause whereClause, ColumnName columnName, Object value) {
+			Collection<Node> in = inValues == null ? null : inValues.get(columnName);
+			if (in == null) {
+				whereClause.appendEquality(columnName, value);
+			} else {
+				whereClause.appendIn(columnName, in);
+			}
+		}
+
 		/**
 		 * Get the list of non key columns in the query.
 		 * @return
@@ -905,11 +2145,83 @@ public class QueryPattern {
 		 * A where clause for a query. This contains the where text and a flag
 		 * to indicate that a filter is required as the where clause is not
 		 * specific enough.
+		 * 
+		 * The where clause is built twice: once with the values as literals in
+		 * the text, which are only encoded if the text is read, and once with
+		 * bind markers (?) and the list of values to bind for a prepared
+		 * statement. If the clause scans the table a third
+		 * form is built that restricts the scan to a token range.
 		 *
 		 */
 		public class WhereClause {
-			StringBuilder text;
+			LazyText text = new LazyText();
+			StringBuilder boundText = new StringBuilder();
+			StringBuilder rangeText = new StringBuilder();
+			List<Object> bindValues = new ArrayList<Object>();
 			boolean needFilter = false;
+			boolean scan = false;
+			/* the columns that have an equality check */
+			Set<ColumnName> equalities = EnumSet.noneOf(ColumnName.class);
+
+			/**
+			 * Append text to both the literal and bound where clause.
+			 * 
+			 * @param str
+			 *            The text to append.
+			 * @return this WhereClause for chaining.
+			 */
+			WhereClause append(String str) {
+				text.append(str);
+				boundText.append(str);
+				rangeText.append(str);
+				return this;
+			}
+
+			/**
+			 * Append a scan of the whole table on the partition key column.
+			 * 
+			 * @param columnName
+			 *            The partition key column.
+			 */
+			void appendScan(ColumnName columnName) {
+				String scanValue = columnName.getScanValue(null);
+				text.append(scanValue);
+				boundText.append(scanValue);
+				rangeText.append(columnName.getTokenRangeValue());
+				scan = true;
+			}
+
+			/**
+			 * Append an equality check for the column.
+			 * 
+			 * @param columnName
+			 *            The column to check.
+			 * @param value
+			 *            The value the column must equal.
+			 */
+			void appendEquality(ColumnName columnName, Object value) {
+				text.append(() -> columnName.getEqualityValue(connection, keyspace, value));
+				boundText.append(columnName.getBoundEqualityValue());
+				rangeText.append(columnName.getBoundEqualityValue());
+				bindValues.add(columnName.getBindValue(connection, keyspace, value));
+				equalities.add(columnName);
+			}
+
+			/**
+			 * Append an IN restriction for the column. The list of values is
+			 * bound to a single bind marker.
+			 * 
+			 * @param columnName
+			 *            The column to check.
+			 * @param values
+			 *            The values the column may equal.
+			 */
+			void appendIn(ColumnName columnName, Collection<?> values) {
+				text.append(() -> columnName.getInValue(connection, keyspace, values));
+				boundText.append(columnName.getBoundInValue());
+				rangeText.append(columnName.getBoundInValue());
+				bindValues.add(columnName.getBindValues(connection, keyspace, values));
+			}
 		}
 
 	}
@@ -0,0 +1,83 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jena.cassandra.graph;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.sparql.engine.optimizer.reorder.PatternElements;
+import org.apache.jena.sparql.engine.optimizer.reorder.PatternTriple;
+import org.apache.jena.sparql.engine.optimizer.reorder.ReorderTransformationSubstitution;
+import org.apache.jena.sparql.sse.Item;
+import org.apache.jena.vocabulary.RDF;
+
+/**
+ * Orders the triples of a basic graph pattern by the estimated number of
+ * matches read from the graph statistics, smallest first.
+ *
+ * As each triple is chosen its variables are bound for the remaining
+ * triples. A bound variable has no value at planning time so it reduces the
+ * estimate by the fan out in GraphStatisticsCassandra.estimate() rather than
+ * by a count.
+ *
+ */
+public class ReorderCassandra extends ReorderTransformationSubstitution {
+
+	private static final Node TYPE = RDF.type.asNode();
+
+	private final GraphStatisticsCassandra stats;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param stats
+	 *            The statistics for the graph being queried.
+	 */
+	public ReorderCassandra(GraphStatisticsCassandra stats) {
+		this.stats = stats;
+	}
+
+	/*
+	 * Get the value of an item, null if it is a variable or a bound variable.
+	 */
+	private static Node valueOf(Item item) {
+		return item.isNode() && item.getNode().isConcrete() ? item.getNode() : null;
+	}
+
+	/*
+	 * True if the item is a value or a variable bound by an earlier triple.
+	 */
+	private static boolean isBound(Item item) {
+		return valueOf(item) != null || PatternElements.TERM.equals(item);
+	}
+
+	@Override
+	protected double weight(PatternTriple pt) {
+		Node p = valueOf(pt.predicate);
+		Node o = valueOf(pt.object);
+		long count = -1;
+		if (TYPE.equals(p) && o != null) {
+			count = stats.getClassCount(o);
+			if (count >= 0) {
+				return isBound(pt.subject) ? Math.min(count, 1) : count;
+			}
+		}
+		count = p == null ? stats.getCount() : stats.getPredicateCount(p);
+		count = GraphStatisticsCassandra.estimate(count, isBound(pt.subject), isBound(pt.object));
+		/* unknown counts go last */
+		return count < 0 ? Double.MAX_VALUE : count;
+	}
+}
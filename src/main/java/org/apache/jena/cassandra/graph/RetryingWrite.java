@@ -0,0 +1,156 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jena.cassandra.graph;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.Statement;
+import com.google.common.util.concurrent.AbstractFuture;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+
+/**
+ * A future for an asynchronous write that is retried according to a
+ * WriteRetryPolicy.
+ *
+ * The future completes with the result of the first attempt that succeeds, or
+ * with the error of the last attempt once the policy gives up. Retries are
+ * scheduled on a shared daemon thread that only resubmits the statement so it
+ * never blocks.
+ *
+ */
+/* package private */ class RetryingWrite extends AbstractFuture<ResultSet> implements FutureCallback<ResultSet> {
+
+	/**
+	 * Notified each time an attempt fails and is retried.
+	 */
+	interface Listener {
+		/**
+		 * Called when an attempt failed and will be retried.
+		 *
+		 * @param error
+		 *            the error the attempt failed with.
+		 * @param latencyNanos
+		 *            the time the attempt took in nanoseconds.
+		 */
+		void retrying(Throwable error, long latencyNanos);
+	}
+
+	/*
+	 * Lazily created scheduler for the retries.
+	 */
+	private static class Scheduler {
+		static final ScheduledExecutorService INSTANCE = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "cassandra-write-retry");
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	private final Session session;
+	private final Statement statement;
+	private final WriteRetryPolicy policy;
+	private final Listener listener;
+	private volatile int retries;
+	private volatile long attemptStart;
+
+	private RetryingWrite(Session session, Statement statement, WriteRetryPolicy policy, Listener listener) {
+		this.session = session;
+		this.statement = statement;
+		this.policy = policy;
+		this.listener = listener;
+	}
+
+	/**
+	 * Execute the statement asynchronously with retries.
+	 *
+	 * @param session
+	 *            The session to execute the statement in.
+	 * @param statement
+	 *            The statement to execute.
+	 * @param policy
+	 *            The retry policy.
+	 * @param listener
+	 *            The listener for retries, may be null.
+	 * @return the future for the result.
+	 */
+	static RetryingWrite execute(Session session, Statement statement, WriteRetryPolicy policy, Listener listener) {
+		RetryingWrite write = new RetryingWrite(session, statement, policy, listener);
+		write.attempt();
+		return write;
+	}
+
+	/**
+	 * Get the number of times the statement was retried.
+	 *
+	 * @return the number of retries.
+	 */
+	int getRetries() {
+		return retries;
+	}
+
+	/**
+	 * Get the start time of the current (or last) attempt as reported by
+	 * System.nanoTime().
+	 *
+	 * @return the attempt start time.
+	 */
+	long getAttemptStart() {
+		return attemptStart;
+	}
+
+	private void attempt() {
+		if (isCancelled()) {
+			return;
+		}
+		attemptStart = System.nanoTime();
+		ListenableFuture<ResultSet> future;
+		try {
+			future = session.executeAsync(statement);
+		} catch (RuntimeException e) {
+			onFailure(e);
+			return;
+		}
+		Futures.addCallback(future, this, MoreExecutors.directExecutor());
+	}
+
+	@Override
+	public void onSuccess(ResultSet result) {
+		set(result);
+	}
+
+	@Override
+	public void onFailure(Throwable t) {
+		if (!isCancelled() && policy.shouldRetry(statement, t, retries)) {
+			long delay = policy.getDelayMillis(retries);
+			retries++;
+			if (listener != null) {
+				listener.retrying(t, System.nanoTime() - attemptStart);
+			}
+			Scheduler.INSTANCE.schedule(this::attempt, delay, TimeUnit.MILLISECONDS);
+		} else {
+			setException(t);
+		}
+	}
+}
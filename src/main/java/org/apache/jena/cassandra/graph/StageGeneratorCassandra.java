@@ -0,0 +1,165 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jena.cassandra.graph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.query.ARQ;
+import org.apache.jena.sparql.core.BasicPattern;
+import org.apache.jena.sparql.core.Substitute;
+import org.apache.jena.sparql.engine.ExecutionContext;
+import org.apache.jena.sparql.engine.QueryIterator;
+import org.apache.jena.sparql.engine.binding.Binding;
+import org.apache.jena.sparql.engine.iterator.QueryIterPeek;
+import org.apache.jena.sparql.engine.main.StageBuilder;
+import org.apache.jena.sparql.engine.main.StageGenerator;
+import org.apache.jena.sparql.engine.main.StageGeneratorGeneric;
+import org.apache.jena.sparql.engine.optimizer.reorder.ReorderLib;
+import org.apache.jena.sparql.engine.optimizer.reorder.ReorderTransformation;
+import org.apache.jena.sparql.util.Context;
+
+/**
+ * A stage generator for the basic graph patterns executed against a
+ * GraphCassandra.
+ *
+ * The triples are ordered with the graph statistics (see ReorderCassandra),
+ * or with the ARQ fixed ordering if the graph has no statistics, and each
+ * triple is joined with a QueryIterBatchJoin so that the bindings are looked
+ * up in batches. Once a subject is bound, the remaining triples of that
+ * subject are joined together with a QueryIterStarJoin that reads each
+ * subject once. If the connection join batch size is 1 the triples are joined
+ * by the standard ARQ stage.
+ *
+ * Patterns on other graphs are passed to the stage generator that was in use
+ * before.
+ *
+ */
+public class StageGeneratorCassandra extends StageGeneratorGeneric {
+
+	private final StageGenerator other;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param other
+	 *            The stage generator for the patterns this one does not
+	 *            handle.
+	 */
+	public StageGeneratorCassandra(StageGenerator other) {
+		this.other = other;
+	}
+
+	/**
+	 * Use the Cassandra stage generator for queries executed in a context.
+	 * Does nothing if the context already uses it.
+	 *
+	 * @param context
+	 *            The context, for example a dataset context or
+	 *            ARQ.getContext().
+	 */
+	public static void register(Context context) {
+		StageGenerator current = StageBuilder.chooseStageGenerator(context);
+		if (!(current instanceof StageGeneratorCassandra)) {
+			StageBuilder.setGenerator(context, new StageGeneratorCassandra(current));
+		}
+	}
+
+	/**
+	 * Use the Cassandra stage generator for all queries.
+	 */
+	public static void register() {
+		register(ARQ.getContext());
+	}
+
+	@Override
+	public QueryIterator execute(BasicPattern pattern, QueryIterator input, ExecutionContext execCxt) {
+		Graph graph = execCxt.getActiveGraph();
+		if (!(graph instanceof GraphCassandra)) {
+			return other.execute(pattern, input, execCxt);
+		}
+		GraphCassandra graphCassandra = (GraphCassandra) graph;
+		GraphStatisticsCassandra stats = graphCassandra.getStatistics();
+		ReorderTransformation reorder = stats == null ? ReorderLib.fixed() : new ReorderCassandra(stats);
+		int batchSize = graphCassandra.getConnection().getJoinBatchSize();
+		if (batchSize <= 1) {
+			return execute(pattern, reorder, input, execCxt);
+		}
+		/* as StageGeneratorGeneric: order using the values of the first binding */
+		if (pattern.size() >= 2) {
+			BasicPattern pattern2 = pattern;
+			if (!input.isJoinIdentity()) {
+				QueryIterPeek peek = QueryIterPeek.create(input, execCxt);
+				input = peek;
+				Binding binding = peek.peek();
+				if (binding == null) {
+					return peek;
+				}
+				pattern2 = Substitute.substitute(pattern, binding);
+			}
+			pattern = reorder.reorderIndexes(pattern2).reorder(pattern);
+		}
+		List<Triple> triples = new ArrayList<Triple>(pattern.getList());
+		/* variables bound by the patterns already joined */
+		Set<Node> bound = new HashSet<Node>();
+		while (!triples.isEmpty()) {
+			Triple triple = triples.remove(0);
+			List<Triple> star = getStar(triple, triples, bound);
+			if (QueryIterStarJoin.isStar(graphCassandra, star)) {
+				triples.removeAll(star);
+				input = new QueryIterStarJoin(input, star, graphCassandra, batchSize, execCxt);
+			} else {
+				star = Collections.singletonList(triple);
+				input = new QueryIterBatchJoin(input, triple, graphCassandra, batchSize, execCxt);
+			}
+			for (Triple joined : star) {
+				bound.addAll(Arrays.asList(joined.getSubject(), joined.getPredicate(), joined.getObject()));
+			}
+		}
+		return input;
+	}
+
+	/*
+	 * The star of a triple: the triple and the later triples with the same
+	 * subject and concrete predicates. The subject has to be concrete or bound
+	 * by an earlier pattern of the basic graph pattern; variables of the input
+	 * bindings may be unbound (for example in an OPTIONAL) so they do not
+	 * count.
+	 */
+	private static List<Triple> getStar(Triple triple, List<Triple> later, Set<Node> bound) {
+		Node subject = triple.getSubject();
+		if (!triple.getPredicate().isConcrete() || !(subject.isConcrete() || bound.contains(subject))) {
+			return Collections.singletonList(triple);
+		}
+		List<Triple> retval = new ArrayList<Triple>();
+		retval.add(triple);
+		for (Triple other : later) {
+			if (subject.equals(other.getSubject()) && other.getPredicate().isConcrete()) {
+				retval.add(other);
+			}
+		}
+		return retval;
+	}
+}
@@ -17,8 +17,14 @@
  */
 package org.apache.jena.cassandra.graph;
 
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.jena.graph.Node;
 import org.apache.jena.graph.Triple;
 import org.apache.jena.riot.system.StreamRDF;
 import org.apache.jena.sparql.core.Quad;
@@ -27,15 +33,34 @@ import org.apache.thrift.TException;
 /**
  * An implementation of StreamRDF that writes to the Cassandra database.
  * 
- * This implementation uses the BulkExecutor to execute the the inserts.
+ * This implementation uses the BulkExecutor to execute the the inserts as
+ * bound prepared statements. Failed inserts are retried and quads that still
+ * fail are sent to the connection's dead letter sink.
  * 
  * Triples are loaded into the default graph.
+ * 
+ * When the connection has a NodeDictionary the quads are buffered and the ids
+ * of the nodes of each buffer are assigned at once before the quads are
+ * inserted. Quads with nodes that can not be assigned an id are not inserted;
+ * like quads that can not be encoded they are reported as failures and sent
+ * to the dead letter sink.
  *
  */
 public class StreamRDFCassandra implements StreamRDF {
+	/**
+	 * The number of quads buffered when the connection has a NodeDictionary.
+	 */
+	public static final int DICTIONARY_BUFFER_SIZE = 1000;
+
+	/* the description of the failures to assign ids */
+	private static final String ASSIGN_IDS = String.format("assign ids in %s", NodeDictionary.NAME);
+
 	private CassandraConnection connection;
+	private String keyspace;
 	private BulkExecutor bulkExecutor;
 	private Log log;
+	private NodeDictionary dictionary;
+	private List<Quad> buffer = new ArrayList<Quad>();
 
 	/**
 	 * Constructor.
@@ -47,9 +72,11 @@ public class StreamRDFCassandra implements StreamRDF {
 	 */
 	public StreamRDFCassandra(CassandraConnection connection, String keyspace) {
 		this.connection = connection;
-		this.bulkExecutor = new BulkExecutor(connection.getSession(keyspace));
+		this.keyspace = keyspace;
+		this.bulkExecutor = connection.createBulkExecutor(keyspace);
 		this.log = LogFactory.getLog(StreamRDFCassandra.class.getName() + "." + hashCode());
 		this.bulkExecutor.setLog(log);
+		this.dictionary = connection.getAuxiliaryTable(NodeDictionary.class);
 	}
 
 	@Override
@@ -63,11 +90,55 @@ public class StreamRDFCassandra implements StreamRDF {
 
 	@Override
 	public void quad(Quad quad) {
-		QueryPattern pattern = new QueryPattern(connection, quad);
+		if (dictionary == null) {
+			insert(quad);
+			return;
+		}
+		buffer.add(quad);
+		if (buffer.size() >= DICTIONARY_BUFFER_SIZE) {
+			flush();
+		}
+	}
+
+	/**
+	 * Assign the ids of the nodes of the buffered quads and insert them.
+	 */
+	private void flush() {
+		if (buffer.isEmpty()) {
+			return;
+		}
+		Set<Node> nodes = new LinkedHashSet<Node>();
+		for (Quad quad : buffer) {
+			nodes.add(quad.getGraph());
+			nodes.add(quad.getSubject());
+			nodes.add(quad.getPredicate());
+			nodes.add(quad.getObject());
+		}
 		try {
-			bulkExecutor.execute(pattern.getInsertStatement());
+			Set<Node> failed = dictionary.assignIds(keyspace, nodes);
+			for (Quad quad : buffer) {
+				if (failed.contains(quad.getGraph()) || failed.contains(quad.getSubject())
+						|| failed.contains(quad.getPredicate()) || failed.contains(quad.getObject())) {
+					bulkExecutor.fail(quad, ASSIGN_IDS,
+							new TException(String.format("Unable to assign ids to %s", quad)));
+				} else {
+					insert(quad);
+				}
+			}
 		} catch (TException e) {
-			log.error(String.format("Unable to insert %s", quad), e);
+			for (Quad quad : buffer) {
+				bulkExecutor.fail(quad, ASSIGN_IDS, e);
+			}
+		}
+		buffer.clear();
+	}
+
+	private void insert(Quad quad) {
+		QueryPattern pattern = new QueryPattern(connection, quad);
+		try {
+			pattern.executeInsert(keyspace, bulkExecutor);
+		} catch (IllegalStateException e) {
+			bulkExecutor.fail(quad, "encode quad", e.getCause() == null ? e : e.getCause());
 		}
 	}
 
@@ -82,9 +153,30 @@ public class StreamRDFCassandra implements StreamRDF {
 
 	}
 
+	/**
+	 * Get the report of the inserts executed so far.
+	 * 
+	 * @return the execution report.
+	 */
+	public ExecutionReport getReport() {
+		return bulkExecutor.getReport();
+	}
+
+	/**
+	 * Wait for all inserts to complete. Any failures are logged with the
+	 * summary from the execution report.
+	 */
 	@Override
 	public void finish() {
-		bulkExecutor.awaitFinish();
+		if (dictionary != null) {
+			flush();
+		}
+		ExecutionReport report = bulkExecutor.awaitFinish();
+		if (report.hasFailures()) {
+			for (ExecutionReport.Failure failure : report.getSampledFailures()) {
+				log.error("Sampled failure: " + failure);
+			}
+		}
 	}
 
 }
@@ -131,11 +131,24 @@ public class TableName {
 	 * @return an array of table and index creation statements.
 	 */
 	public String[] getCreateTableStatements() {
+		return getCreateTableStatements(true);
+	}
+
+	/**
+	 * Get the create table statements with or without the secondary indexes.
+	 * 
+	 * The first string must complete before the remaining strings are executed.
+	 * 
+	 * @param indexes
+	 *            true to create the obj_int, obj_value and obj_dtype indexes.
+	 * @return an array of table and index creation statements.
+	 */
+	public String[] getCreateTableStatements(boolean indexes) {
 		/*
 		 * there are 4 statements in a create table statement. create the table
 		 * and 3 indexes.
 		 */
-		String[] retval = new String[4];
+		String[] retval = new String[indexes ? 4 : 1];
 
 		StringBuilder sb = new StringBuilder("CREATE TABLE IF NOT EXISTS ").append(String.format("%s (", this));
 		for (ColumnName col : ColumnName.values()) {
@@ -143,6 +156,9 @@ public class TableName {
 		}
 		sb.append("PRIMARY KEY ").append(getPrimaryKeyStr()).append(")");
 		retval[0] = sb.toString();
+		if (!indexes) {
+			return retval;
+		}
 
 		retval[1] = String.format("CREATE INDEX IF NOT EXISTS %1$s_%2$s ON %1$s (%2$s)", this, ColumnName.I);
 		retval[2] = String.format("CREATE INDEX IF NOT EXISTS %1$s_%2$s ON %1$s (%2$s)", this, ColumnName.V);
@@ -150,6 +166,29 @@ public class TableName {
 		return retval;
 	}
 
+	/**
+	 * Get the insert statement for this table.
+	 * 
+	 * The statement names every column and uses bind markers (?) for all the
+	 * values. It is prepared once and columns that do not have a value for a
+	 * quad are simply left unset when the statement is bound.
+	 * 
+	 * @return the insert statement with bind markers.
+	 */
+	public String getInsertStatement() {
+		StringBuilder cols = new StringBuilder();
+		StringBuilder markers = new StringBuilder();
+		for (ColumnName col : ColumnName.values()) {
+			if (cols.length() > 0) {
+				cols.append(", ");
+				markers.append(", ");
+			}
+			cols.append(col);
+			markers.append("?");
+		}
+		return String.format("INSERT INTO %s (%s) VALUES (%s)", this, cols, markers);
+	}
+
 	/**
 	 * Get the delete table statements.
 	 * 
@@ -0,0 +1,130 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jena.cassandra.graph;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.datatype.DatatypeConstants;
+import javax.xml.datatype.XMLGregorianCalendar;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.sparql.expr.NodeValue;
+import org.apache.jena.util.iterator.ExtendedIterator;
+import org.apache.thrift.TException;
+
+/**
+ * A lookup table of the xsd:dateTime and xsd:date literals by graph,
+ * predicate and time.
+ *
+ * The table is partitioned by graph and predicate and clustered by the time
+ * of the literal in milliseconds since the epoch, so the literals of a
+ * predicate in a time window are a single range of one partition. A date is
+ * stored as the start of the day.
+ *
+ * Times without a timezone are stored as UTC. SPARQL only orders a time
+ * without a timezone before or after a time with one if they are more than
+ * 14 hours apart, so every time that a SPARQL comparison with a bound
+ * accepts is also in the range of the table. Fractions of a millisecond are
+ * dropped and the range includes its bounds, so the results may contain
+ * values that the comparison does not accept and it must still be applied to
+ * them.
+ *
+ */
+public class TemporalTable extends PredicateIndexTable {
+
+	/**
+	 * The name of the table.
+	 */
+	public static final String NAME = "TEMPORAL";
+
+	/**
+	 * The name of the value column.
+	 */
+	public static final String VALUE = "obj_time";
+
+	/**
+	 * Constructor.
+	 *
+	 * @param connection
+	 *            The connection to use.
+	 */
+	public TemporalTable(CassandraConnection connection) {
+		super(connection, NAME, VALUE, "bigint");
+	}
+
+	@Override
+	protected Object getValue(Node object) {
+		return object.isLiteral() ? toMillis(NodeValue.makeNode(object)) : null;
+	}
+
+	/**
+	 * Get the time of a date or date time value in milliseconds since the
+	 * epoch. Values without a timezone are taken to be UTC.
+	 *
+	 * @param value
+	 *            The value.
+	 * @return the time, or null if the value is not a date or date time.
+	 */
+	public static Long toMillis(NodeValue value) {
+		if (!value.isDateTime() && !value.isDate()) {
+			return null;
+		}
+		XMLGregorianCalendar cal = (XMLGregorianCalendar) value.getDateTime().clone();
+		if (cal.getTimezone() == DatatypeConstants.FIELD_UNDEFINED) {
+			cal.setTimezone(0);
+		}
+		return cal.toGregorianCalendar().getTimeInMillis();
+	}
+
+	/**
+	 * Find the date and date time literals of a predicate in a graph in a
+	 * time window. The window is approximate, see the class description.
+	 *
+	 * @param keyspace
+	 *            The keyspace to read.
+	 * @param graph
+	 *            The graph, must be concrete.
+	 * @param predicate
+	 *            The predicate, must be concrete.
+	 * @param start
+	 *            The earliest time in milliseconds since the epoch or null
+	 *            for no lower bound.
+	 * @param end
+	 *            The latest time in milliseconds since the epoch or null for
+	 *            no upper bound.
+	 * @return the triples of the literals.
+	 * @throws TException
+	 *             on encoding error.
+	 */
+	public ExtendedIterator<Triple> findRange(String keyspace, Node graph, Node predicate, Long start, Long end)
+			throws TException {
+		StringBuilder restrictions = new StringBuilder();
+		List<Object> values = new ArrayList<Object>();
+		if (start != null) {
+			restrictions.append(String.format(" AND %s >= ?", VALUE));
+			values.add(start);
+		}
+		if (end != null) {
+			restrictions.append(String.format(" AND %s <= ?", VALUE));
+			values.add(end);
+		}
+		return find(keyspace, graph, predicate, restrictions.toString(), values.toArray());
+	}
+}
@@ -0,0 +1,171 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jena.cassandra.graph;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.Statement;
+
+/**
+ * Counts the rows matching a query one token range at a time with the ranges
+ * counted in parallel.
+ *
+ * Counting a large table with a single count query makes one coordinator
+ * read the whole table within the query timeout. Counting each token range
+ * separately keeps each query small and spreads the work across the cluster.
+ *
+ * The count of each range is produced by a function of the result set: for
+ * example reading a count(*) value or counting the rows that pass a filter.
+ * The progress of the count may be read from another thread while count() is
+ * running.
+ *
+ */
+public class TokenRangeCounter {
+
+	private static final AtomicInteger COUNT_COUNT = new AtomicInteger();
+
+	private final Session session;
+	private final List<TokenRangeScanner.Range> ranges;
+	private final Function<TokenRangeScanner.Range, Statement> statements;
+	private final ToLongFunction<ResultSet> counter;
+	private final int parallelism;
+
+	private final AtomicInteger rangesCompleted = new AtomicInteger();
+	private final AtomicLong countSoFar = new AtomicLong();
+
+	/**
+	 * Constructor.
+	 *
+	 * @param session
+	 *            The session to execute the statements in.
+	 * @param ranges
+	 *            The token ranges to count. A list containing a single null
+	 *            range counts a query that is not split.
+	 * @param statements
+	 *            A function that creates the statement to count a range.
+	 * @param counter
+	 *            A function that returns the count from the result set of a
+	 *            range.
+	 * @param parallelism
+	 *            The number of ranges to count at once.
+	 */
+	public TokenRangeCounter(Session session, List<TokenRangeScanner.Range> ranges,
+			Function<TokenRangeScanner.Range, Statement> statements, ToLongFunction<ResultSet> counter,
+			int parallelism) {
+		this.session = session;
+		this.ranges = ranges;
+		this.statements = statements;
+		this.counter = counter;
+		this.parallelism = Math.max(1, Math.min(parallelism, ranges.size()));
+	}
+
+	/**
+	 * Get the number of ranges to count.
+	 *
+	 * @return the total number of ranges.
+	 */
+	public int getRangesTotal() {
+		return ranges.size();
+	}
+
+	/**
+	 * Get the number of ranges that have been counted.
+	 *
+	 * @return the number of ranges completed.
+	 */
+	public int getRangesCompleted() {
+		return rangesCompleted.get();
+	}
+
+	/**
+	 * Get the count of the ranges completed so far.
+	 *
+	 * @return the count so far.
+	 */
+	public long getCountSoFar() {
+		return countSoFar.get();
+	}
+
+	/**
+	 * Get the fraction of the ranges that have been counted.
+	 *
+	 * @return the progress between 0.0 and 1.0.
+	 */
+	public double getProgress() {
+		return ranges.isEmpty() ? 1.0 : (double) rangesCompleted.get() / ranges.size();
+	}
+
+	/**
+	 * Count the ranges. Blocks until all the ranges are counted.
+	 *
+	 * @return the total count.
+	 * @throws IllegalStateException
+	 *             if interrupted.
+	 * @throws RuntimeException
+	 *             the error from a range that failed.
+	 */
+	public long count() {
+		if (ranges.size() == 1) {
+			countRange(ranges.get(0));
+			return countSoFar.get();
+		}
+		String name = "token-range-count-" + COUNT_COUNT.incrementAndGet();
+		ExecutorService executor = Executors.newFixedThreadPool(parallelism, r -> {
+			Thread t = new Thread(r, name);
+			t.setDaemon(true);
+			return t;
+		});
+		try {
+			List<Future<?>> futures = new ArrayList<Future<?>>(ranges.size());
+			for (TokenRangeScanner.Range range : ranges) {
+				futures.add(executor.submit(() -> countRange(range)));
+			}
+			for (Future<?> future : futures) {
+				future.get();
+			}
+			return countSoFar.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while counting", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IllegalStateException(e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private void countRange(TokenRangeScanner.Range range) {
+		ResultSet rs = session.execute(statements.apply(range));
+		countSoFar.addAndGet(counter.applyAsLong(rs));
+		rangesCompleted.incrementAndGet();
+	}
+}
@@ -0,0 +1,325 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jena.cassandra.graph;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.apache.jena.util.iterator.NiceIterator;
+
+import com.datastax.driver.core.Metadata;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.Statement;
+import com.datastax.driver.core.TokenRange;
+
+/**
+ * Scans a table by splitting the token ring into ranges and querying the
+ * ranges in parallel.
+ *
+ * Each range is queried by a worker thread that places the rows on a bounded
+ * queue, so at most parallelism ranges are read at once and a slow consumer
+ * slows the workers down rather than buffering the table in memory.
+ *
+ * In unordered mode the rows are returned in the order they arrive. In
+ * ordered mode the rows are returned in token order, the same order as a
+ * single sequential scan, while later ranges are read ahead. Each range has
+ * its own queue, created when the range is first read and dropped when the
+ * consumer has read it, so there are only queues for the ranges in flight.
+ *
+ * Closing the iterator stops the workers.
+ *
+ */
+public class TokenRangeScanner extends NiceIterator<Row> {
+
+	/**
+	 * The default number of ranges to scan at once.
+	 */
+	public static final int DEFAULT_PARALLELISM = 8;
+
+	/*
+	 * Marks the end of a range on a queue.
+	 */
+	private static final Object END = new Object();
+
+	private static final AtomicInteger SCAN_COUNT = new AtomicInteger();
+
+	private final Session session;
+	private final Function<Range, Statement> statements;
+	private final int rangeCount;
+	private final boolean ordered;
+	private final int queueSize;
+	/* the queues by range index (ordered) or a single queue 0 (unordered) */
+	private final Map<Integer, BlockingQueue<Object>> queues;
+	private final ExecutorService executor;
+	/* the number of ranges completely read by the consumer */
+	private int finished;
+	private Row next;
+	private volatile boolean closed;
+
+	/**
+	 * Constructor. Starts the scan.
+	 *
+	 * @param session
+	 *            The session to execute the statements in.
+	 * @param ranges
+	 *            The token ranges to scan in token order.
+	 * @param statements
+	 *            A function that creates the statement to scan a range.
+	 * @param parallelism
+	 *            The number of ranges to scan at once.
+	 * @param ordered
+	 *            true if the rows should be returned in token order.
+	 * @param queueSize
+	 *            The number of rows to buffer for each range (ordered) or for
+	 *            all ranges (unordered).
+	 */
+	public TokenRangeScanner(Session session, List<Range> ranges, Function<Range, Statement> statements,
+			int parallelism, boolean ordered, int queueSize) {
+		this.session = session;
+		this.statements = statements;
+		this.rangeCount = ranges.size();
+		this.ordered = ordered;
+		this.queueSize = Math.max(1, queueSize);
+		this.queues = new ConcurrentHashMap<Integer, BlockingQueue<Object>>();
+		String name = "token-range-scan-" + SCAN_COUNT.incrementAndGet();
+		this.executor = Executors.newFixedThreadPool(Math.max(1, Math.min(parallelism, rangeCount)), r -> {
+			Thread t = new Thread(r, name);
+			t.setDaemon(true);
+			return t;
+		});
+		for (int i = 0; i < rangeCount; i++) {
+			final int idx = i;
+			final Range range = ranges.get(i);
+			executor.execute(() -> scan(idx, range));
+		}
+		executor.shutdown();
+	}
+
+	/**
+	 * Get the token ranges of the cluster in token order. Wrapping ranges are
+	 * unwrapped and if there are fewer than minRanges ranges they are split
+	 * evenly so that there is enough work for the workers.
+	 *
+	 * The driver ends the last range of the ring at the minimum token, which
+	 * no token is less than or equal to, so that range ends at the maximum
+	 * token instead. The ranges of partitioners without a maximum token (the
+	 * ByteOrderedPartitioner) are not returned and the queries are not split.
+	 *
+	 * @param metadata
+	 *            The cluster metadata.
+	 * @param minRanges
+	 *            The minimum number of ranges wanted.
+	 * @return the ranges, empty if the cluster has no token metadata.
+	 */
+	public static List<Range> getRanges(Metadata metadata, int minRanges) {
+		List<TokenRange> tokenRanges = new ArrayList<TokenRange>();
+		if (metadata != null && metadata.getTokenRanges() != null) {
+			for (TokenRange range : metadata.getTokenRanges()) {
+				tokenRanges.addAll(range.unwrap());
+			}
+		}
+		if (!tokenRanges.isEmpty() && tokenRanges.size() < minRanges) {
+			int splits = (minRanges + tokenRanges.size() - 1) / tokenRanges.size();
+			List<TokenRange> split = new ArrayList<TokenRange>();
+			for (TokenRange range : tokenRanges) {
+				for (TokenRange part : range.splitEvenly(splits)) {
+					split.addAll(part.unwrap());
+				}
+			}
+			tokenRanges = split;
+		}
+		Collections.sort(tokenRanges);
+		List<Range> retval = new ArrayList<Range>(tokenRanges.size());
+		for (TokenRange range : tokenRanges) {
+			if (range.isEmpty()) {
+				continue;
+			}
+			Object end = range.getEnd().getValue();
+			/* an unwrapped range only ends before its start at the minimum token */
+			if (range.getEnd().compareTo(range.getStart()) <= 0) {
+				end = getMaxToken(end);
+				if (end == null) {
+					return Collections.emptyList();
+				}
+			}
+			retval.add(new Range(range.getStart().getValue(), end));
+		}
+		return retval;
+	}
+
+	/*
+	 * Get the maximum token value of the partitioner of a token value, or
+	 * null if it has none.
+	 */
+	private static Object getMaxToken(Object token) {
+		if (token instanceof Long) {
+			return Long.MAX_VALUE;
+		}
+		if (token instanceof BigInteger) {
+			/* the RandomPartitioner */
+			return BigInteger.ONE.shiftLeft(127);
+		}
+		return null;
+	}
+
+	/*
+	 * Get the queue for a range, creating it when the worker or the consumer
+	 * first needs it.
+	 */
+	private BlockingQueue<Object> getQueue(int idx) {
+		return queues.computeIfAbsent(ordered ? idx : 0, k -> new LinkedBlockingQueue<Object>(queueSize));
+	}
+
+	/* package private for testing */ int getQueueCount() {
+		return queues.size();
+	}
+
+	/*
+	 * Read one range onto its queue.
+	 */
+	private void scan(int idx, Range range) {
+		BlockingQueue<Object> queue = getQueue(idx);
+		try {
+			try {
+				if (!closed) {
+					ResultSet rs = session.execute(statements.apply(range));
+					for (Row row : rs) {
+						if (closed) {
+							return;
+						}
+						queue.put(row);
+					}
+				}
+				queue.put(END);
+			} catch (RuntimeException e) {
+				queue.put(e);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Override
+	public boolean hasNext() {
+		while (next == null) {
+			if (closed || finished >= rangeCount) {
+				return false;
+			}
+			Object item;
+			try {
+				item = getQueue(finished).take();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				close();
+				return false;
+			}
+			if (item == END) {
+				if (ordered) {
+					queues.remove(finished);
+				}
+				finished++;
+			} else if (item instanceof RuntimeException) {
+				close();
+				throw (RuntimeException) item;
+			} else {
+				next = (Row) item;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public Row next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		Row retval = next;
+		next = null;
+		return retval;
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+		next = null;
+		executor.shutdownNow();
+		for (BlockingQueue<Object> queue : queues.values()) {
+			queue.clear();
+		}
+	}
+
+	/**
+	 * A token range. The start is exclusive and the end is inclusive. The
+	 * values are the token values for the partitioner (e.g. Long for the
+	 * Murmur3Partitioner).
+	 *
+	 */
+	public static class Range {
+		private final Object start;
+		private final Object end;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param start
+		 *            The start token value (exclusive).
+		 * @param end
+		 *            The end token value (inclusive).
+		 */
+		public Range(Object start, Object end) {
+			this.start = start;
+			this.end = end;
+		}
+
+		/**
+		 * Get the start token value.
+		 *
+		 * @return the start token value (exclusive).
+		 */
+		public Object getStart() {
+			return start;
+		}
+
+		/**
+		 * Get the end token value.
+		 *
+		 * @return the end token value (inclusive).
+		 */
+		public Object getEnd() {
+			return end;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("(%s, %s]", start, end);
+		}
+	}
+}
@@ -0,0 +1,186 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jena.cassandra.graph;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.datastax.driver.core.Statement;
+import com.datastax.driver.core.exceptions.BusyPoolException;
+import com.datastax.driver.core.exceptions.NoHostAvailableException;
+import com.datastax.driver.core.exceptions.OperationTimedOutException;
+import com.datastax.driver.core.exceptions.OverloadedException;
+import com.datastax.driver.core.exceptions.UnavailableException;
+import com.datastax.driver.core.exceptions.WriteTimeoutException;
+
+/**
+ * Determines if and when a failed asynchronous write is retried.
+ *
+ * Each statement has a budget of maxRetries retries. The delay before retry n
+ * (starting at 0) is chosen uniformly at random between 0 and
+ * min(maxDelay, baseDelay * 2^n) ("full jitter") so that statements that
+ * failed together do not all retry together.
+ *
+ * Only errors that indicate a busy or overloaded cluster are retried:
+ * <ul>
+ * <li>Overloaded, busy pool, unavailable and no host available errors mean
+ * the write was not applied so it is always safe to retry.</li>
+ * <li>Write timeouts and client timeouts mean the write may have been applied
+ * so the statement is only retried if it is marked idempotent.</li>
+ * </ul>
+ * All other errors (e.g. invalid queries) fail immediately.
+ *
+ */
+public class WriteRetryPolicy {
+
+	/**
+	 * The default number of retries for a statement.
+	 */
+	public static final int DEFAULT_MAX_RETRIES = 5;
+
+	/**
+	 * The default delay before the first retry in milliseconds.
+	 */
+	public static final long DEFAULT_BASE_DELAY_MILLIS = 50;
+
+	/**
+	 * The default maximum delay before a retry in milliseconds.
+	 */
+	public static final long DEFAULT_MAX_DELAY_MILLIS = 5000;
+
+	/**
+	 * A policy that never retries.
+	 */
+	public static final WriteRetryPolicy NONE = new WriteRetryPolicy(0, 0, 0);
+
+	private final int maxRetries;
+	private final long baseDelayMillis;
+	private final long maxDelayMillis;
+
+	/**
+	 * Constructor. Uses the default retries and delays.
+	 */
+	public WriteRetryPolicy() {
+		this(DEFAULT_MAX_RETRIES, DEFAULT_BASE_DELAY_MILLIS, DEFAULT_MAX_DELAY_MILLIS);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param maxRetries
+	 *            The maximum number of times a statement is retried.
+	 * @param baseDelayMillis
+	 *            The delay before the first retry in milliseconds.
+	 * @param maxDelayMillis
+	 *            The maximum delay before any retry in milliseconds.
+	 */
+	public WriteRetryPolicy(int maxRetries, long baseDelayMillis, long maxDelayMillis) {
+		if (maxRetries < 0) {
+			throw new IllegalArgumentException("maxRetries may not be negative");
+		}
+		if (baseDelayMillis < 0 || maxDelayMillis < baseDelayMillis) {
+			throw new IllegalArgumentException("delays must be 0 <= baseDelayMillis <= maxDelayMillis");
+		}
+		this.maxRetries = maxRetries;
+		this.baseDelayMillis = baseDelayMillis;
+		this.maxDelayMillis = maxDelayMillis;
+	}
+
+	/**
+	 * Get the maximum number of times a statement is retried.
+	 *
+	 * @return the retry budget for a statement.
+	 */
+	public int getMaxRetries() {
+		return maxRetries;
+	}
+
+	/**
+	 * Get the delay before the first retry.
+	 *
+	 * @return the base delay in milliseconds.
+	 */
+	public long getBaseDelayMillis() {
+		return baseDelayMillis;
+	}
+
+	/**
+	 * Get the maximum delay before a retry.
+	 *
+	 * @return the maximum delay in milliseconds.
+	 */
+	public long getMaxDelayMillis() {
+		return maxDelayMillis;
+	}
+
+	/**
+	 * Determine if a failed statement should be retried.
+	 *
+	 * @param statement
+	 *            The statement that failed.
+	 * @param error
+	 *            The error it failed with.
+	 * @param retries
+	 *            The number of times the statement has already been retried.
+	 * @return true if the statement should be retried.
+	 */
+	public boolean shouldRetry(Statement statement, Throwable error, int retries) {
+		return retries < maxRetries && isRetryable(statement, error);
+	}
+
+	/**
+	 * Get the delay before a retry.
+	 *
+	 * @param retries
+	 *            The number of times the statement has already been retried.
+	 * @return the delay in milliseconds.
+	 */
+	public long getDelayMillis(int retries) {
+		long ceiling = baseDelayMillis;
+		for (int i = 0; i < retries && ceiling < maxDelayMillis; i++) {
+			ceiling <<= 1;
+		}
+		ceiling = Math.min(ceiling, maxDelayMillis);
+		return ceiling == 0 ? 0 : ThreadLocalRandom.current().nextLong(ceiling + 1);
+	}
+
+	/**
+	 * Determine if the error is one that a retry may fix.
+	 *
+	 * @param statement
+	 *            The statement that failed.
+	 * @param error
+	 *            The error it failed with.
+	 * @return true if the statement may be retried.
+	 */
+	public static boolean isRetryable(Statement statement, Throwable error) {
+		if (error instanceof OverloadedException || error instanceof BusyPoolException
+				|| error instanceof UnavailableException || error instanceof NoHostAvailableException) {
+			return true;
+		}
+		if (error instanceof WriteTimeoutException || error instanceof OperationTimedOutException) {
+			return Boolean.TRUE.equals(statement.isIdempotent());
+		}
+		return false;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("WriteRetryPolicy[maxRetries: %s baseDelay: %sms maxDelay: %sms]", maxRetries,
+				baseDelayMillis, maxDelayMillis);
+	}
+}
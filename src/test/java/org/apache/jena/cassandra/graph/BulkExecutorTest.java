@@ -0,0 +1,265 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.jena.cassandra.graph;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.sparql.core.Quad;
+import org.apache.jena.util.iterator.WrappedIterator;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.SimpleStatement;
+import com.datastax.driver.core.Statement;
+import com.datastax.driver.core.exceptions.OverloadedException;
+import com.google.common.util.concurrent.AbstractFuture;
+
+/**
+ * Test the bulk executor with a session that completes the statements on
+ * another thread.
+ *
+ */
+public class BulkExecutorTest {
+
+	private Session session;
+	private ExecutorService completer;
+	private List<String> failOn;
+	private Map<String, Integer> failTimes;
+
+	@Before
+	public void setup() {
+		completer = Executors.newFixedThreadPool(4);
+		failOn = new ArrayList<String>();
+		failTimes = new ConcurrentHashMap<String, Integer>();
+		session = mock(Session.class);
+		when(session.executeAsync(any(Statement.class))).thenAnswer(invocation -> {
+			Statement stmt = invocation.getArgument(0);
+			TestFuture future = new TestFuture();
+			completer.execute(() -> {
+				try {
+					Thread.sleep(1);
+				} catch (InterruptedException e) {
+					// ignore
+				}
+				Integer times = failTimes.computeIfPresent(stmt.toString(), (k, v) -> v - 1);
+				if (failOn.contains(stmt.toString()) || (times != null && times >= 0)) {
+					future.fail(new OverloadedException(new InetSocketAddress(9042), "overloaded"));
+				} else {
+					future.succeed(mock(ResultSet.class));
+				}
+			});
+			return future;
+		});
+	}
+
+	@After
+	public void teardown() {
+		completer.shutdownNow();
+	}
+
+	private List<String> statements(int count) {
+		List<String> retval = new ArrayList<String>();
+		for (int i = 0; i < count; i++) {
+			retval.add("statement " + i);
+		}
+		return retval;
+	}
+
+	@Test
+	public void awaitFinishTest() {
+		BulkExecutor executor = new BulkExecutor(session, new ConcurrencyLimiter(5));
+		executor.execute(statements(100).iterator());
+		ExecutionReport report = executor.awaitFinish();
+		assertEquals(100, report.getSubmitted());
+		assertEquals(100, report.getSucceeded());
+		assertEquals(0, report.getFailed());
+		assertEquals(0, report.getPending());
+		assertFalse(report.hasFailures());
+		assertEquals(0, executor.getLimiter().getInFlight());
+	}
+
+	@Test
+	public void failureReportTest() {
+		failOn.addAll(Arrays.asList("statement 3", "statement 7"));
+		BulkExecutor executor = new BulkExecutor(session, new ConcurrencyLimiter(5));
+		executor.execute(statements(10).iterator());
+		ExecutionReport report = executor.awaitFinish();
+		assertEquals(10, report.getSubmitted());
+		assertEquals(8, report.getSucceeded());
+		assertEquals(2, report.getFailed());
+		assertTrue(report.hasFailures());
+		assertEquals(Long.valueOf(2), report.getErrorCounts().get("OverloadedException"));
+		assertEquals(2, report.getSampledFailures().size());
+		for (ExecutionReport.Failure failure : report.getSampledFailures()) {
+			assertTrue(failOn.contains(failure.getStatement()));
+		}
+	}
+
+	@Test
+	public void retryRecoveredTest() {
+		failTimes.put("statement 3", 2);
+		failTimes.put("statement 7", 1);
+		BulkExecutor executor = new BulkExecutor(session, new ConcurrencyLimiter(5), new WriteRetryPolicy(3, 1, 5),
+				null);
+		executor.execute(statements(10).iterator());
+		ExecutionReport report = executor.awaitFinish();
+		assertEquals(10, report.getSubmitted());
+		assertEquals(10, report.getSucceeded());
+		assertEquals(0, report.getFailed());
+		assertEquals(3, report.getRetried());
+		assertEquals(2, report.getRecovered());
+		assertEquals(0, executor.getLimiter().getInFlight());
+	}
+
+	@Test
+	public void retryExhaustedDeadLetterTest() {
+		failOn.add("statement 3");
+		List<Quad> deadLetters = new ArrayList<Quad>();
+		Quad quad = new Quad(Quad.defaultGraphIRI, NodeFactory.createURI("http://example.com/s"),
+				NodeFactory.createURI("http://example.com/p"), NodeFactory.createLiteral("o"));
+		BulkExecutor executor = new BulkExecutor(session, new ConcurrencyLimiter(5), new WriteRetryPolicy(2, 1, 5),
+				(q, stmt, error) -> {
+					synchronized (deadLetters) {
+						deadLetters.add(q);
+					}
+				});
+		executor.executeStatements(quad,
+				WrappedIterator.create(statements(4).iterator()).mapWith(SimpleStatement::new));
+		ExecutionReport report = executor.awaitFinish();
+		assertEquals(4, report.getSubmitted());
+		assertEquals(3, report.getSucceeded());
+		assertEquals(1, report.getFailed());
+		assertEquals(2, report.getRetried());
+		assertEquals(0, report.getRecovered());
+		assertEquals(1, report.getDeadLettered());
+		assertEquals(Arrays.asList(quad), deadLetters);
+		assertEquals(0, executor.getLimiter().getInFlight());
+	}
+
+	@Test
+	public void failTest() {
+		List<Quad> deadLetters = new ArrayList<Quad>();
+		Quad quad = new Quad(Quad.defaultGraphIRI, NodeFactory.createURI("http://example.com/s"),
+				NodeFactory.createURI("http://example.com/p"), NodeFactory.createLiteral("o"));
+		BulkExecutor executor = new BulkExecutor(session, new ConcurrencyLimiter(5), WriteRetryPolicy.NONE,
+				(q, stmt, error) -> deadLetters.add(q));
+		executor.fail(quad, "encode quad", new IllegalArgumentException("bad"));
+		ExecutionReport report = executor.awaitFinish();
+		assertEquals(1, report.getSubmitted());
+		assertEquals(1, report.getFailed());
+		assertEquals(0, report.getPending());
+		assertEquals(1, report.getDeadLettered());
+		assertEquals(Arrays.asList(quad), deadLetters);
+		assertEquals("encode quad", report.getSampledFailures().get(0).getStatement());
+	}
+
+	@Test
+	public void noRetryTest() {
+		failTimes.put("statement 3", 1);
+		BulkExecutor executor = new BulkExecutor(session, new ConcurrencyLimiter(5));
+		executor.execute(statements(10).iterator());
+		ExecutionReport report = executor.awaitFinish();
+		assertEquals(1, report.getFailed());
+		assertEquals(0, report.getRetried());
+	}
+
+	@Test
+	public void dependentsTest() throws Exception {
+		/* a function blocked in one executor does not hold up those of another */
+		CountDownLatch blocked = new CountDownLatch(1);
+		BulkExecutor first = new BulkExecutor(session, new ConcurrencyLimiter(5));
+		first.executeStatement(null, new SimpleStatement("statement 0"), rs -> {
+			try {
+				blocked.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		BulkExecutor second = new BulkExecutor(session, new ConcurrencyLimiter(5));
+		second.executeStatement(null, new SimpleStatement("statement 1"),
+				rs -> second.executeStatements(Arrays.asList(new SimpleStatement("statement 2")).iterator()));
+		ExecutorService waiter = Executors.newSingleThreadExecutor();
+		try {
+			ExecutionReport report = waiter.submit(second::awaitFinish).get(5, TimeUnit.SECONDS);
+			assertEquals(2, report.getSucceeded());
+		} finally {
+			blocked.countDown();
+			waiter.shutdownNow();
+		}
+		assertEquals(1, first.awaitFinish().getSucceeded());
+	}
+
+	@Test
+	public void emptyTest() {
+		BulkExecutor executor = new BulkExecutor(session);
+		ExecutionReport report = executor.awaitFinish();
+		assertEquals(0, report.getSubmitted());
+	}
+
+	/**
+	 * A ResultSetFuture that the test completes.
+	 */
+	private static class TestFuture extends AbstractFuture<ResultSet> implements ResultSetFuture {
+
+		void succeed(ResultSet rs) {
+			set(rs);
+		}
+
+		void fail(Throwable t) {
+			setException(t);
+		}
+
+		@Override
+		public ResultSet getUninterruptibly() {
+			try {
+				return get();
+			} catch (InterruptedException | ExecutionException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		@Override
+		public ResultSet getUninterruptibly(long timeout, TimeUnit unit) throws TimeoutException {
+			try {
+				return get(timeout, unit);
+			} catch (InterruptedException | ExecutionException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+}
@@ -0,0 +1,174 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.jena.cassandra.graph;
+
+import static org.junit.Assert.*;
+
+import java.net.InetSocketAddress;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.datastax.driver.core.exceptions.InvalidQueryException;
+import com.datastax.driver.core.exceptions.OverloadedException;
+
+/**
+ * Test the concurrency limiter.
+ *
+ */
+public class ConcurrencyLimiterTest {
+
+	private static final long LATENCY = TimeUnit.MILLISECONDS.toNanos(5);
+
+	@Test
+	public void fixedLimitTest() throws InterruptedException {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(2);
+		limiter.acquire();
+		limiter.acquire();
+		assertEquals(2, limiter.getInFlight());
+
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch acquired = new CountDownLatch(1);
+		Thread t = new Thread(() -> {
+			started.countDown();
+			try {
+				limiter.acquire();
+				acquired.countDown();
+			} catch (InterruptedException e) {
+				// test will fail
+			}
+		});
+		t.start();
+		started.await();
+		assertFalse("Should block at the limit", acquired.await(100, TimeUnit.MILLISECONDS));
+		limiter.release(LATENCY, null);
+		assertTrue("Should acquire after release", acquired.await(1, TimeUnit.SECONDS));
+		assertEquals(2, limiter.getInFlight());
+		assertEquals(2, limiter.getLimit());
+	}
+
+	@Test
+	public void adaptiveIncreaseTest() throws InterruptedException {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(100, true);
+		assertEquals(ConcurrencyLimiter.DEFAULT_MIN_IN_FLIGHT, limiter.getLimit());
+		for (int i = 0; i < 1000; i++) {
+			limiter.acquire();
+			limiter.release(LATENCY, null);
+		}
+		assertTrue("Limit should grow", limiter.getLimit() > ConcurrencyLimiter.DEFAULT_MIN_IN_FLIGHT);
+		assertTrue("Limit should not exceed maximum", limiter.getLimit() <= 100);
+	}
+
+	@Test
+	public void adaptiveMaximumTest() throws InterruptedException {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(10, true);
+		for (int i = 0; i < 1000; i++) {
+			limiter.acquire();
+			limiter.release(LATENCY, null);
+		}
+		assertEquals(10, limiter.getLimit());
+	}
+
+	@Test
+	public void adaptiveOverloadTest() throws InterruptedException {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(100, true);
+		for (int i = 0; i < 2000; i++) {
+			limiter.acquire();
+			limiter.release(LATENCY, null);
+		}
+		int before = limiter.getLimit();
+		limiter.acquire();
+		limiter.release(LATENCY, new OverloadedException(new InetSocketAddress(9042), "overloaded"));
+		assertEquals(Math.max(ConcurrencyLimiter.DEFAULT_MIN_IN_FLIGHT, before / 2), limiter.getLimit(), 1);
+	}
+
+	@Test
+	public void adaptiveLatencyTest() throws InterruptedException {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(100, true);
+		for (int i = 0; i < 2000; i++) {
+			limiter.acquire();
+			limiter.release(LATENCY, null);
+		}
+		int before = limiter.getLimit();
+		/* a window of high latency */
+		for (int i = 0; i < 2 * before; i++) {
+			limiter.acquire();
+			limiter.release(LATENCY * 10, null);
+		}
+		assertTrue("Limit should shrink on high latency", limiter.getLimit() < before);
+		assertTrue("Limit should not halve on high latency", limiter.getLimit() > before / 2);
+	}
+
+	@Test
+	public void adaptiveJitterTest() throws InterruptedException {
+		/*
+		 * log normal latencies with a median of 5ms and a minimum well under
+		 * half of it, and a slow statement in every hundred
+		 */
+		Random random = new Random(42);
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(ConcurrencyLimiter.DEFAULT_MAX_IN_FLIGHT, true);
+		for (int i = 0; i < 20000; i++) {
+			double latency = LATENCY * Math.exp(0.5 * random.nextGaussian());
+			if (random.nextInt(100) == 0) {
+				latency *= 10;
+			}
+			limiter.acquire();
+			limiter.release((long) latency, null);
+		}
+		assertTrue("Limit should grow with ordinary jitter: " + limiter.getLimit(), limiter.getLimit() > 100);
+	}
+
+	@Test
+	public void adaptiveCongestionTest() throws InterruptedException {
+		/* the latency rises with the limit once there are more than 64 in flight */
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(ConcurrencyLimiter.DEFAULT_MAX_IN_FLIGHT, true);
+		for (int i = 0; i < 100000; i++) {
+			limiter.acquire();
+			limiter.release(LATENCY * Math.max(64, limiter.getLimit()) / 64, null);
+		}
+		assertTrue("Limit should grow past the knee: " + limiter.getLimit(), limiter.getLimit() > 64);
+		assertTrue("Limit should stop growing: " + limiter.getLimit(),
+				limiter.getLimit() < ConcurrencyLimiter.DEFAULT_MAX_IN_FLIGHT / 2);
+	}
+
+	@Test
+	public void adaptiveOtherErrorTest() throws InterruptedException {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(100, true);
+		for (int i = 0; i < 2000; i++) {
+			limiter.acquire();
+			limiter.release(LATENCY, null);
+		}
+		int before = limiter.getLimit();
+		limiter.acquire();
+		limiter.release(LATENCY, new InvalidQueryException("bad query"));
+		assertTrue("Limit should not shrink on non congestion errors", limiter.getLimit() >= before);
+	}
+
+	@Test
+	public void adaptiveMinimumTest() throws InterruptedException {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(100, true);
+		for (int i = 0; i < 20; i++) {
+			limiter.acquire();
+			limiter.release(LATENCY, new OverloadedException(new InetSocketAddress(9042), "overloaded"));
+		}
+		assertEquals(ConcurrencyLimiter.DEFAULT_MIN_IN_FLIGHT, limiter.getLimit());
+	}
+}
@@ -0,0 +1,594 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.jena.cassandra.graph;
+
+import static org.mockito.Mockito.*;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.sparql.core.Quad;
+import org.apache.thrift.TException;
+
+import com.datastax.driver.core.BatchStatement;
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.SimpleStatement;
+import com.datastax.driver.core.Statement;
+import com.google.common.util.concurrent.AbstractFuture;
+
+import net.jpountz.lz4.LZ4Factory;
+
+/**
+ * A mock Cassandra session that evaluates the equality and IN restrictions,
+ * the (PER PARTITION) LIMIT and count() of the prepared queries over a list of
+ * quads. Simple
+ * queries for all the values of one column are also supported.
+ *
+ * Only the queries of the quad tables and the LanguageTable, NumericTable,
+ * TemporalTable, LiteralTable, LiteralStore, NodeDictionary and
+ * QuadCountTable are supported. Only the conditional inserts and deletes of
+ * the SPOG table change the quads.
+ *
+ */
+public class FakeCassandra {
+
+	private static final Pattern RESTRICTION = Pattern.compile("(\\w+)(=\\?| IN \\?)");
+	private static final Pattern COLUMN = Pattern.compile("^SELECT (DISTINCT )?(\\w+) FROM");
+	private static final Pattern LIMIT = Pattern.compile(" LIMIT (\\d+|\\?)");
+	private static final Pattern PER_PARTITION_LIMIT = Pattern.compile(" PER PARTITION LIMIT (\\d+)");
+	private static final Pattern TABLE = Pattern.compile(" FROM (\\w+)");
+
+	/**
+	 * The quads in the database.
+	 */
+	public final List<Quad> data = new ArrayList<Quad>();
+	/**
+	 * The text of the executed queries in order.
+	 */
+	public final List<String> executed = Collections.synchronizedList(new ArrayList<String>());
+	/**
+	 * The values bound to the LIMIT of the executed queries in order.
+	 */
+	public final List<Object> limits = new ArrayList<Object>();
+	/**
+	 * The values of the executed inserts by table name, other than those of
+	 * the NodeDictionary.
+	 */
+	public final Map<String, List<List<Object>>> inserts = new ConcurrentHashMap<String, List<List<Object>>>();
+	/**
+	 * The QuadCountTable counters by graph and predicate.
+	 */
+	public final Map<List<ByteBuffer>, Long> counts = new ConcurrentHashMap<List<ByteBuffer>, Long>();
+	/**
+	 * The serialized nodes written to the NodeDictionary by id.
+	 */
+	public final Map<ByteBuffer, ByteBuffer> nodes = new ConcurrentHashMap<ByteBuffer, ByteBuffer>();
+	/**
+	 * The serialized nodes written to the NodeDictionary by another client
+	 * after they were read, so only an insert finds them.
+	 */
+	public final Map<ByteBuffer, ByteBuffer> racingNodes = new HashMap<ByteBuffer, ByteBuffer>();
+	/**
+	 * The most asynchronous statements executed whose results were not yet
+	 * taken at once.
+	 */
+	public final AtomicInteger maxInFlight = new AtomicInteger();
+	/**
+	 * The connection to the mock session.
+	 */
+	public final CassandraConnection connection;
+
+	private final Map<BoundStatement, Object[]> bound = new ConcurrentHashMap<BoundStatement, Object[]>();
+	private final AtomicInteger inFlight = new AtomicInteger();
+
+	/**
+	 * Constructor.
+	 *
+	 * @throws TException
+	 *             on error.
+	 */
+	public FakeCassandra() throws TException {
+		Cluster cluster = mock(Cluster.class);
+		Session session = mock(Session.class);
+		when(cluster.connect(anyString())).thenReturn(session);
+		when(session.prepare(anyString())).thenAnswer(i -> {
+			String cql = i.getArgument(0);
+			PreparedStatement prepared = mock(PreparedStatement.class);
+			when(prepared.bind(any())).thenAnswer(b -> {
+				BoundStatement stmt = mock(BoundStatement.class);
+				bound.put(stmt, new Object[] { cql, b.getArguments() });
+				return stmt;
+			});
+			/* the values of the quad inserts are set by name */
+			when(prepared.bind()).thenAnswer(b -> {
+				BoundStatement stmt = mock(BoundStatement.class);
+				Map<String, Object> named = new HashMap<String, Object>();
+				when(stmt.setBytes(anyString(), any())).thenAnswer(a -> named.put(a.getArgument(0), a.getArgument(1)));
+				bound.put(stmt, new Object[] { cql, new Object[0], named });
+				return stmt;
+			});
+			return prepared;
+		});
+		when(session.executeAsync(any(Statement.class))).thenAnswer(i -> {
+			maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+			return new DoneFuture(execute((Statement) i.getArgument(0)), inFlight);
+		});
+		when(session.execute(any(Statement.class))).thenAnswer(i -> execute((Statement) i.getArgument(0)));
+		when(session.execute(anyString())).thenAnswer(i -> execute((String) i.getArgument(0)));
+		connection = new CassandraConnection(cluster);
+		connection.setDefaultFetchSize(100);
+	}
+
+	/*
+	 * Evaluate the restrictions of the query on the data.
+	 */
+	private ResultSet execute(Statement statement) throws TException {
+		if (statement instanceof BatchStatement) {
+			for (Statement stmt : ((BatchStatement) statement).getStatements()) {
+				execute(stmt);
+			}
+			return resultSet(new LinkedList<Row>());
+		}
+		if (statement instanceof SimpleStatement) {
+			/* the TRUNCATE and DROP TABLE statements empty the tables */
+			String cql = ((SimpleStatement) statement).getQueryString();
+			executed.add(cql);
+			if (cql.matches("(TRUNCATE|DROP TABLE IF EXISTS) " + NodeDictionary.NAME + "\\b.*")) {
+				nodes.clear();
+			} else if (cql.matches("(TRUNCATE|DROP TABLE IF EXISTS) SPOG\\b.*")) {
+				data.clear();
+			}
+			return resultSet(new LinkedList<Row>());
+		}
+		String cql = (String) bound.get(statement)[0];
+		Object[] values = (Object[]) bound.get(statement)[1];
+		if (cql.startsWith("SELECT DISTINCT ")) {
+			return execute(cql);
+		}
+		executed.add(cql);
+		if (cql.contains(" " + NodeDictionary.NAME + " ")) {
+			return executeDictionary(cql, values);
+		}
+		if (cql.contains(" " + QuadCountTable.NAME + " ")) {
+			return executeCount(cql, values);
+		}
+		if (cql.startsWith("INSERT INTO SPOG ") && cql.endsWith(" IF NOT EXISTS")) {
+			@SuppressWarnings("unchecked")
+			Map<String, Object> named = (Map<String, Object>) bound.get(statement)[2];
+			Quad quad = new Quad(nodeOf(named.get(ColumnName.G.toString())), nodeOf(named.get(ColumnName.S.toString())),
+					nodeOf(named.get(ColumnName.P.toString())), nodeOf(named.get(ColumnName.O.toString())));
+			return applied(!data.contains(quad) && data.add(quad));
+		}
+		if (cql.startsWith("DELETE FROM SPOG ") && cql.endsWith(" IF EXISTS")) {
+			return applied(data.removeIf(quad -> matches(cql, values, quad)));
+		}
+		if (cql.startsWith("INSERT INTO ")) {
+			inserts.computeIfAbsent(cql.split(" ")[2], k -> Collections.synchronizedList(new ArrayList<List<Object>>()))
+					.add(Arrays.asList(values));
+			return resultSet(new LinkedList<Row>());
+		}
+		if (cql.contains(" FROM " + LanguageTable.NAME + " ")) {
+			return executeIndex(new LanguageTable(connection), cql, values);
+		}
+		if (cql.contains(" FROM " + NumericTable.NAME + " ")) {
+			return executeIndex(new NumericTable(connection), cql, values);
+		}
+		if (cql.contains(" FROM " + TemporalTable.NAME + " ")) {
+			return executeIndex(new TemporalTable(connection), cql, values);
+		}
+		if (cql.contains(" FROM " + LiteralStore.NAME + " ")) {
+			return executeStore(values);
+		}
+		if (cql.contains(" FROM " + LiteralTable.NAME + " ")) {
+			return executeLiteral(cql, values);
+		}
+		List<ColumnName> columns = new ArrayList<ColumnName>();
+		Matcher matcher = RESTRICTION.matcher(cql.contains(" WHERE ") ? cql.substring(cql.indexOf(" WHERE ")) : "");
+		while (matcher.find()) {
+			for (ColumnName col : ColumnName.values()) {
+				if (col.toString().equals(matcher.group(1))) {
+					columns.add(col);
+				}
+			}
+		}
+		/* the selected columns, the literal columns are null for URIs */
+		List<ColumnName> selected = new ArrayList<ColumnName>();
+		for (String name : cql.substring("SELECT ".length(), cql.indexOf(" FROM ")).split(", ")) {
+			for (ColumnName col : ColumnName.values()) {
+				if (col.toString().equals(name)) {
+					selected.add(col);
+				}
+			}
+		}
+		/* the partition key is the first column of the table name */
+		Matcher tableMatcher = TABLE.matcher(cql);
+		tableMatcher.find();
+		ColumnName partitionKey = null;
+		for (ColumnName col : ColumnName.values()) {
+			if (col.getId() == Character.toLowerCase(tableMatcher.group(1).charAt(0))) {
+				partitionKey = col;
+			}
+		}
+		Matcher perPartitionMatcher = PER_PARTITION_LIMIT.matcher(cql);
+		int perPartitionLimit = perPartitionMatcher.find() ? Integer.parseInt(perPartitionMatcher.group(1))
+				: Integer.MAX_VALUE;
+		Map<Node, Integer> partitionRows = new HashMap<Node, Integer>();
+		Matcher limitMatcher = LIMIT.matcher(cql.replaceAll(PER_PARTITION_LIMIT.pattern(), ""));
+		int limit = Integer.MAX_VALUE;
+		if (limitMatcher.find()) {
+			/* a bound limit is the last value */
+			limit = limitMatcher.group(1).equals("?") ? (Integer) values[values.length - 1]
+					: Integer.parseInt(limitMatcher.group(1));
+			limits.add(limit);
+		}
+		LinkedList<Row> rows = new LinkedList<Row>();
+		for (Quad quad : data) {
+			boolean match = matches(cql, values, quad);
+			if (match && partitionRows.merge(partitionKey.getMatch(quad), 1, Integer::sum) > perPartitionLimit) {
+				match = false;
+			}
+			if (match && rows.size() < limit) {
+				Row row = mock(Row.class);
+				for (int c = 0; c < selected.size(); c++) {
+					if (selected.get(c).getMatch(quad) != null && selected.get(c) != ColumnName.L
+							&& selected.get(c) != ColumnName.D) {
+						when(row.getBytes(c)).thenReturn(bytesOf(selected.get(c), quad));
+					}
+				}
+				rows.add(row);
+			}
+		}
+		if (cql.startsWith("SELECT count(")) {
+			Row row = mock(Row.class);
+			when(row.getLong(0)).thenReturn((long) rows.size());
+			rows.clear();
+			rows.add(row);
+		}
+		return resultSet(rows);
+	}
+
+	/*
+	 * Check the equality and IN restrictions of a quad table statement.
+	 */
+	private boolean matches(String cql, Object[] values, Quad quad) {
+		List<ColumnName> columns = new ArrayList<ColumnName>();
+		Matcher matcher = RESTRICTION.matcher(cql.contains(" WHERE ") ? cql.substring(cql.indexOf(" WHERE ")) : "");
+		while (matcher.find()) {
+			for (ColumnName col : ColumnName.values()) {
+				if (col.toString().equals(matcher.group(1))) {
+					columns.add(col);
+				}
+			}
+		}
+		boolean match = true;
+		try {
+			for (int c = 0; c < columns.size(); c++) {
+				ByteBuffer value = bytesOf(columns.get(c), quad);
+				match &= values[c] instanceof Collection ? ((Collection<?>) values[c]).contains(value)
+						: values[c].equals(value);
+			}
+		} catch (TException e) {
+			throw new IllegalStateException(e);
+		}
+		return match;
+	}
+
+	/*
+	 * The node of the value of a key column.
+	 */
+	private Node nodeOf(Object value) throws TException {
+		NodeDictionary dictionary = connection.getAuxiliaryTable(NodeDictionary.class);
+		return dictionary == null ? connection.objectOf("test", (ByteBuffer) value)
+				: dictionary.getNode("test", (ByteBuffer) value);
+	}
+
+	/*
+	 * The result of a conditional statement.
+	 */
+	private static ResultSet applied(boolean applied) {
+		ResultSet rs = resultSet(new LinkedList<Row>());
+		when(rs.wasApplied()).thenReturn(applied);
+		return rs;
+	}
+
+	/*
+	 * Evaluate a QuadCountTable statement: updates add the delta to the
+	 * counter of the graph and predicate and queries return it.
+	 */
+	private ResultSet executeCount(String cql, Object[] values) {
+		LinkedList<Row> rows = new LinkedList<Row>();
+		if (cql.startsWith("UPDATE ")) {
+			counts.merge(Arrays.asList((ByteBuffer) values[1], (ByteBuffer) values[2]), (Long) values[0], Long::sum);
+		} else {
+			Long count = counts.get(Arrays.asList((ByteBuffer) values[0], (ByteBuffer) values[1]));
+			if (count != null) {
+				Row row = mock(Row.class);
+				when(row.getLong(0)).thenReturn(count);
+				rows.add(row);
+			}
+		}
+		return resultSet(rows);
+	}
+
+	/*
+	 * Evaluate a query for one column of all the quads (for example the
+	 * graph names), with DISTINCT if the query asks for it.
+	 */
+	private ResultSet execute(String cql) throws TException {
+		executed.add(cql);
+		Matcher matcher = COLUMN.matcher(cql);
+		if (!matcher.find()) {
+			throw new IllegalArgumentException(cql);
+		}
+		ColumnName column = null;
+		for (ColumnName col : ColumnName.values()) {
+			if (col.toString().equals(matcher.group(2))) {
+				column = col;
+			}
+		}
+		Collection<ByteBuffer> values = matcher.group(1) == null ? new ArrayList<ByteBuffer>()
+				: new LinkedHashSet<ByteBuffer>();
+		for (Quad quad : data) {
+			values.add(bytesOf(column, quad));
+		}
+		LinkedList<Row> rows = new LinkedList<Row>();
+		for (ByteBuffer value : values) {
+			Row row = mock(Row.class);
+			when(row.getBytes(0)).thenReturn(value);
+			rows.add(row);
+		}
+		return resultSet(rows);
+	}
+
+	/*
+	 * Evaluate a PredicateIndexTable query: the graph, the predicate and the
+	 * restrictions on the value column.
+	 */
+	@SuppressWarnings("unchecked")
+	private ResultSet executeIndex(PredicateIndexTable table, String cql, Object[] values) throws TException {
+		LinkedList<Row> rows = new LinkedList<Row>();
+		for (Quad quad : data) {
+			Comparable<Object> value = (Comparable<Object>) table.getValue(quad.getObject());
+			if (value == null || !values[0].equals(connection.bytesOf(quad.getGraph()))
+					|| !values[1].equals(connection.bytesOf(quad.getPredicate()))) {
+				continue;
+			}
+			boolean match = true;
+			Matcher matcher = Pattern.compile(table.getColumn() + " (=|>=|>|<=|<) \\?").matcher(cql);
+			for (int i = 2; matcher.find(); i++) {
+				int cmp = value.compareTo(values[i]);
+				switch (matcher.group(1)) {
+				case "=":
+					match &= cmp == 0;
+					break;
+				case ">=":
+					match &= cmp >= 0;
+					break;
+				case ">":
+					match &= cmp > 0;
+					break;
+				case "<=":
+					match &= cmp <= 0;
+					break;
+				default:
+					match &= cmp < 0;
+				}
+			}
+			if (match) {
+				Row row = mock(Row.class);
+				when(row.getBytes(0)).thenReturn(connection.bytesOf(quad.getSubject()));
+				when(row.getBytes(1)).thenReturn(connection.objectBytesOf(quad.getObject()));
+				rows.add(row);
+			}
+		}
+		return resultSet(rows);
+	}
+
+	/*
+	 * Evaluate a LiteralTable query: the hash of the literal key and the
+	 * restrictions on the clustering columns.
+	 */
+	private ResultSet executeLiteral(String cql, Object[] values) throws TException {
+		List<ColumnName> columns = new ArrayList<ColumnName>();
+		Matcher matcher = Pattern.compile("(\\w+) = \\?").matcher(cql.substring(cql.indexOf(" WHERE ")));
+		while (matcher.find()) {
+			for (ColumnName col : ColumnName.values()) {
+				if (col.toString().equals(matcher.group(1))) {
+					columns.add(col);
+				}
+			}
+		}
+		LinkedList<Row> rows = new LinkedList<Row>();
+		for (Quad quad : data) {
+			Long hash = LiteralTable.getHash(quad.getObject());
+			if (hash == null || !hash.equals(values[0])) {
+				continue;
+			}
+			boolean match = true;
+			for (int c = 0; c < columns.size(); c++) {
+				match &= values[c + 1].equals(connection.bytesOf(columns.get(c).getMatch(quad)));
+			}
+			if (match) {
+				Row row = mock(Row.class);
+				when(row.getBytes(0)).thenReturn(connection.bytesOf(quad.getGraph()));
+				when(row.getBytes(1)).thenReturn(connection.bytesOf(quad.getSubject()));
+				when(row.getBytes(2)).thenReturn(connection.bytesOf(quad.getPredicate()));
+				when(row.getBytes(3)).thenReturn(connection.objectBytesOf(quad.getObject()));
+				rows.add(row);
+			}
+		}
+		return resultSet(rows);
+	}
+
+	/*
+	 * The value of a quad table column, the object column holds the digest
+	 * of the literals in the LiteralStore and every column holds the id of
+	 * the node with a NodeDictionary.
+	 */
+	private ByteBuffer bytesOf(ColumnName column, Quad quad) throws TException {
+		NodeDictionary dictionary = connection.getAuxiliaryTable(NodeDictionary.class);
+		Node node = column.getMatch(quad);
+		return dictionary == null ? connection.keyBytesOf(null, column, node) : idOf(dictionary, node);
+	}
+
+	/*
+	 * The id of a node: the first id probed for it that holds the node or no
+	 * node in the nodes map. Found without executing a query.
+	 */
+	private ByteBuffer idOf(NodeDictionary dictionary, Node node) throws TException {
+		ByteBuffer value = connection.objectBytesOf(node);
+		for (int probe = 0; probe < NodeDictionary.MAX_PROBES; probe++) {
+			ByteBuffer id = dictionary.getId(node, probe);
+			ByteBuffer written = nodes.get(id);
+			if (written == null || written.equals(value)) {
+				return id;
+			}
+		}
+		return NodeDictionary.getUnknownId();
+	}
+
+	/*
+	 * Evaluate a NodeDictionary statement: inserts are kept in the nodes map
+	 * unless the id has a node and queries return the node with the id from
+	 * the map or the data.
+	 */
+	private ResultSet executeDictionary(String cql, Object[] values) throws TException {
+		NodeDictionary dictionary = connection.getAuxiliaryTable(NodeDictionary.class);
+		ByteBuffer node = nodes.get(values[0]);
+		for (Quad quad : data) {
+			for (Node n : Arrays.asList(quad.getGraph(), quad.getSubject(), quad.getPredicate(), quad.getObject())) {
+				if (node == null && idOf(dictionary, n).equals(values[0])) {
+					node = connection.objectBytesOf(n);
+				}
+			}
+		}
+		LinkedList<Row> rows = new LinkedList<Row>();
+		if (node != null) {
+			Row row = mock(Row.class);
+			when(row.getBytes(0)).thenReturn(node);
+			when(row.getBytes("node")).thenReturn(node);
+			rows.add(row);
+		}
+		if (cql.startsWith("INSERT ")) {
+			if (node == null && racingNodes.containsKey(values[0])) {
+				node = racingNodes.get(values[0]);
+				Row row = mock(Row.class);
+				when(row.getBytes("node")).thenReturn(node);
+				rows.add(row);
+			}
+			if (node == null) {
+				nodes.put((ByteBuffer) values[0], (ByteBuffer) values[1]);
+			}
+			ResultSet rs = resultSet(rows);
+			when(rs.wasApplied()).thenReturn(node == null);
+			return rs;
+		}
+		return resultSet(rows);
+	}
+
+	/*
+	 * Evaluate a LiteralStore query: the compressed body of the object whose
+	 * digest is the value.
+	 */
+	private ResultSet executeStore(Object[] values) throws TException {
+		LiteralStore store = connection.getAuxiliaryTable(LiteralStore.class);
+		LinkedList<Row> rows = new LinkedList<Row>();
+		for (Quad quad : data) {
+			if (store.isStored(quad.getObject()) && store.getDigest(quad.getObject()).equals(values[0])) {
+				byte[] serialized = connection.bytesOf(quad.getObject()).array();
+				Row row = mock(Row.class);
+				when(row.getInt(0)).thenReturn(serialized.length);
+				when(row.getBytes(1)).thenReturn(
+						ByteBuffer.wrap(LZ4Factory.fastestInstance().fastCompressor().compress(serialized)));
+				rows.add(row);
+				break;
+			}
+		}
+		return resultSet(rows);
+	}
+
+	private static ResultSet resultSet(LinkedList<Row> rows) {
+		ResultSet rs = mock(ResultSet.class);
+		when(rs.iterator()).thenAnswer(i -> rows.iterator());
+		when(rs.getAvailableWithoutFetching()).thenAnswer(i -> rows.size());
+		when(rs.isFullyFetched()).thenReturn(true);
+		when(rs.isExhausted()).thenAnswer(i -> rows.isEmpty());
+		when(rs.one()).thenAnswer(i -> rows.poll());
+		return rs;
+	}
+
+	/**
+	 * A result set future that is already complete.
+	 */
+	private static class DoneFuture extends AbstractFuture<ResultSet> implements ResultSetFuture {
+
+		/* the statements in flight, until the result is first taken */
+		private final AtomicInteger inFlight;
+		private final AtomicBoolean taken = new AtomicBoolean();
+
+		DoneFuture(ResultSet rs, AtomicInteger inFlight) {
+			this.inFlight = inFlight;
+			set(rs);
+		}
+
+		@Override
+		public ResultSet get() throws InterruptedException, ExecutionException {
+			if (taken.compareAndSet(false, true)) {
+				inFlight.decrementAndGet();
+			}
+			return super.get();
+		}
+
+		@Override
+		public ResultSet getUninterruptibly() {
+			try {
+				return get();
+			} catch (Exception e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		@Override
+		public ResultSet getUninterruptibly(long timeout, TimeUnit unit) {
+			return getUninterruptibly();
+		}
+	}
+}
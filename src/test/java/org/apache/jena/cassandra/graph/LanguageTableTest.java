@@ -0,0 +1,121 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jena.cassandra.graph;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.sparql.core.Quad;
+import org.apache.thrift.TException;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.Statement;
+
+/**
+ * Test the language table statements.
+ *
+ */
+public class LanguageTableTest {
+
+	private static Node graph = NodeFactory.createURI("http://exmaple.com/graph");
+	private static Node subject = NodeFactory.createURI("http://exmaple.com/subject");
+	private static Node predicate = NodeFactory.createURI("http://exmaple.com/predicate");
+	private static Node label = NodeFactory.createLiteral("colour", "en-GB");
+
+	private CassandraConnection connection;
+	private Session session;
+	private PreparedStatement prepared;
+	private LanguageTable table;
+
+	@Before
+	public void setup() {
+		Cluster cluster = mock(Cluster.class);
+		session = mock(Session.class);
+		prepared = mock(PreparedStatement.class);
+		when(cluster.connect(anyString())).thenReturn(session);
+		when(session.prepare(anyString())).thenReturn(prepared);
+		when(prepared.bind(any())).thenAnswer(i -> mock(BoundStatement.class));
+		connection = new CassandraConnection(cluster);
+		table = new LanguageTable(connection);
+	}
+
+	@Test
+	public void createTest() {
+		String[] stmts = table.getCreateTableStatements();
+		assertEquals(1, stmts.length);
+		assertEquals("CREATE TABLE IF NOT EXISTS LANGUAGE (graph blob, predicate blob, obj_lang text, "
+				+ "subject blob, object blob, PRIMARY KEY ((graph, predicate), obj_lang, subject, object))", stmts[0]);
+	}
+
+	@Test
+	public void insertTest() throws TException {
+		List<Statement> stmts = table.getInsertStatements("test", new Quad(graph, subject, predicate, label));
+		assertEquals(1, stmts.size());
+		verify(session).prepare("INSERT INTO LANGUAGE (graph, predicate, obj_lang, subject, object) "
+				+ "VALUES (?, ?, ?, ?, ?)");
+		verify(prepared).bind(connection.bytesOf(graph), connection.bytesOf(predicate), "en-gb",
+				connection.bytesOf(subject), connection.bytesOf(label));
+	}
+
+	@Test
+	public void deleteTest() throws TException {
+		List<Statement> stmts = table.getDeleteStatements("test", new Quad(graph, subject, predicate, label));
+		assertEquals(1, stmts.size());
+		verify(session).prepare("DELETE FROM LANGUAGE WHERE graph = ? AND predicate = ? AND obj_lang = ? "
+				+ "AND subject = ? AND object = ?");
+	}
+
+	@Test
+	public void noLanguageTest() throws TException {
+		assertTrue(table.getInsertStatements("test", new Quad(graph, subject, predicate,
+				NodeFactory.createLiteral("colour"))).isEmpty());
+		assertTrue(table.getInsertStatements("test", new Quad(graph, subject, predicate, subject)).isEmpty());
+		assertTrue(table.getDeleteStatements("test", new Quad(graph, subject, predicate, subject)).isEmpty());
+		/* the literals without a language must be found in the quad tables */
+		assertNull(table.findLanguage("test", graph, predicate, ""));
+		assertNull(table.findMatches("test", graph, predicate, ""));
+		verify(session, never()).prepare(anyString());
+	}
+
+	@Test
+	public void rebuildTest() throws TException {
+		FakeCassandra fake = new FakeCassandra();
+		LanguageTable languages = new LanguageTable(fake.connection);
+		fake.connection.addAuxiliaryTable(languages);
+		fake.data.add(new Quad(graph, subject, predicate, label));
+		fake.data.add(new Quad(graph, subject, predicate, NodeFactory.createLiteral("colour")));
+		fake.data.add(new Quad(graph, predicate, subject, NodeFactory.createLiteral("couleur", "fr")));
+
+		assertFalse(languages.rebuild("test").hasFailures());
+		List<List<Object>> rows = fake.inserts.get(LanguageTable.NAME);
+		assertEquals(2, rows.size());
+		assertEquals(Arrays.asList(fake.connection.bytesOf(graph), fake.connection.bytesOf(predicate), "en-gb",
+				fake.connection.bytesOf(subject), fake.connection.bytesOf(label)), rows.get(0));
+		assertEquals("fr", rows.get(1).get(2));
+	}
+}
@@ -0,0 +1,223 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jena.cassandra.graph;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.query.DatasetFactory;
+import org.apache.jena.query.QueryExecution;
+import org.apache.jena.query.QueryExecutionFactory;
+import org.apache.jena.sparql.core.Quad;
+import org.apache.jena.util.iterator.ExtendedIterator;
+import org.apache.thrift.TException;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.datastax.driver.core.Statement;
+import com.datastax.driver.core.utils.Bytes;
+
+/**
+ * Test the literal store and reading the quads of stored literals.
+ *
+ */
+public class LiteralStoreTest {
+
+	private static Node graph = NodeFactory.createURI("http://exmaple.com/graph");
+	private static Node subject = NodeFactory.createURI("http://exmaple.com/subject");
+	private static Node predicate = NodeFactory.createURI("http://exmaple.com/predicate");
+	private static Node large = NodeFactory.createLiteral(StringUtils.repeat("an abstract ", 100), "en");
+	private static Node small = NodeFactory.createLiteral("a title", "en");
+
+	private FakeCassandra fake;
+	private LiteralStore store;
+
+	@Before
+	public void setup() throws TException {
+		fake = new FakeCassandra();
+		store = new LiteralStore(fake.connection, 100, LiteralStore.DEFAULT_CACHE_SIZE);
+		fake.connection.addAuxiliaryTable(store);
+	}
+
+	@Test
+	public void createTest() {
+		String[] stmts = store.getCreateTableStatements();
+		assertEquals(1, stmts.length);
+		assertEquals("CREATE TABLE IF NOT EXISTS LITERAL_STORE (digest blob PRIMARY KEY, length int, body blob)",
+				stmts[0]);
+	}
+
+	@Test
+	public void digestTest() throws TException {
+		assertTrue(store.isStored(large));
+		assertFalse(store.isStored(small));
+		assertFalse(store.isStored(subject));
+		ByteBuffer digest = store.getDigest(large);
+		assertEquals(LiteralStore.DIGEST_LENGTH, digest.remaining());
+		assertTrue(LiteralStore.isDigest(digest));
+		assertEquals(digest, fake.connection.objectBytesOf(large));
+		assertFalse(LiteralStore.isDigest(fake.connection.bytesOf(large)));
+		assertEquals(fake.connection.bytesOf(small), fake.connection.objectBytesOf(small));
+	}
+
+	@Test
+	public void insertTest() throws TException {
+		Quad quad = new Quad(graph, subject, predicate, large);
+		assertTrue(store.getPrerequisiteStatements("test", new Quad(graph, subject, predicate, small)).isEmpty());
+		assertTrue(store.getInsertStatements("test", quad).isEmpty());
+		/* the body insert is returned to be executed before the quad */
+		List<Statement> stmts = store.getPrerequisiteStatements("test", quad);
+		assertEquals(1, stmts.size());
+		assertNull(fake.inserts.get(LiteralStore.NAME));
+		/* and again until it is known to be written */
+		assertEquals(1, store.getPrerequisiteStatements("test", quad).size());
+		store.prerequisitesWritten("test", quad);
+		assertTrue(store.getPrerequisiteStatements("test", quad).isEmpty());
+		assertTrue(store.getDeleteStatements("test", quad).isEmpty());
+	}
+
+	@Test
+	public void writeOnceTest() throws Exception {
+		/* the body is written before the quad, once per keyspace */
+		new QueryPattern(fake.connection, new Quad(graph, subject, predicate, large)).doInsert("test");
+		assertEquals(1, fake.inserts.get(LiteralStore.NAME).size());
+		assertEquals(store.getDigest(large), fake.inserts.get(LiteralStore.NAME).get(0).get(0));
+		assertTrue(fake.executed.get(0), fake.executed.get(0).startsWith("INSERT INTO " + LiteralStore.NAME));
+		new QueryPattern(fake.connection, new Quad(graph, predicate, predicate, large)).doInsert("test");
+		assertEquals(1, fake.inserts.get(LiteralStore.NAME).size());
+		new QueryPattern(fake.connection, new Quad(graph, subject, predicate, large)).doInsert("other");
+		assertEquals(2, fake.inserts.get(LiteralStore.NAME).size());
+
+		/* and again after the tables are truncated */
+		fake.connection.truncateTables("test");
+		new QueryPattern(fake.connection, new Quad(graph, subject, predicate, large)).doInsert("test");
+		assertEquals(3, fake.inserts.get(LiteralStore.NAME).size());
+	}
+
+	@Test
+	public void quadTableTest() throws TException {
+		/* the quad tables hold the digest and no value */
+		Iterator<String> stmts = new QueryPattern(fake.connection, new Quad(graph, subject, predicate, large))
+				.getInsertStatement();
+		String digest = Bytes.toHexString(store.getDigest(large));
+		while (stmts.hasNext()) {
+			String stmt = stmts.next();
+			assertTrue(stmt, stmt.contains(digest));
+			assertFalse(stmt, stmt.contains(ColumnName.V.toString()));
+			assertFalse(stmt, stmt.contains("an abstract"));
+		}
+	}
+
+	@Test
+	public void findTest() throws TException {
+		fake.data.add(new Quad(graph, subject, predicate, large));
+		fake.data.add(new Quad(graph, subject, predicate, small));
+
+		QueryPattern pattern = new QueryPattern(fake.connection, graph, new Triple(subject, predicate, Node.ANY));
+		List<Quad> found = pattern.doFind("test").toList();
+		assertEquals(Arrays.asList(new Quad(graph, subject, predicate, large),
+				new Quad(graph, subject, predicate, small)), found);
+		assertEquals(1, fake.executed.stream().filter(cql -> cql.contains(LiteralStore.NAME)).count());
+
+		/* the body is read once */
+		assertEquals(found, pattern.doFind("test").toList());
+		assertEquals(1, fake.executed.stream().filter(cql -> cql.contains(LiteralStore.NAME)).count());
+	}
+
+	@Test
+	public void pageTest() throws TException {
+		/* the bodies of a page are read before its first quad is returned */
+		Node other = NodeFactory.createLiteral(StringUtils.repeat("another abstract ", 100), "en");
+		fake.data.add(new Quad(graph, subject, predicate, large));
+		fake.data.add(new Quad(graph, predicate, predicate, other));
+		fake.data.add(new Quad(graph, predicate, predicate, large));
+
+		QueryPattern pattern = new QueryPattern(fake.connection, graph, new Triple(Node.ANY, predicate, Node.ANY));
+		ExtendedIterator<Quad> iter = pattern.doFind("test");
+		iter.next();
+		assertEquals(2, fake.executed.stream().filter(cql -> cql.contains(LiteralStore.NAME)).count());
+		assertEquals(2, iter.toList().size());
+		assertEquals(2, fake.executed.stream().filter(cql -> cql.contains(LiteralStore.NAME)).count());
+	}
+
+	@Test
+	public void projectionTest() throws TException {
+		fake.data.add(new Quad(Quad.defaultGraphIRI, subject, predicate, large));
+		fake.data.add(new Quad(Quad.defaultGraphIRI, predicate, predicate, small));
+
+		/* the bodies are not read when the object is not projected */
+		String query = String.format("SELECT ?s WHERE { ?s <%s> ?o }", predicate.getURI());
+		List<Node> found = new ArrayList<Node>();
+		try (QueryExecution qexec = QueryExecutionFactory.create(query,
+				DatasetFactory.wrap(new DatasetGraphCassandra("test", fake.connection)))) {
+			qexec.execSelect().forEachRemaining(soln -> found.add(soln.get("s").asNode()));
+		}
+		assertEquals(Arrays.asList(subject, predicate), found);
+		assertEquals(0, fake.executed.stream().filter(cql -> cql.contains(LiteralStore.NAME)).count());
+
+		/* nor when the object is the literal of the pattern */
+		QueryPattern pattern = new QueryPattern(fake.connection, Quad.defaultGraphIRI,
+				new Triple(Node.ANY, predicate, large));
+		assertEquals(Arrays.asList(subject), pattern.findNodes("test", Arrays.asList(ColumnName.S), -1)
+				.mapWith(Quad::getSubject).toList());
+		assertEquals(0, fake.executed.stream().filter(cql -> cql.contains(LiteralStore.NAME)).count());
+	}
+
+	@Test
+	public void findLiteralTest() throws TException {
+		fake.data.add(new Quad(graph, subject, predicate, large));
+		fake.data.add(new Quad(graph, predicate, predicate, small));
+
+		QueryPattern pattern = new QueryPattern(fake.connection, graph, new Triple(Node.ANY, predicate, large));
+		assertEquals(Arrays.asList(new Quad(graph, subject, predicate, large)), pattern.doFind("test").toList());
+		String query = fake.executed.get(0);
+		assertTrue(query, query.contains(ColumnName.O + "=?"));
+		assertFalse(query, query.contains(ColumnName.V.toString() + "=?"));
+		assertFalse(query, query.contains("ALLOW FILTERING"));
+	}
+
+	@Test
+	public void lookupTableTest() throws TException {
+		/* the lookup tables hold the digest and resolve it on read */
+		LiteralTable literals = new LiteralTable(fake.connection);
+		LanguageTable languages = new LanguageTable(fake.connection);
+		fake.connection.addAuxiliaryTable(literals);
+		fake.connection.addAuxiliaryTable(languages);
+		fake.data.add(new Quad(graph, subject, predicate, large));
+
+		assertFalse(literals.rebuild("test").hasFailures());
+		assertFalse(languages.rebuild("test").hasFailures());
+		ByteBuffer digest = store.getDigest(large);
+		assertEquals(digest, fake.inserts.get(LiteralTable.NAME).get(0).get(4));
+		assertEquals(digest, fake.inserts.get(LanguageTable.NAME).get(0).get(4));
+
+		QueryPattern pattern = new QueryPattern(fake.connection, graph, new Triple(Node.ANY, predicate, large));
+		assertEquals(Arrays.asList(new Quad(graph, subject, predicate, large)), pattern.doFind("test").toList());
+		assertEquals(Arrays.asList(new Triple(subject, predicate, large)),
+				languages.findMatches("test", graph, predicate, "en").toList());
+	}
+}
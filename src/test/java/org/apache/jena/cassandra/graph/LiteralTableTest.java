@@ -0,0 +1,205 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jena.cassandra.graph;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.jena.datatypes.xsd.XSDDatatype;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.sparql.core.Quad;
+import org.apache.thrift.TException;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test the literal table and finding literals through it.
+ *
+ */
+public class LiteralTableTest {
+
+	private static Node graph = NodeFactory.createURI("http://exmaple.com/graph");
+	private static Node other = NodeFactory.createURI("http://exmaple.com/other");
+	private static Node subject = NodeFactory.createURI("http://exmaple.com/subject");
+	private static Node predicate = NodeFactory.createURI("http://exmaple.com/predicate");
+	private static Node label = NodeFactory.createURI("http://exmaple.com/label");
+
+	private FakeCassandra fake;
+	private LiteralTable table;
+
+	@Before
+	public void setup() throws TException {
+		fake = new FakeCassandra();
+		fake.connection.setSecondaryIndexes(false);
+		table = fake.connection.getAuxiliaryTable(LiteralTable.class);
+	}
+
+	@Test
+	public void createTest() {
+		assertNotNull(table);
+		String[] stmts = table.getCreateTableStatements();
+		assertEquals(1, stmts.length);
+		assertEquals("CREATE TABLE IF NOT EXISTS LITERAL (obj_hash bigint, graph blob, predicate blob, "
+				+ "subject blob, object blob, PRIMARY KEY (obj_hash, graph, predicate, subject, object))", stmts[0]);
+	}
+
+	@Test
+	public void noIndexTest() {
+		for (TableName tbl : CassandraConnection.getTableList()) {
+			String[] stmts = tbl.getCreateTableStatements(false);
+			assertEquals(1, stmts.length);
+			assertTrue(stmts[0].startsWith("CREATE TABLE"));
+			assertTrue(tbl.getCreateTableStatements().length > 1);
+		}
+	}
+
+	@Test
+	public void keyTest() {
+		/* integer types share a key with the value of the obj_int column */
+		assertEquals(Arrays.asList("1", XSDDatatype.XSDinteger.getURI(), ""),
+				LiteralTable.getKey(NodeFactory.createLiteral("01", XSDDatatype.XSDint)));
+		assertEquals(Arrays.asList("1", XSDDatatype.XSDinteger.getURI(), ""),
+				LiteralTable.getKey(NodeFactory.createLiteral("1", XSDDatatype.XSDlong)));
+		assertEquals(Arrays.asList("1.50", XSDDatatype.XSDdecimal.getURI(), ""),
+				LiteralTable.getKey(NodeFactory.createLiteral("1.50", XSDDatatype.XSDdecimal)));
+		assertEquals(Arrays.asList("chat", NodeFactory.createLiteral("chat", "fr").getLiteralDatatypeURI(), "fr-ca"),
+				LiteralTable.getKey(NodeFactory.createLiteral("chat", "fr-CA")));
+		assertNull(LiteralTable.getKey(subject));
+	}
+
+	@Test
+	public void hashTest() {
+		assertEquals(LiteralTable.getHash(NodeFactory.createLiteral("01", XSDDatatype.XSDint)),
+				LiteralTable.getHash(NodeFactory.createLiteral("1", XSDDatatype.XSDlong)));
+		assertEquals(LiteralTable.getHash(NodeFactory.createLiteral("chat", "FR")),
+				LiteralTable.getHash(NodeFactory.createLiteral("chat", "fr")));
+		assertNotEquals(LiteralTable.getHash(NodeFactory.createLiteral("chat", "fr")),
+				LiteralTable.getHash(NodeFactory.createLiteral("chat", "en")));
+		assertNotEquals(LiteralTable.getHash(NodeFactory.createLiteral("chat")),
+				LiteralTable.getHash(NodeFactory.createLiteral("chat", "en")));
+		assertNull(LiteralTable.getHash(subject));
+	}
+
+	@Test
+	public void findTest() throws TException {
+		Node one = NodeFactory.createLiteral("1", XSDDatatype.XSDint);
+		fake.data.add(new Quad(graph, subject, predicate, one));
+		fake.data.add(new Quad(graph, subject, label, one));
+		fake.data.add(new Quad(other, subject, predicate, NodeFactory.createLiteral("01", XSDDatatype.XSDlong)));
+		fake.data.add(new Quad(graph, subject, predicate, NodeFactory.createLiteral("2", XSDDatatype.XSDint)));
+
+		QueryPattern pattern = new QueryPattern(fake.connection, graph, new Triple(Node.ANY, predicate, one));
+		List<Quad> found = pattern.doFind("test").toList();
+		assertEquals(Arrays.asList(new Quad(graph, subject, predicate, one)), found);
+		assertEquals(Arrays.asList("SELECT graph, subject, predicate, object FROM LITERAL "
+				+ "WHERE obj_hash = ? AND graph = ? AND predicate = ?"), fake.executed);
+
+		fake.executed.clear();
+		pattern = new QueryPattern(fake.connection, Quad.create(Node.ANY, Node.ANY, predicate, one));
+		assertEquals(2, pattern.doFind("test").toList().size());
+		assertEquals(Arrays.asList("SELECT graph, subject, predicate, object FROM LITERAL WHERE obj_hash = ?"),
+				fake.executed);
+		assertFalse(pattern.isScan("test"));
+	}
+
+	@Test
+	public void languageTest() throws TException {
+		fake.data.add(new Quad(graph, subject, label, NodeFactory.createLiteral("chat", "en")));
+		fake.data.add(new Quad(graph, subject, label, NodeFactory.createLiteral("chat", "fr")));
+		fake.data.add(new Quad(graph, subject, label, NodeFactory.createLiteral("chat", "fr-CA")));
+		fake.data.add(new Quad(graph, subject, label, NodeFactory.createLiteral("chat")));
+
+		QueryPattern pattern = new QueryPattern(fake.connection, graph,
+				new Triple(Node.ANY, label, NodeFactory.createLiteral("chat", "FR")));
+		List<Quad> found = pattern.doFind("test").toList();
+		assertEquals(1, found.size());
+		assertEquals("fr", found.get(0).getObject().getLiteralLanguage());
+		for (String cql : fake.executed) {
+			assertFalse(cql, cql.contains("ALLOW FILTERING"));
+		}
+	}
+
+	@Test
+	public void suffixTest() throws TException {
+		/* the suffix is for the quad tables, which have no indexes to find the literal */
+		QueryPattern pattern = new QueryPattern(fake.connection, graph,
+				new Triple(Node.ANY, predicate, NodeFactory.createLiteral("1", XSDDatatype.XSDint)));
+		try {
+			pattern.doFind("test", null, "ALLOW FILTERING");
+			fail("Should have thrown IllegalArgumentException");
+		} catch (IllegalArgumentException expected) {
+			assertTrue(fake.executed.isEmpty());
+		}
+
+		/* with the indexes the quad tables are queried */
+		FakeCassandra indexed = new FakeCassandra();
+		indexed.connection.addAuxiliaryTable(new LiteralTable(indexed.connection));
+		pattern = new QueryPattern(indexed.connection, graph,
+				new Triple(Node.ANY, label, NodeFactory.createLiteral("Some Label")));
+		pattern.doFind("test", null, "ALLOW FILTERING").toList();
+		assertEquals(1, indexed.executed.size());
+		assertFalse(indexed.executed.get(0), indexed.executed.get(0).contains(LiteralTable.NAME));
+		assertTrue(indexed.executed.get(0), indexed.executed.get(0).endsWith(" ALLOW FILTERING"));
+	}
+
+	@Test
+	public void registeredTest() throws TException {
+		/* a registered table is used even when the quad tables have indexes */
+		FakeCassandra indexed = new FakeCassandra();
+		indexed.connection.addAuxiliaryTable(new LiteralTable(indexed.connection));
+		Node name = NodeFactory.createLiteral("Some Label", "en");
+		indexed.data.add(new Quad(graph, subject, label, name));
+		indexed.data.add(new Quad(graph, other, label, NodeFactory.createLiteral("Some Label")));
+
+		QueryPattern pattern = new QueryPattern(indexed.connection, Quad.create(Node.ANY, Node.ANY, Node.ANY, name));
+		assertEquals(Arrays.asList(new Quad(graph, subject, label, name)), pattern.doFind("test").toList());
+		assertEquals(Arrays.asList("SELECT graph, subject, predicate, object FROM LITERAL WHERE obj_hash = ?"),
+				indexed.executed);
+	}
+
+	@Test
+	public void rebuildTest() throws TException {
+		fake.data.add(new Quad(graph, subject, predicate, NodeFactory.createLiteral("1", XSDDatatype.XSDint)));
+		fake.data.add(new Quad(graph, subject, predicate, other));
+		fake.data.add(new Quad(other, subject, label, NodeFactory.createLiteral("chat", "fr")));
+
+		ExecutionReport report = table.rebuild("test");
+		assertFalse(report.hasFailures());
+		assertEquals("SELECT DISTINCT predicate FROM PGOS", fake.executed.get(0));
+		List<List<Object>> rows = fake.inserts.get(LiteralTable.NAME);
+		assertEquals(2, rows.size());
+		assertEquals(LiteralTable.getHash(NodeFactory.createLiteral("chat", "fr")), rows.get(1).get(0));
+		assertEquals(fake.connection.bytesOf(other), rows.get(1).get(1));
+	}
+
+	@Test
+	public void insertTest() throws TException {
+		Quad uri = new Quad(graph, subject, predicate, other);
+		assertTrue(table.getInsertStatements("test", uri).isEmpty());
+		assertEquals(1, table
+				.getInsertStatements("test", new Quad(graph, subject, predicate, NodeFactory.createLiteral("x")))
+				.size());
+		assertEquals(1, table
+				.getDeleteStatements("test", new Quad(graph, subject, predicate, NodeFactory.createLiteral("x")))
+				.size());
+	}
+}
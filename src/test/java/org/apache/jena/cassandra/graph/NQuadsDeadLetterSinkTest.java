@@ -0,0 +1,72 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jena.cassandra.graph;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.sparql.core.Quad;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test the N-Quads dead letter sink.
+ *
+ */
+public class NQuadsDeadLetterSinkTest {
+
+	private ByteArrayOutputStream out;
+	private NQuadsDeadLetterSink sink;
+
+	@Before
+	public void setup() {
+		out = new ByteArrayOutputStream();
+		sink = new NQuadsDeadLetterSink(out);
+	}
+
+	private static Quad quad(int i) {
+		return new Quad(NodeFactory.createURI("http://exmaple.com/graph"),
+				NodeFactory.createURI("http://exmaple.com/subject" + i),
+				NodeFactory.createURI("http://exmaple.com/predicate"), NodeFactory.createLiteral("value " + i));
+	}
+
+	@Test
+	public void duplicateTest() throws IOException {
+		sink.deadLetter(quad(1), "statement 1", null);
+		sink.deadLetter(quad(1), "statement 2", null);
+		sink.deadLetter(quad(2), "statement 1", null);
+		sink.close();
+		assertEquals(2, sink.getCount());
+		assertEquals(2, out.toString("UTF-8").split("\n").length);
+	}
+
+	@Test
+	public void recentTest() {
+		/* only the recent quads are remembered */
+		for (int i = 0; i <= NQuadsDeadLetterSink.RECENT_QUADS; i++) {
+			sink.deadLetter(quad(i), "statement", null);
+		}
+		sink.deadLetter(quad(NQuadsDeadLetterSink.RECENT_QUADS), "statement", null);
+		assertEquals(NQuadsDeadLetterSink.RECENT_QUADS + 1, sink.getCount());
+		sink.deadLetter(quad(0), "statement", null);
+		assertEquals(NQuadsDeadLetterSink.RECENT_QUADS + 2, sink.getCount());
+	}
+}
@@ -0,0 +1,369 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jena.cassandra.graph;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.jena.atlas.iterator.Iter;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.sparql.core.Quad;
+import org.apache.jena.util.iterator.ExtendedIterator;
+import org.apache.thrift.TException;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.datastax.driver.core.utils.Bytes;
+
+/**
+ * Test the node dictionary and reading the quads of a keyspace with ids.
+ *
+ */
+public class NodeDictionaryTest {
+
+	private static Node graph = NodeFactory.createURI("http://exmaple.com/graph");
+	private static Node subject = NodeFactory.createURI("http://exmaple.com/subject");
+	private static Node other = NodeFactory.createURI("http://exmaple.com/other");
+	private static Node predicate = NodeFactory.createURI("http://exmaple.com/predicate");
+	private static Node title = NodeFactory.createLiteral("a title", "en");
+
+	private FakeCassandra fake;
+	private NodeDictionary dictionary;
+
+	@Before
+	public void setup() throws TException {
+		fake = new FakeCassandra();
+		dictionary = new NodeDictionary(fake.connection);
+		fake.connection.addAuxiliaryTable(dictionary);
+	}
+
+	private long dictionaryQueries() {
+		return fake.executed.stream().filter(cql -> cql.startsWith("SELECT") && cql.contains(NodeDictionary.NAME))
+				.count();
+	}
+
+	@Test
+	public void createTest() {
+		String[] stmts = dictionary.getCreateTableStatements();
+		assertEquals(1, stmts.length);
+		assertEquals("CREATE TABLE IF NOT EXISTS NODE_DICTIONARY (id blob PRIMARY KEY, node blob)", stmts[0]);
+	}
+
+	@Test
+	public void idTest() throws TException {
+		ByteBuffer id = dictionary.getId(subject);
+		assertEquals(NodeDictionary.ID_LENGTH, id.remaining());
+		assertEquals(id, dictionary.getId(NodeFactory.createURI("http://exmaple.com/subject")));
+		assertNotEquals(id, dictionary.getId(other));
+		assertNotEquals(id, dictionary.getId(subject, 1));
+
+		/* a node that is not in the dictionary matches no quad */
+		assertEquals(NodeDictionary.getUnknownId(), fake.connection.keyBytesOf("test", ColumnName.S, subject));
+		dictionary.assignIds("test", Arrays.asList(subject));
+		for (ColumnName column : Arrays.asList(ColumnName.G, ColumnName.S, ColumnName.P, ColumnName.O)) {
+			assertEquals(id, fake.connection.keyBytesOf("test", column, subject));
+		}
+	}
+
+	@Test
+	public void quadTableTest() throws TException {
+		/* the quad tables hold the ids and not the serialized nodes */
+		dictionary.assignIds("test", Arrays.asList(graph, subject, predicate, other));
+		Iterator<String> stmts = new QueryPattern(fake.connection, new Quad(graph, subject, predicate, other))
+				.getInsertStatement("test");
+		String id = Bytes.toHexString(dictionary.getId(subject));
+		String serialized = Bytes.toHexString(fake.connection.bytesOf(subject));
+		while (stmts.hasNext()) {
+			String stmt = stmts.next();
+			assertTrue(stmt, stmt.contains(id));
+			assertFalse(stmt, stmt.contains(serialized));
+		}
+	}
+
+	@Test
+	public void insertTest() throws Exception {
+		/* the nodes are written before the quad by its prerequisite statements */
+		Quad quad = new Quad(graph, subject, predicate, title);
+		assertEquals(4, dictionary.getPrerequisiteStatements("test", quad).size());
+		assertTrue(fake.nodes.isEmpty());
+		new QueryPattern(fake.connection, quad).doInsert("test");
+		assertEquals(4, fake.nodes.size());
+		assertEquals(fake.connection.bytesOf(title), fake.nodes.get(dictionary.getId(title)));
+		assertEquals(0, dictionaryQueries());
+		assertTrue(fake.executed.get(3), fake.executed.get(3).startsWith("INSERT INTO " + NodeDictionary.NAME));
+		assertTrue(fake.executed.get(4), fake.executed.get(4).startsWith("INSERT INTO SPOG"));
+
+		/* known nodes are not written again */
+		assertTrue(dictionary.getPrerequisiteStatements("test", quad).isEmpty());
+		assertTrue(dictionary.getInsertStatements("test", quad).isEmpty());
+		assertEquals(0, dictionaryQueries());
+		assertTrue(dictionary.getDeleteStatements("test", quad).isEmpty());
+	}
+
+	@Test
+	public void unassignedTest() throws TException {
+		/* the insert statements do not write the nodes */
+		try {
+			dictionary.getInsertStatements("test", new Quad(graph, subject, predicate, title));
+			fail("Should have thrown TException");
+		} catch (TException expected) {
+		}
+		assertTrue(fake.nodes.isEmpty());
+	}
+
+	@Test
+	public void probeTest() throws TException {
+		/* the ids after the first are read together */
+		for (int probe = 0; probe < 3; probe++) {
+			fake.nodes.put(dictionary.getId(subject, probe), fake.connection.bytesOf(other));
+		}
+		fake.nodes.put(dictionary.getId(subject, 3), fake.connection.bytesOf(subject));
+		assertEquals(dictionary.getId(subject, 3), dictionary.getId("test", subject));
+		assertEquals(NodeDictionary.MAX_PROBES, dictionaryQueries());
+		assertEquals(NodeDictionary.getUnknownId(), dictionary.getId("test", predicate));
+		assertEquals(NodeDictionary.MAX_PROBES + 1, dictionaryQueries());
+	}
+
+	@Test
+	public void keyspaceTest() throws TException {
+		/* a node written to one keyspace is written to the dictionary of another */
+		List<Node> quad = Arrays.asList(graph, subject, predicate, title);
+		dictionary.assignIds("test", quad);
+		fake.nodes.clear();
+		dictionary.assignIds("other", quad);
+		assertEquals(4, fake.nodes.size());
+		assertEquals(8, dictionaryQueries());
+
+		/* and decoded without reading the dictionary of the keyspace */
+		assertEquals(subject, dictionary.getNode("other", dictionary.getId(subject)));
+		assertEquals(8, dictionaryQueries());
+
+		/* the ids of another keyspace may belong to other nodes so they are read */
+		assertEquals(subject, dictionary.getNode("third", dictionary.getId(subject)));
+		assertEquals(9, dictionaryQueries());
+	}
+
+	@Test
+	public void truncateTest() throws Exception {
+		/* the nodes are written again after the tables are truncated */
+		Quad quad = new Quad(graph, subject, predicate, title);
+		new QueryPattern(fake.connection, quad).doInsert("test");
+		fake.connection.truncateTables("test");
+		assertTrue(fake.nodes.isEmpty());
+		new QueryPattern(fake.connection, quad).doInsert("test");
+		assertEquals(4, fake.nodes.size());
+		assertEquals(fake.connection.bytesOf(title), fake.nodes.get(dictionary.getId(title)));
+	}
+
+	@Test
+	public void deleteTablesTest() throws Exception {
+		Quad quad = new Quad(graph, subject, predicate, title);
+		new QueryPattern(fake.connection, quad).doInsert("test");
+		fake.connection.deleteTables("test");
+		assertTrue(fake.nodes.isEmpty());
+		new QueryPattern(fake.connection, quad).doInsert("test");
+		assertEquals(4, fake.nodes.size());
+	}
+
+	@Test
+	public void collisionTest() throws TException {
+		/* the first id of other is the id of subject */
+		fake = new FakeCassandra();
+		dictionary = new NodeDictionary(fake.connection) {
+			@Override
+			public ByteBuffer getId(Node node, int probe) throws TException {
+				return super.getId(other.equals(node) && probe == 0 ? subject : node, probe);
+			}
+		};
+		fake.connection.addAuxiliaryTable(dictionary);
+		/* the quads are counted so the SPOG inserts are conditional and kept */
+		fake.connection.addAuxiliaryTable(new QuadCountTable(fake.connection));
+
+		DatasetGraphCassandra dsg = new DatasetGraphCassandra("test", fake.connection);
+		dsg.add(new Quad(graph, subject, predicate, title));
+		dsg.add(new Quad(graph, other, predicate, title));
+		assertEquals(2, fake.data.size());
+		assertEquals(fake.connection.bytesOf(subject), fake.nodes.get(dictionary.getId(subject)));
+		assertEquals(fake.connection.bytesOf(other), fake.nodes.get(dictionary.getId(other, 1)));
+		assertEquals(dictionary.getId(other, 1), dictionary.getId("test", other));
+
+		/* both quads are found */
+		QueryPattern pattern = new QueryPattern(fake.connection, graph, new Triple(Node.ANY, predicate, Node.ANY));
+		assertEquals(2, pattern.doFind("test").toList().size());
+		assertEquals(Arrays.asList(new Quad(graph, other, predicate, title)),
+				Iter.toList(dsg.find(graph, other, Node.ANY, Node.ANY)));
+		assertEquals(2, dsg.size());
+	}
+
+	@Test
+	public void takenTest() throws Exception {
+		/* all the ids of subject already belong to other */
+		for (int probe = 0; probe < NodeDictionary.MAX_PROBES; probe++) {
+			fake.nodes.put(dictionary.getId(subject, probe), fake.connection.bytesOf(other));
+		}
+		assertEquals(Collections.singleton(subject),
+				dictionary.assignIds("test", Arrays.asList(graph, subject, predicate)));
+		assertTrue(fake.nodes.containsKey(dictionary.getId(graph)));
+		try {
+			new QueryPattern(fake.connection, new Quad(graph, subject, predicate, title)).getInsertStatements("test");
+			fail("Should have thrown IllegalStateException");
+		} catch (IllegalStateException expected) {
+			assertTrue(expected.getCause() instanceof TException);
+		}
+		/* nor is the quad written when its nodes are written before it */
+		fake.executed.clear();
+		new QueryPattern(fake.connection, new Quad(graph, subject, predicate, title)).doInsert("test");
+		assertNull(fake.inserts.get("SPOG"));
+		/* the title and every id of subject */
+		assertEquals(1 + NodeDictionary.MAX_PROBES, fake.executed.size());
+	}
+
+	@Test
+	public void inFlightTest() throws TException {
+		/* the ids of many nodes are read and written a part at a time */
+		List<Node> many = new ArrayList<Node>();
+		List<ByteBuffer> ids = new ArrayList<ByteBuffer>();
+		for (int i = 0; i < 3 * CassandraConnection.MAX_READS_IN_FLIGHT; i++) {
+			many.add(NodeFactory.createURI("http://exmaple.com/node" + i));
+			ids.add(dictionary.getId(many.get(i)));
+		}
+		assertTrue(dictionary.assignIds("test", many).isEmpty());
+		assertEquals(many.size(), fake.nodes.size());
+		assertTrue(fake.maxInFlight.get() > 1);
+		assertTrue(fake.maxInFlight.toString(), fake.maxInFlight.get() <= CassandraConnection.MAX_READS_IN_FLIGHT);
+
+		/* and the nodes of the ids */
+		fake.maxInFlight.set(0);
+		dictionary.clearCache("test");
+		dictionary.readNodes("test", ids);
+		assertTrue(fake.maxInFlight.get() > 1);
+		assertTrue(fake.maxInFlight.toString(), fake.maxInFlight.get() <= CassandraConnection.MAX_READS_IN_FLIGHT);
+		assertEquals(many.get(0), dictionary.getNode("test", ids.get(0)));
+	}
+
+	@Test
+	public void racingInsertTest() throws TException {
+		/* another loader writes other with the id of subject after it is read */
+		fake.racingNodes.put(dictionary.getId(subject), fake.connection.bytesOf(other));
+		assertTrue(dictionary.assignIds("test", Arrays.asList(graph, subject, predicate)).isEmpty());
+		assertFalse(fake.nodes.containsKey(dictionary.getId(subject)));
+		assertEquals(fake.connection.bytesOf(subject), fake.nodes.get(dictionary.getId(subject, 1)));
+		assertEquals(dictionary.getId(subject, 1), dictionary.getId("test", subject));
+		assertTrue(fake.executed.stream().anyMatch(cql -> cql.endsWith(" IF NOT EXISTS")));
+	}
+
+	@Test
+	public void literalStoreTest() throws TException {
+		/* the dictionary holds the digest of a stored literal */
+		LiteralStore store = new LiteralStore(fake.connection, 100, LiteralStore.DEFAULT_CACHE_SIZE);
+		fake.connection.addAuxiliaryTable(store);
+		Node large = NodeFactory.createLiteral(StringUtils.repeat("an abstract ", 100), "en");
+		Quad quad = new Quad(graph, subject, predicate, large);
+		assertTrue(dictionary.assignIds("test", Arrays.asList(graph, subject, predicate, large)).isEmpty());
+		assertEquals(store.getDigest(large), fake.nodes.get(dictionary.getId(large)));
+
+		fake.data.add(quad);
+		NodeDictionary reader = new NodeDictionary(fake.connection);
+		assertEquals(large, reader.getNode("test", dictionary.getId(large)));
+	}
+
+	@Test
+	public void streamTest() throws TException {
+		/* the quads of nodes without ids are failures and dead lettered */
+		List<Quad> deadLetters = new ArrayList<Quad>();
+		fake.connection.setDeadLetterSink((q, stmt, error) -> deadLetters.add(q));
+		for (int probe = 0; probe < NodeDictionary.MAX_PROBES; probe++) {
+			fake.nodes.put(dictionary.getId(subject, probe), fake.connection.bytesOf(other));
+		}
+		Quad bad = new Quad(graph, subject, predicate, title);
+		Quad good = new Quad(graph, other, predicate, title);
+
+		StreamRDFCassandra stream = new StreamRDFCassandra(fake.connection, "test");
+		stream.quad(bad);
+		stream.quad(good);
+		assertNull(fake.inserts.get("SPOG"));
+		stream.finish();
+		ExecutionReport report = stream.getReport();
+		assertEquals(1, report.getFailed());
+		assertEquals(Arrays.asList(bad), deadLetters);
+		assertEquals(1, fake.inserts.get("SPOG").size());
+	}
+
+	@Test
+	public void findTest() throws TException {
+		fake.data.add(new Quad(graph, subject, predicate, title));
+		fake.data.add(new Quad(graph, subject, predicate, other));
+
+		QueryPattern pattern = new QueryPattern(fake.connection, graph, new Triple(subject, Node.ANY, Node.ANY));
+		List<Quad> found = pattern.doFind("test").toList();
+		assertEquals(Arrays.asList(new Quad(graph, subject, predicate, title),
+				new Quad(graph, subject, predicate, other)), found);
+		long queries = dictionaryQueries();
+		assertTrue(queries > 0);
+
+		/* the nodes are read once */
+		assertEquals(found, pattern.doFind("test").toList());
+		assertEquals(queries, dictionaryQueries());
+	}
+
+	@Test
+	public void pageTest() throws TException {
+		/* the nodes of a page are read before its first quad is returned */
+		fake.data.add(new Quad(graph, subject, predicate, title));
+		fake.data.add(new Quad(graph, other, predicate, subject));
+		fake.data.add(new Quad(graph, predicate, predicate, other));
+
+		QueryPattern pattern = new QueryPattern(fake.connection, graph, Triple.ANY);
+		ExtendedIterator<Quad> iter = pattern.doFind("test");
+		/* the graph is read to encode the pattern */
+		assertEquals(1, dictionaryQueries());
+		iter.next();
+		/* subject, other, predicate and title, the fake sets no literal columns */
+		assertEquals(5, dictionaryQueries());
+		assertEquals(2, iter.toList().size());
+		assertEquals(5, dictionaryQueries());
+	}
+
+	@Test
+	public void findLiteralTest() throws TException {
+		/* the literal table holds serialized nodes and is read without the dictionary */
+		fake.connection.addAuxiliaryTable(new LiteralTable(fake.connection));
+		fake.data.add(new Quad(graph, subject, predicate, title));
+		fake.data.add(new Quad(graph, other, predicate, NodeFactory.createLiteral("a title")));
+
+		QueryPattern pattern = new QueryPattern(fake.connection, graph, new Triple(Node.ANY, predicate, title));
+		assertEquals(Arrays.asList(new Quad(graph, subject, predicate, title)), pattern.doFind("test").toList());
+		assertEquals(0, dictionaryQueries());
+	}
+
+	@Test
+	public void graphTest() throws TException {
+		fake.data.add(new Quad(graph, subject, predicate, title));
+		DatasetGraphCassandra dsg = new DatasetGraphCassandra("test", fake.connection);
+		assertEquals(Arrays.asList(graph), Iter.toList(dsg.listGraphNodes()));
+	}
+}
@@ -0,0 +1,107 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jena.cassandra.graph;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.util.List;
+
+import org.apache.jena.datatypes.xsd.XSDDatatype;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.sparql.core.Quad;
+import org.apache.thrift.TException;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.Statement;
+
+/**
+ * Test the numeric table statements and values.
+ *
+ */
+public class NumericTableTest {
+
+	private static Node graph = NodeFactory.createURI("http://exmaple.com/graph");
+	private static Node subject = NodeFactory.createURI("http://exmaple.com/subject");
+	private static Node predicate = NodeFactory.createURI("http://exmaple.com/predicate");
+
+	private CassandraConnection connection;
+	private Session session;
+	private PreparedStatement prepared;
+	private NumericTable table;
+
+	@Before
+	public void setup() {
+		Cluster cluster = mock(Cluster.class);
+		session = mock(Session.class);
+		prepared = mock(PreparedStatement.class);
+		when(cluster.connect(anyString())).thenReturn(session);
+		when(session.prepare(anyString())).thenReturn(prepared);
+		when(prepared.bind(any())).thenAnswer(i -> mock(BoundStatement.class));
+		connection = new CassandraConnection(cluster);
+		table = new NumericTable(connection);
+	}
+
+	@Test
+	public void createTest() {
+		String[] stmts = table.getCreateTableStatements();
+		assertEquals(1, stmts.length);
+		assertEquals("CREATE TABLE IF NOT EXISTS NUMERIC (graph blob, predicate blob, obj_number double, "
+				+ "subject blob, object blob, PRIMARY KEY ((graph, predicate), obj_number, subject, object))",
+				stmts[0]);
+	}
+
+	@Test
+	public void insertTest() throws TException {
+		Node object = NodeFactory.createLiteral("42", XSDDatatype.XSDinteger);
+		List<Statement> stmts = table.getInsertStatements("test", new Quad(graph, subject, predicate, object));
+		assertEquals(1, stmts.size());
+		verify(session).prepare("INSERT INTO NUMERIC (graph, predicate, obj_number, subject, object) "
+				+ "VALUES (?, ?, ?, ?, ?)");
+		verify(prepared).bind(connection.bytesOf(graph), connection.bytesOf(predicate), 42.0,
+				connection.bytesOf(subject), connection.bytesOf(object));
+	}
+
+	@Test
+	public void valueTest() {
+		assertEquals(4.25, table.getValue(NodeFactory.createLiteral("4.25", XSDDatatype.XSDdecimal)));
+		assertEquals(-1.5e10, table.getValue(NodeFactory.createLiteral("-1.5e10", XSDDatatype.XSDdouble)));
+		assertEquals(7.0, table.getValue(NodeFactory.createLiteral("7", XSDDatatype.XSDunsignedByte)));
+		assertEquals(Double.POSITIVE_INFINITY,
+				table.getValue(NodeFactory.createLiteral("INF", XSDDatatype.XSDfloat)));
+		/* -0.0 and 0.0 are equal in SPARQL */
+		assertEquals(0.0, table.getValue(NodeFactory.createLiteral("-0.0", XSDDatatype.XSDdouble)));
+		assertNull(table.getValue(NodeFactory.createLiteral("42")));
+		assertNull(table.getValue(NodeFactory.createLiteral("forty two", XSDDatatype.XSDinteger)));
+		assertNull(table.getValue(subject));
+	}
+
+	@Test
+	public void noNumberTest() throws TException {
+		assertTrue(table.getInsertStatements("test", new Quad(graph, subject, predicate, subject)).isEmpty());
+		assertTrue(table.getDeleteStatements("test",
+				new Quad(graph, subject, predicate, NodeFactory.createLiteral("42"))).isEmpty());
+		verify(session, never()).prepare(anyString());
+	}
+}
@@ -0,0 +1,530 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.jena.cassandra.graph;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.jena.datatypes.xsd.XSDDatatype;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.query.DatasetFactory;
+import org.apache.jena.query.QueryExecution;
+import org.apache.jena.query.QueryExecutionFactory;
+import org.apache.jena.query.QuerySolution;
+import org.apache.jena.query.ResultSet;
+import org.apache.jena.sparql.core.Quad;
+import org.apache.thrift.TException;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test the LIMIT, ASK, COUNT and the language, numeric and temporal filter push
+ * down against a mock session (see FakeCassandra).
+ *
+ */
+public class OpExecutorCassandraTest {
+
+	private static final String NS = "http://example.com/";
+	private static Node name = NodeFactory.createURI(NS + "name");
+	private static Node age = NodeFactory.createURI(NS + "age");
+	private static Node label = NodeFactory.createURI(NS + "label");
+	private static Node measure = NodeFactory.createURI(NS + "measure");
+	private static Node time = NodeFactory.createURI(NS + "time");
+	private static Node graph1 = NodeFactory.createURI(NS + "graph1");
+	private static Node graph2 = NodeFactory.createURI(NS + "graph2");
+
+	private FakeCassandra cassandra;
+	private DatasetGraphCassandra dsg;
+
+	@Before
+	public void setup() throws TException {
+		cassandra = new FakeCassandra();
+		for (int i = 0; i < 10; i++) {
+			cassandra.data.add(new Quad(Quad.defaultGraphIRI, NodeFactory.createURI(NS + "s" + i), name,
+					NodeFactory.createLiteral("name" + i)));
+		}
+		dsg = new DatasetGraphCassandra("test", cassandra.connection);
+	}
+
+	/*
+	 * Add quads to the named graphs: graph1 has 3 names and 2 ages, graph2
+	 * has 1 name.
+	 */
+	private void addNamedGraphs() {
+		for (int i = 0; i < 3; i++) {
+			cassandra.data.add(new Quad(graph1, NodeFactory.createURI(NS + "s" + i), name,
+					NodeFactory.createLiteral("name" + i)));
+		}
+		for (int i = 0; i < 2; i++) {
+			cassandra.data.add(new Quad(graph1, NodeFactory.createURI(NS + "s" + i), age,
+					NodeFactory.createLiteral("age" + i)));
+		}
+		cassandra.data.add(new Quad(graph2, NodeFactory.createURI(NS + "s0"), name,
+				NodeFactory.createLiteral("other")));
+	}
+
+	private Map<String, Long> counts(String query, String key) {
+		Map<String, Long> retval = new HashMap<String, Long>();
+		try (QueryExecution qexec = QueryExecutionFactory.create(query, DatasetFactory.wrap(dsg))) {
+			ResultSet results = qexec.execSelect();
+			while (results.hasNext()) {
+				QuerySolution soln = results.next();
+				retval.put(key == null ? "" : soln.get(key).asNode().getURI(), soln.getLiteral("c").getLong());
+			}
+		}
+		return retval;
+	}
+
+	private void assertCountQueries() {
+		for (String cql : cassandra.executed) {
+			assertFalse(cql, cql.startsWith("SELECT subject"));
+		}
+	}
+
+	private List<String> select(String query) {
+		List<String> retval = new ArrayList<String>();
+		try (QueryExecution qexec = QueryExecutionFactory.create(query, DatasetFactory.wrap(dsg))) {
+			ResultSet results = qexec.execSelect();
+			while (results.hasNext()) {
+				retval.add(results.next().get("s").asNode().getURI());
+			}
+		}
+		return retval;
+	}
+
+	private boolean ask(String query) {
+		try (QueryExecution qexec = QueryExecutionFactory.create(query, DatasetFactory.wrap(dsg))) {
+			return qexec.execAsk();
+		}
+	}
+
+	@Test
+	public void limitTest() {
+		List<String> result = select(String.format("SELECT ?s WHERE { ?s <%s> ?n } LIMIT 3", name));
+		assertEquals(3, result.size());
+		assertEquals(1, cassandra.executed.size());
+		assertTrue(cassandra.executed.get(0), cassandra.executed.get(0).endsWith(" LIMIT ?"));
+		assertEquals(Arrays.asList(3), cassandra.limits);
+	}
+
+	@Test
+	public void limitOffsetTest() {
+		List<String> result = select(String.format("SELECT * WHERE { ?s <%s> ?n } LIMIT 3 OFFSET 8", name));
+		assertEquals(2, result.size());
+		assertEquals(NS + "s8", result.get(0));
+		assertTrue(cassandra.executed.get(0), cassandra.executed.get(0).endsWith(" LIMIT ?"));
+		assertEquals(11, cassandra.limits.get(0));
+	}
+
+	@Test
+	public void repeatedVariableTest() {
+		Node self = NodeFactory.createURI(NS + "self");
+		Node knows = NodeFactory.createURI(NS + "knows");
+		cassandra.data.add(new Quad(Quad.defaultGraphIRI, NodeFactory.createURI(NS + "a"), knows,
+				NodeFactory.createURI(NS + "b")));
+		cassandra.data.add(new Quad(Quad.defaultGraphIRI, self, knows, self));
+		assertEquals(1, select(String.format("SELECT * WHERE { ?s <%s> ?s }", knows)).size());
+		cassandra.executed.clear();
+		assertEquals(1, select(String.format("SELECT * WHERE { ?s <%s> ?s } LIMIT 1", knows)).size());
+		assertTrue(ask(String.format("ASK { ?s <%s> ?s }", knows)));
+		for (String cql : cassandra.executed) {
+			assertFalse(cql, cql.contains(" LIMIT "));
+		}
+	}
+
+	@Test
+	public void repeatedVariableProjectionTest() {
+		Node knows = NodeFactory.createURI(NS + "knows");
+		for (int i = 0; i < 3; i++) {
+			cassandra.data.add(new Quad(Quad.defaultGraphIRI, NodeFactory.createURI(NS + "s" + i), knows,
+					NodeFactory.createURI(NS + "s" + (i + 1))));
+		}
+		cassandra.data.add(new Quad(Quad.defaultGraphIRI, NodeFactory.createURI(NS + "s5"), knows,
+				NodeFactory.createURI(NS + "s5")));
+		List<String> result = select(String.format("SELECT ?s WHERE { ?s <%s> ?s } LIMIT 2", knows));
+		assertEquals(1, result.size());
+		assertEquals(NS + "s5", result.get(0));
+		assertTrue(cassandra.executed.get(0), cassandra.executed.get(0).startsWith("SELECT subject, object, "));
+		assertFalse(cassandra.executed.get(0), cassandra.executed.get(0).contains(" LIMIT "));
+	}
+
+	@Test
+	public void noLimitTest() {
+		List<String> result = select(String.format("SELECT ?s WHERE { ?s <%s> ?n }", name));
+		assertEquals(10, result.size());
+		assertFalse(cassandra.executed.get(0), cassandra.executed.get(0).contains(" LIMIT "));
+	}
+
+	@Test
+	public void projectionTest() {
+		List<String> result = select(String.format("SELECT ?s WHERE { ?s <%s> ?n }", name));
+		assertEquals(10, result.size());
+		assertTrue(result.contains(NS + "s4"));
+		assertTrue(cassandra.executed.get(0), cassandra.executed.get(0).startsWith("SELECT subject FROM "));
+	}
+
+	@Test
+	public void unusedVariableTest() {
+		List<String> result = select(String.format("SELECT * WHERE { ?s <%s> ?n }", name));
+		assertEquals(10, result.size());
+		assertTrue(cassandra.executed.get(0),
+				cassandra.executed.get(0).startsWith("SELECT subject, object, obj_lang, obj_dtype, obj_value FROM "));
+	}
+
+	@Test
+	public void distinctTest() {
+		/* the graph partition of GSPO is clustered by subject */
+		cassandra.data.add(4, new Quad(Quad.defaultGraphIRI, NodeFactory.createURI(NS + "s3"), age,
+				NodeFactory.createLiteral("age3")));
+		List<String> result = select("SELECT DISTINCT ?s WHERE { ?s ?p ?o }");
+		assertEquals(10, result.size());
+		assertEquals(10, new HashSet<String>(result).size());
+		assertEquals(Arrays.asList("SELECT subject FROM GSPO WHERE graph=?"), cassandra.executed);
+	}
+
+	@Test
+	public void distinctRepeatedTest() {
+		/* the distinct subjects must still have the same predicate and object */
+		Node knows = NodeFactory.createURI(NS + "knows");
+		Node self = NodeFactory.createURI(NS + "self");
+		cassandra.data.add(new Quad(Quad.defaultGraphIRI, NodeFactory.createURI(NS + "s0"), knows, knows));
+		cassandra.data.add(new Quad(Quad.defaultGraphIRI, self, knows, self));
+		assertEquals(Arrays.asList(NS + "s0"), select("SELECT DISTINCT ?s WHERE { ?s ?x ?x }"));
+		assertEquals(Arrays.asList(self.getURI()), select("SELECT DISTINCT ?s WHERE { ?s ?p ?s }"));
+	}
+
+	@Test
+	public void distinctFilterTest() {
+		cassandra.data.add(new Quad(Quad.defaultGraphIRI, NodeFactory.createURI(NS + "s3"), name,
+				NodeFactory.createLiteral("another name")));
+		List<String> result = select(String.format("SELECT DISTINCT ?s WHERE { ?s <%s> ?o }", name));
+		assertEquals(10, result.size());
+		assertEquals(10, new HashSet<String>(result).size());
+		assertTrue(cassandra.executed.get(0), cassandra.executed.get(0).startsWith("SELECT subject FROM PGOS"));
+	}
+
+	@Test
+	public void distinctApiTest() {
+		cassandra.data.add(new Quad(Quad.defaultGraphIRI, NodeFactory.createURI(NS + "s3"), age,
+				NodeFactory.createLiteral("age3")));
+		List<Node> predicates = dsg.findDistinct(Node.ANY, Node.ANY, Node.ANY, Node.ANY, ColumnName.P).toList();
+		assertEquals(2, predicates.size());
+		assertEquals("SELECT predicate FROM PGOS PER PARTITION LIMIT 1", cassandra.executed.get(0));
+	}
+
+	/*
+	 * Add labels in English, British English, French and Old English.
+	 */
+	private void addLabels() {
+		String[][] labels = { { "zero", "en" }, { "one", "en-GB" }, { "deux", "fr" }, { "thri", "ang" } };
+		for (int i = 0; i < labels.length; i++) {
+			cassandra.data.add(new Quad(Quad.defaultGraphIRI, NodeFactory.createURI(NS + "s" + i), label,
+					NodeFactory.createLiteral(labels[i][0], labels[i][1])));
+		}
+	}
+
+	@Test
+	public void langMatchesTest() {
+		addLabels();
+		cassandra.connection.addAuxiliaryTable(new LanguageTable(cassandra.connection));
+		List<String> result = select(
+				String.format("SELECT ?s WHERE { ?s <%s> ?l FILTER(langMatches(lang(?l), \"EN\")) }", label));
+		assertEquals(2, result.size());
+		assertTrue(result.contains(NS + "s0"));
+		assertTrue(result.contains(NS + "s1"));
+		assertEquals(1, cassandra.executed.size());
+		assertEquals("SELECT subject, object FROM LANGUAGE WHERE graph = ? AND predicate = ? "
+				+ "AND obj_lang >= ? AND obj_lang < ?", cassandra.executed.get(0));
+	}
+
+	@Test
+	public void langEqualsTest() {
+		addLabels();
+		cassandra.connection.addAuxiliaryTable(new LanguageTable(cassandra.connection));
+		List<String> result = select(String.format("SELECT ?s WHERE { ?s <%s> ?l FILTER(lang(?l) = \"fr\") }", label));
+		assertEquals(1, result.size());
+		assertEquals(NS + "s2", result.get(0));
+		/* the filter is still applied: the table match is case insensitive */
+		assertTrue(select(String.format("SELECT ?s WHERE { ?s <%s> ?l FILTER(\"FR\" = lang(?l)) }", label))
+				.isEmpty());
+		for (String cql : cassandra.executed) {
+			assertTrue(cql, cql.endsWith(" AND obj_lang = ?"));
+		}
+	}
+
+	@Test
+	public void langEmptyTest() {
+		/* the literals without a language are not in the table */
+		addLabels();
+		cassandra.data.add(new Quad(Quad.defaultGraphIRI, NodeFactory.createURI(NS + "plain"), label,
+				NodeFactory.createLiteral("plain")));
+		cassandra.connection.addAuxiliaryTable(new LanguageTable(cassandra.connection));
+		assertEquals(Arrays.asList(NS + "plain"),
+				select(String.format("SELECT ?s WHERE { ?s <%s> ?l FILTER(lang(?l) = \"\") }", label)));
+		assertEquals(Arrays.asList(NS + "plain"), select(
+				String.format("SELECT ?s WHERE { ?s <%s> ?l FILTER(langMatches(lang(?l), \"\")) }", label)));
+		for (String cql : cassandra.executed) {
+			assertFalse(cql, cql.contains(LanguageTable.NAME));
+		}
+	}
+
+	@Test
+	public void langNoTableTest() {
+		addLabels();
+		List<String> result = select(
+				String.format("SELECT ?s WHERE { ?s <%s> ?l FILTER(langMatches(lang(?l), \"en\")) }", label));
+		assertEquals(2, result.size());
+		for (String cql : cassandra.executed) {
+			assertFalse(cql, cql.contains(LanguageTable.NAME));
+		}
+	}
+
+	/*
+	 * Add measurements: integers 0 to 90 in steps of 10, a decimal, a double
+	 * and a string that looks like a number.
+	 */
+	private void addMeasurements() {
+		for (int i = 0; i < 10; i++) {
+			cassandra.data.add(new Quad(Quad.defaultGraphIRI, NodeFactory.createURI(NS + "m" + i), measure,
+					NodeFactory.createLiteral(Integer.toString(i * 10), XSDDatatype.XSDinteger)));
+		}
+		cassandra.data.add(new Quad(Quad.defaultGraphIRI, NodeFactory.createURI(NS + "decimal"), measure,
+				NodeFactory.createLiteral("55.5", XSDDatatype.XSDdecimal)));
+		cassandra.data.add(new Quad(Quad.defaultGraphIRI, NodeFactory.createURI(NS + "double"), measure,
+				NodeFactory.createLiteral("1e2", XSDDatatype.XSDdouble)));
+		cassandra.data.add(new Quad(Quad.defaultGraphIRI, NodeFactory.createURI(NS + "string"), measure,
+				NodeFactory.createLiteral("50")));
+	}
+
+	@Test
+	public void numericRangeTest() {
+		addMeasurements();
+		cassandra.connection.addAuxiliaryTable(new NumericTable(cassandra.connection));
+		List<String> result = select(
+				String.format("SELECT ?s WHERE { ?s <%s> ?o FILTER(?o > 10 && ?o < 100) }", measure));
+		assertEquals(9, result.size());
+		assertTrue(result.contains(NS + "m2"));
+		assertTrue(result.contains(NS + "decimal"));
+		assertFalse(result.contains(NS + "m1"));
+		assertFalse(result.contains(NS + "double"));
+		assertFalse(result.contains(NS + "string"));
+		assertEquals(1, cassandra.executed.size());
+		assertEquals("SELECT subject, object FROM NUMERIC WHERE graph = ? AND predicate = ? "
+				+ "AND obj_number >= ? AND obj_number <= ?", cassandra.executed.get(0));
+	}
+
+	@Test
+	public void numericBoundTest() {
+		addMeasurements();
+		cassandra.connection.addAuxiliaryTable(new NumericTable(cassandra.connection));
+		List<String> result = select(String.format("SELECT ?s WHERE { ?s <%s> ?o FILTER(100 <= ?o) }", measure));
+		assertEquals(1, result.size());
+		assertEquals(NS + "double", result.get(0));
+		assertTrue(cassandra.executed.get(0), cassandra.executed.get(0).endsWith(" AND obj_number >= ?"));
+		result = select(String.format("SELECT ?s WHERE { ?s <%s> ?o FILTER(?o = 50) }", measure));
+		assertEquals(1, result.size());
+		assertEquals(NS + "m5", result.get(0));
+	}
+
+	@Test
+	public void numericNoTableTest() {
+		addMeasurements();
+		List<String> result = select(
+				String.format("SELECT ?s WHERE { ?s <%s> ?o FILTER(?o > 10 && ?o < 100) }", measure));
+		assertEquals(9, result.size());
+		for (String cql : cassandra.executed) {
+			assertFalse(cql, cql.contains(NumericTable.NAME));
+		}
+	}
+
+	/*
+	 * Add events on the first of each month of 2025 in UTC, one event without
+	 * a timezone and one date.
+	 */
+	private void addEvents() {
+		for (int i = 1; i <= 12; i++) {
+			cassandra.data.add(new Quad(Quad.defaultGraphIRI, NodeFactory.createURI(NS + "e" + i), time,
+					NodeFactory.createLiteral(String.format("2025-%02d-01T00:00:00Z", i), XSDDatatype.XSDdateTime)));
+		}
+		cassandra.data.add(new Quad(Quad.defaultGraphIRI, NodeFactory.createURI(NS + "local"), time,
+				NodeFactory.createLiteral("2025-03-15T12:00:00", XSDDatatype.XSDdateTime)));
+		cassandra.data.add(new Quad(Quad.defaultGraphIRI, NodeFactory.createURI(NS + "date"), time,
+				NodeFactory.createLiteral("2025-03-15", XSDDatatype.XSDdate)));
+	}
+
+	@Test
+	public void temporalRangeTest() {
+		addEvents();
+		cassandra.connection.addAuxiliaryTable(new TemporalTable(cassandra.connection));
+		List<String> result = select(String.format(
+				"PREFIX xsd: <http://www.w3.org/2001/XMLSchema#> SELECT ?s WHERE { ?s <%s> ?t "
+						+ "FILTER(?t >= \"2025-03-01T00:00:00Z\"^^xsd:dateTime && ?t < \"2025-05-01T00:00:00Z\"^^xsd:dateTime) }",
+				time));
+		assertEquals(3, result.size());
+		assertTrue(result.contains(NS + "e3"));
+		assertTrue(result.contains(NS + "e4"));
+		assertTrue(result.contains(NS + "local"));
+		assertEquals(1, cassandra.executed.size());
+		assertEquals("SELECT subject, object FROM TEMPORAL WHERE graph = ? AND predicate = ? "
+				+ "AND obj_time >= ? AND obj_time <= ?", cassandra.executed.get(0));
+	}
+
+	@Test
+	public void temporalDateTest() {
+		addEvents();
+		cassandra.connection.addAuxiliaryTable(new TemporalTable(cassandra.connection));
+		List<String> result = select(String.format("PREFIX xsd: <http://www.w3.org/2001/XMLSchema#> "
+				+ "SELECT ?s WHERE { ?s <%s> ?t FILTER(?t > \"2025-03-01\"^^xsd:date) }", time));
+		assertEquals(1, result.size());
+		assertEquals(NS + "date", result.get(0));
+		assertTrue(cassandra.executed.get(0), cassandra.executed.get(0).endsWith(" AND obj_time >= ?"));
+	}
+
+	@Test
+	public void temporalNoTableTest() {
+		addEvents();
+		cassandra.connection.addAuxiliaryTable(new NumericTable(cassandra.connection));
+		List<String> result = select(String.format("PREFIX xsd: <http://www.w3.org/2001/XMLSchema#> "
+				+ "SELECT ?s WHERE { ?s <%s> ?t FILTER(?t > \"2025-11-15T00:00:00Z\"^^xsd:dateTime) }", time));
+		assertEquals(1, result.size());
+		assertEquals(NS + "e12", result.get(0));
+		for (String cql : cassandra.executed) {
+			assertFalse(cql, cql.contains(" FROM " + NumericTable.NAME));
+			assertFalse(cql, cql.contains(" FROM " + TemporalTable.NAME));
+		}
+	}
+
+	@Test
+	public void askTest() {
+		assertTrue(ask(String.format("ASK { ?s <%s> ?n }", name)));
+		assertFalse(ask(String.format("ASK { ?s <%s> ?n }", NS + "missing")));
+		for (String cql : cassandra.executed) {
+			assertTrue(cql, cql.endsWith(" LIMIT ?"));
+		}
+		assertEquals(Arrays.asList(1, 1), cassandra.limits);
+	}
+
+	@Test
+	public void countTest() {
+		assertEquals(Long.valueOf(10),
+				counts(String.format("SELECT (COUNT(*) AS ?c) WHERE { ?s <%s> ?n }", name), null).get(""));
+		assertEquals(1, cassandra.executed.size());
+		assertTrue(cassandra.executed.get(0), cassandra.executed.get(0).startsWith("SELECT count("));
+	}
+
+	@Test
+	public void countVarTest() {
+		assertEquals(Long.valueOf(10),
+				counts(String.format("SELECT (COUNT(?n) AS ?c) WHERE { ?s <%s> ?n }", name), null).get(""));
+		Node type = NodeFactory.createURI(NS + "type");
+		Node person = NodeFactory.createURI(NS + "Person");
+		cassandra.data.add(new Quad(Quad.defaultGraphIRI, NodeFactory.createURI(NS + "s3"), type, person));
+		assertEquals(Long.valueOf(1), counts(
+				String.format("SELECT (COUNT(DISTINCT ?s) AS ?c) WHERE { ?s <%s> <%s> }", type, person), null).get(""));
+		assertEquals(Long.valueOf(0),
+				counts(String.format("SELECT (COUNT(*) AS ?c) WHERE { ?s <%s> ?n }", age), null).get(""));
+		assertCountQueries();
+	}
+
+	@Test
+	public void groupByPredicateTest() {
+		addNamedGraphs();
+		Map<String, Long> result = counts(
+				String.format("SELECT ?p (COUNT(*) AS ?c) WHERE { GRAPH <%s> { ?s ?p ?o } } GROUP BY ?p", graph1), "p");
+		assertEquals(2, result.size());
+		assertEquals(Long.valueOf(3), result.get(name.getURI()));
+		assertEquals(Long.valueOf(2), result.get(age.getURI()));
+		assertCountQueries();
+	}
+
+	@Test
+	public void groupByGraphTest() {
+		addNamedGraphs();
+		Map<String, Long> result = counts("SELECT ?g (COUNT(*) AS ?c) WHERE { GRAPH ?g { ?s ?p ?o } } GROUP BY ?g",
+				"g");
+		assertEquals(2, result.size());
+		assertEquals(Long.valueOf(5), result.get(graph1.getURI()));
+		assertEquals(Long.valueOf(1), result.get(graph2.getURI()));
+		assertEquals(Long.valueOf(2), counts(String.format(
+				"SELECT (COUNT(DISTINCT ?g) AS ?c) WHERE { GRAPH ?g { ?s <%s> ?o } }", name), null).get(""));
+		assertCountQueries();
+	}
+
+	@Test
+	public void listGraphNodesTest() {
+		addNamedGraphs();
+		List<Node> graphs = new ArrayList<Node>();
+		dsg.listGraphNodes().forEachRemaining(graphs::add);
+		assertEquals(2, graphs.size());
+		assertTrue(graphs.contains(graph1));
+		assertTrue(graphs.contains(graph2));
+		assertEquals("SELECT DISTINCT graph FROM GSPO", cassandra.executed.get(0));
+	}
+
+	@Test
+	public void listPredicatesTest() {
+		/* the predicates are read with the prepared statement of the keyspace */
+		addNamedGraphs();
+		Set<Node> predicates = ((GraphCassandra) dsg.getDefaultGraph()).listPredicates().toSet();
+		assertFalse(predicates.isEmpty());
+		assertEquals("SELECT DISTINCT predicate FROM PGOS", cassandra.executed.get(0));
+	}
+
+	@Test
+	public void findNGTest() {
+		addNamedGraphs();
+		List<Quad> quads = new ArrayList<Quad>();
+		dsg.findNG(Node.ANY, Node.ANY, Node.ANY, Node.ANY).forEachRemaining(quads::add);
+		assertEquals(6, quads.size());
+		/* the graph names and then one partition query per named graph */
+		assertEquals(3, cassandra.executed.size());
+		for (String cql : cassandra.executed) {
+			assertFalse(cql, cql.contains("ALLOW FILTERING"));
+		}
+
+		cassandra.executed.clear();
+		quads.clear();
+		dsg.findNG(Node.ANY, Node.ANY, name, Node.ANY).forEachRemaining(quads::add);
+		assertEquals(4, quads.size());
+		assertEquals(1, cassandra.executed.size());
+		assertFalse(cassandra.executed.get(0), cassandra.executed.get(0).contains("ALLOW FILTERING"));
+	}
+
+	@Test
+	public void notPushedTest() {
+		assertEquals(Long.valueOf(10), counts(
+				String.format("SELECT (COUNT(DISTINCT ?n) AS ?c) WHERE { ?s <%s> ?n }", name), null).get(""));
+		assertTrue(cassandra.executed.get(0), cassandra.executed.get(0).startsWith("SELECT subject"));
+	}
+
+	@Test
+	public void containsTest() {
+		assertTrue(dsg.contains(Quad.defaultGraphIRI, Node.ANY, name, Node.ANY));
+		assertTrue(cassandra.executed.get(0), cassandra.executed.get(0).endsWith(" LIMIT ?"));
+		assertEquals(1, cassandra.limits.get(0));
+	}
+}
@@ -0,0 +1,149 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.jena.cassandra.graph;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.function.Function;
+
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.sparql.core.Quad;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+import com.google.common.util.concurrent.Futures;
+
+/**
+ * Test the paged quad iterator prefetching against a mock result set.
+ *
+ */
+public class PagedQuadIteratorTest {
+
+	private static final int PAGE = 10;
+
+	/* rows in the current page */
+	private Deque<Row> page;
+	/* rows not yet fetched */
+	private int remaining;
+	private int fetches;
+	private ResultSet rs;
+	private Function<Row, Quad> decoder;
+
+	@Before
+	public void setup() {
+		page = new ArrayDeque<Row>();
+		rs = mock(ResultSet.class);
+		when(rs.getAvailableWithoutFetching()).thenAnswer(i -> page.size());
+		when(rs.isFullyFetched()).thenAnswer(i -> remaining == 0);
+		when(rs.fetchMoreResults()).thenAnswer(i -> {
+			fetches++;
+			fetchPage();
+			return Futures.immediateFuture(rs);
+		});
+		when(rs.isExhausted()).thenAnswer(i -> {
+			if (page.isEmpty()) {
+				fetchPage();
+			}
+			return page.isEmpty();
+		});
+		when(rs.one()).thenAnswer(i -> page.poll());
+		Quad quad = new Quad(Quad.defaultGraphIRI, NodeFactory.createURI("http://example.com/s"),
+				NodeFactory.createURI("http://example.com/p"), NodeFactory.createURI("http://example.com/o"));
+		decoder = row -> row == null ? null : quad;
+	}
+
+	private void fetchPage() {
+		for (int i = 0; i < PAGE && remaining > 0; i++) {
+			page.add(mock(Row.class));
+			remaining--;
+		}
+	}
+
+	private void rows(int count) {
+		remaining = count;
+		fetchPage();
+	}
+
+	@Test
+	public void iterateAllTest() {
+		rows(35);
+		PagedQuadIterator iter = new PagedQuadIterator(rs, PAGE, decoder);
+		int count = 0;
+		while (iter.hasNext()) {
+			assertNotNull(iter.next());
+			count++;
+		}
+		assertEquals(35, count);
+		assertEquals("Each page after the first should be prefetched", 3, fetches);
+	}
+
+	@Test
+	public void prefetchTest() {
+		rows(35);
+		PagedQuadIterator iter = new PagedQuadIterator(rs, PAGE, decoder);
+		for (int i = 0; i < PAGE / 2; i++) {
+			iter.next();
+		}
+		assertEquals("Should not prefetch early in the page", 0, fetches);
+		iter.next();
+		assertEquals("Should prefetch half way through the page", 1, fetches);
+	}
+
+	@Test
+	public void pageReaderTest() {
+		/* each page is given to the reader before any of its rows are decoded */
+		rows(25);
+		List<Integer> pages = new ArrayList<Integer>();
+		int[] decoded = new int[1];
+		PagedQuadIterator iter = new PagedQuadIterator(rs, PAGE, row -> {
+			decoded[0]++;
+			return decoder.apply(row);
+		}, rows -> {
+			assertEquals(pages.size() * PAGE, decoded[0]);
+			pages.add(rows.size());
+		});
+		assertEquals(25, iter.toList().size());
+		assertEquals(Arrays.asList(10, 10, 5), pages);
+	}
+
+	@Test
+	public void closeTest() {
+		rows(35);
+		PagedQuadIterator iter = new PagedQuadIterator(rs, PAGE, decoder);
+		iter.next();
+		iter.close();
+		assertFalse(iter.hasNext());
+		assertEquals(0, fetches);
+	}
+
+	@Test
+	public void emptyTest() {
+		rows(0);
+		PagedQuadIterator iter = new PagedQuadIterator(rs, PAGE, decoder);
+		assertFalse(iter.hasNext());
+	}
+}
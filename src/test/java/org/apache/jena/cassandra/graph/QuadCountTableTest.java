@@ -0,0 +1,184 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.jena.cassandra.graph;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.sparql.core.Quad;
+import org.apache.thrift.TException;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.datastax.driver.core.BatchStatement;
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.Statement;
+
+/**
+ * Test the quad count table statements.
+ *
+ */
+public class QuadCountTableTest {
+
+	private static Node graph = NodeFactory.createURI("http://exmaple.com/graph");
+	private static Node subject = NodeFactory.createURI("http://exmaple.com/subject");
+	private static Node predicate = NodeFactory.createURI("http://exmaple.com/predicate");
+	private static Node object = NodeFactory.createURI("http://exmaple.com/object");
+
+	private CassandraConnection connection;
+	private Session session;
+	private PreparedStatement prepared;
+	private QuadCountTable table;
+
+	@Before
+	public void setup() {
+		Cluster cluster = mock(Cluster.class);
+		session = mock(Session.class);
+		prepared = mock(PreparedStatement.class);
+		when(cluster.connect(anyString())).thenReturn(session);
+		when(session.prepare(anyString())).thenReturn(prepared);
+		when(prepared.bind()).thenAnswer(i -> mock(BoundStatement.class));
+		when(prepared.bind(any())).thenAnswer(i -> mock(BoundStatement.class));
+		connection = new CassandraConnection(cluster);
+		table = new QuadCountTable(connection);
+	}
+
+	@Test
+	public void createTest() {
+		String[] stmts = table.getCreateTableStatements();
+		assertEquals(1, stmts.length);
+		assertEquals("CREATE TABLE IF NOT EXISTS QUAD_COUNT (graph blob, predicate blob, quads counter, "
+				+ "PRIMARY KEY ((graph), predicate))", stmts[0]);
+	}
+
+	@Test
+	public void insertTest() throws TException {
+		Quad quad = new Quad(graph, subject, predicate, object);
+		List<Statement> stmts = table.getInsertStatements("test", quad);
+		assertEquals(1, stmts.size());
+		assertTrue(stmts.get(0) instanceof BatchStatement);
+		assertEquals(4, ((BatchStatement) stmts.get(0)).size());
+		verify(session).prepare("UPDATE QUAD_COUNT SET quads = quads + ? WHERE graph = ? AND predicate = ?");
+		ByteBuffer g = connection.bytesOf(graph);
+		ByteBuffer p = connection.bytesOf(predicate);
+		verify(prepared).bind(1L, g, p);
+		verify(prepared).bind(1L, g, QuadCountTable.ALL);
+		verify(prepared).bind(1L, QuadCountTable.ALL, p);
+		verify(prepared).bind(1L, QuadCountTable.ALL, QuadCountTable.ALL);
+	}
+
+	@Test
+	public void deleteTest() throws TException {
+		Quad quad = new Quad(graph, subject, predicate, object);
+		table.getDeleteStatements("test", quad);
+		verify(prepared).bind(-1L, QuadCountTable.ALL, QuadCountTable.ALL);
+	}
+
+	@Test
+	public void countTest() throws TException {
+		Row row = mock(Row.class);
+		when(row.getLong(0)).thenReturn(42L);
+		ResultSet rs = mock(ResultSet.class);
+		when(rs.one()).thenReturn(row);
+		when(session.execute(any(Statement.class))).thenReturn(rs);
+		assertEquals(42L, table.getCount("test", Node.ANY, null));
+		verify(prepared).bind(QuadCountTable.ALL, QuadCountTable.ALL);
+		assertEquals(42L, table.getCount("test", graph, null));
+		verify(prepared).bind(connection.bytesOf(graph), QuadCountTable.ALL);
+	}
+
+	@Test
+	public void noCountTest() throws TException {
+		ResultSet rs = mock(ResultSet.class);
+		when(session.execute(any(Statement.class))).thenReturn(rs);
+		assertEquals(0L, table.getCount("test", graph, predicate));
+	}
+
+	@Test
+	public void registeredInsertTest() {
+		connection.addAuxiliaryTable(table);
+		assertSame(table, connection.getAuxiliaryTable(QuadCountTable.class));
+		QueryPattern qp = new QueryPattern(connection, new Quad(graph, subject, predicate, object));
+		Iterator<Statement> iter = qp.getInsertStatements("test");
+		int count = 0;
+		Statement last = null;
+		while (iter.hasNext()) {
+			last = iter.next();
+			count++;
+		}
+		/* the counters are only updated after the conditional insert of a new quad */
+		assertEquals(CassandraConnection.getTableList().size(), count);
+		assertFalse(last instanceof BatchStatement);
+	}
+
+	@Test
+	public void sharedStatisticsTest() {
+		assertNull(new GraphCassandra(graph, "test", connection).getStatistics());
+		connection.addAuxiliaryTable(table);
+		GraphStatisticsCassandra stats = new GraphCassandra(graph, "test", connection).getStatistics();
+		assertNotNull(stats);
+		/* the graphs of a dataset share the statistics and their cache */
+		assertSame(stats, ((GraphCassandra) new DatasetGraphCassandra("test", connection).getGraph(graph)).getStatistics());
+		assertNotSame(stats, new GraphCassandra(graph, "other", connection).getStatistics());
+		assertNotSame(stats, new GraphCassandra(Node.ANY, "test", connection).getStatistics());
+	}
+
+	@Test
+	public void insertTwiceDeleteOnceTest() throws TException {
+		FakeCassandra fake = new FakeCassandra();
+		fake.connection.addAuxiliaryTable(new QuadCountTable(fake.connection));
+		DatasetGraphCassandra dsg = new DatasetGraphCassandra("test", fake.connection);
+		Quad quad = new Quad(graph, subject, predicate, object);
+		dsg.add(quad);
+		dsg.add(quad);
+		assertEquals(1, dsg.size());
+		assertEquals(1, new GraphCassandra(graph, "test", fake.connection).size());
+		dsg.delete(quad);
+		assertEquals(0, dsg.size());
+		assertEquals(0, new GraphCassandra(graph, "test", fake.connection).size());
+		assertTrue(new GraphCassandra(graph, "test", fake.connection).isEmpty());
+		/* the sizes are read from the counters, the quads are not counted */
+		for (String cql : fake.executed) {
+			assertFalse(cql, cql.contains("count("));
+		}
+	}
+
+	@Test
+	public void uncountedTest() throws TException {
+		/* a quad loaded before the table was registered is not counted but the graph is not empty */
+		FakeCassandra fake = new FakeCassandra();
+		fake.data.add(new Quad(graph, subject, predicate, object));
+		fake.connection.addAuxiliaryTable(new QuadCountTable(fake.connection));
+		GraphCassandra graphCassandra = new GraphCassandra(graph, "test", fake.connection);
+		assertEquals(0, graphCassandra.size());
+		assertFalse(graphCassandra.isEmpty());
+		assertFalse(new DatasetGraphCassandra("test", fake.connection).isEmpty());
+	}
+}
@@ -20,7 +20,10 @@ package org.apache.jena.cassandra.graph;
 
 import static org.junit.Assert.*;
 
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.Collections;
 
 import org.apache.jena.graph.Node;
 import org.apache.jena.graph.NodeFactory;
@@ -33,6 +36,7 @@ import org.junit.Test;
 
 import com.datastax.driver.core.Cluster;
 import com.datastax.driver.core.Session;
+import com.datastax.driver.core.utils.Bytes;
 
 import static org.mockito.Mockito.*;
 
@@ -159,6 +163,92 @@ public class QueryInfoTest {
 		assertFalse("Filter not needed", clause.needFilter);
 	}
 
+	@Test
+	public void whereGSPOBoundTest() throws TException {
+		Quad q = new Quad(graph, subject, predicate, object);
+		QueryPattern.QueryInfo qi = pattern.getQueryInfo(q);
+		QueryPattern.QueryInfo.WhereClause clause = qi.getWhereClause();
+		String s = clause.boundText.toString();
+		assertEquals(" WHERE subject=? AND predicate=? AND object=? AND graph=?", s);
+		assertEquals(4, clause.bindValues.size());
+		assertEquals(subjectHexValue, Bytes.toHexString((ByteBuffer) clause.bindValues.get(0)));
+		assertEquals(predicateHexValue, Bytes.toHexString((ByteBuffer) clause.bindValues.get(1)));
+		assertEquals(objectHexValue, Bytes.toHexString((ByteBuffer) clause.bindValues.get(2)));
+		assertEquals(graphHexValue, Bytes.toHexString((ByteBuffer) clause.bindValues.get(3)));
+	}
+
+	@Test
+	public void whereGSPNumBoundTest() throws TException {
+		Quad q = new Quad(graph, subject, predicate, node42);
+		QueryPattern.QueryInfo qi = pattern.getQueryInfo(q);
+		qi.extraValueFilter = Arrays.asList(ColumnName.L, ColumnName.D, ColumnName.V);
+		qi.tableQuad = new Quad(q.getGraph(), q.getSubject(), q.getPredicate(), Node.ANY);
+		qi.values.remove(ColumnName.O);
+		qi.tableName = CassandraConnection.getTable(CassandraConnection.getId(qi.tableQuad));
+		QueryPattern.QueryInfo.WhereClause clause = qi.getWhereClause();
+		String s = clause.boundText.toString();
+		assertEquals(" WHERE graph=? AND subject=? AND predicate=? AND obj_int=?", s);
+		assertEquals(4, clause.bindValues.size());
+		assertEquals(BigInteger.valueOf(42), clause.bindValues.get(3));
+	}
+
+	@Test
+	public void whereGSPLitBoundTest() throws TException {
+		Quad q = new Quad(graph, subject, predicate, nodeLit);
+		QueryPattern.QueryInfo qi = pattern.getQueryInfo(q);
+		qi.extraValueFilter = Arrays.asList(ColumnName.L);
+		qi.tableQuad = new Quad(q.getGraph(), q.getSubject(), q.getPredicate(), Node.ANY);
+		qi.values.remove(ColumnName.O);
+		qi.tableName = CassandraConnection.getTable(CassandraConnection.getId(qi.tableQuad));
+		QueryPattern.QueryInfo.WhereClause clause = qi.getWhereClause();
+		String s = clause.boundText.toString();
+		assertFalse("literal value in bound text " + s, s.contains("String Literal"));
+		assertTrue(s.contains(" AND obj_dtype=?"));
+		assertTrue(s.contains(" AND obj_value=?"));
+		assertTrue(clause.bindValues.contains("String Literal"));
+		assertTrue(clause.bindValues.contains("http://www.w3.org/2001/XMLSchema#string"));
+	}
+
+	@Test
+	public void where____BoundTest() throws TException {
+		Quad q = new Quad(Node.ANY, Node.ANY, Node.ANY, Node.ANY);
+		QueryPattern.QueryInfo qi = pattern.getQueryInfo(q);
+		QueryPattern.QueryInfo.WhereClause clause = qi.getWhereClause();
+		assertEquals(clause.text.toString(), clause.boundText.toString());
+		assertTrue(clause.bindValues.isEmpty());
+	}
+
+	@Test
+	public void where____RangeTest() throws TException {
+		Quad q = new Quad(Node.ANY, Node.ANY, Node.ANY, Node.ANY);
+		QueryPattern.QueryInfo qi = pattern.getQueryInfo(q);
+		QueryPattern.QueryInfo.WhereClause clause = qi.getWhereClause();
+		assertTrue(clause.scan);
+		assertEquals(" WHERE token(graph) > ? AND token(graph) <= ?", clause.rangeText.toString());
+	}
+
+	@Test
+	public void whereGSPORangeTest() throws TException {
+		Quad q = new Quad(graph, subject, predicate, object);
+		QueryPattern.QueryInfo qi = pattern.getQueryInfo(q);
+		QueryPattern.QueryInfo.WhereClause clause = qi.getWhereClause();
+		assertFalse(clause.scan);
+		assertEquals(clause.boundText.toString(), clause.rangeText.toString());
+	}
+
+	@Test
+	public void whereInTest() throws TException {
+		Quad q = new Quad(Node.ANY, subject, predicate, Node.ANY);
+		QueryPattern.QueryInfo qi = pattern.getQueryInfo(q);
+		qi.inValues = Collections.singletonMap(ColumnName.S, Arrays.asList(subject, object));
+		QueryPattern.QueryInfo.WhereClause clause = qi.getWhereClause();
+		assertEquals(String.format(" WHERE subject IN (%s, %s) AND predicate=%s", subjectHexValue, objectHexValue,
+				predicateHexValue), clause.text.toString());
+		assertEquals(" WHERE subject IN ? AND predicate=?", clause.boundText.toString());
+		assertEquals(Arrays.asList(ByteBuffer.wrap(Bytes.fromHexString(subjectHexValue).array()),
+				ByteBuffer.wrap(Bytes.fromHexString(objectHexValue).array())), clause.bindValues.get(0));
+	}
+
 	@Test
 	public void whereGSPLitTest() throws TException {
 		Quad q = new Quad(graph, subject, predicate, nodeLit);
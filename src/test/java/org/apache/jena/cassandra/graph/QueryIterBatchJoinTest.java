@@ -0,0 +1,148 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.jena.cassandra.graph;
+
+import static org.junit.Assert.*;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.query.DatasetFactory;
+import org.apache.jena.query.QueryExecution;
+import org.apache.jena.query.QueryExecutionFactory;
+import org.apache.jena.query.QuerySolution;
+import org.apache.jena.query.ResultSet;
+import org.apache.jena.sparql.core.Quad;
+import org.apache.thrift.TException;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test the batched and star joins against a mock session (see FakeCassandra).
+ *
+ */
+public class QueryIterBatchJoinTest {
+
+	private static final String NS = "http://example.com/";
+	private static Node type = NodeFactory.createURI(NS + "type");
+	private static Node person = NodeFactory.createURI(NS + "Person");
+	private static Node name = NodeFactory.createURI(NS + "name");
+	private static Node knows = NodeFactory.createURI(NS + "knows");
+
+	private FakeCassandra cassandra;
+	private DatasetGraphCassandra dsg;
+	private List<Quad> data;
+	private List<String> executed;
+
+	@Before
+	public void setup() throws TException {
+		cassandra = new FakeCassandra();
+		data = cassandra.data;
+		executed = cassandra.executed;
+		for (int i = 0; i < 5; i++) {
+			Node s = NodeFactory.createURI(NS + "s" + i);
+			data.add(new Quad(Quad.defaultGraphIRI, s, type, person));
+			data.add(new Quad(Quad.defaultGraphIRI, s, name, NodeFactory.createURI(NS + "name" + i)));
+			if (i > 0) {
+				data.add(new Quad(Quad.defaultGraphIRI, s, knows, NodeFactory.createURI(NS + "s" + (i - 1))));
+			}
+		}
+		data.add(new Quad(Quad.defaultGraphIRI, NodeFactory.createURI(NS + "other"), name,
+				NodeFactory.createURI(NS + "nameOther")));
+		dsg = new DatasetGraphCassandra("test", cassandra.connection);
+	}
+
+	private Set<String> select(String query, String var) {
+		Set<String> retval = new HashSet<String>();
+		try (QueryExecution qexec = QueryExecutionFactory.create(query, DatasetFactory.wrap(dsg))) {
+			ResultSet results = qexec.execSelect();
+			while (results.hasNext()) {
+				QuerySolution soln = results.next();
+				retval.add(soln.get(var).asNode().getURI());
+			}
+		}
+		return retval;
+	}
+
+	@Test
+	public void batchTest() {
+		Set<String> names = select(String.format("SELECT ?n WHERE { ?s <%s> <%s> . ?s <%s> ?n }", type, person, name),
+				"n");
+		assertEquals(5, names.size());
+		for (int i = 0; i < 5; i++) {
+			assertTrue(names.contains(NS + "name" + i));
+		}
+		assertEquals(2, executed.size());
+		assertTrue(executed.get(1), executed.get(1).contains("subject IN ?"));
+	}
+
+	@Test
+	public void smallBatchTest() {
+		cassandra.connection.setJoinBatchSize(2);
+		Set<String> names = select(String.format("SELECT ?n WHERE { ?s <%s> <%s> . ?s <%s> ?n }", type, person, name),
+				"n");
+		assertEquals(5, names.size());
+		/* one query for the first pattern and one for each batch of two */
+		assertEquals(4, executed.size());
+	}
+
+	@Test
+	public void objectBatchTest() {
+		Set<String> subjects = select(String.format("SELECT ?s WHERE { ?x <%s> ?n . ?s <%s> ?n . ?x <%s> <%s> }",
+				name, name, type, person), "s");
+		assertEquals(5, subjects.size());
+		assertFalse(subjects.contains(NS + "other"));
+	}
+
+	@Test
+	public void unbatchedTest() {
+		cassandra.connection.setJoinBatchSize(1);
+		Set<String> names = select(String.format("SELECT ?n WHERE { ?s <%s> <%s> . ?s <%s> ?n }", type, person, name),
+				"n");
+		assertEquals(5, names.size());
+		/* one query for the first pattern and one for each binding */
+		assertEquals(6, executed.size());
+		for (String cql : executed) {
+			assertFalse(cql, cql.contains(" IN "));
+		}
+	}
+
+	@Test
+	public void starTest() {
+		Set<String> names = select(String.format("SELECT ?n WHERE { ?s <%s> <%s> . ?s <%s> ?n . ?s <%s> ?x }", type,
+				person, name, knows), "n");
+		assertEquals(4, names.size());
+		assertFalse(names.contains(NS + "name0"));
+		/* one query for the first pattern and one for the star */
+		assertEquals(2, executed.size());
+		assertTrue(executed.get(1), executed.get(1).contains("subject IN ?"));
+		assertTrue(executed.get(1), executed.get(1).contains("predicate IN ?"));
+	}
+
+	@Test
+	public void starObjectTest() {
+		Set<String> subjects = select(String.format("SELECT ?s WHERE { ?s <%s> <%s> . ?s <%s> <%s> . ?s <%s> ?n }",
+				type, person, knows, NS + "s2", name), "s");
+		assertEquals(1, subjects.size());
+		assertTrue(subjects.contains(NS + "s3"));
+	}
+}
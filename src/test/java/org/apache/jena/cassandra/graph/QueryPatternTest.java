@@ -20,8 +20,10 @@ package org.apache.jena.cassandra.graph;
 
 import static org.junit.Assert.*;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
 
 import org.apache.jena.graph.Node;
 import org.apache.jena.graph.NodeFactory;
@@ -31,8 +33,14 @@ import org.apache.thrift.TException;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.datastax.driver.core.BoundStatement;
 import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
 import com.datastax.driver.core.Session;
+import com.datastax.driver.core.Statement;
+import com.datastax.driver.core.utils.Bytes;
 
 import static org.mockito.Mockito.*;
 
@@ -168,6 +176,19 @@ public class QueryPatternTest {
 		assertFalse(query.needsFilter);
 	}
 
+	@Test
+	public void findGSPOBoundTest() throws TException {
+		Quad q = new Quad(graph, subject, predicate, object);
+		QueryPattern qp = new QueryPattern(connection, q);
+		QueryPattern.QueryInfo qi = qp.getQueryInfo();
+		qi.suffix = "limit 1";
+		QueryPattern.Query query = qp.getFindQuery(qi);
+		String s = query.boundText.toString();
+		assertEquals("SELECT " + SELECT_COLUMNS
+				+ " FROM SPOG WHERE subject=? AND predicate=? AND object=? AND graph=? limit 1", s);
+		assertEquals(4, query.bindValues.size());
+	}
+
 	@Test
 	public void findGSPNumTest() throws TException {
 
@@ -899,6 +920,130 @@ public class QueryPatternTest {
 		assertFalse(iter.hasNext());
 	}
 
+	@Test
+	public void insertPreparedTest() throws TException {
+		Cluster cluster = mock(Cluster.class);
+		Session session = mock(Session.class);
+		PreparedStatement prepared = mock(PreparedStatement.class);
+		when(cluster.connect(anyString())).thenReturn(session);
+		when(session.prepare(anyString())).thenReturn(prepared);
+		connection = new CassandraConnection(cluster);
+
+		BoundStatement[] bound = { mock(BoundStatement.class), mock(BoundStatement.class),
+				mock(BoundStatement.class), mock(BoundStatement.class) };
+		when(prepared.bind()).thenReturn(bound[0], bound[1], bound[2], bound[3]);
+
+		Quad q = new Quad(graph, subject, predicate, nodeLitLang);
+		QueryPattern qp = new QueryPattern(connection, q);
+		Iterator<Statement> iter = qp.getInsertStatements("test");
+		int i = 0;
+		for (TableName tableName : CassandraConnection.getTableList()) {
+			assertTrue(iter.hasNext());
+			assertSame(bound[i], iter.next());
+			verify(session).prepare(tableName.getInsertStatement());
+			verify(bound[i]).setBytes(ColumnName.S.toString(), Bytes.fromHexString(subjectHexValue));
+			verify(bound[i]).setBytes(ColumnName.G.toString(), Bytes.fromHexString(graphHexValue));
+			verify(bound[i]).setString(ColumnName.L.toString(), "en-US");
+			verify(bound[i]).setString(ColumnName.V.toString(), "String Literal");
+			verify(bound[i], never()).setVarint(anyString(), any());
+			i++;
+		}
+		assertFalse(iter.hasNext());
+	}
+
+	@Test
+	public void preparedCacheTest() {
+		Cluster cluster = mock(Cluster.class);
+		Session session = mock(Session.class);
+		when(cluster.connect(anyString())).thenReturn(session);
+		when(session.prepare(anyString())).thenAnswer(i -> mock(PreparedStatement.class));
+		connection = new CassandraConnection(cluster);
+
+		String first = "SELECT * FROM SPOG WHERE subject=?";
+		PreparedStatement prepared = connection.prepare("test", first);
+		assertSame(prepared, connection.prepare("test", first));
+		verify(session).prepare(first);
+
+		/* the cache is bounded so the least recently used statement is prepared again */
+		for (int i = 0; i < 2 * CassandraConnection.MAX_PREPARED_STATEMENTS; i++) {
+			connection.prepare("test", first + " AND object=" + i);
+		}
+		assertNotSame(prepared, connection.prepare("test", first));
+		verify(session, times(2)).prepare(first);
+	}
+
+	@Test
+	public void canFindInTest() {
+		/* SPOG: subject is the partition key */
+		QueryPattern qp = new QueryPattern(connection, new Quad(Node.ANY, subject, predicate, Node.ANY));
+		assertTrue(qp.canFindIn(Arrays.asList(ColumnName.S)));
+		assertTrue(qp.canFindIn(Arrays.asList(ColumnName.S, ColumnName.P)));
+		/* OSGP: object then subject */
+		qp = new QueryPattern(connection, new Quad(Node.ANY, subject, Node.ANY, object));
+		assertTrue(qp.canFindIn(Arrays.asList(ColumnName.O)));
+		assertTrue(qp.canFindIn(Arrays.asList(ColumnName.S)));
+		/* PGOS: the graph between predicate and object is missing */
+		qp = new QueryPattern(connection, new Quad(Node.ANY, Node.ANY, predicate, object));
+		assertTrue(qp.canFindIn(Arrays.asList(ColumnName.P)));
+		assertFalse(qp.canFindIn(Arrays.asList(ColumnName.O)));
+		/* literal objects use the value indexes */
+		qp = new QueryPattern(connection, new Quad(Node.ANY, subject, predicate, nodeLit));
+		assertFalse(qp.canFindIn(Arrays.asList(ColumnName.S)));
+	}
+
+	@Test
+	public void countTest() throws TException {
+		Cluster cluster = mock(Cluster.class);
+		Session session = mock(Session.class);
+		PreparedStatement prepared = mock(PreparedStatement.class);
+		when(cluster.connect(anyString())).thenReturn(session);
+		when(session.prepare(anyString())).thenReturn(prepared);
+		when(prepared.bind(any())).thenReturn(mock(BoundStatement.class));
+		Row row = mock(Row.class);
+		when(row.getLong(0)).thenReturn(42L);
+		ResultSet rs = mock(ResultSet.class);
+		when(rs.one()).thenReturn(row);
+		when(session.execute(any(Statement.class))).thenReturn(rs);
+		connection = new CassandraConnection(cluster);
+
+		QueryPattern qp = new QueryPattern(connection, new Quad(Node.ANY, Node.ANY, Node.ANY, Node.ANY));
+		assertEquals(42L, qp.getCount("test"));
+		/* no token metadata so the scan is not split */
+		verify(session).prepare("SELECT count(graph) FROM GSPO WHERE token(graph) >= " + Long.MIN_VALUE);
+	}
+
+	@Test
+	public void countFilteredTest() throws TException {
+		Cluster cluster = mock(Cluster.class);
+		Session session = mock(Session.class);
+		PreparedStatement prepared = mock(PreparedStatement.class);
+		when(cluster.connect(anyString())).thenReturn(session);
+		when(session.prepare(anyString())).thenReturn(prepared);
+		when(prepared.bind(any())).thenReturn(mock(BoundStatement.class));
+		List<Row> rows = new ArrayList<Row>();
+		for (String hex : Arrays.asList(graphHexValue, "0x00", graphHexValue)) {
+			Row row = mock(Row.class);
+			when(row.getBytes(ColumnName.G.toString())).thenReturn(Bytes.fromHexString(hex));
+			rows.add(row);
+		}
+		ResultSet rs = mock(ResultSet.class);
+		when(rs.iterator()).thenReturn(rows.iterator());
+		when(session.execute(any(Statement.class))).thenReturn(rs);
+		connection = new CassandraConnection(cluster);
+
+		QueryPattern qp = new QueryPattern(connection, new Quad(graph, Node.ANY, Node.ANY, object));
+		assertEquals(2L, qp.getCount("test"));
+		verify(session).prepare(
+				"SELECT subject, predicate, object, graph, obj_lang, obj_dtype FROM OSGP WHERE object=?");
+	}
+
+	@Test
+	public void insertPreparedTextTest() {
+		String s = CassandraConnection.SPOG.getInsertStatement();
+		assertEquals("INSERT INTO SPOG (subject, predicate, object, graph, obj_lang, obj_dtype, obj_int, obj_value)"
+				+ " VALUES (?, ?, ?, ?, ?, ?, ?, ?)", s);
+	}
+
 	@Test
 	public void deleteObjectTest() throws TException {
 		Quad q = new Quad(graph, subject, predicate, object);
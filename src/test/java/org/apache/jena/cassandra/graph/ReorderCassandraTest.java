@@ -0,0 +1,143 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.jena.cassandra.graph;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.util.List;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.sparql.core.BasicPattern;
+import org.apache.jena.sparql.core.Quad;
+import org.apache.jena.sparql.core.Var;
+import org.apache.jena.vocabulary.RDF;
+import org.apache.thrift.TException;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.datastax.driver.core.BatchStatement;
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.Statement;
+
+/**
+ * Test the ordering of basic graph patterns from the graph statistics and the
+ * class count table statements.
+ *
+ */
+public class ReorderCassandraTest {
+
+	private static Node type = RDF.type.asNode();
+	private static Node person = NodeFactory.createURI("http://example.com/Person");
+	private static Node name = NodeFactory.createURI("http://example.com/name");
+	private static Node knows = NodeFactory.createURI("http://example.com/knows");
+	private static Var s = Var.alloc("s");
+	private static Var o = Var.alloc("o");
+	private static Var t = Var.alloc("t");
+
+	private GraphStatisticsCassandra stats;
+
+	@Before
+	public void setup() {
+		stats = mock(GraphStatisticsCassandra.class);
+		when(stats.getCount()).thenReturn(1000000L);
+		when(stats.getPredicateCount(type)).thenReturn(500000L);
+		when(stats.getPredicateCount(name)).thenReturn(1000L);
+		when(stats.getPredicateCount(knows)).thenReturn(200000L);
+		when(stats.getClassCount(person)).thenReturn(50L);
+		when(stats.getClassCount(NodeFactory.createURI("http://example.com/Unknown"))).thenReturn(-1L);
+	}
+
+	private List<Triple> reorder(Triple... triples) {
+		BasicPattern bgp = new BasicPattern();
+		for (Triple triple : triples) {
+			bgp.add(triple);
+		}
+		return new ReorderCassandra(stats).reorder(bgp).getList();
+	}
+
+	@Test
+	public void typeLastTest() {
+		Triple typeT = Triple.create(s, type, t);
+		Triple nameT = Triple.create(s, name, o);
+		List<Triple> result = reorder(typeT, nameT);
+		assertEquals(nameT, result.get(0));
+		assertEquals(typeT, result.get(1));
+	}
+
+	@Test
+	public void classFirstTest() {
+		Triple knowsT = Triple.create(s, knows, o);
+		Triple typeT = Triple.create(s, type, person);
+		Triple nameT = Triple.create(s, name, t);
+		List<Triple> result = reorder(knowsT, nameT, typeT);
+		assertEquals(typeT, result.get(0));
+		/* bound subject: both are estimated at the subject fan out */
+		assertEquals(3, result.size());
+	}
+
+	@Test
+	public void boundVariableTest() {
+		Triple nameT = Triple.create(s, name, NodeFactory.createLiteral("fred"));
+		Triple knowsT = Triple.create(s, knows, o);
+		Triple typeT = Triple.create(o, type, t);
+		List<Triple> result = reorder(typeT, knowsT, nameT);
+		assertEquals(nameT, result.get(0));
+		assertEquals(knowsT, result.get(1));
+		assertEquals(typeT, result.get(2));
+	}
+
+	@Test
+	public void estimateTest() {
+		assertEquals(-1, GraphStatisticsCassandra.estimate(-1, true, true));
+		assertEquals(1, GraphStatisticsCassandra.estimate(1000, true, true));
+		assertEquals(GraphStatisticsCassandra.SUBJECT_FAN_OUT, GraphStatisticsCassandra.estimate(1000, true, false));
+		assertEquals(GraphStatisticsCassandra.OBJECT_FAN_OUT, GraphStatisticsCassandra.estimate(1000, false, true));
+		assertEquals(5, GraphStatisticsCassandra.estimate(5, false, true));
+		assertEquals(1000, GraphStatisticsCassandra.estimate(1000, false, false));
+	}
+
+	@Test
+	public void classCountStatementTest() throws TException {
+		Cluster cluster = mock(Cluster.class);
+		Session session = mock(Session.class);
+		PreparedStatement prepared = mock(PreparedStatement.class);
+		when(cluster.connect(anyString())).thenReturn(session);
+		when(session.prepare(anyString())).thenReturn(prepared);
+		when(prepared.bind(any())).thenAnswer(i -> mock(BoundStatement.class));
+		CassandraConnection connection = new CassandraConnection(cluster);
+		ClassCountTable table = new ClassCountTable(connection);
+		Node graph = NodeFactory.createURI("http://example.com/graph");
+		Node subject = NodeFactory.createURI("http://example.com/subject");
+
+		assertTrue(table.getInsertStatements("test", new Quad(graph, subject, name, person)).isEmpty());
+
+		List<Statement> stmts = table.getInsertStatements("test", new Quad(graph, subject, type, person));
+		assertEquals(1, stmts.size());
+		assertEquals(2, ((BatchStatement) stmts.get(0)).size());
+		verify(session).prepare("UPDATE CLASS_COUNT SET instances = instances + ? WHERE graph = ? AND class = ?");
+		verify(prepared).bind(1L, connection.bytesOf(graph), connection.bytesOf(person));
+		verify(prepared).bind(1L, QuadCountTable.ALL, connection.bytesOf(person));
+	}
+}
@@ -0,0 +1,102 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jena.cassandra.graph;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.util.List;
+
+import org.apache.jena.datatypes.xsd.XSDDatatype;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.sparql.core.Quad;
+import org.apache.thrift.TException;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.Statement;
+
+/**
+ * Test the temporal table statements and values.
+ *
+ */
+public class TemporalTableTest {
+
+	private static Node graph = NodeFactory.createURI("http://exmaple.com/graph");
+	private static Node subject = NodeFactory.createURI("http://exmaple.com/subject");
+	private static Node predicate = NodeFactory.createURI("http://exmaple.com/predicate");
+
+	/* 2025-01-01T00:00:00Z */
+	private static final long NEW_YEAR = 1735689600000L;
+
+	private CassandraConnection connection;
+	private Session session;
+	private PreparedStatement prepared;
+	private TemporalTable table;
+
+	@Before
+	public void setup() {
+		Cluster cluster = mock(Cluster.class);
+		session = mock(Session.class);
+		prepared = mock(PreparedStatement.class);
+		when(cluster.connect(anyString())).thenReturn(session);
+		when(session.prepare(anyString())).thenReturn(prepared);
+		when(prepared.bind(any())).thenAnswer(i -> mock(BoundStatement.class));
+		connection = new CassandraConnection(cluster);
+		table = new TemporalTable(connection);
+	}
+
+	@Test
+	public void createTest() {
+		String[] stmts = table.getCreateTableStatements();
+		assertEquals(1, stmts.length);
+		assertEquals("CREATE TABLE IF NOT EXISTS TEMPORAL (graph blob, predicate blob, obj_time bigint, "
+				+ "subject blob, object blob, PRIMARY KEY ((graph, predicate), obj_time, subject, object))",
+				stmts[0]);
+	}
+
+	@Test
+	public void insertTest() throws TException {
+		Node object = NodeFactory.createLiteral("2025-01-01T00:00:00Z", XSDDatatype.XSDdateTime);
+		List<Statement> stmts = table.getInsertStatements("test", new Quad(graph, subject, predicate, object));
+		assertEquals(1, stmts.size());
+		verify(prepared).bind(connection.bytesOf(graph), connection.bytesOf(predicate), NEW_YEAR,
+				connection.bytesOf(subject), connection.bytesOf(object));
+	}
+
+	@Test
+	public void valueTest() {
+		assertEquals(NEW_YEAR,
+				table.getValue(NodeFactory.createLiteral("2025-01-01T01:00:00+01:00", XSDDatatype.XSDdateTime)));
+		/* no timezone is UTC */
+		assertEquals(NEW_YEAR,
+				table.getValue(NodeFactory.createLiteral("2025-01-01T00:00:00", XSDDatatype.XSDdateTime)));
+		assertEquals(NEW_YEAR + 123,
+				table.getValue(NodeFactory.createLiteral("2025-01-01T00:00:00.1239Z", XSDDatatype.XSDdateTime)));
+		assertEquals(NEW_YEAR, table.getValue(NodeFactory.createLiteral("2025-01-01", XSDDatatype.XSDdate)));
+		assertNull(table.getValue(NodeFactory.createLiteral("2025-01-01")));
+		assertNull(table.getValue(NodeFactory.createLiteral("new year", XSDDatatype.XSDdateTime)));
+		assertNull(table.getValue(NodeFactory.createLiteral("42", XSDDatatype.XSDinteger)));
+		assertNull(table.getValue(subject));
+	}
+}
@@ -0,0 +1,136 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.jena.cassandra.graph;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.datastax.driver.core.Metadata;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.SimpleStatement;
+import com.datastax.driver.core.Statement;
+import com.datastax.driver.core.exceptions.InvalidQueryException;
+
+/**
+ * Test the token range counter against a mock session. The count for each
+ * range is the start token of the range.
+ *
+ */
+public class TokenRangeCounterTest {
+
+	private Session session;
+	private List<TokenRangeScanner.Range> ranges;
+
+	@Before
+	public void setup() {
+		ranges = new ArrayList<TokenRangeScanner.Range>();
+		for (long i = 1; i <= 100; i++) {
+			ranges.add(new TokenRangeScanner.Range(i, i + 1));
+		}
+		session = mock(Session.class);
+		when(session.execute(any(Statement.class))).thenAnswer(invocation -> {
+			Statement stmt = invocation.getArgument(0);
+			long count = Long.parseLong(stmt.toString());
+			if (count < 0) {
+				throw new InvalidQueryException("bad range");
+			}
+			Row row = mock(Row.class);
+			when(row.getLong(0)).thenReturn(count);
+			ResultSet rs = mock(ResultSet.class);
+			when(rs.one()).thenReturn(row);
+			return rs;
+		});
+	}
+
+	private Statement statement(TokenRangeScanner.Range range) {
+		return new SimpleStatement(range == null ? "7" : range.getStart().toString());
+	}
+
+	@Test
+	public void countTest() {
+		TokenRangeCounter counter = new TokenRangeCounter(session, ranges, this::statement,
+				rs -> rs.one().getLong(0), 4);
+		assertEquals(100, counter.getRangesTotal());
+		assertEquals(0.0, counter.getProgress(), 0.0);
+		assertEquals(5050, counter.count());
+		assertEquals(100, counter.getRangesCompleted());
+		assertEquals(5050, counter.getCountSoFar());
+		assertEquals(1.0, counter.getProgress(), 0.0);
+	}
+
+	@Test
+	public void unsplitTest() {
+		TokenRangeCounter counter = new TokenRangeCounter(session, Collections.singletonList(null),
+				this::statement, rs -> rs.one().getLong(0), 4);
+		assertEquals(7, counter.count());
+	}
+
+	@Test(expected = InvalidQueryException.class)
+	public void errorTest() {
+		ranges.set(50, new TokenRangeScanner.Range(-1L, 0L));
+		TokenRangeCounter counter = new TokenRangeCounter(session, ranges, this::statement,
+				rs -> rs.one().getLong(0), 4);
+		counter.count();
+	}
+
+	@Test
+	public void ringTest() throws Exception {
+		/* the counts of the ranges of the ring add up to the unsplit count */
+		List<Long> tokens = Arrays.asList(Long.MIN_VALUE + 1, -3001L, -3000L, -1L, 0L, 1L, 2999L, 3000L, 3001L,
+				Long.MAX_VALUE - 1, Long.MAX_VALUE);
+		when(session.execute(any(Statement.class))).thenAnswer(invocation -> {
+			String[] range = invocation.getArgument(0).toString().split(",");
+			long count = tokens.stream().filter(token -> range.length == 1
+					|| (token > Long.parseLong(range[0]) && token <= Long.parseLong(range[1]))).count();
+			Row row = mock(Row.class);
+			when(row.getLong(0)).thenReturn(count);
+			ResultSet rs = mock(ResultSet.class);
+			when(rs.one()).thenReturn(row);
+			return rs;
+		});
+		Function<TokenRangeScanner.Range, Statement> statements = range -> new SimpleStatement(
+				range == null ? "all" : range.getStart() + "," + range.getEnd());
+
+		long unsplit = new TokenRangeCounter(session, Collections.singletonList(null), statements,
+				rs -> rs.one().getLong(0), 4).count();
+		assertEquals(tokens.size(), unsplit);
+		/* a single node and three nodes, the range of the last wraps around the ring */
+		Metadata single = TokenRangeScannerTest.metadata(TokenRangeScannerTest.tokenRange(null, null));
+		Metadata three = TokenRangeScannerTest.metadata(TokenRangeScannerTest.tokenRange(-3000L, 0L),
+				TokenRangeScannerTest.tokenRange(0L, 3000L), TokenRangeScannerTest.tokenRange(3000L, -3000L));
+		for (Metadata metadata : Arrays.asList(single, three)) {
+			for (int minRanges : Arrays.asList(1, 32)) {
+				TokenRangeCounter counter = new TokenRangeCounter(session,
+						TokenRangeScanner.getRanges(metadata, minRanges), statements, rs -> rs.one().getLong(0), 4);
+				assertEquals(unsplit, counter.count());
+			}
+		}
+	}
+}
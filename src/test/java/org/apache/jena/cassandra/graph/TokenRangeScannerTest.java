@@ -0,0 +1,215 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.jena.cassandra.graph;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.datastax.driver.core.Metadata;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.SimpleStatement;
+import com.datastax.driver.core.Statement;
+import com.datastax.driver.core.Token;
+import com.datastax.driver.core.TokenRange;
+import com.datastax.driver.core.exceptions.InvalidQueryException;
+
+/**
+ * Test the token range scanner against a mock session. Each range returns
+ * ROWS rows whose getLong(0) is the range number times 1000 plus the row
+ * number.
+ *
+ */
+public class TokenRangeScannerTest {
+
+	private static final int RANGES = 20;
+	private static final int ROWS = 50;
+
+	private Session session;
+	private List<TokenRangeScanner.Range> ranges;
+
+	@Before
+	public void setup() {
+		ranges = new ArrayList<TokenRangeScanner.Range>();
+		for (long i = 0; i < RANGES; i++) {
+			ranges.add(new TokenRangeScanner.Range(i, i + 1));
+		}
+		session = mock(Session.class);
+		when(session.execute(any(Statement.class))).thenAnswer(invocation -> {
+			Statement stmt = invocation.getArgument(0);
+			long range = Long.parseLong(stmt.toString());
+			if (range < 0) {
+				throw new InvalidQueryException("bad range");
+			}
+			List<Row> rows = new ArrayList<Row>();
+			for (long r = 0; r < ROWS; r++) {
+				Row row = mock(Row.class);
+				when(row.getLong(0)).thenReturn(range * 1000 + r);
+				rows.add(row);
+			}
+			ResultSet rs = mock(ResultSet.class);
+			when(rs.iterator()).thenReturn(rows.iterator());
+			return rs;
+		});
+	}
+
+	private Statement statement(TokenRangeScanner.Range range) {
+		return new SimpleStatement(range.getStart().toString());
+	}
+
+	@Test
+	public void unorderedTest() {
+		TokenRangeScanner scanner = new TokenRangeScanner(session, ranges, this::statement, 4, false, 10);
+		Set<Long> seen = new HashSet<Long>();
+		while (scanner.hasNext()) {
+			assertTrue(seen.add(scanner.next().getLong(0)));
+		}
+		assertEquals(RANGES * ROWS, seen.size());
+	}
+
+	@Test
+	public void orderedTest() {
+		TokenRangeScanner scanner = new TokenRangeScanner(session, ranges, this::statement, 4, true, 10);
+		long last = -1;
+		int count = 0;
+		while (scanner.hasNext()) {
+			long value = scanner.next().getLong(0);
+			assertTrue("rows should be in range order", value > last);
+			last = value;
+			count++;
+		}
+		assertEquals(RANGES * ROWS, count);
+	}
+
+	@Test
+	public void orderedQueuesTest() {
+		/* the workers wait on full queues so only the ranges in flight have one */
+		TokenRangeScanner scanner = new TokenRangeScanner(session, ranges, this::statement, 2, true, 10);
+		int count = 0;
+		while (scanner.hasNext()) {
+			assertTrue(scanner.getQueueCount() <= 3);
+			scanner.next();
+			count++;
+		}
+		assertEquals(RANGES * ROWS, count);
+		assertEquals(0, scanner.getQueueCount());
+	}
+
+	@Test
+	public void closeTest() {
+		TokenRangeScanner scanner = new TokenRangeScanner(session, ranges, this::statement, 4, false, 10);
+		assertTrue(scanner.hasNext());
+		scanner.next();
+		scanner.close();
+		assertFalse(scanner.hasNext());
+	}
+
+	@Test(expected = InvalidQueryException.class)
+	public void errorTest() {
+		ranges.set(3, new TokenRangeScanner.Range(-1L, 0L));
+		TokenRangeScanner scanner = new TokenRangeScanner(session, ranges, this::statement, 4, true, 10);
+		while (scanner.hasNext()) {
+			scanner.next();
+		}
+	}
+
+	@Test
+	public void emptyTest() {
+		TokenRangeScanner scanner = new TokenRangeScanner(session, new ArrayList<TokenRangeScanner.Range>(),
+				this::statement, 4, false, 10);
+		assertFalse(scanner.hasNext());
+	}
+
+	/*
+	 * Create a driver token range for the Murmur3Partitioner. The driver only
+	 * creates token ranges from the cluster metadata so its package private
+	 * factory is used.
+	 */
+	static TokenRange tokenRange(Long start, Long end) throws Exception {
+		Method getFactory = Token.class.getDeclaredMethod("getFactory", String.class);
+		getFactory.setAccessible(true);
+		Object factory = getFactory.invoke(null, "org.apache.cassandra.dht.Murmur3Partitioner");
+		Class<?> factoryClass = Class.forName("com.datastax.driver.core.Token$Factory");
+		Method fromString = factoryClass.getDeclaredMethod("fromString", String.class);
+		fromString.setAccessible(true);
+		Method minToken = factoryClass.getDeclaredMethod("minToken");
+		minToken.setAccessible(true);
+		Constructor<TokenRange> constructor = TokenRange.class.getDeclaredConstructor(Token.class, Token.class,
+				factoryClass);
+		constructor.setAccessible(true);
+		return constructor.newInstance(
+				start == null ? minToken.invoke(factory) : fromString.invoke(factory, start.toString()),
+				end == null ? minToken.invoke(factory) : fromString.invoke(factory, end.toString()), factory);
+	}
+
+	/*
+	 * Get the metadata of a cluster with token ranges.
+	 */
+	static Metadata metadata(TokenRange... ranges) {
+		Metadata metadata = mock(Metadata.class);
+		when(metadata.getTokenRanges()).thenReturn(new HashSet<TokenRange>(Arrays.asList(ranges)));
+		return metadata;
+	}
+
+	/*
+	 * Check that the ranges cover the whole ring once in order.
+	 */
+	private void assertRing(List<TokenRangeScanner.Range> ranges) {
+		assertFalse(ranges.isEmpty());
+		Object previous = Long.MIN_VALUE;
+		for (TokenRangeScanner.Range range : ranges) {
+			assertEquals(ranges.toString(), previous, range.getStart());
+			assertTrue(ranges.toString(), (Long) range.getEnd() > (Long) range.getStart());
+			previous = range.getEnd();
+		}
+		assertEquals(ranges.toString(), Long.MAX_VALUE, previous);
+	}
+
+	@Test
+	public void getRangesTest() throws Exception {
+		/* three nodes, the range of the last wraps around the ring */
+		Metadata metadata = metadata(tokenRange(-3000L, 0L), tokenRange(0L, 3000L), tokenRange(3000L, -3000L));
+		List<TokenRangeScanner.Range> ranges = TokenRangeScanner.getRanges(metadata, 1);
+		assertRing(ranges);
+		assertEquals(4, ranges.size());
+		assertRing(TokenRangeScanner.getRanges(metadata, 32));
+	}
+
+	@Test
+	public void singleNodeRangesTest() throws Exception {
+		/* the range of a single token is the whole ring */
+		Metadata metadata = metadata(tokenRange(null, null));
+		List<TokenRangeScanner.Range> ranges = TokenRangeScanner.getRanges(metadata, 1);
+		assertRing(ranges);
+		assertEquals(1, ranges.size());
+		assertRing(TokenRangeScanner.getRanges(metadata, 8));
+	}
+}
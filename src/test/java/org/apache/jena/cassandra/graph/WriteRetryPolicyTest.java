@@ -0,0 +1,78 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.jena.cassandra.graph;
+
+import static org.junit.Assert.*;
+
+import java.net.InetSocketAddress;
+
+import org.junit.Test;
+
+import com.datastax.driver.core.ConsistencyLevel;
+import com.datastax.driver.core.SimpleStatement;
+import com.datastax.driver.core.Statement;
+import com.datastax.driver.core.WriteType;
+import com.datastax.driver.core.exceptions.InvalidQueryException;
+import com.datastax.driver.core.exceptions.OverloadedException;
+import com.datastax.driver.core.exceptions.WriteTimeoutException;
+
+/**
+ * Test the write retry policy.
+ *
+ */
+public class WriteRetryPolicyTest {
+
+	private final OverloadedException overloaded = new OverloadedException(new InetSocketAddress(9042), "overloaded");
+	private final WriteTimeoutException timeout = new WriteTimeoutException(ConsistencyLevel.ONE, WriteType.SIMPLE, 0,
+			1);
+
+	@Test
+	public void budgetTest() {
+		WriteRetryPolicy policy = new WriteRetryPolicy(2, 10, 100);
+		Statement stmt = new SimpleStatement("statement");
+		assertTrue(policy.shouldRetry(stmt, overloaded, 0));
+		assertTrue(policy.shouldRetry(stmt, overloaded, 1));
+		assertFalse(policy.shouldRetry(stmt, overloaded, 2));
+		assertFalse(WriteRetryPolicy.NONE.shouldRetry(stmt, overloaded, 0));
+	}
+
+	@Test
+	public void idempotentTest() {
+		WriteRetryPolicy policy = new WriteRetryPolicy();
+		Statement stmt = new SimpleStatement("statement");
+		assertFalse("Timeouts of unknown statements may have been applied", policy.shouldRetry(stmt, timeout, 0));
+		stmt.setIdempotent(true);
+		assertTrue(policy.shouldRetry(stmt, timeout, 0));
+		assertFalse(policy.shouldRetry(stmt, new InvalidQueryException("bad query"), 0));
+	}
+
+	@Test
+	public void delayTest() {
+		WriteRetryPolicy policy = new WriteRetryPolicy(10, 10, 100);
+		for (int i = 0; i < 100; i++) {
+			long delay = policy.getDelayMillis(0);
+			assertTrue(delay >= 0 && delay <= 10);
+			delay = policy.getDelayMillis(2);
+			assertTrue(delay >= 0 && delay <= 40);
+			delay = policy.getDelayMillis(9);
+			assertTrue(delay >= 0 && delay <= 100);
+		}
+		assertEquals(0, WriteRetryPolicy.NONE.getDelayMillis(3));
+	}
+}